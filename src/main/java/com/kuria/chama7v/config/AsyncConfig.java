@@ -1,6 +1,7 @@
 package com.kuria.chama7v.config;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.AsyncConfigurer;
@@ -8,6 +9,8 @@ import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadPoolExecutor;
 
@@ -33,4 +36,23 @@ public class AsyncConfig implements AsyncConfigurer {
         executor.initialize();
         return executor;
     }
-}
\ No newline at end of file
+
+    // Virtual threads for M-Pesa work that blocks briefly (e.g. JDBC) after a Daraja reply,
+    // keeping it off both the Reactor Netty event loop and the Tomcat request threads
+    @Bean(name = "mpesaExecutor", destroyMethod = "close")
+    public ExecutorService mpesaExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("mpesa-", 0).factory());
+    }
+
+    // Writes to server-sent event connections, which can block on a slow client
+    @Bean(name = "eventStreamExecutor", destroyMethod = "close")
+    public ExecutorService eventStreamExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("event-stream-", 0).factory());
+    }
+
+    // Platform threads, one per accrual worker: each holds a pooled connection while it posts a chunk
+    @Bean(name = "accrualExecutor", destroyMethod = "close")
+    public ExecutorService accrualExecutor(@Value("${loan-accrual.workers:4}") int workers) {
+        return Executors.newFixedThreadPool(workers, Thread.ofPlatform().name("loan-accrual-", 0).factory());
+    }
+}
@@ -0,0 +1,21 @@
+package com.kuria.chama7v.config;
+
+import com.kuria.chama7v.exception.DarajaApiException;
+
+import java.util.function.Predicate;
+
+/**
+ * Decides which Daraja errors count against the circuit breaker. Only signs that Safaricom
+ * itself is struggling do: I/O errors, timeouts and 5xx replies. Client errors such as a bad
+ * phone number or an expired token, and the "being processed" reply to an STK query, do not.
+ */
+public class DarajaFailurePredicate implements Predicate<Throwable> {
+
+    @Override
+    public boolean test(Throwable error) {
+        if (error instanceof DarajaApiException apiError) {
+            return apiError.getStatusCode() >= 500 && !apiError.isStillProcessing();
+        }
+        return true;
+    }
+}
@@ -37,6 +37,10 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             "/api/auth/reset-password",
             "/api/auth/verify-reset-token",
             "/api/mpesa/callback",
+            "/api/mpesa/b2c/result",
+            "/api/mpesa/b2c/timeout",
+            "/api/paybill/validation",
+            "/api/paybill/confirmation",
             "/actuator/health",
             "/swagger-ui",
             "/v3/api-docs"
@@ -0,0 +1,103 @@
+package com.kuria.chama7v.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Turns away Daraja callbacks that did not come from Daraja. The callback endpoints are open to
+ * the internet and skip the rate limiter, and the ones guarded here move money in our records,
+ * so a forged call must not reach them. A caller must present the shared token, as a
+ * {@code token} query parameter on the URL registered with Daraja or an {@code X-Callback-Token}
+ * header, and/or come from an allowed address, whichever of the two are configured.
+ * {@link MpesaProperties} adds the token to the STK and B2C URLs it hands Daraja. With neither
+ * configured every guarded callback would be refused, so the application refuses to start.
+ */
+@Component
+@Slf4j
+public class MpesaCallbackGuard extends OncePerRequestFilter {
+
+    private static final List<String> GUARDED_PATHS = List.of(
+            "/api/mpesa/callback",
+            "/api/mpesa/timeout",
+            "/api/mpesa/b2c/result",
+            "/api/mpesa/b2c/timeout",
+            "/api/paybill/confirmation"
+    );
+
+    private final byte[] token;
+    private final Set<String> allowedIps;
+    private final boolean trustForwardedFor;
+
+    public MpesaCallbackGuard(@Value("${mpesa.callback.auth.token:}") String token,
+                              @Value("${mpesa.callback.auth.allowed-ips:}") Set<String> allowedIps,
+                              @Value("${mpesa.callback.auth.trust-forwarded-for:false}") boolean trustForwardedFor) {
+        this.token = token.isBlank() ? null : token.getBytes(StandardCharsets.UTF_8);
+        this.allowedIps = allowedIps.stream().map(String::trim).filter(ip -> !ip.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+        this.trustForwardedFor = trustForwardedFor;
+        if (this.token == null && this.allowedIps.isEmpty()) {
+            throw new IllegalStateException("Set mpesa.callback.auth.token (MPESA_CALLBACK_TOKEN) and/or "
+                    + "mpesa.callback.auth.allowed-ips (MPESA_CALLBACK_ALLOWED_IPS): without either every Daraja "
+                    + "callback to " + GUARDED_PATHS + " would be refused");
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        return GUARDED_PATHS.stream().noneMatch(path::startsWith);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        if (isTrusted(request)) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        log.warn("Refused M-Pesa callback to {} from {}", request.getRequestURI(), clientIp(request));
+        response.setStatus(HttpStatus.FORBIDDEN.value());
+        response.setContentType("application/json");
+        response.getWriter().write("{\"error\":\"Forbidden\"}");
+    }
+
+    private boolean isTrusted(HttpServletRequest request) {
+        if (token != null && !tokenMatches(request)) {
+            return false;
+        }
+        return allowedIps.isEmpty() || allowedIps.contains(clientIp(request));
+    }
+
+    private boolean tokenMatches(HttpServletRequest request) {
+        String presented = request.getHeader("X-Callback-Token");
+        if (presented == null) {
+            presented = request.getParameter("token");
+        }
+        return presented != null && MessageDigest.isEqual(token, presented.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // The forwarded address is only believed behind a proxy that sets it, or anyone could claim one
+    private String clientIp(HttpServletRequest request) {
+        if (trustForwardedFor) {
+            String forwardedFor = request.getHeader("X-Forwarded-For");
+            if (forwardedFor != null && !forwardedFor.isBlank()) {
+                return forwardedFor.split(",")[0].trim();
+            }
+        }
+        return request.getRemoteAddr();
+    }
+}
@@ -0,0 +1,155 @@
+package com.kuria.chama7v.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+@Component
+public class MpesaProperties {
+
+    @Value("${mpesa.environment:sandbox}")
+    private String environment;
+
+    // Sandbox Configuration
+    @Value("${mpesa.sandbox.consumer-key:}")
+    private String sandboxConsumerKey;
+
+    @Value("${mpesa.sandbox.consumer-secret:}")
+    private String sandboxConsumerSecret;
+
+    @Value("${mpesa.sandbox.shortcode:174379}")
+    private String sandboxShortCode;
+
+    @Value("${mpesa.sandbox.passkey:bfb279f9aa9bdbcf158e97dd71a467cd2e0c893059b10f78e6b72ada1ed2c919}")
+    private String sandboxPasskey;
+
+    @Value("${mpesa.sandbox.base-url:https://sandbox.safaricom.co.ke}")
+    private String sandboxBaseUrl;
+
+    // Production Configuration
+    @Value("${mpesa.production.consumer-key:}")
+    private String prodConsumerKey;
+
+    @Value("${mpesa.production.consumer-secret:}")
+    private String prodConsumerSecret;
+
+    @Value("${mpesa.production.shortcode:}")
+    private String prodShortCode;
+
+    @Value("${mpesa.production.passkey:}")
+    private String prodPasskey;
+
+    @Value("${mpesa.production.base-url:https://api.safaricom.co.ke}")
+    private String prodBaseUrl;
+
+    // Callback URL
+    @Value("${mpesa.callback-url:http://localhost:8080/api/mpesa/callback}")
+    private String callbackUrl;
+
+    // Shared secret MpesaCallbackGuard expects on guarded callbacks; added to the URLs we hand Daraja
+    @Value("${mpesa.callback.auth.token:}")
+    private String callbackToken;
+
+    // Paybill validation turns away payments whose account matches no member
+    @Value("${mpesa.c2b.reject-unknown-accounts:true}")
+    private boolean c2bRejectUnknownAccounts;
+
+    // B2C payouts, used for loan disbursement
+    @Value("${mpesa.b2c.shortcode:600000}")
+    private String b2cShortCode;
+
+    @Value("${mpesa.b2c.initiator-name:testapi}")
+    private String b2cInitiatorName;
+
+    // The initiator password encrypted with Safaricom's public certificate
+    @Value("${mpesa.b2c.security-credential:}")
+    private String b2cSecurityCredential;
+
+    @Value("${mpesa.b2c.command-id:BusinessPayment}")
+    private String b2cCommandId;
+
+    @Value("${mpesa.b2c.result-url:http://localhost:8080/api/mpesa/b2c/result}")
+    private String b2cResultUrl;
+
+    @Value("${mpesa.b2c.timeout-url:http://localhost:8080/api/mpesa/b2c/timeout}")
+    private String b2cTimeoutUrl;
+
+    private boolean isSandbox() {
+        return "sandbox".equalsIgnoreCase(environment);
+    }
+
+    public String getEnvironment() {
+        return environment;
+    }
+
+    public String getConsumerKey() {
+        return isSandbox() ? sandboxConsumerKey : prodConsumerKey;
+    }
+
+    public String getConsumerSecret() {
+        return isSandbox() ? sandboxConsumerSecret : prodConsumerSecret;
+    }
+
+    public String getShortCode() {
+        return isSandbox() ? sandboxShortCode : prodShortCode;
+    }
+
+    public String getPasskey() {
+        return isSandbox() ? sandboxPasskey : prodPasskey;
+    }
+
+    public String getBaseUrl() {
+        return isSandbox() ? sandboxBaseUrl : prodBaseUrl;
+    }
+
+    public String getCallbackUrl() {
+        return withCallbackToken(callbackUrl);
+    }
+
+    public boolean isC2bRejectUnknownAccounts() {
+        return c2bRejectUnknownAccounts;
+    }
+
+    public String getB2cShortCode() {
+        return b2cShortCode;
+    }
+
+    public String getB2cInitiatorName() {
+        return b2cInitiatorName;
+    }
+
+    public String getB2cSecurityCredential() {
+        return b2cSecurityCredential;
+    }
+
+    public String getB2cCommandId() {
+        return b2cCommandId;
+    }
+
+    public String getB2cResultUrl() {
+        return withCallbackToken(b2cResultUrl);
+    }
+
+    public String getB2cTimeoutUrl() {
+        return withCallbackToken(b2cTimeoutUrl);
+    }
+
+    // Daraja echoes the URL back unchanged, so the token rides along as a query parameter. A URL
+    // that already carries one is left as configured
+    private String withCallbackToken(String url) {
+        if (callbackToken.isBlank() || url.contains("token=")) {
+            return url;
+        }
+        return url + (url.contains("?") ? "&" : "?") + "token="
+                + URLEncoder.encode(callbackToken, StandardCharsets.UTF_8);
+    }
+
+    // Lipa na M-Pesa password: base64(shortcode + passkey + timestamp)
+    public String getStkPassword(String timestamp) {
+        return Base64.getEncoder().encodeToString(
+                (getShortCode() + getPasskey() + timestamp).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,81 @@
+package com.kuria.chama7v.config;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.boot.autoconfigure.orm.jpa.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Refuses to start against an existing database that is missing columns whose Liquibase
+ * changesets also fill them in for the existing rows. With {@code ddl-auto: update}, Hibernate
+ * would add those columns itself, filled with blanks and with no backfill, and Liquibase would
+ * then fail because the column is already there. The check runs before the EntityManagerFactory
+ * is built, so the schema is untouched when startup fails. A fresh database, where Hibernate
+ * creates the tables, passes.
+ */
+@Component
+@RequiredArgsConstructor
+public class SchemaMigrationCheck implements InitializingBean {
+
+    private static final List<Requirement> REQUIREMENTS = List.of(
+            // Without the backfill every SUCCESS payment recorded by hand would be posted again
+            new Requirement("mpesa_transactions", "posted", "20261018-6"),
+            // Hibernate would add these as NULL, and a null version fails every optimistic-lock update
+            new Requirement("loans", "version", "20261018-20"),
+            new Requirement("members", "version", "20261018-20")
+    );
+
+    private final DataSource dataSource;
+
+    @Override
+    public void afterPropertiesSet() throws SQLException {
+        List<String> missing = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection()) {
+            for (Requirement requirement : REQUIREMENTS) {
+                if (exists(connection, requirement.table(), null) && !exists(connection, requirement.table(), requirement.column())) {
+                    missing.add(requirement.table() + "." + requirement.column() + " (changeset " + requirement.changeSet() + ")");
+                }
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException("Database schema is behind this build, run mvn liquibase:update before starting. Missing: "
+                    + String.join(", ", missing));
+        }
+    }
+
+    // Identifier case differs by database: lower case on MySQL, upper case on H2
+    private static boolean exists(Connection connection, String table, String column) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        String catalog = connection.getCatalog();
+        String schema = connection.getSchema();
+        for (String name : List.of(table, table.toUpperCase())) {
+            try (ResultSet rs = column == null
+                    ? metaData.getTables(catalog, schema, name, new String[]{"TABLE"})
+                    : metaData.getColumns(catalog, schema, name, name.equals(table) ? column : column.toUpperCase())) {
+                if (rs.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private record Requirement(String table, String column, String changeSet) {
+    }
+
+    // Makes the EntityManagerFactory, and with it Hibernate's schema update, wait for the check
+    @Component
+    static class EntityManagerFactoryDependsOnSchemaCheck extends EntityManagerFactoryDependsOnPostProcessor {
+        EntityManagerFactoryDependsOnSchemaCheck() {
+            super(SchemaMigrationCheck.class);
+        }
+    }
+}
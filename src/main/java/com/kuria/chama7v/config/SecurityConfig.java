@@ -1,6 +1,7 @@
 package com.kuria.chama7v.config;
 
 import com.kuria.chama7v.service.impl.MemberDetailsService;
+import jakarta.servlet.DispatcherType;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -57,10 +58,16 @@ public class SecurityConfig {
                 .cors(cors -> cors.configurationSource(corsConfigurationSource()))
                 .csrf(csrf -> csrf.disable())
                 .authorizeHttpRequests(authz -> authz
+                        // Async results (e.g. STK push futures) complete on a request already authorized
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                         .requestMatchers(
                                 "/api/auth/**",
                                 "/api/mpesa/callback/**",
                                 "/api/mpesa/timeout/**",
+                                "/api/mpesa/b2c/result/**",
+                                "/api/mpesa/b2c/timeout/**",
+                                "/api/paybill/validation/**",
+                                "/api/paybill/confirmation/**",
                                 "/actuator/health",
                                 "/v3/api-docs/**",
                                 "/swagger-ui/**",
@@ -70,7 +77,8 @@ public class SecurityConfig {
                         .requestMatchers("/api/members/*/suspend", "/api/members/*/activate")
                         .hasAnyRole("CHAIRPERSON", "SECRETARY", "TREASURER")
                         .requestMatchers("/api/members/*/delete").hasRole("CHAIRPERSON")
-                        .requestMatchers("/api/loans/*/approve", "/api/loans/*/reject")
+                        .requestMatchers("/api/loans/*/approve", "/api/loans/*/reject", "/api/loans/approve-batch",
+                                "/api/loans/*/disbursement/retry")
                         .hasAnyRole("CHAIRPERSON", "TREASURER")
                         .requestMatchers("/api/reports/admin/**")
                         .hasAnyRole("CHAIRPERSON", "SECRETARY", "TREASURER")
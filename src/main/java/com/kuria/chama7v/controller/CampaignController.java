@@ -0,0 +1,49 @@
+package com.kuria.chama7v.controller;
+
+import com.kuria.chama7v.dto.request.CampaignRequest;
+import com.kuria.chama7v.dto.response.ApiResponse;
+import com.kuria.chama7v.dto.response.CampaignResponse;
+import com.kuria.chama7v.service.CampaignService;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/api/campaigns")
+@RequiredArgsConstructor
+@PreAuthorize("hasRole('CHAIRPERSON') or hasRole('TREASURER')")
+public class CampaignController {
+
+    private final CampaignService campaignService;
+
+    // Accepted immediately; pushes go out in the background and progress is read from GET /{id}
+    @PostMapping
+    public ResponseEntity<ApiResponse<CampaignResponse>> createCampaign(@Valid @RequestBody CampaignRequest request) {
+        CampaignResponse campaign = campaignService.createCampaign(request);
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(ApiResponse.success("Campaign created and queued for dispatch", campaign));
+    }
+
+    @GetMapping
+    public ResponseEntity<ApiResponse<Page<CampaignResponse>>> getCampaigns(
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "10") int size) {
+        Page<CampaignResponse> campaigns = campaignService.getCampaigns(PageRequest.of(page, size));
+        return ResponseEntity.ok(ApiResponse.success("Campaigns retrieved successfully", campaigns));
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<ApiResponse<CampaignResponse>> getCampaign(@PathVariable Long id) {
+        return ResponseEntity.ok(ApiResponse.success("Campaign retrieved successfully", campaignService.getCampaign(id)));
+    }
+
+    @PostMapping("/{id}/cancel")
+    public ResponseEntity<ApiResponse<CampaignResponse>> cancelCampaign(@PathVariable Long id) {
+        return ResponseEntity.ok(ApiResponse.success("Campaign cancelled", campaignService.cancelCampaign(id)));
+    }
+}
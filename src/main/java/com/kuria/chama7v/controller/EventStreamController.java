@@ -0,0 +1,31 @@
+package com.kuria.chama7v.controller;
+
+import com.kuria.chama7v.service.MemberEventStream;
+import com.kuria.chama7v.service.MemberService;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+@RestController
+@RequestMapping("/api/events")
+@RequiredArgsConstructor
+public class EventStreamController {
+
+    private final MemberEventStream eventStream;
+    private final MemberService memberService;
+
+    // Streams mpesa-transaction, contribution and loan events for the current member; on the
+    // latter two, clients refresh the dashboard instead of polling it
+    @GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                             HttpServletResponse response) {
+        // Stops nginx-style proxies from buffering the stream
+        response.setHeader("X-Accel-Buffering", "no");
+        return eventStream.connect(memberService.getCurrentMember().getId(), lastEventId);
+    }
+}
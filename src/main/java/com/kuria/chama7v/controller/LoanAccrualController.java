@@ -0,0 +1,39 @@
+package com.kuria.chama7v.controller;
+
+import com.kuria.chama7v.dto.response.ApiResponse;
+import com.kuria.chama7v.dto.response.LoanAccrualRunResponse;
+import com.kuria.chama7v.service.LoanAccrualBatch;
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/loan-accruals")
+@RequiredArgsConstructor
+@PreAuthorize("hasRole('CHAIRPERSON') or hasRole('TREASURER')")
+public class LoanAccrualController {
+
+    private final LoanAccrualBatch loanAccrualBatch;
+
+    @GetMapping
+    public ResponseEntity<ApiResponse<List<LoanAccrualRunResponse>>> getRuns(
+            @RequestParam(defaultValue = "30") int limit) {
+        return ResponseEntity.ok(ApiResponse.success("Loan accrual runs retrieved successfully",
+                loanAccrualBatch.recentRuns(Math.min(limit, 366))));
+    }
+
+    // Runs or resumes a past date in the background; progress shows on the runs above
+    @PostMapping
+    public ResponseEntity<ApiResponse<Void>> startRun(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        loanAccrualBatch.start(date);
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .body(ApiResponse.success("Loan accrual started for " + date));
+    }
+}
@@ -1,7 +1,11 @@
 package com.kuria.chama7v.controller;
 
+import com.kuria.chama7v.dto.request.BatchLoanApprovalRequest;
 import com.kuria.chama7v.dto.request.LoanApplicationRequest;
 import com.kuria.chama7v.dto.response.ApiResponse;
+import com.kuria.chama7v.dto.response.BatchLoanApprovalResponse;
+import com.kuria.chama7v.dto.response.DisbursementResponse;
+import com.kuria.chama7v.dto.response.LoanInstallmentResponse;
 import com.kuria.chama7v.dto.response.LoanResponse;
 import com.kuria.chama7v.service.LoanService;
 import com.kuria.chama7v.service.MemberService;
@@ -17,6 +21,7 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 @RestController
 @RequestMapping("/api/loans")
@@ -87,6 +92,30 @@ public class LoanController {
         return ResponseEntity.ok(ApiResponse.success("Loan approved successfully", loan));
     }
 
+    // Approves every pending loan in the list; the B2C payouts drain in the background
+    @PostMapping("/approve-batch")
+    @PreAuthorize("hasRole('CHAIRPERSON') or hasRole('TREASURER')")
+    public ResponseEntity<ApiResponse<BatchLoanApprovalResponse>> approveLoans(
+            @Valid @RequestBody BatchLoanApprovalRequest request) {
+        BatchLoanApprovalResponse result = loanService.approveLoans(request.getLoanIds());
+        return ResponseEntity.ok(ApiResponse.success(
+                result.getApproved().size() + " loans approved and queued for disbursement", result));
+    }
+
+    @GetMapping("/{id}/disbursement")
+    @PreAuthorize("hasRole('CHAIRPERSON') or hasRole('SECRETARY') or hasRole('TREASURER')")
+    public ResponseEntity<ApiResponse<DisbursementResponse>> getDisbursement(@PathVariable Long id) {
+        DisbursementResponse disbursement = loanService.getDisbursement(id);
+        return ResponseEntity.ok(ApiResponse.success("Disbursement retrieved successfully", disbursement));
+    }
+
+    @PostMapping("/{id}/disbursement/retry")
+    @PreAuthorize("hasRole('CHAIRPERSON') or hasRole('TREASURER')")
+    public ResponseEntity<ApiResponse<DisbursementResponse>> retryDisbursement(@PathVariable Long id) {
+        DisbursementResponse disbursement = loanService.retryDisbursement(id);
+        return ResponseEntity.ok(ApiResponse.success("Disbursement queued for retry", disbursement));
+    }
+
     @PutMapping("/{id}/reject")
     @PreAuthorize("hasRole('CHAIRPERSON') or hasRole('TREASURER')")
     public ResponseEntity<ApiResponse<LoanResponse>> rejectLoan(
@@ -102,6 +131,12 @@ public class LoanController {
         return ResponseEntity.ok(ApiResponse.success("Loan retrieved successfully", loan));
     }
 
+    @GetMapping("/{id}/schedule")
+    public ResponseEntity<ApiResponse<List<LoanInstallmentResponse>>> getLoanSchedule(@PathVariable Long id) {
+        return ResponseEntity.ok(ApiResponse.success("Repayment schedule retrieved successfully",
+                loanService.getLoanSchedule(id)));
+    }
+
     @PostMapping("/{id}/payment")
     public ResponseEntity<ApiResponse<LoanResponse>> makeLoanPayment(
             @PathVariable Long id,
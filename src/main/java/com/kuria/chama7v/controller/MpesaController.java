@@ -1,18 +1,39 @@
 package com.kuria.chama7v.controller;
 
+import com.kuria.chama7v.dto.request.B2CResultRequest;
 import com.kuria.chama7v.dto.request.MpesaCallbackRequest;
 import com.kuria.chama7v.dto.request.MpesaStkRequest;
 import com.kuria.chama7v.dto.response.ApiResponse;
+import com.kuria.chama7v.dto.response.CallbackJournalStatusResponse;
 import com.kuria.chama7v.dto.response.MpesaResponse;
+import com.kuria.chama7v.dto.response.MpesaTokenStatusResponse;
+import com.kuria.chama7v.dto.response.ReconciliationRunResponse;
+import com.kuria.chama7v.dto.response.UnassignedPaymentResponse;
+import com.kuria.chama7v.exception.DarajaUnavailableException;
+import com.kuria.chama7v.service.MemberService;
+import com.kuria.chama7v.service.MpesaCallbackJournal;
+import com.kuria.chama7v.service.MpesaCallbackReplayService;
+import com.kuria.chama7v.service.MpesaReconciliationService;
 import com.kuria.chama7v.service.MpesaService;
+import com.kuria.chama7v.service.MpesaTokenManager;
+import com.kuria.chama7v.service.PaymentAssignmentService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDateTime;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/api/mpesa")
@@ -22,22 +43,35 @@ import java.util.Map;
 public class MpesaController {
 
     private final MpesaService mpesaService;
+    private final MemberService memberService;
+    private final MpesaTokenManager tokenManager;
+    private final MpesaCallbackJournal callbackJournal;
+    private final MpesaCallbackReplayService callbackReplayService;
+    private final MpesaReconciliationService reconciliationService;
+    private final PaymentAssignmentService paymentAssignmentService;
 
+    // Returns immediately; the servlet thread is released while Daraja is being called
     @PostMapping("/stk-push")
-    public ResponseEntity<ApiResponse<MpesaResponse>> initiateSTKPush(
+    public CompletableFuture<ResponseEntity<ApiResponse<MpesaResponse>>> initiateSTKPush(
             @Valid @RequestBody MpesaStkRequest request) {
-        try {
-            log.info("STK Push request received for phone: {}", request.getPhoneNumber());
-            MpesaResponse response = mpesaService.initiateSTKPush(request);
-            return ResponseEntity.status(HttpStatus.CREATED)
-                    .body(ApiResponse.success("STK Push initiated successfully", response));
-        } catch (Exception e) {
-            log.error("Error initiating STK Push: ", e);
-            return ResponseEntity.badRequest()
-                    .body(ApiResponse.error("Failed to initiate payment: " + e.getMessage()));
-        }
+        log.info("STK Push request received for phone: {}", request.getPhoneNumber());
+        request.setMemberId(memberService.getCurrentMember().getId());
+        return mpesaService.initiateSTKPushAsync(request)
+                .thenApply(response -> ResponseEntity.status(HttpStatus.CREATED)
+                        .body(ApiResponse.success("STK Push initiated successfully", response)))
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof DarajaUnavailableException) {
+                        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                                .body(ApiResponse.error(cause.getMessage()));
+                    }
+                    log.error("Error initiating STK Push: ", cause);
+                    return ResponseEntity.badRequest()
+                            .body(ApiResponse.error("Failed to initiate payment: " + cause.getMessage()));
+                });
     }
 
+    // Acknowledged as soon as the callback is queued; see MpesaCallbackQueue
     @PostMapping("/callback")
     public ResponseEntity<String> handleCallback(@RequestBody MpesaCallbackRequest callbackRequest) {
         try {
@@ -50,23 +84,114 @@ public class MpesaController {
         }
     }
 
+    // Timed-out requests are handed to the reconciliation engine to query their final status
     @PostMapping("/timeout")
     public ResponseEntity<String> handleTimeout(@RequestBody Map<String, Object> timeoutRequest) {
         log.warn("M-Pesa timeout received: {}", timeoutRequest);
+        Set<String> checkoutRequestIds = new HashSet<>();
+        collectCheckoutRequestIds(timeoutRequest, checkoutRequestIds);
+        reconciliationService.reconcileAsync(checkoutRequestIds);
         return ResponseEntity.ok("OK");
     }
 
-    // Test endpoint to verify M-Pesa connectivity
+    // B2C payout results for loan disbursements, applied in the background
+    @PostMapping("/b2c/result")
+    public ResponseEntity<String> handleB2CResult(@RequestBody B2CResultRequest resultRequest) {
+        try {
+            log.info("M-Pesa B2C result received");
+            mpesaService.handleB2CResult(resultRequest);
+            return ResponseEntity.ok("OK");
+        } catch (Exception e) {
+            log.error("Error processing M-Pesa B2C result: ", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("ERROR");
+        }
+    }
+
+    @PostMapping("/b2c/timeout")
+    public ResponseEntity<String> handleB2CTimeout(@RequestBody B2CResultRequest timeoutRequest) {
+        try {
+            log.warn("M-Pesa B2C queue timeout received: {}", timeoutRequest);
+            mpesaService.handleB2CTimeout(timeoutRequest);
+            return ResponseEntity.ok("OK");
+        } catch (Exception e) {
+            log.error("Error processing M-Pesa B2C timeout: ", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("ERROR");
+        }
+    }
+
+    // Test endpoint to verify M-Pesa connectivity and report the token cache state
     @GetMapping("/test-token")
-    public ResponseEntity<ApiResponse<String>> testAccessToken() {
+    public ResponseEntity<ApiResponse<MpesaTokenStatusResponse>> testAccessToken() {
         try {
-            String token = mpesaService.getAccessToken();
+            mpesaService.getAccessToken();
             return ResponseEntity.ok(ApiResponse.success("Access token obtained successfully",
-                    token.substring(0, Math.min(20, token.length())) + "..."));
+                    tokenManager.getStatus()));
+        } catch (DarajaUnavailableException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(ApiResponse.error(e.getMessage()));
         } catch (Exception e) {
             log.error("Failed to get access token: ", e);
             return ResponseEntity.badRequest()
                     .body(ApiResponse.error("Failed to get access token: " + e.getMessage()));
         }
     }
-}
\ No newline at end of file
+
+    @GetMapping("/admin/callback-journal")
+    @PreAuthorize("hasRole('CHAIRPERSON') or hasRole('TREASURER')")
+    public ResponseEntity<ApiResponse<CallbackJournalStatusResponse>> getCallbackJournalStatus() {
+        return ResponseEntity.ok(ApiResponse.success("Callback journal status retrieved successfully",
+                callbackJournal.getStatus()));
+    }
+
+    // Re-applies every callback journaled in the range, e.g. after restoring the database
+    @PostMapping("/admin/callback-journal/replay")
+    @PreAuthorize("hasRole('CHAIRPERSON') or hasRole('TREASURER')")
+    public ResponseEntity<ApiResponse<Integer>> replayCallbacks(@RequestParam String from,
+                                                                @RequestParam String to) {
+        int replayed = callbackReplayService.replayRange(LocalDateTime.parse(from), LocalDateTime.parse(to));
+        return ResponseEntity.ok(ApiResponse.success("Callbacks queued for replay", replayed));
+    }
+
+    @PostMapping("/admin/reconcile")
+    @PreAuthorize("hasRole('CHAIRPERSON') or hasRole('TREASURER')")
+    public ResponseEntity<ApiResponse<ReconciliationRunResponse>> reconcilePending() {
+        ReconciliationRunResponse run = reconciliationService.reconcileStale();
+        String message = run.isSkipped() ? "A reconciliation run is already in progress" : "Reconciliation run completed";
+        return ResponseEntity.ok(ApiResponse.success(message, run));
+    }
+
+    // Settled payments that matched no member and are held back from posting
+    @GetMapping("/admin/transactions/unassigned")
+    @PreAuthorize("hasRole('CHAIRPERSON') or hasRole('TREASURER')")
+    public ResponseEntity<ApiResponse<Page<UnassignedPaymentResponse>>> getUnassignedPayments(
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size) {
+        return ResponseEntity.ok(ApiResponse.success("Unassigned payments retrieved successfully",
+                paymentAssignmentService.getUnassigned(PageRequest.of(page, size))));
+    }
+
+    @PutMapping("/admin/transactions/{id}/member")
+    @PreAuthorize("hasRole('CHAIRPERSON') or hasRole('TREASURER')")
+    public ResponseEntity<ApiResponse<Void>> assignPayment(@PathVariable Long id, @RequestParam Long memberId,
+                                                             Authentication authentication) {
+        paymentAssignmentService.assignMember(id, memberId, authentication.getName());
+        return ResponseEntity.ok(ApiResponse.success("Payment assigned to member"));
+    }
+
+    // Timeout payloads vary by API, so look for CheckoutRequestID at any depth
+    private void collectCheckoutRequestIds(Object node, Set<String> checkoutRequestIds) {
+        if (node instanceof Map<?, ?> map) {
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if ("CheckoutRequestID".equals(entry.getKey()) && entry.getValue() instanceof String id && !id.isBlank()) {
+                    checkoutRequestIds.add(id);
+                } else {
+                    collectCheckoutRequestIds(entry.getValue(), checkoutRequestIds);
+                }
+            }
+        } else if (node instanceof Iterable<?> items) {
+            for (Object item : items) {
+                collectCheckoutRequestIds(item, checkoutRequestIds);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.kuria.chama7v.controller;
+
+import com.kuria.chama7v.dto.request.C2BPaymentRequest;
+import com.kuria.chama7v.dto.response.C2BResponse;
+import com.kuria.chama7v.service.MpesaService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+// C2B URLs for payments made straight to the Paybill. They sit outside /api/mpesa because
+// Daraja refuses to register C2B URLs that contain "mpesa".
+@RestController
+@RequestMapping("/api/paybill")
+@RequiredArgsConstructor
+@Slf4j
+public class PaybillController {
+
+    private final MpesaService mpesaService;
+
+    // Any non-200 reply makes Daraja apply the default ResponseType set when the URLs were registered
+    @PostMapping("/validation")
+    public ResponseEntity<C2BResponse> validate(@RequestBody C2BPaymentRequest request) {
+        try {
+            return ResponseEntity.ok(mpesaService.validateC2BPayment(request));
+        } catch (Exception e) {
+            log.error("Error validating Paybill payment {}: ", request.getTransId(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    // Acknowledged as soon as the payment is journaled and queued; see C2BConfirmationQueue
+    @PostMapping("/confirmation")
+    public ResponseEntity<C2BResponse> confirm(@RequestBody C2BPaymentRequest request) {
+        try {
+            log.info("Paybill confirmation received: {}", request.getTransId());
+            mpesaService.handleC2BConfirmation(request);
+            return ResponseEntity.ok(C2BResponse.accepted());
+        } catch (Exception e) {
+            log.error("Error processing Paybill confirmation: ", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.kuria.chama7v.controller;
+
+import com.kuria.chama7v.dto.request.StandingOrderRequest;
+import com.kuria.chama7v.dto.response.ApiResponse;
+import com.kuria.chama7v.dto.response.StandingOrderDayStats;
+import com.kuria.chama7v.dto.response.StandingOrderResponse;
+import com.kuria.chama7v.service.StandingOrderService;
+import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/standing-orders")
+@RequiredArgsConstructor
+public class StandingOrderController {
+
+    private final StandingOrderService standingOrderService;
+
+    @PostMapping
+    public ResponseEntity<ApiResponse<StandingOrderResponse>> createStandingOrder(
+            @Valid @RequestBody StandingOrderRequest request) {
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .body(ApiResponse.success("Standing order created", standingOrderService.createStandingOrder(request)));
+    }
+
+    @GetMapping
+    public ResponseEntity<ApiResponse<List<StandingOrderResponse>>> getMyStandingOrders() {
+        return ResponseEntity.ok(ApiResponse.success("Standing orders retrieved successfully",
+                standingOrderService.getMyStandingOrders()));
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<ApiResponse<StandingOrderResponse>> cancelStandingOrder(@PathVariable Long id) {
+        return ResponseEntity.ok(ApiResponse.success("Standing order cancelled", standingOrderService.cancelStandingOrder(id)));
+    }
+
+    // Planned versus sent for the day, overall and per hour of the collection window
+    @GetMapping("/admin/stats")
+    @PreAuthorize("hasRole('CHAIRPERSON') or hasRole('TREASURER')")
+    public ResponseEntity<ApiResponse<StandingOrderDayStats>> getDayStats(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date) {
+        return ResponseEntity.ok(ApiResponse.success("Standing order statistics retrieved successfully",
+                standingOrderService.getDayStats(date != null ? date : LocalDate.now())));
+    }
+}
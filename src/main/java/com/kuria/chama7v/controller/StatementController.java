@@ -0,0 +1,78 @@
+package com.kuria.chama7v.controller;
+
+import com.kuria.chama7v.dto.response.ApiResponse;
+import com.kuria.chama7v.dto.response.StatementDiscrepancyResponse;
+import com.kuria.chama7v.dto.response.StatementReconciliationResponse;
+import com.kuria.chama7v.entity.enums.DiscrepancyType;
+import com.kuria.chama7v.service.StatementReconciliationService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Monthly reconciliation of the Paybill statement export against our records
+@RestController
+@RequestMapping("/api/mpesa/admin/statements")
+@RequiredArgsConstructor
+@Slf4j
+@CrossOrigin(origins = "*")
+@PreAuthorize("hasRole('CHAIRPERSON') or hasRole('TREASURER')")
+public class StatementController {
+
+    private final StatementReconciliationService reconciliationService;
+
+    // The upload is spooled to disk by the servlet container and read from there as a stream
+    @PostMapping(consumes = "multipart/form-data")
+    public ResponseEntity<ApiResponse<StatementReconciliationResponse>> uploadStatement(
+            @RequestParam("file") MultipartFile file, Authentication authentication) throws IOException {
+        if (file.isEmpty()) {
+            throw new IllegalArgumentException("Statement file is empty");
+        }
+        try (InputStream in = file.getInputStream()) {
+            StatementReconciliationResponse response = reconciliationService.reconcile(
+                    in, file.getOriginalFilename(), authentication.getName());
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .body(ApiResponse.success("Statement reconciled successfully", response));
+        }
+    }
+
+    @GetMapping
+    public ResponseEntity<ApiResponse<Page<StatementReconciliationResponse>>> getReconciliations(
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "20") int size) {
+        return ResponseEntity.ok(ApiResponse.success("Statement reconciliations retrieved successfully",
+                reconciliationService.getReconciliations(PageRequest.of(page, size))));
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<ApiResponse<StatementReconciliationResponse>> getReconciliation(@PathVariable Long id) {
+        return ResponseEntity.ok(ApiResponse.success("Statement reconciliation retrieved successfully",
+                reconciliationService.getReconciliation(id)));
+    }
+
+    @GetMapping("/{id}/discrepancies")
+    public ResponseEntity<ApiResponse<Page<StatementDiscrepancyResponse>>> getDiscrepancies(
+            @PathVariable Long id,
+            @RequestParam DiscrepancyType type,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "50") int size) {
+        return ResponseEntity.ok(ApiResponse.success("Discrepancies retrieved successfully",
+                reconciliationService.getDiscrepancies(id, type, PageRequest.of(page, size))));
+    }
+
+    // Records the statement credits missing from our records as M-Pesa payments
+    @PostMapping("/{id}/post-missing")
+    public ResponseEntity<ApiResponse<StatementReconciliationResponse>> postMissing(@PathVariable Long id) {
+        return ResponseEntity.ok(ApiResponse.success("Missing payments recorded",
+                reconciliationService.postMissing(id)));
+    }
+}
@@ -0,0 +1,13 @@
+package com.kuria.chama7v.dto.daraja;
+
+/**
+ * The per-payout fields of a B2C payment request. InitiatorName, SecurityCredential, CommandID,
+ * PartyA and the result and timeout URLs are fixed, so DarajaCodec writes them from a
+ * pre-serialized fragment.
+ */
+public record B2CPaymentRequest(String originatorConversationId,
+                                long amount,
+                                String phoneNumber,
+                                String remarks,
+                                String occasion) {
+}
@@ -0,0 +1,11 @@
+package com.kuria.chama7v.dto.daraja;
+
+public record B2CPaymentResponse(String conversationId,
+                                 String originatorConversationId,
+                                 String responseCode,
+                                 String responseDescription) {
+
+    public boolean isAccepted() {
+        return "0".equals(responseCode);
+    }
+}
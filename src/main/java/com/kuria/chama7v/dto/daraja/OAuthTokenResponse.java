@@ -0,0 +1,5 @@
+package com.kuria.chama7v.dto.daraja;
+
+// expires_in is sent as a string of seconds
+public record OAuthTokenResponse(String accessToken, String expiresIn) {
+}
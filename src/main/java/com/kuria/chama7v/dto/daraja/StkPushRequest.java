@@ -0,0 +1,14 @@
+package com.kuria.chama7v.dto.daraja;
+
+/**
+ * The per-push fields of an STK push. BusinessShortCode, TransactionType, PartyB and CallBackURL
+ * are the same on every push, so DarajaCodec writes them from a pre-serialized fragment; PartyA
+ * is always the paying phone number.
+ */
+public record StkPushRequest(String password,
+                             String timestamp,
+                             long amount,
+                             String phoneNumber,
+                             String accountReference,
+                             String transactionDesc) {
+}
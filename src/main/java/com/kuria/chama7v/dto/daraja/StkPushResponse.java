@@ -0,0 +1,12 @@
+package com.kuria.chama7v.dto.daraja;
+
+public record StkPushResponse(String merchantRequestId,
+                              String checkoutRequestId,
+                              String responseCode,
+                              String responseDescription,
+                              String customerMessage) {
+
+    public boolean isAccepted() {
+        return "0".equals(responseCode);
+    }
+}
@@ -0,0 +1,7 @@
+package com.kuria.chama7v.dto.daraja;
+
+// BusinessShortCode is added by DarajaCodec
+public record StkQueryRequest(String password,
+                              String timestamp,
+                              String checkoutRequestId) {
+}
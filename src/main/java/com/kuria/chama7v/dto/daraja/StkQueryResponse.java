@@ -0,0 +1,14 @@
+package com.kuria.chama7v.dto.daraja;
+
+// ResultCode is absent while the customer has not answered the prompt
+public record StkQueryResponse(String responseCode,
+                               String responseDescription,
+                               String merchantRequestId,
+                               String checkoutRequestId,
+                               String resultCode,
+                               String resultDesc) {
+
+    public boolean hasResult() {
+        return "0".equals(responseCode) && resultCode != null;
+    }
+}
@@ -0,0 +1,56 @@
+package com.kuria.chama7v.dto.request;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+// Body Daraja posts to the B2C ResultURL and QueueTimeOutURL
+@Data
+public class B2CResultRequest {
+    @JsonProperty("Result")
+    private Result result;
+
+    @Data
+    public static class Result {
+        @JsonProperty("ResultType")
+        private Integer resultType;
+        @JsonProperty("ResultCode")
+        private Integer resultCode;
+        @JsonProperty("ResultDesc")
+        private String resultDesc;
+        @JsonProperty("OriginatorConversationID")
+        private String originatorConversationID;
+        @JsonProperty("ConversationID")
+        private String conversationID;
+        @JsonProperty("TransactionID")
+        private String transactionID;
+        @JsonProperty("ResultParameters")
+        private ResultParameters resultParameters;
+
+        // Value of a result parameter such as TransactionReceipt, or null when absent
+        public Object findResultParameter(String key) {
+            if (resultParameters == null || resultParameters.getResultParameter() == null) {
+                return null;
+            }
+            for (ResultParameter parameter : resultParameters.getResultParameter()) {
+                if (key.equals(parameter.getKey())) {
+                    return parameter.getValue();
+                }
+            }
+            return null;
+        }
+    }
+
+    @Data
+    public static class ResultParameters {
+        @JsonProperty("ResultParameter")
+        private ResultParameter[] resultParameter;
+    }
+
+    @Data
+    public static class ResultParameter {
+        @JsonProperty("Key")
+        private String key;
+        @JsonProperty("Value")
+        private Object value;
+    }
+}
@@ -0,0 +1,14 @@
+package com.kuria.chama7v.dto.request;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BatchLoanApprovalRequest {
+    @NotEmpty(message = "At least one loan is required")
+    @Size(max = 500, message = "At most 500 loans can be approved at once")
+    private List<Long> loanIds;
+}
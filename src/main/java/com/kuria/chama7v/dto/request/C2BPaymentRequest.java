@@ -0,0 +1,39 @@
+package com.kuria.chama7v.dto.request;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+// Body Daraja posts to the C2B ValidationURL and ConfirmationURL for Paybill payments
+@Data
+public class C2BPaymentRequest {
+    @JsonProperty("TransactionType")
+    private String transactionType;
+    @JsonProperty("TransID")
+    private String transId;
+    @JsonProperty("TransTime")
+    private String transTime;
+    @JsonProperty("TransAmount")
+    private BigDecimal transAmount;
+    @JsonProperty("BusinessShortCode")
+    private String businessShortCode;
+    // The account number the payer typed: a member number for contributions
+    @JsonProperty("BillRefNumber")
+    private String billRefNumber;
+    @JsonProperty("InvoiceNumber")
+    private String invoiceNumber;
+    @JsonProperty("OrgAccountBalance")
+    private String orgAccountBalance;
+    @JsonProperty("ThirdPartyTransID")
+    private String thirdPartyTransId;
+    // Masked or hashed on most shortcodes, so only sometimes usable to find the member
+    @JsonProperty("MSISDN")
+    private String msisdn;
+    @JsonProperty("FirstName")
+    private String firstName;
+    @JsonProperty("MiddleName")
+    private String middleName;
+    @JsonProperty("LastName")
+    private String lastName;
+}
@@ -0,0 +1,37 @@
+package com.kuria.chama7v.dto.request;
+
+import com.kuria.chama7v.entity.enums.CampaignTarget;
+import com.kuria.chama7v.entity.enums.MemberRole;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+@Data
+public class CampaignRequest {
+    @NotBlank(message = "Campaign name is required")
+    private String name;
+
+    @NotNull(message = "Amount is required")
+    @DecimalMin(value = "1.00", message = "Amount must be at least 1.00")
+    private BigDecimal amount;
+
+    @NotBlank(message = "Account reference is required")
+    @Size(max = 12, message = "Account reference cannot exceed 12 characters")
+    private String accountReference;
+
+    private String transactionDesc;
+
+    private String transactionType = "CONTRIBUTION"; // CONTRIBUTION, LOAN_PAYMENT
+
+    @NotNull(message = "Target is required")
+    private CampaignTarget target;
+
+    private MemberRole role; // for target ROLE
+
+    private List<Long> memberIds; // for target MEMBERS
+}
@@ -1,33 +1,58 @@
 package com.kuria.chama7v.dto.request;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
 
+// Field names follow the Daraja callback payload, which is PascalCase apart from stkCallback
 @Data
 public class MpesaCallbackRequest {
+    @JsonProperty("Body")
     private Body body;
 
     @Data
     public static class Body {
+        @JsonProperty("stkCallback")
         private StkCallback stkCallback;
     }
 
     @Data
     public static class StkCallback {
+        @JsonProperty("MerchantRequestID")
         private String merchantRequestID;
+        @JsonProperty("CheckoutRequestID")
         private String checkoutRequestID;
+        @JsonProperty("ResultCode")
         private Integer resultCode;
+        @JsonProperty("ResultDesc")
         private String resultDesc;
+        @JsonProperty("CallbackMetadata")
         private CallbackMetadata callbackMetadata;
+
+        // Value of a CallbackMetadata item such as MpesaReceiptNumber, or null when absent
+        public Object findMetadataValue(String name) {
+            if (callbackMetadata == null || callbackMetadata.getItem() == null) {
+                return null;
+            }
+            for (Item item : callbackMetadata.getItem()) {
+                if (name.equals(item.getName())) {
+                    return item.getValue();
+                }
+            }
+            return null;
+        }
     }
 
     @Data
     public static class CallbackMetadata {
+        @JsonProperty("Item")
         private Item[] item;
     }
 
     @Data
     public static class Item {
+        @JsonProperty("Name")
         private String name;
+        @JsonProperty("Value")
         private Object value;
     }
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package com.kuria.chama7v.dto.request;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.kuria.chama7v.entity.enums.DarajaPriority;
 import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
@@ -7,6 +9,7 @@ import jakarta.validation.constraints.Pattern;
 import lombok.Data;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 
 @Data
 public class MpesaStkRequest {
@@ -25,4 +28,17 @@ public class MpesaStkRequest {
     private String transactionDesc;
 
     private String transactionType; // CONTRIBUTION, LOAN_PAYMENT
+
+    // Set server-side from the authenticated member, never from the request body
+    @JsonIgnore
+    private Long memberId;
+
+    // Background senders such as campaigns lower this so member-initiated pushes go first
+    @JsonIgnore
+    private DarajaPriority priority = DarajaPriority.INTERACTIVE;
+
+    // Set by background senders: give up rather than wait longer than this for a token or rate
+    // limit slot. It never cuts short a push already sent
+    @JsonIgnore
+    private Duration timeout;
 }
\ No newline at end of file
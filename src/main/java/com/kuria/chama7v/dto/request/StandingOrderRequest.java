@@ -0,0 +1,23 @@
+package com.kuria.chama7v.dto.request;
+
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.Data;
+
+import java.math.BigDecimal;
+
+@Data
+public class StandingOrderRequest {
+    @NotNull(message = "Amount is required")
+    @DecimalMin(value = "1.00", message = "Amount must be at least 1.00")
+    private BigDecimal amount;
+
+    @NotNull(message = "Day of month is required")
+    @Min(value = 1, message = "Day of month must be between 1 and 31")
+    @Max(value = 31, message = "Day of month must be between 1 and 31")
+    private Integer dayOfMonth;
+
+    private String phoneNumber; // defaults to the member's own phone
+}
@@ -0,0 +1,15 @@
+package com.kuria.chama7v.dto.response;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+public class BatchLoanApprovalResponse {
+    private List<LoanResponse> approved = new ArrayList<>();
+    // Loan id to the reason it was not approved
+    private Map<Long, String> skipped = new LinkedHashMap<>();
+}
@@ -0,0 +1,28 @@
+package com.kuria.chama7v.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Reply Daraja expects from the C2B ValidationURL and ConfirmationURL
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class C2BResponse {
+    public static final String INVALID_ACCOUNT = "C2B00012";
+    public static final String INVALID_AMOUNT = "C2B00013";
+
+    @JsonProperty("ResultCode")
+    private String resultCode;
+    @JsonProperty("ResultDesc")
+    private String resultDesc;
+
+    public static C2BResponse accepted() {
+        return new C2BResponse("0", "Accepted");
+    }
+
+    public static C2BResponse rejected(String resultCode) {
+        return new C2BResponse(resultCode, "Rejected");
+    }
+}
@@ -0,0 +1,15 @@
+package com.kuria.chama7v.dto.response;
+
+import lombok.Data;
+
+@Data
+public class CallbackJournalStatusResponse {
+    private boolean enabled;
+    private String directory;
+    private int segments;
+    private String activeSegment;
+    private long activeSegmentBytesUsed;
+    private int pendingCallbacks;
+    private long lastSequence;
+    private long durableSequence;
+}
@@ -0,0 +1,29 @@
+package com.kuria.chama7v.dto.response;
+
+import com.kuria.chama7v.entity.enums.CampaignStatus;
+import com.kuria.chama7v.entity.enums.CampaignTarget;
+import com.kuria.chama7v.entity.enums.MemberRole;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Data
+public class CampaignResponse {
+    private Long id;
+    private String name;
+    private BigDecimal amount;
+    private String accountReference;
+    private String transactionType;
+    private CampaignTarget target;
+    private MemberRole role;
+    private CampaignStatus status;
+    private String createdBy;
+    private int totalRecipients;
+    private int sent;
+    private int accepted;
+    private int paid;
+    private int failed;
+    private LocalDateTime createdAt;
+    private LocalDateTime dispatchedAt;
+}
@@ -0,0 +1,22 @@
+package com.kuria.chama7v.dto.response;
+
+import com.kuria.chama7v.entity.enums.DisbursementStatus;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Data
+public class DisbursementResponse {
+    private Long id;
+    private Long loanId;
+    private String loanNumber;
+    private String phoneNumber;
+    private BigDecimal amount;
+    private DisbursementStatus status;
+    private String transactionReceipt;
+    private String resultDesc;
+    private int attempts;
+    private LocalDateTime createdAt;
+    private LocalDateTime completedAt;
+}
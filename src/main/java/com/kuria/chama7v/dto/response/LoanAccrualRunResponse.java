@@ -0,0 +1,21 @@
+package com.kuria.chama7v.dto.response;
+
+import com.kuria.chama7v.entity.enums.AccrualRunStatus;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+@Data
+public class LoanAccrualRunResponse {
+    private LocalDate businessDate;
+    private AccrualRunStatus status;
+    private int chunksDone;
+    private long loansProcessed;
+    private BigDecimal interestAccrued;
+    private BigDecimal penaltiesCharged;
+    private LocalDateTime startedAt;
+    private LocalDateTime heartbeatAt;
+    private LocalDateTime finishedAt;
+}
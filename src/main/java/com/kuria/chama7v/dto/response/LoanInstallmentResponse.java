@@ -0,0 +1,22 @@
+package com.kuria.chama7v.dto.response;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+@Data
+public class LoanInstallmentResponse {
+    private int installmentNumber;
+    private LocalDate dueDate;
+    private BigDecimal principalAmount;
+    private BigDecimal interestAmount;
+    private BigDecimal amountDue;
+    private BigDecimal closingBalance;
+    private BigDecimal penaltyAmount;
+    private BigDecimal amountPaid;
+    private BigDecimal outstanding;
+    private boolean settled;
+    private LocalDate settledDate;
+    private boolean overdue;
+}
@@ -23,5 +23,6 @@ public class LoanResponse {
     private String purpose;
     private String approvedBy;
     private LocalDateTime approvalDate;
+    private LocalDateTime disbursementDate;
     private LocalDateTime applicationDate;
 }
\ No newline at end of file
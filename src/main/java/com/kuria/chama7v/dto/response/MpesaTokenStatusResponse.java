@@ -0,0 +1,19 @@
+package com.kuria.chama7v.dto.response;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+public class MpesaTokenStatusResponse {
+    private boolean cached;
+    private String tokenPreview;
+    private LocalDateTime expiresAt;
+    private Long secondsRemaining;
+    private boolean refreshInFlight;
+    private LocalDateTime lastRefreshAt;
+    private Long hits;
+    private Long misses;
+    private Long refreshes;
+    private Long refreshFailures;
+}
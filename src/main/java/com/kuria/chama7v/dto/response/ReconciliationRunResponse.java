@@ -0,0 +1,16 @@
+package com.kuria.chama7v.dto.response;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+public class ReconciliationRunResponse {
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private int queried;
+    private int resolved;
+    private int stillPending;
+    private int errors;
+    private boolean skipped;
+}
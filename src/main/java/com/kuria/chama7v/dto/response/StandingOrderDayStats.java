@@ -0,0 +1,24 @@
+package com.kuria.chama7v.dto.response;
+
+import com.kuria.chama7v.entity.enums.StandingOrderRunStatus;
+import lombok.Data;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+public class StandingOrderDayStats {
+    private LocalDate date;
+    private long planned;
+    private long sent;
+    private Map<StandingOrderRunStatus, Long> byStatus = new EnumMap<>(StandingOrderRunStatus.class);
+    private List<HourStats> byHour = new ArrayList<>();
+    private int waitingOnWheel;
+
+    // Runs whose slot falls in the hour, and how many of those have been pushed at least once
+    public record HourStats(int hour, long planned, long sent) {
+    }
+}
@@ -0,0 +1,21 @@
+package com.kuria.chama7v.dto.response;
+
+import com.kuria.chama7v.entity.enums.StandingOrderRunStatus;
+import com.kuria.chama7v.entity.enums.StandingOrderStatus;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+@Data
+public class StandingOrderResponse {
+    private Long id;
+    private BigDecimal amount;
+    private int dayOfMonth;
+    private String phoneNumber;
+    private StandingOrderStatus status;
+    private LocalDateTime createdAt;
+    private LocalDate lastRunDate;
+    private StandingOrderRunStatus lastRunStatus;
+}
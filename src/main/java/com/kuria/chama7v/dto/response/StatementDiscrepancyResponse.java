@@ -0,0 +1,20 @@
+package com.kuria.chama7v.dto.response;
+
+import com.kuria.chama7v.entity.enums.DiscrepancyType;
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Data
+public class StatementDiscrepancyResponse {
+    private Long id;
+    private DiscrepancyType type;
+    private String receiptNumber;
+    private LocalDateTime transactionTime;
+    private BigDecimal statementAmount;
+    private BigDecimal recordedAmount;
+    private String accountReference;
+    private String otherParty;
+    private boolean posted;
+}
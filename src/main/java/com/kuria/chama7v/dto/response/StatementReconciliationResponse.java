@@ -0,0 +1,23 @@
+package com.kuria.chama7v.dto.response;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+public class StatementReconciliationResponse {
+    private Long id;
+    private String fileName;
+    private LocalDateTime periodStart;
+    private LocalDateTime periodEnd;
+    private long statementRows;
+    private long creditRows;
+    private long matched;
+    private long amountMismatches;
+    private long missingInSystem;
+    private long missingInStatement;
+    private long posted;
+    private String uploadedBy;
+    private LocalDateTime createdAt;
+    private LocalDateTime completedAt;
+}
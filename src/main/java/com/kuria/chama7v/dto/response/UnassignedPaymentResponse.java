@@ -0,0 +1,16 @@
+package com.kuria.chama7v.dto.response;
+
+import lombok.Data;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Data
+public class UnassignedPaymentResponse {
+    private Long id;
+    private String mpesaReceiptNumber;
+    private String phoneNumber;
+    private BigDecimal amount;
+    private LocalDateTime transactionDate;
+    private String accountReference;
+}
@@ -0,0 +1,55 @@
+package com.kuria.chama7v.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.kuria.chama7v.entity.enums.RecipientStatus;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "campaign_recipients",
+        uniqueConstraints = @UniqueConstraint(name = "uk_campaign_recipients_member", columnNames = {"campaign_id", "member_id"}),
+        indexes = {
+                @Index(name = "idx_campaign_recipients_status", columnList = "campaign_id, status, id"),
+                @Index(name = "idx_campaign_recipients_checkout", columnList = "checkout_request_id")
+        })
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CampaignRecipient {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "campaign_id", nullable = false)
+    @JsonIgnore
+    private PaymentCampaign campaign;
+
+    @Column(name = "member_id", nullable = false)
+    private Long memberId;
+
+    @Column(name = "phone_number", nullable = false)
+    private String phoneNumber;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private RecipientStatus status = RecipientStatus.QUEUED;
+
+    @Column(name = "checkout_request_id")
+    private String checkoutRequestId;
+
+    @Column(name = "error_message")
+    private String errorMessage;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
@@ -11,7 +11,8 @@ import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "contributions")
+@Table(name = "contributions",
+        indexes = @Index(name = "idx_contributions_receipt", columnList = "mpesa_receipt_number"))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
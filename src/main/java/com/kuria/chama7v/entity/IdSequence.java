@@ -0,0 +1,22 @@
+package com.kuria.chama7v.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// The high-water mark of a reference sequence; every node takes its blocks from here
+@Entity
+@Table(name = "id_sequences")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IdSequence {
+    @Id
+    @Column(length = 32)
+    private String name;
+
+    // The first value no node has been given yet
+    @Column(name = "next_value", nullable = false)
+    private long nextValue;
+}
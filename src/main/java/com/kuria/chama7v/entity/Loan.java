@@ -46,10 +46,11 @@ public class Loan {
     @Column(name = "total_amount", precision = 19, scale = 2)
     private BigDecimal totalAmount;
 
-    @Column(name = "amount_paid", precision = 19, scale = 2)
+    // Payments land through LoanRepository.applyPayment, never by saving the entity
+    @Column(name = "amount_paid", precision = 19, scale = 2, updatable = false)
     private BigDecimal amountPaid = BigDecimal.ZERO;
 
-    @Column(name = "balance", precision = 19, scale = 2)
+    @Column(name = "balance", precision = 19, scale = 2, updatable = false)
     private BigDecimal balance;
 
     @Enumerated(EnumType.STRING)
@@ -64,6 +65,9 @@ public class Loan {
     @Column(name = "approval_date")
     private LocalDateTime approvalDate;
 
+    @Column(name = "disbursement_date")
+    private LocalDateTime disbursementDate;
+
     @Column(name = "rejection_reason")
     private String rejectionReason;
 
@@ -75,6 +79,9 @@ public class Loan {
     @Column(name = "updated_at")
     private LocalDateTime updatedAt;
 
+    @Version
+    private Long version;
+
     @OneToMany(mappedBy = "loan", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     @JsonIgnore
     private List<LoanPayment> payments;
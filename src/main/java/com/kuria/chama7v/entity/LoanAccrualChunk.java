@@ -0,0 +1,36 @@
+package com.kuria.chama7v.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+// A checkpoint: the loan ids from firstLoanId to lastLoanId, marked done in the transaction that posts them
+@Entity
+@Table(name = "loan_accrual_chunks",
+        indexes = @Index(name = "idx_loan_accrual_chunks_open", columnList = "run_id, done"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanAccrualChunk {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "run_id", nullable = false)
+    private Long runId;
+
+    @Column(name = "first_loan_id", nullable = false)
+    private long firstLoanId;
+
+    @Column(name = "last_loan_id", nullable = false)
+    private long lastLoanId;
+
+    @Column(nullable = false)
+    private boolean done;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+}
@@ -0,0 +1,59 @@
+package com.kuria.chama7v.entity;
+
+import com.kuria.chama7v.entity.enums.AccrualRunStatus;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * The accrual batch for one business date. Loans are scanned in id order and cut into chunks;
+ * scannedThroughId is how far the scan got, so a resumed run carries on from there. The node
+ * running it renews heartbeatAt as it goes, and another node takes the run over once that is stale.
+ */
+@Entity
+@Table(name = "loan_accrual_runs",
+        uniqueConstraints = @UniqueConstraint(name = "uk_loan_accrual_runs_date", columnNames = "business_date"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanAccrualRun {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "business_date", nullable = false)
+    private LocalDate businessDate;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private AccrualRunStatus status = AccrualRunStatus.RUNNING;
+
+    @Column(name = "scanned_through_id", nullable = false)
+    private long scannedThroughId;
+
+    @Column(name = "chunks_done", nullable = false)
+    private int chunksDone;
+
+    @Column(name = "loans_processed", nullable = false)
+    private long loansProcessed;
+
+    @Column(name = "interest_accrued", nullable = false, precision = 19, scale = 2)
+    private BigDecimal interestAccrued = BigDecimal.ZERO;
+
+    @Column(name = "penalties_charged", nullable = false, precision = 19, scale = 2)
+    private BigDecimal penaltiesCharged = BigDecimal.ZERO;
+
+    @Column(name = "heartbeat_at", nullable = false)
+    private LocalDateTime heartbeatAt;
+
+    @Column(name = "started_at", nullable = false)
+    private LocalDateTime startedAt;
+
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+}
@@ -0,0 +1,50 @@
+package com.kuria.chama7v.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.kuria.chama7v.entity.enums.LoanChargeType;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+// One day's accrual or penalty on a loan; the unique key keeps a re-run chunk from posting twice
+@Entity
+@Table(name = "loan_charges",
+        uniqueConstraints = @UniqueConstraint(name = "uk_loan_charges_day", columnNames = {"loan_id", "charge_date", "type"}),
+        indexes = @Index(name = "idx_loan_charges_date", columnList = "charge_date"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanCharge {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "loan_id", nullable = false)
+    @JsonIgnore
+    private Loan loan;
+
+    @Column(name = "charge_date", nullable = false)
+    private LocalDate chargeDate;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private LoanChargeType type;
+
+    @Column(nullable = false, precision = 19, scale = 2)
+    private BigDecimal amount;
+
+    // The installment accrued on, or charged the penalty
+    @Column(name = "installment_number", nullable = false)
+    private int installmentNumber;
+
+    @CreationTimestamp
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+}
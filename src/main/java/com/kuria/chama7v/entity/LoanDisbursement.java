@@ -0,0 +1,75 @@
+package com.kuria.chama7v.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.kuria.chama7v.entity.enums.DisbursementStatus;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "loan_disbursements",
+        uniqueConstraints = {
+                @UniqueConstraint(name = "uk_loan_disbursements_loan", columnNames = "loan_id"),
+                @UniqueConstraint(name = "uk_loan_disbursements_originator", columnNames = "originator_conversation_id"),
+                @UniqueConstraint(name = "uk_loan_disbursements_receipt", columnNames = "transaction_receipt")
+        },
+        indexes = @Index(name = "idx_loan_disbursements_status", columnList = "status, id"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanDisbursement {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @OneToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "loan_id", nullable = false)
+    @JsonIgnore
+    private Loan loan;
+
+    @Column(name = "phone_number", nullable = false)
+    private String phoneNumber;
+
+    @Column(nullable = false, precision = 19, scale = 2)
+    private BigDecimal amount;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private DisbursementStatus status = DisbursementStatus.QUEUED;
+
+    // Ours, sent with each B2C attempt and echoed back in the result callback
+    @Column(name = "originator_conversation_id")
+    private String originatorConversationId;
+
+    @Column(name = "conversation_id")
+    private String conversationId;
+
+    @Column(name = "transaction_receipt")
+    private String transactionReceipt;
+
+    @Column(name = "result_code")
+    private String resultCode;
+
+    @Column(name = "result_desc")
+    private String resultDesc;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @CreationTimestamp
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+}
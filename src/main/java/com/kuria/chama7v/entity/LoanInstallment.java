@@ -0,0 +1,75 @@
+package com.kuria.chama7v.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+@Entity
+@Table(name = "loan_installments",
+        uniqueConstraints = @UniqueConstraint(name = "uk_loan_installments_number", columnNames = {"loan_id", "installment_number"}),
+        indexes = {
+                @Index(name = "idx_loan_installments_due", columnList = "due_date"),
+                @Index(name = "idx_loan_installments_open", columnList = "loan_id, settled, installment_number")
+        })
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanInstallment {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "loan_id", nullable = false)
+    @JsonIgnore
+    private Loan loan;
+
+    @Column(name = "installment_number", nullable = false)
+    private int installmentNumber;
+
+    @Column(name = "due_date", nullable = false)
+    private LocalDate dueDate;
+
+    @Column(name = "principal_amount", nullable = false, precision = 19, scale = 2)
+    private BigDecimal principalAmount;
+
+    @Column(name = "interest_amount", nullable = false, precision = 19, scale = 2)
+    private BigDecimal interestAmount;
+
+    @Column(name = "amount_due", nullable = false, precision = 19, scale = 2)
+    private BigDecimal amountDue;
+
+    // Principal still outstanding once this installment is paid
+    @Column(name = "closing_balance", nullable = false, precision = 19, scale = 2)
+    private BigDecimal closingBalance;
+
+    // Charged once the installment is overdue; paid before its interest and principal
+    @Column(name = "penalty_amount", nullable = false, precision = 19, scale = 2)
+    private BigDecimal penaltyAmount = BigDecimal.ZERO;
+
+    @Column(name = "penalty_paid", nullable = false, precision = 19, scale = 2)
+    private BigDecimal penaltyPaid = BigDecimal.ZERO;
+
+    @Column(name = "interest_paid", nullable = false, precision = 19, scale = 2)
+    private BigDecimal interestPaid = BigDecimal.ZERO;
+
+    @Column(name = "principal_paid", nullable = false, precision = 19, scale = 2)
+    private BigDecimal principalPaid = BigDecimal.ZERO;
+
+    @Column(nullable = false)
+    private boolean settled;
+
+    @Column(name = "settled_date")
+    private LocalDate settledDate;
+
+    public BigDecimal outstanding() {
+        return penaltyAmount.subtract(penaltyPaid)
+                .add(interestAmount.subtract(interestPaid))
+                .add(principalAmount.subtract(principalPaid));
+    }
+}
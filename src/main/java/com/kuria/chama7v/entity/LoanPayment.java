@@ -34,6 +34,9 @@ public class LoanPayment {
     @Column(name = "interest_amount", precision = 19, scale = 2)
     private BigDecimal interestAmount;
 
+    @Column(name = "penalty_amount", precision = 19, scale = 2)
+    private BigDecimal penaltyAmount;
+
     @Column(name = "transaction_reference")
     private String transactionReference;
 
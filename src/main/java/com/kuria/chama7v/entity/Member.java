@@ -50,10 +50,11 @@ public class Member {
     @Column(nullable = false)
     private MemberStatus status = MemberStatus.PENDING;
 
-    @Column(name = "total_contributions", precision = 19, scale = 2)
+    // Balances only change through MemberRepository's increments, never by saving the entity
+    @Column(name = "total_contributions", precision = 19, scale = 2, updatable = false)
     private BigDecimal totalContributions = BigDecimal.ZERO;
 
-    @Column(name = "outstanding_loan", precision = 19, scale = 2)
+    @Column(name = "outstanding_loan", precision = 19, scale = 2, updatable = false)
     private BigDecimal outstandingLoan = BigDecimal.ZERO;
 
     @Column(nullable = false)
@@ -76,6 +77,9 @@ public class Member {
     @Column(name = "is_deleted")
     private boolean deleted = false; // Soft delete flag
 
+    @Version
+    private Long version;
+
     @OneToMany(mappedBy = "member", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     @JsonIgnore
     private List<Contribution> contributions;
@@ -12,7 +12,15 @@ import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "mpesa_transactions")
+@Table(name = "mpesa_transactions",
+        uniqueConstraints = @UniqueConstraint(name = "uk_mpesa_transactions_receipt", columnNames = "mpesa_receipt_number"),
+        indexes = {
+                @Index(name = "idx_mpesa_transactions_checkout", columnList = "checkout_request_id"),
+                @Index(name = "idx_mpesa_transactions_status_created", columnList = "status, created_at"),
+                @Index(name = "idx_mpesa_transactions_unposted", columnList = "status, posted, id"),
+                @Index(name = "idx_mpesa_transactions_status_date", columnList = "status, transaction_date"),
+                @Index(name = "idx_mpesa_transactions_member_created", columnList = "member_id, created_at")
+        })
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -54,6 +62,31 @@ public class MpesaTransaction {
     @Column(name = "transaction_type")
     private String transactionType; // CONTRIBUTION, LOAN_PAYMENT
 
+    // Loan number for LOAN_PAYMENT, free text otherwise
+    @Column(name = "account_reference")
+    private String accountReference;
+
+    // Set once MpesaPostingProcessor has created the Contribution or LoanPayment row
+    @Column(name = "posted", nullable = false)
+    private boolean posted = false;
+
+    @Column(name = "posted_at")
+    private LocalDateTime postedAt;
+
+    // Failed attempts to post this row on its own; past mpesa.posting.max-attempts it is parked
+    @Column(name = "posting_attempts", nullable = false)
+    private int postingAttempts = 0;
+
+    @Column(name = "posting_error")
+    private String postingError;
+
+    // Set by MpesaReconciliationService each time it asks Daraja for the status
+    @Column(name = "last_query_at")
+    private LocalDateTime lastQueryAt;
+
+    @Column(name = "query_attempts")
+    private Integer queryAttempts = 0;
+
     @CreationTimestamp
     @Column(name = "created_at")
     private LocalDateTime createdAt;
@@ -0,0 +1,82 @@
+package com.kuria.chama7v.entity;
+
+import com.kuria.chama7v.entity.enums.CampaignStatus;
+import com.kuria.chama7v.entity.enums.CampaignTarget;
+import com.kuria.chama7v.entity.enums.MemberRole;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "payment_campaigns")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PaymentCampaign {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private String name;
+
+    @Column(nullable = false, precision = 19, scale = 2)
+    private BigDecimal amount;
+
+    @Column(name = "account_reference", nullable = false)
+    private String accountReference;
+
+    @Column(name = "transaction_desc")
+    private String transactionDesc;
+
+    @Column(name = "transaction_type")
+    private String transactionType; // CONTRIBUTION, LOAN_PAYMENT
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "target_type", nullable = false)
+    private CampaignTarget targetType;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "target_role")
+    private MemberRole targetRole;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private CampaignStatus status = CampaignStatus.DISPATCHING;
+
+    @Column(name = "created_by")
+    private String createdBy;
+
+    // Progress counters, maintained with atomic increments by CampaignDispatcher and CampaignProgressTracker
+    @Column(name = "total_recipients", nullable = false)
+    private int totalRecipients;
+
+    @Column(name = "sent_count", nullable = false)
+    private int sentCount;
+
+    @Column(name = "accepted_count", nullable = false)
+    private int acceptedCount;
+
+    @Column(name = "paid_count", nullable = false)
+    private int paidCount;
+
+    @Column(name = "failed_count", nullable = false)
+    private int failedCount;
+
+    @CreationTimestamp
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @Column(name = "dispatched_at")
+    private LocalDateTime dispatchedAt;
+}
@@ -0,0 +1,52 @@
+package com.kuria.chama7v.entity;
+
+import com.kuria.chama7v.entity.enums.StandingOrderStatus;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "standing_orders",
+        indexes = @Index(name = "idx_standing_orders_due", columnList = "status, day_of_month"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StandingOrder {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "member_id", nullable = false)
+    private Long memberId;
+
+    @Column(name = "phone_number", nullable = false)
+    private String phoneNumber;
+
+    @Column(nullable = false, precision = 19, scale = 2)
+    private BigDecimal amount;
+
+    @Column(name = "account_reference", nullable = false)
+    private String accountReference;
+
+    // 29-31 fall on the last day of shorter months
+    @Column(name = "day_of_month", nullable = false)
+    private int dayOfMonth;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private StandingOrderStatus status = StandingOrderStatus.ACTIVE;
+
+    @CreationTimestamp
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,82 @@
+package com.kuria.chama7v.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.kuria.chama7v.entity.enums.StandingOrderRunStatus;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.UpdateTimestamp;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * One collection of a standing order. The member, phone, amount and account reference are
+ * copied from the order when the run is planned, so a cancellation never changes a push already
+ * under way.
+ */
+@Entity
+@Table(name = "standing_order_runs",
+        uniqueConstraints = @UniqueConstraint(name = "uk_standing_order_runs_date", columnNames = {"standing_order_id", "run_date"}),
+        indexes = {
+                @Index(name = "idx_standing_order_runs_due", columnList = "status, next_attempt_at"),
+                @Index(name = "idx_standing_order_runs_checkout", columnList = "checkout_request_id"),
+                @Index(name = "idx_standing_order_runs_date", columnList = "run_date")
+        })
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StandingOrderRun {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "standing_order_id", nullable = false)
+    @JsonIgnore
+    private StandingOrder standingOrder;
+
+    @Column(name = "run_date", nullable = false)
+    private LocalDate runDate;
+
+    @Column(name = "member_id", nullable = false)
+    private Long memberId;
+
+    @Column(name = "phone_number", nullable = false)
+    private String phoneNumber;
+
+    @Column(nullable = false, precision = 19, scale = 2)
+    private BigDecimal amount;
+
+    @Column(name = "account_reference", nullable = false)
+    private String accountReference;
+
+    // The slot the scheduler spread this run to; nextAttemptAt moves on with each retry
+    @Column(name = "scheduled_at", nullable = false)
+    private LocalDateTime scheduledAt;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private StandingOrderRunStatus status = StandingOrderRunStatus.PLANNED;
+
+    @Column(nullable = false)
+    private int attempts;
+
+    @Column(name = "first_sent_at")
+    private LocalDateTime firstSentAt;
+
+    @Column(name = "checkout_request_id")
+    private String checkoutRequestId;
+
+    @Column(name = "error_message")
+    private String errorMessage;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
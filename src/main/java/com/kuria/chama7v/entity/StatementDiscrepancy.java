@@ -0,0 +1,55 @@
+package com.kuria.chama7v.entity;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.kuria.chama7v.entity.enums.DiscrepancyType;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "statement_discrepancies",
+        indexes = @Index(name = "idx_statement_discrepancies_run_type", columnList = "reconciliation_id, type, id"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StatementDiscrepancy {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "reconciliation_id", nullable = false)
+    @JsonIgnore
+    private StatementReconciliation reconciliation;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private DiscrepancyType type;
+
+    @Column(name = "receipt_number", nullable = false)
+    private String receiptNumber;
+
+    // From the statement, or from our records for MISSING_IN_STATEMENT
+    @Column(name = "transaction_time")
+    private LocalDateTime transactionTime;
+
+    @Column(name = "statement_amount", precision = 19, scale = 2)
+    private BigDecimal statementAmount;
+
+    @Column(name = "recorded_amount", precision = 19, scale = 2)
+    private BigDecimal recordedAmount;
+
+    @Column(name = "account_reference")
+    private String accountReference;
+
+    @Column(name = "other_party")
+    private String otherParty;
+
+    // Set once a MISSING_IN_SYSTEM row has been recorded as an M-Pesa transaction
+    @Column(nullable = false)
+    private boolean posted = false;
+}
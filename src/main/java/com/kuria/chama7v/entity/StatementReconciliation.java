@@ -0,0 +1,64 @@
+package com.kuria.chama7v.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+// One upload of a Paybill statement and the counts from matching it against our records
+@Entity
+@Table(name = "statement_reconciliations")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StatementReconciliation {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "file_name")
+    private String fileName;
+
+    // Earliest and latest completion time of the credits on the statement
+    @Column(name = "period_start")
+    private LocalDateTime periodStart;
+
+    @Column(name = "period_end")
+    private LocalDateTime periodEnd;
+
+    @Column(name = "statement_rows", nullable = false)
+    private long statementRows;
+
+    // Completed Paid In rows, the only ones matched against contributions
+    @Column(name = "credit_rows", nullable = false)
+    private long creditRows;
+
+    @Column(nullable = false)
+    private long matched;
+
+    @Column(name = "amount_mismatches", nullable = false)
+    private long amountMismatches;
+
+    @Column(name = "missing_in_system", nullable = false)
+    private long missingInSystem;
+
+    @Column(name = "missing_in_statement", nullable = false)
+    private long missingInStatement;
+
+    @Column(nullable = false)
+    private long posted;
+
+    @Column(name = "uploaded_by")
+    private String uploadedBy;
+
+    @CreationTimestamp
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    // Null while the statement is still being matched, or if matching failed part way
+    @Column(name = "completed_at")
+    private LocalDateTime completedAt;
+}
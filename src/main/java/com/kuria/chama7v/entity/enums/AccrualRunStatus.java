@@ -0,0 +1,6 @@
+package com.kuria.chama7v.entity.enums;
+
+public enum AccrualRunStatus {
+    RUNNING,    // chunks still to scan or post; resumed by whichever node finds it stale
+    COMPLETED
+}
@@ -0,0 +1,7 @@
+package com.kuria.chama7v.entity.enums;
+
+public enum CampaignStatus {
+    DISPATCHING,
+    DISPATCHED,
+    CANCELLED
+}
@@ -0,0 +1,7 @@
+package com.kuria.chama7v.entity.enums;
+
+public enum CampaignTarget {
+    ALL_ACTIVE,
+    ROLE,
+    MEMBERS
+}
@@ -0,0 +1,7 @@
+package com.kuria.chama7v.entity.enums;
+
+// Declared in the order the rate governor serves queued Daraja calls
+public enum DarajaPriority {
+    INTERACTIVE,  // a member or officer is waiting on the response
+    BATCH         // campaigns, reconciliation and other background work
+}
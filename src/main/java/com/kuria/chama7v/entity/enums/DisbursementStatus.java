@@ -0,0 +1,10 @@
+package com.kuria.chama7v.entity.enums;
+
+public enum DisbursementStatus {
+    QUEUED,
+    SENT,       // B2C request in flight
+    ACCEPTED,   // Daraja accepted the request, waiting for the result callback
+    COMPLETED,
+    FAILED,
+    UNCERTAIN   // May or may not have been paid out; not retried until a B2C result settles it
+}
@@ -0,0 +1,7 @@
+package com.kuria.chama7v.entity.enums;
+
+public enum DiscrepancyType {
+    MISSING_IN_SYSTEM,      // paid in per the statement, but no record of it here
+    MISSING_IN_STATEMENT,   // recorded here, but not on the statement for its period
+    AMOUNT_MISMATCH
+}
@@ -0,0 +1,6 @@
+package com.kuria.chama7v.entity.enums;
+
+public enum LoanChargeType {
+    INTEREST_ACCRUAL,  // the day's share of the current installment's scheduled interest
+    PENALTY            // charged on installments past due and grace, added to the balance
+}
@@ -0,0 +1,9 @@
+package com.kuria.chama7v.entity.enums;
+
+public enum RecipientStatus {
+    QUEUED,
+    SENT,      // STK push in flight
+    ACCEPTED,  // Daraja accepted the push, waiting for the customer
+    PAID,
+    FAILED
+}
@@ -0,0 +1,10 @@
+package com.kuria.chama7v.entity.enums;
+
+public enum StandingOrderRunStatus {
+    PLANNED,   // waiting for its slot on the timing wheel
+    SENT,      // STK push in flight
+    ACCEPTED,  // Daraja accepted the push, waiting for the member
+    RETRY,     // declined or not sent, waiting for its backoff to pass
+    PAID,
+    FAILED
+}
@@ -0,0 +1,6 @@
+package com.kuria.chama7v.entity.enums;
+
+public enum StandingOrderStatus {
+    ACTIVE,
+    CANCELLED
+}
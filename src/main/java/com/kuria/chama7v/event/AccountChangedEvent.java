@@ -0,0 +1,20 @@
+package com.kuria.chama7v.event;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Published when members' contributions or loans change, and with them their balances, so
+ * {@link com.kuria.chama7v.service.MemberEventStream} can tell their connected clients to refresh.
+ */
+public record AccountChangedEvent(Collection<Long> memberIds, Change change) {
+
+    public enum Change {
+        CONTRIBUTION,
+        LOAN
+    }
+
+    public static AccountChangedEvent of(Long memberId, Change change) {
+        return new AccountChangedEvent(List.of(memberId), change);
+    }
+}
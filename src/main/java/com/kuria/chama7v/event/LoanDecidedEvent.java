@@ -0,0 +1,15 @@
+package com.kuria.chama7v.event;
+
+/**
+ * Published by {@link com.kuria.chama7v.service.impl.LoanServiceImpl} when a loan is approved or
+ * rejected, so the member is emailed once the decision commits: never for an attempt that lost a
+ * version check and was retried, nor for one that rolled back.
+ */
+public record LoanDecidedEvent(String email, String memberName, String loanNumber, Decision decision,
+                               String reason) {
+
+    public enum Decision {
+        APPROVED,
+        REJECTED
+    }
+}
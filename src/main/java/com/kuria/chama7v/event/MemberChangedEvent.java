@@ -0,0 +1,9 @@
+package com.kuria.chama7v.event;
+
+/**
+ * Published by {@link com.kuria.chama7v.service.impl.MemberServiceImpl} when a member is
+ * registered, edited, suspended, activated or deleted, so {@link com.kuria.chama7v.service.MemberDirectory} can
+ * reload that member once the change commits.
+ */
+public record MemberChangedEvent(Long memberId) {
+}
@@ -0,0 +1,13 @@
+package com.kuria.chama7v.event;
+
+import com.kuria.chama7v.entity.enums.TransactionStatus;
+
+import java.util.Map;
+
+/**
+ * Published by {@link com.kuria.chama7v.service.MpesaCallbackProcessor} for each applied batch,
+ * mapping CheckoutRequestID to the transaction's new final status and to the paying member.
+ */
+public record MpesaTransactionStatusChangedEvent(Map<String, TransactionStatus> statuses,
+                                                 Map<String, Long> memberIds) {
+}
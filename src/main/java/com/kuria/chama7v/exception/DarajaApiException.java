@@ -0,0 +1,26 @@
+package com.kuria.chama7v.exception;
+
+import lombok.Getter;
+
+@Getter
+public class DarajaApiException extends RuntimeException {
+    private final String endpoint;
+    private final int statusCode;
+    private final String responseBody;
+
+    public DarajaApiException(String endpoint, int statusCode, String responseBody) {
+        super(String.format("M-Pesa API error on %s (HTTP %d): %s", endpoint, statusCode, responseBody));
+        this.endpoint = endpoint;
+        this.statusCode = statusCode;
+        this.responseBody = responseBody;
+    }
+
+    public boolean isUnauthorized() {
+        return statusCode == 401;
+    }
+
+    // STK query answers 500 "The transaction is being processed" while the customer is still on the prompt
+    public boolean isStillProcessing() {
+        return responseBody != null && responseBody.contains("being processed");
+    }
+}
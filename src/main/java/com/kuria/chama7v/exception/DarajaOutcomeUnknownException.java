@@ -0,0 +1,15 @@
+package com.kuria.chama7v.exception;
+
+import lombok.Getter;
+
+// Thrown when a request that moves money may have reached Daraja but no answer came back, e.g.
+// a read timeout or a dropped connection after the request was written
+@Getter
+public class DarajaOutcomeUnknownException extends RuntimeException {
+    private final String endpoint;
+
+    public DarajaOutcomeUnknownException(String endpoint, String reason, Throwable cause) {
+        super(String.format("M-Pesa did not answer the %s request (%s); it may still have gone through", endpoint, reason), cause);
+        this.endpoint = endpoint;
+    }
+}
@@ -0,0 +1,14 @@
+package com.kuria.chama7v.exception;
+
+import lombok.Getter;
+
+// Thrown without calling Daraja when its circuit breaker is open or its bulkhead is full
+@Getter
+public class DarajaUnavailableException extends RuntimeException {
+    private final String endpoint;
+
+    public DarajaUnavailableException(String endpoint, String reason, Throwable cause) {
+        super(String.format("M-Pesa is temporarily unavailable (%s %s), please try again shortly", endpoint, reason), cause);
+        this.endpoint = endpoint;
+    }
+}
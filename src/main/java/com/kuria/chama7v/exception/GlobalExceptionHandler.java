@@ -3,6 +3,7 @@ package com.kuria.chama7v.exception;
 import com.kuria.chama7v.dto.response.ApiResponse;
 import jakarta.validation.ConstraintViolationException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.AccessDeniedException;
@@ -68,6 +69,29 @@ public class GlobalExceptionHandler {
                         new ApiResponse<>(false, "Validation failed", errors));
     }
 
+    @ExceptionHandler(DarajaUnavailableException.class)
+    public ResponseEntity<ApiResponse<Object>> handleDarajaUnavailableException(DarajaUnavailableException ex) {
+        log.warn("M-Pesa unavailable: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(ApiResponse.error(ex.getMessage()));
+    }
+
+    // The payment may still complete, so the member is told to wait for the prompt, not to retry
+    @ExceptionHandler(DarajaOutcomeUnknownException.class)
+    public ResponseEntity<ApiResponse<Object>> handleDarajaOutcomeUnknownException(DarajaOutcomeUnknownException ex) {
+        log.warn("M-Pesa outcome unknown: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT)
+                .body(ApiResponse.error("M-Pesa did not respond in time. Check your phone before trying again."));
+    }
+
+    // Still colliding with other writers after ConflictRetry's attempts
+    @ExceptionHandler(ConcurrencyFailureException.class)
+    public ResponseEntity<ApiResponse<Object>> handleConcurrencyFailureException(ConcurrencyFailureException ex) {
+        log.warn("Concurrent update conflict: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .body(ApiResponse.error("This record was changed by another request. Please try again."));
+    }
+
     @ExceptionHandler(IllegalArgumentException.class)
     public ResponseEntity<ApiResponse<Object>> handleIllegalArgumentException(IllegalArgumentException ex) {
         log.error("Illegal argument: {}", ex.getMessage());
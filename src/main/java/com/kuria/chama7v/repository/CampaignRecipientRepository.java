@@ -0,0 +1,65 @@
+package com.kuria.chama7v.repository;
+
+import com.kuria.chama7v.entity.CampaignRecipient;
+import com.kuria.chama7v.entity.enums.RecipientStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface CampaignRecipientRepository extends JpaRepository<CampaignRecipient, Long> {
+
+    @Query("SELECT r FROM CampaignRecipient r WHERE r.campaign.id = :campaignId AND r.status = :status ORDER BY r.id")
+    List<CampaignRecipient> findByCampaignAndStatus(@Param("campaignId") Long campaignId,
+                                                    @Param("status") RecipientStatus status,
+                                                    Pageable pageable);
+
+    List<CampaignRecipient> findByCheckoutRequestIdIn(Collection<String> checkoutRequestIds);
+
+    @Query("SELECT COUNT(r) > 0 FROM CampaignRecipient r WHERE r.campaign.id = :campaignId AND r.status IN :statuses")
+    boolean existsInStatus(@Param("campaignId") Long campaignId, @Param("statuses") Collection<RecipientStatus> statuses);
+
+    // Guarded status change: returns 0 if another thread already moved the row on
+    @Transactional
+    @Modifying
+    @Query("UPDATE CampaignRecipient r SET r.status = :to, r.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE r.id IN :ids AND r.status = :from")
+    int transition(@Param("ids") Collection<Long> ids, @Param("from") RecipientStatus from,
+                   @Param("to") RecipientStatus to);
+
+    // Claims a queued recipient for one push; returns 0 if another instance already claimed it
+    @Transactional
+    @Modifying
+    @Query("UPDATE CampaignRecipient r SET r.status = com.kuria.chama7v.entity.enums.RecipientStatus.SENT, " +
+            "r.attempts = r.attempts + 1, r.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE r.id = :id AND r.status = com.kuria.chama7v.entity.enums.RecipientStatus.QUEUED")
+    int claimForSending(@Param("id") Long id);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE CampaignRecipient r SET r.status = com.kuria.chama7v.entity.enums.RecipientStatus.ACCEPTED, " +
+            "r.checkoutRequestId = :checkoutRequestId, r.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE r.id = :id AND r.status = com.kuria.chama7v.entity.enums.RecipientStatus.SENT")
+    int markAccepted(@Param("id") Long id, @Param("checkoutRequestId") String checkoutRequestId);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE CampaignRecipient r SET r.status = com.kuria.chama7v.entity.enums.RecipientStatus.FAILED, " +
+            "r.errorMessage = :errorMessage, r.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE r.id = :id AND r.status = com.kuria.chama7v.entity.enums.RecipientStatus.SENT")
+    int markSendFailed(@Param("id") Long id, @Param("errorMessage") String errorMessage);
+
+    // Pushes claimed before the cutoff and still unresolved: their sender stopped mid-send
+    @Query("SELECT r FROM CampaignRecipient r WHERE r.campaign.id = :campaignId " +
+            "AND r.status = com.kuria.chama7v.entity.enums.RecipientStatus.SENT AND r.updatedAt < :before ORDER BY r.id")
+    List<CampaignRecipient> findInterrupted(@Param("campaignId") Long campaignId, @Param("before") LocalDateTime before,
+                                            Pageable pageable);
+}
@@ -12,6 +12,7 @@ import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -30,4 +31,14 @@ public interface ContributionRepository extends JpaRepository<Contribution, Long
 
     @Query("SELECT c FROM Contribution c WHERE c.contributionDate BETWEEN :start AND :end")
     Page<Contribution> findByDateRange(@Param("start") LocalDateTime start, @Param("end") LocalDateTime end, Pageable pageable);
+
+    List<Contribution> findByMpesaReceiptNumberIn(Collection<String> receiptNumbers);
+
+    // Keyset page of contributions carrying an M-Pesa receipt, e.g. ones recorded by hand
+    @Query("SELECT c FROM Contribution c WHERE c.mpesaReceiptNumber IS NOT NULL " +
+            "AND c.contributionDate BETWEEN :start AND :end AND c.id > :afterId ORDER BY c.id")
+    List<Contribution> findWithReceiptBetween(@Param("start") LocalDateTime start,
+                                              @Param("end") LocalDateTime end,
+                                              @Param("afterId") Long afterId,
+                                              Pageable pageable);
 }
@@ -0,0 +1,20 @@
+package com.kuria.chama7v.repository;
+
+import com.kuria.chama7v.entity.IdSequence;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface IdSequenceRepository extends JpaRepository<IdSequence, String> {
+
+    // Locks the row until commit, so the value read back in the same transaction is this node's alone
+    @Modifying
+    @Query("UPDATE IdSequence s SET s.nextValue = s.nextValue + :blockSize WHERE s.name = :name")
+    int advance(@Param("name") String name, @Param("blockSize") long blockSize);
+
+    @Query("SELECT s.nextValue FROM IdSequence s WHERE s.name = :name")
+    long findNextValue(@Param("name") String name);
+}
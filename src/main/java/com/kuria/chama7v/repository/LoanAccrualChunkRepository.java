@@ -0,0 +1,27 @@
+package com.kuria.chama7v.repository;
+
+import com.kuria.chama7v.entity.LoanAccrualChunk;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface LoanAccrualChunkRepository extends JpaRepository<LoanAccrualChunk, Long> {
+
+    List<LoanAccrualChunk> findByRunIdAndDoneFalseOrderByFirstLoanIdAsc(Long runId);
+
+    // Part of the chunk's own transaction: 0 means another worker already posted it
+    @Modifying
+    @Query("UPDATE LoanAccrualChunk c SET c.done = true, c.completedAt = :now WHERE c.id = :id AND c.done = false")
+    int markDone(@Param("id") Long id, @Param("now") LocalDateTime now);
+
+    // Where the scan got to if the run stopped between recording a chunk and advancing the run
+    @Query("SELECT MAX(c.lastLoanId) FROM LoanAccrualChunk c WHERE c.runId = :runId")
+    Optional<Long> findLastScannedId(@Param("runId") Long runId);
+}
@@ -0,0 +1,55 @@
+package com.kuria.chama7v.repository;
+
+import com.kuria.chama7v.entity.LoanAccrualRun;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface LoanAccrualRunRepository extends JpaRepository<LoanAccrualRun, Long> {
+
+    Optional<LoanAccrualRun> findByBusinessDate(LocalDate businessDate);
+
+    List<LoanAccrualRun> findAllByOrderByBusinessDateDesc(Pageable pageable);
+
+    @Query("SELECT MAX(r.businessDate) FROM LoanAccrualRun r " +
+            "WHERE r.status = com.kuria.chama7v.entity.enums.AccrualRunStatus.COMPLETED")
+    Optional<LocalDate> findLastCompletedDate();
+
+    // Takes over a run whose node has stopped renewing it; 0 if it is live or finished
+    @Transactional
+    @Modifying
+    @Query("UPDATE LoanAccrualRun r SET r.heartbeatAt = :now WHERE r.id = :id " +
+            "AND r.status = com.kuria.chama7v.entity.enums.AccrualRunStatus.RUNNING AND r.heartbeatAt < :staleBefore")
+    int claim(@Param("id") Long id, @Param("now") LocalDateTime now, @Param("staleBefore") LocalDateTime staleBefore);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE LoanAccrualRun r SET r.scannedThroughId = :scannedThroughId, r.heartbeatAt = :now WHERE r.id = :id")
+    int recordScan(@Param("id") Long id, @Param("scannedThroughId") long scannedThroughId,
+                   @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("UPDATE LoanAccrualRun r SET r.chunksDone = r.chunksDone + 1, r.loansProcessed = r.loansProcessed + :loans, " +
+            "r.interestAccrued = r.interestAccrued + :interest, r.penaltiesCharged = r.penaltiesCharged + :penalties, " +
+            "r.heartbeatAt = :now WHERE r.id = :id")
+    int addProgress(@Param("id") Long id, @Param("loans") long loans, @Param("interest") BigDecimal interest,
+                    @Param("penalties") BigDecimal penalties, @Param("now") LocalDateTime now);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE LoanAccrualRun r SET r.status = com.kuria.chama7v.entity.enums.AccrualRunStatus.COMPLETED, " +
+            "r.finishedAt = :now, r.heartbeatAt = :now WHERE r.id = :id " +
+            "AND r.status = com.kuria.chama7v.entity.enums.AccrualRunStatus.RUNNING")
+    int complete(@Param("id") Long id, @Param("now") LocalDateTime now);
+}
@@ -0,0 +1,17 @@
+package com.kuria.chama7v.repository;
+
+import com.kuria.chama7v.entity.LoanCharge;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface LoanChargeRepository extends JpaRepository<LoanCharge, Long> {
+
+    List<LoanCharge> findByLoanIdInAndChargeDate(Collection<Long> loanIds, LocalDate chargeDate);
+
+    List<LoanCharge> findByLoanIdOrderByChargeDateAscTypeAsc(Long loanId);
+}
@@ -0,0 +1,106 @@
+package com.kuria.chama7v.repository;
+
+import com.kuria.chama7v.entity.LoanDisbursement;
+import com.kuria.chama7v.entity.enums.DisbursementStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface LoanDisbursementRepository extends JpaRepository<LoanDisbursement, Long> {
+
+    Optional<LoanDisbursement> findByLoanId(Long loanId);
+
+    @Query("SELECT d FROM LoanDisbursement d JOIN FETCH d.loan WHERE d.status = :status ORDER BY d.id")
+    List<LoanDisbursement> findByStatus(@Param("status") DisbursementStatus status, Pageable pageable);
+
+    List<LoanDisbursement> findByOriginatorConversationIdIn(Collection<String> originatorConversationIds);
+
+    // Claims a queued payout for one attempt; returns 0 if another thread already claimed it
+    @Transactional
+    @Modifying
+    @Query("UPDATE LoanDisbursement d SET d.status = com.kuria.chama7v.entity.enums.DisbursementStatus.SENT, " +
+            "d.originatorConversationId = :originatorConversationId, d.attempts = d.attempts + 1, " +
+            "d.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE d.id = :id AND d.status = com.kuria.chama7v.entity.enums.DisbursementStatus.QUEUED")
+    int claimForSending(@Param("id") Long id, @Param("originatorConversationId") String originatorConversationId);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE LoanDisbursement d SET d.status = com.kuria.chama7v.entity.enums.DisbursementStatus.ACCEPTED, " +
+            "d.conversationId = :conversationId, d.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE d.id = :id AND d.status = com.kuria.chama7v.entity.enums.DisbursementStatus.SENT")
+    int markAccepted(@Param("id") Long id, @Param("conversationId") String conversationId);
+
+    // Guarded status change that also records why; returns 0 if the row had already moved on
+    @Transactional
+    @Modifying
+    @Query("UPDATE LoanDisbursement d SET d.status = :to, d.resultDesc = :resultDesc, d.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE d.id = :id AND d.status IN :from")
+    int transition(@Param("id") Long id, @Param("from") Collection<DisbursementStatus> from,
+                   @Param("to") DisbursementStatus to, @Param("resultDesc") String resultDesc);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE LoanDisbursement d SET d.status = :to, d.resultDesc = :resultDesc, d.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE d.originatorConversationId = :originatorConversationId AND d.status IN :from")
+    int transitionByOriginator(@Param("originatorConversationId") String originatorConversationId,
+                               @Param("from") Collection<DisbursementStatus> from,
+                               @Param("to") DisbursementStatus to, @Param("resultDesc") String resultDesc);
+
+    // Settles a payout from a paid result, whichever attempt it came from; returns 0 if it was
+    // already completed
+    @Transactional
+    @Modifying
+    @Query("UPDATE LoanDisbursement d SET d.status = com.kuria.chama7v.entity.enums.DisbursementStatus.COMPLETED, " +
+            "d.originatorConversationId = :originatorConversationId, d.conversationId = :conversationId, " +
+            "d.resultCode = :resultCode, d.resultDesc = :resultDesc, d.transactionReceipt = :receipt, " +
+            "d.completedAt = :completedAt, d.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE d.id = :id AND d.status <> com.kuria.chama7v.entity.enums.DisbursementStatus.COMPLETED")
+    int complete(@Param("id") Long id, @Param("originatorConversationId") String originatorConversationId,
+                 @Param("conversationId") String conversationId, @Param("resultCode") String resultCode,
+                 @Param("resultDesc") String resultDesc, @Param("receipt") String receipt,
+                 @Param("completedAt") LocalDateTime completedAt);
+
+    // Fails the attempt a result belongs to; returns 0 if the payout has been retried or has moved on
+    @Transactional
+    @Modifying
+    @Query("UPDATE LoanDisbursement d SET d.status = com.kuria.chama7v.entity.enums.DisbursementStatus.FAILED, " +
+            "d.conversationId = :conversationId, d.resultCode = :resultCode, d.resultDesc = :resultDesc, " +
+            "d.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE d.originatorConversationId = :originatorConversationId AND d.status IN :from")
+    int failByOriginator(@Param("originatorConversationId") String originatorConversationId,
+                         @Param("from") Collection<DisbursementStatus> from,
+                         @Param("conversationId") String conversationId, @Param("resultCode") String resultCode,
+                         @Param("resultDesc") String resultDesc);
+
+    // Notes a second payout on a completed one without touching its settlement
+    @Transactional
+    @Modifying
+    @Query("UPDATE LoanDisbursement d SET d.resultDesc = :resultDesc, d.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE d.id = :id AND d.status = com.kuria.chama7v.entity.enums.DisbursementStatus.COMPLETED")
+    int flagCompleted(@Param("id") Long id, @Param("resultDesc") String resultDesc);
+
+    // Read from the database, not the persistence context, after a guarded update lost a race
+    @Query("SELECT d.transactionReceipt FROM LoanDisbursement d WHERE d.id = :id")
+    String findReceiptById(@Param("id") Long id);
+
+    // Payouts whose outcome is unknown: in flight at the last shutdown, or accepted long ago
+    // with no result callback since
+    @Transactional
+    @Modifying
+    @Query("UPDATE LoanDisbursement d SET d.status = com.kuria.chama7v.entity.enums.DisbursementStatus.UNCERTAIN, " +
+            "d.resultDesc = :resultDesc, d.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE d.status = :status AND d.updatedAt < :before")
+    int markUncertain(@Param("status") DisbursementStatus status, @Param("before") LocalDateTime before,
+                      @Param("resultDesc") String resultDesc);
+}
@@ -0,0 +1,38 @@
+package com.kuria.chama7v.repository;
+
+import com.kuria.chama7v.entity.LoanInstallment;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface LoanInstallmentRepository extends JpaRepository<LoanInstallment, Long> {
+
+    List<LoanInstallment> findByLoanIdOrderByInstallmentNumberAsc(Long loanId);
+
+    boolean existsByLoanId(Long loanId);
+
+    // The open installments after the given one, oldest first, read off idx_loan_installments_open
+    @Query("SELECT i FROM LoanInstallment i WHERE i.loan.id = :loanId AND i.settled = false " +
+            "AND i.installmentNumber > :afterNumber ORDER BY i.installmentNumber")
+    List<LoanInstallment> findOpen(@Param("loanId") Long loanId, @Param("afterNumber") int afterNumber,
+                                   Pageable pageable);
+
+    // What the accrual batch needs of a chunk's loans: the installments falling due from the
+    // business date to dueBy, and those still open past overdueBefore
+    @Query("SELECT i FROM LoanInstallment i WHERE i.loan.id IN :loanIds AND " +
+            "((i.dueDate BETWEEN :date AND :dueBy) OR (i.settled = false AND i.dueDate < :overdueBefore)) " +
+            "ORDER BY i.loan.id, i.installmentNumber")
+    List<LoanInstallment> findForAccrual(@Param("loanIds") Collection<Long> loanIds, @Param("date") LocalDate date,
+                                         @Param("dueBy") LocalDate dueBy,
+                                         @Param("overdueBefore") LocalDate overdueBefore);
+
+    @Query("SELECT DISTINCT i.loan.id FROM LoanInstallment i WHERE i.loan.id IN :loanIds")
+    List<Long> findLoanIdsWithSchedule(@Param("loanIds") Collection<Long> loanIds);
+}
@@ -3,13 +3,17 @@ package com.kuria.chama7v.repository;
 import com.kuria.chama7v.entity.Loan;
 import com.kuria.chama7v.entity.Member;
 import com.kuria.chama7v.entity.enums.LoanStatus;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -19,6 +23,9 @@ import java.util.Optional;
 @Repository
 public interface LoanRepository extends JpaRepository<Loan, Long>, JpaSpecificationExecutor<Loan> {
 
+    String ACCRUING = "AND NOT EXISTS (SELECT d.id FROM LoanDisbursement d WHERE d.loan = l " +
+            "AND d.status <> com.kuria.chama7v.entity.enums.DisbursementStatus.COMPLETED) ";
+
     Optional<Loan> findByLoanNumber(String loanNumber);
 
     Page<Loan> findByMemberOrderByApplicationDateDesc(Member member, Pageable pageable);
@@ -27,6 +34,8 @@ public interface LoanRepository extends JpaRepository<Loan, Long>, JpaSpecificat
 
     List<Loan> findByMemberAndStatusIn(Member member, List<LoanStatus> statuses);
 
+    List<Loan> findByMemberIdAndStatusIn(Long memberId, List<LoanStatus> statuses);
+
     @Query("SELECT COALESCE(SUM(l.balance), 0) FROM Loan l WHERE l.status IN ('APPROVED', 'DISBURSED')")
     BigDecimal getTotalOutstandingLoans();
 
@@ -40,4 +49,49 @@ public interface LoanRepository extends JpaRepository<Loan, Long>, JpaSpecificat
     Page<Loan> findByDateRange(@Param("startDate") LocalDateTime startDate,
                                @Param("endDate") LocalDateTime endDate,
                                Pageable pageable);
-}
\ No newline at end of file
+
+    // Only an approved loan can be disbursed, so a repeated B2C result changes nothing
+    @Transactional
+    @Modifying
+    @Query("UPDATE Loan l SET l.status = com.kuria.chama7v.entity.enums.LoanStatus.DISBURSED, " +
+            "l.disbursementDate = :disbursedAt, l.version = l.version + 1, l.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE l.id = :id AND l.status = com.kuria.chama7v.entity.enums.LoanStatus.APPROVED")
+    int markDisbursed(@Param("id") Long id, @Param("disbursedAt") LocalDateTime disbursedAt);
+
+    // Returns 0 if the loan is not payable or the amount exceeds its balance. The row stays locked
+    // until commit, so payments on one loan are allocated one after another. Status is assigned
+    // first because MySQL evaluates later assignments against the new balance
+    @Modifying
+    @Query("UPDATE Loan l SET l.status = CASE WHEN l.balance - :amount <= 0 " +
+            "THEN com.kuria.chama7v.entity.enums.LoanStatus.PAID ELSE l.status END, " +
+            "l.amountPaid = COALESCE(l.amountPaid, 0) + :amount, l.balance = l.balance - :amount, " +
+            "l.version = l.version + 1, l.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE l.id = :id AND l.status IN (com.kuria.chama7v.entity.enums.LoanStatus.APPROVED, " +
+            "com.kuria.chama7v.entity.enums.LoanStatus.DISBURSED) AND l.balance >= :amount")
+    int applyPayment(@Param("id") Long id, @Param("amount") BigDecimal amount);
+
+    // Read as a value so it is current even when the loan is already loaded in this transaction
+    @Query("SELECT l.balance FROM Loan l WHERE l.id = :id AND l.status IN " +
+            "(com.kuria.chama7v.entity.enums.LoanStatus.APPROVED, com.kuria.chama7v.entity.enums.LoanStatus.DISBURSED)")
+    Optional<BigDecimal> findPayableBalance(@Param("id") Long id);
+
+    // Keyset scan for the accrual batch: the next page of payable loan ids after afterId. Loans
+    // whose B2C payout has not completed are left out, as the member has not had the money yet;
+    // approved loans with no payout row were paid out by hand
+    @Query("SELECT l.id FROM Loan l WHERE l.id > :afterId AND l.status IN " +
+            "(com.kuria.chama7v.entity.enums.LoanStatus.APPROVED, com.kuria.chama7v.entity.enums.LoanStatus.DISBURSED) " +
+            ACCRUING + "ORDER BY l.id")
+    List<Long> findPayableIds(@Param("afterId") long afterId, Pageable pageable);
+
+    // Locked in id order so accrual chunks and payments queue on a loan rather than deadlock
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT l FROM Loan l WHERE l.id BETWEEN :firstId AND :lastId AND l.status IN " +
+            "(com.kuria.chama7v.entity.enums.LoanStatus.APPROVED, com.kuria.chama7v.entity.enums.LoanStatus.DISBURSED) " +
+            ACCRUING + "ORDER BY l.id")
+    List<Loan> lockPayableBetween(@Param("firstId") long firstId, @Param("lastId") long lastId);
+
+    @Modifying
+    @Query("UPDATE Loan l SET l.balance = l.balance + :amount, l.version = l.version + 1, " +
+            "l.updatedAt = CURRENT_TIMESTAMP WHERE l.id = :id")
+    int addPenalty(@Param("id") Long id, @Param("amount") BigDecimal amount);
+}
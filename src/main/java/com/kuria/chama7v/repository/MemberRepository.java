@@ -6,6 +6,7 @@ import com.kuria.chama7v.entity.enums.MemberStatus;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -37,8 +38,12 @@ public interface MemberRepository extends JpaRepository<Member, Long> {
 
     Page<Member> findByStatusAndDeletedFalse(MemberStatus status, Pageable pageable);
 
+    List<Member> findByStatusAndDeletedFalse(MemberStatus status);
+
     Page<Member> findByDeletedFalse(Pageable pageable);
 
+    List<Member> findByDeletedFalse();
+
     @Query("SELECT COALESCE(SUM(m.totalContributions), 0) FROM Member m WHERE m.status = 'active' AND m.deleted = false")
     BigDecimal getTotalGroupContributions();
 
@@ -48,6 +53,22 @@ public interface MemberRepository extends JpaRepository<Member, Long> {
     @Query("SELECT m FROM Member m WHERE m.deleted = false AND (m.name LIKE %:searchTerm% OR m.email LIKE %:searchTerm% OR m.memberNumber LIKE %:searchTerm%)")
     Page<Member> searchMembers(@Param("searchTerm") String searchTerm, Pageable pageable);
 
+    // Applies a member's coalesced postings in one write, without reading the row first. The
+    // balance columns are not written by entity saves, so this leaves the version alone and a
+    // concurrent profile edit does not conflict with it
+    @Modifying
+    @Query("UPDATE Member m SET m.totalContributions = COALESCE(m.totalContributions, 0) + :contributions, " +
+            "m.outstandingLoan = COALESCE(m.outstandingLoan, 0) - :loanRepayments, m.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE m.id = :id")
+    int applyBalanceDeltas(@Param("id") Long id,
+                           @Param("contributions") BigDecimal contributions,
+                           @Param("loanRepayments") BigDecimal loanRepayments);
+
+    @Modifying
+    @Query("UPDATE Member m SET m.outstandingLoan = COALESCE(m.outstandingLoan, 0) + :amount, " +
+            "m.updatedAt = CURRENT_TIMESTAMP WHERE m.id = :id")
+    int addOutstandingLoan(@Param("id") Long id, @Param("amount") BigDecimal amount);
+
     //@Query("SELECT COALESCE(MAX(CAST(SUBSTRING(m.memberNumber, 2) AS int)), 0) FROM Member m WHERE m.memberNumber LIKE 'C%' AND m.deleted = false")
     //Integer findMaxMemberNumber();
     @Query("SELECT COALESCE(MAX(CAST(SUBSTRING(m.memberNumber, 2) AS int)), 0) FROM Member m WHERE m.memberNumber LIKE 'C%'")
@@ -5,8 +5,16 @@ import com.kuria.chama7v.entity.enums.TransactionStatus;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -14,8 +22,116 @@ public interface MpesaTransactionRepository extends JpaRepository<MpesaTransacti
 
     Optional<MpesaTransaction> findByCheckoutRequestId(String checkoutRequestId);
 
+    // For a sender that has just recorded a push as accepted: Daraja can call back before that,
+    // so the outcome may already be here
+    @Query("SELECT t.status FROM MpesaTransaction t WHERE t.checkoutRequestId = :checkoutRequestId " +
+            "AND t.status <> com.kuria.chama7v.entity.enums.TransactionStatus.PENDING")
+    Optional<TransactionStatus> findSettledStatus(@Param("checkoutRequestId") String checkoutRequestId);
+
+    List<MpesaTransaction> findByCheckoutRequestIdIn(Collection<String> checkoutRequestIds);
+
+    List<MpesaTransaction> findByMpesaReceiptNumberIn(Collection<String> receiptNumbers);
+
+    // The STK push recorded for a prompt whose sender stopped before marking it accepted
+    @Query("SELECT t FROM MpesaTransaction t WHERE t.memberId = :memberId AND t.accountReference = :accountReference " +
+            "AND t.amount = :amount AND t.checkoutRequestId IS NOT NULL AND t.createdAt >= :since ORDER BY t.id DESC")
+    List<MpesaTransaction> findPushesSince(@Param("memberId") Long memberId,
+                                           @Param("accountReference") String accountReference,
+                                           @Param("amount") BigDecimal amount,
+                                           @Param("since") LocalDateTime since,
+                                           Pageable pageable);
+
     Optional<MpesaTransaction> findByMpesaReceiptNumber(String mpesaReceiptNumber);
 
+    @Query("SELECT t.mpesaReceiptNumber FROM MpesaTransaction t WHERE t.mpesaReceiptNumber IN :receiptNumbers")
+    List<String> findExistingReceiptNumbers(@Param("receiptNumbers") Collection<String> receiptNumbers);
+
+    // Keyset page of PENDING rows old enough to reconcile and not queried recently
+    @Query("SELECT t FROM MpesaTransaction t WHERE t.status = com.kuria.chama7v.entity.enums.TransactionStatus.PENDING " +
+            "AND t.createdAt < :createdBefore AND (t.lastQueryAt IS NULL OR t.lastQueryAt < :queriedBefore) " +
+            "AND t.id > :afterId ORDER BY t.id")
+    List<MpesaTransaction> findStalePending(@Param("createdBefore") LocalDateTime createdBefore,
+                                            @Param("queriedBefore") LocalDateTime queriedBefore,
+                                            @Param("afterId") Long afterId,
+                                            Pageable pageable);
+
+    // Guarded claim for one STK query: returns 0 if the row has settled or was queried since
+    // queriedBefore, including by another node that read the same page a moment earlier
+    @Transactional
+    @Modifying
+    @Query("UPDATE MpesaTransaction t SET t.lastQueryAt = :claimedAt, " +
+            "t.queryAttempts = COALESCE(t.queryAttempts, 0) + 1 " +
+            "WHERE t.id = :id AND t.status = com.kuria.chama7v.entity.enums.TransactionStatus.PENDING " +
+            "AND (t.lastQueryAt IS NULL OR t.lastQueryAt < :queriedBefore)")
+    int claimForQuery(@Param("id") Long id, @Param("claimedAt") LocalDateTime claimedAt,
+                      @Param("queriedBefore") LocalDateTime queriedBefore);
+
+    // Guarded settle: only the first result for a PENDING row lands, and it touches none of the
+    // posting columns, so a late or concurrent writer can never reset posted
+    @Modifying
+    @Query("UPDATE MpesaTransaction t SET t.status = :status, t.resultCode = :resultCode, t.resultDesc = :resultDesc, " +
+            "t.mpesaReceiptNumber = :receipt, t.transactionDate = :transactionDate, t.updatedAt = :now " +
+            "WHERE t.checkoutRequestId = :checkoutRequestId " +
+            "AND t.status = com.kuria.chama7v.entity.enums.TransactionStatus.PENDING")
+    int settle(@Param("checkoutRequestId") String checkoutRequestId,
+               @Param("status") TransactionStatus status,
+               @Param("resultCode") String resultCode,
+               @Param("resultDesc") String resultDesc,
+               @Param("receipt") String receipt,
+               @Param("transactionDate") LocalDateTime transactionDate,
+               @Param("now") LocalDateTime now);
+
+    @Query("SELECT t FROM MpesaTransaction t WHERE t.status = com.kuria.chama7v.entity.enums.TransactionStatus.SUCCESS " +
+            "AND t.posted = false AND t.memberId IS NOT NULL AND t.postingAttempts < :maxAttempts " +
+            "AND t.id > :afterId ORDER BY t.id")
+    List<MpesaTransaction> findUnposted(@Param("afterId") Long afterId, @Param("maxAttempts") int maxAttempts,
+                                        Pageable pageable);
+
+    // Own transaction: the posting attempt it records has just rolled back
+    @Transactional
+    @Modifying
+    @Query("UPDATE MpesaTransaction t SET t.postingAttempts = t.postingAttempts + 1, t.postingError = :error " +
+            "WHERE t.id = :id AND t.posted = false")
+    int recordPostingFailure(@Param("id") Long id, @Param("error") String error);
+
+    // Settled payments that matched no member, waiting for a treasurer to assign one
+    @Query("SELECT t FROM MpesaTransaction t WHERE t.status = com.kuria.chama7v.entity.enums.TransactionStatus.SUCCESS " +
+            "AND t.memberId IS NULL AND t.posted = false ORDER BY t.id")
+    Page<MpesaTransaction> findUnassigned(Pageable pageable);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE MpesaTransaction t SET t.memberId = :memberId WHERE t.id = :id " +
+            "AND t.status = com.kuria.chama7v.entity.enums.TransactionStatus.SUCCESS " +
+            "AND t.memberId IS NULL AND t.posted = false")
+    int assignMember(@Param("id") Long id, @Param("memberId") Long memberId);
+
+    // Guarded claim: only one poster can flip a row, so each payment is posted exactly once
+    @Modifying
+    @Query("UPDATE MpesaTransaction t SET t.posted = true, t.postedAt = :postedAt WHERE t.id = :id AND t.posted = false")
+    int claimForPosting(@Param("id") Long id, @Param("postedAt") LocalDateTime postedAt);
+
+    // Keyset page of settled payments in a statement period
+    @Query("SELECT t FROM MpesaTransaction t WHERE t.status = com.kuria.chama7v.entity.enums.TransactionStatus.SUCCESS " +
+            "AND t.mpesaReceiptNumber IS NOT NULL AND t.transactionDate BETWEEN :from AND :to " +
+            "AND t.id > :afterId ORDER BY t.id")
+    List<MpesaTransaction> findSettledBetween(@Param("from") LocalDateTime from,
+                                              @Param("to") LocalDateTime to,
+                                              @Param("afterId") Long afterId,
+                                              Pageable pageable);
+
+    // Settled through STK Query, so still without a receipt, for statement reconciliation to match
+    @Query("SELECT t FROM MpesaTransaction t WHERE t.status = com.kuria.chama7v.entity.enums.TransactionStatus.SUCCESS " +
+            "AND t.mpesaReceiptNumber IS NULL AND t.transactionDate BETWEEN :from AND :to ORDER BY t.transactionDate")
+    List<MpesaTransaction> findReceiptlessBetween(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE MpesaTransaction t SET t.mpesaReceiptNumber = :receipt, t.transactionDate = :transactionDate " +
+            "WHERE t.id = :id AND t.mpesaReceiptNumber IS NULL")
+    int attachReceipt(@Param("id") Long id, @Param("receipt") String receipt,
+                      @Param("transactionDate") LocalDateTime transactionDate);
+
     Page<MpesaTransaction> findByMemberIdOrderByCreatedAtDesc(Long memberId, Pageable pageable);
 
     Page<MpesaTransaction> findByStatusOrderByCreatedAtDesc(TransactionStatus status, Pageable pageable);
@@ -0,0 +1,37 @@
+package com.kuria.chama7v.repository;
+
+import com.kuria.chama7v.entity.PaymentCampaign;
+import com.kuria.chama7v.entity.enums.CampaignStatus;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface PaymentCampaignRepository extends JpaRepository<PaymentCampaign, Long> {
+
+    List<PaymentCampaign> findByStatusOrderByIdAsc(CampaignStatus status);
+
+    Page<PaymentCampaign> findAllByOrderByCreatedAtDesc(Pageable pageable);
+
+    // Counters are only ever incremented in place, so concurrent updates never lose progress
+    @Transactional
+    @Modifying
+    @Query("UPDATE PaymentCampaign c SET c.sentCount = c.sentCount + :sent, c.acceptedCount = c.acceptedCount + :accepted, " +
+            "c.paidCount = c.paidCount + :paid, c.failedCount = c.failedCount + :failed WHERE c.id = :id")
+    int incrementProgress(@Param("id") Long id, @Param("sent") int sent, @Param("accepted") int accepted,
+                          @Param("paid") int paid, @Param("failed") int failed);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE PaymentCampaign c SET c.status = :to, c.dispatchedAt = :at WHERE c.id = :id AND c.status = :from")
+    int transition(@Param("id") Long id, @Param("from") CampaignStatus from, @Param("to") CampaignStatus to,
+                   @Param("at") LocalDateTime at);
+}
@@ -0,0 +1,25 @@
+package com.kuria.chama7v.repository;
+
+import com.kuria.chama7v.entity.StandingOrder;
+import com.kuria.chama7v.entity.enums.StandingOrderStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface StandingOrderRepository extends JpaRepository<StandingOrder, Long> {
+
+    List<StandingOrder> findByMemberIdAndStatusOrderByIdAsc(Long memberId, StandingOrderStatus status);
+
+    // Active orders falling due on the date that have no run for it yet; on the last day of the
+    // month this includes the orders set for days the month does not have
+    @Query("SELECT o FROM StandingOrder o WHERE o.status = com.kuria.chama7v.entity.enums.StandingOrderStatus.ACTIVE " +
+            "AND (o.dayOfMonth = :day OR (:lastDayOfMonth = true AND o.dayOfMonth > :day)) " +
+            "AND NOT EXISTS (SELECT r.id FROM StandingOrderRun r WHERE r.standingOrder = o AND r.runDate = :date)")
+    List<StandingOrder> findDueWithoutRun(@Param("date") LocalDate date, @Param("day") int day,
+                                          @Param("lastDayOfMonth") boolean lastDayOfMonth);
+}
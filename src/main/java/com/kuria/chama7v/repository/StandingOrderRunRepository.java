@@ -0,0 +1,84 @@
+package com.kuria.chama7v.repository;
+
+import com.kuria.chama7v.entity.StandingOrderRun;
+import com.kuria.chama7v.entity.enums.StandingOrderRunStatus;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface StandingOrderRunRepository extends JpaRepository<StandingOrderRun, Long> {
+
+    List<StandingOrderRun> findByCheckoutRequestIdIn(Collection<String> checkoutRequestIds);
+
+    Optional<StandingOrderRun> findFirstByStandingOrderIdOrderByRunDateDesc(Long standingOrderId);
+
+    // Runs waiting for a slot up to the horizon, for loading onto the timing wheel
+    @Query("SELECT r FROM StandingOrderRun r WHERE r.status IN (com.kuria.chama7v.entity.enums.StandingOrderRunStatus.PLANNED, " +
+            "com.kuria.chama7v.entity.enums.StandingOrderRunStatus.RETRY) " +
+            "AND r.nextAttemptAt < :horizon AND r.id > :afterId ORDER BY r.id")
+    List<StandingOrderRun> findWaiting(@Param("horizon") LocalDateTime horizon, @Param("afterId") Long afterId,
+                                       Pageable pageable);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE StandingOrderRun r SET r.status = com.kuria.chama7v.entity.enums.StandingOrderRunStatus.SENT, " +
+            "r.attempts = r.attempts + 1, r.firstSentAt = COALESCE(r.firstSentAt, :now), r.updatedAt = :now " +
+            "WHERE r.id = :id AND r.status IN (com.kuria.chama7v.entity.enums.StandingOrderRunStatus.PLANNED, " +
+            "com.kuria.chama7v.entity.enums.StandingOrderRunStatus.RETRY) AND r.nextAttemptAt <= :now")
+    int claimForSending(@Param("id") Long id, @Param("now") LocalDateTime now);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE StandingOrderRun r SET r.status = com.kuria.chama7v.entity.enums.StandingOrderRunStatus.ACCEPTED, " +
+            "r.checkoutRequestId = :checkoutRequestId, r.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE r.id = :id AND r.status = com.kuria.chama7v.entity.enums.StandingOrderRunStatus.SENT")
+    int markAccepted(@Param("id") Long id, @Param("checkoutRequestId") String checkoutRequestId);
+
+    // Guarded status change: returns 0 if another thread already moved the run on
+    @Transactional
+    @Modifying
+    @Query("UPDATE StandingOrderRun r SET r.status = :to, r.errorMessage = :errorMessage, r.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE r.id = :id AND r.status = :from")
+    int transition(@Param("id") Long id, @Param("from") StandingOrderRunStatus from,
+                   @Param("to") StandingOrderRunStatus to, @Param("errorMessage") String errorMessage);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE StandingOrderRun r SET r.status = com.kuria.chama7v.entity.enums.StandingOrderRunStatus.RETRY, " +
+            "r.nextAttemptAt = :nextAttemptAt, r.errorMessage = :errorMessage, r.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE r.id = :id AND r.status = :from")
+    int scheduleRetry(@Param("id") Long id, @Param("from") StandingOrderRunStatus from,
+                      @Param("nextAttemptAt") LocalDateTime nextAttemptAt, @Param("errorMessage") String errorMessage);
+
+    // A push refused before it reached Daraja does not count as an attempt
+    @Transactional
+    @Modifying
+    @Query("UPDATE StandingOrderRun r SET r.status = com.kuria.chama7v.entity.enums.StandingOrderRunStatus.RETRY, " +
+            "r.attempts = r.attempts - 1, r.nextAttemptAt = :nextAttemptAt, r.updatedAt = CURRENT_TIMESTAMP " +
+            "WHERE r.id = :id AND r.status = com.kuria.chama7v.entity.enums.StandingOrderRunStatus.SENT")
+    int release(@Param("id") Long id, @Param("nextAttemptAt") LocalDateTime nextAttemptAt);
+
+    // Pushes claimed before the cutoff and still unresolved: their sender stopped mid-send
+    @Query("SELECT r FROM StandingOrderRun r WHERE r.status = com.kuria.chama7v.entity.enums.StandingOrderRunStatus.SENT " +
+            "AND r.updatedAt < :before ORDER BY r.id")
+    List<StandingOrderRun> findInterrupted(@Param("before") LocalDateTime before, Pageable pageable);
+
+    @Query("SELECT r.status, COUNT(r) FROM StandingOrderRun r WHERE r.runDate = :date GROUP BY r.status")
+    List<Object[]> countByStatus(@Param("date") LocalDate date);
+
+    // Per hour of the day: runs planned into that hour and how many of them have been sent
+    @Query("SELECT EXTRACT(HOUR FROM r.scheduledAt), COUNT(r), COUNT(r.firstSentAt) FROM StandingOrderRun r " +
+            "WHERE r.runDate = :date GROUP BY EXTRACT(HOUR FROM r.scheduledAt) ORDER BY EXTRACT(HOUR FROM r.scheduledAt)")
+    List<Object[]> countByHour(@Param("date") LocalDate date);
+}
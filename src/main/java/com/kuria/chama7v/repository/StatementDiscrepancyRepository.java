@@ -0,0 +1,35 @@
+package com.kuria.chama7v.repository;
+
+import com.kuria.chama7v.entity.StatementDiscrepancy;
+import com.kuria.chama7v.entity.enums.DiscrepancyType;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface StatementDiscrepancyRepository extends JpaRepository<StatementDiscrepancy, Long> {
+
+    Page<StatementDiscrepancy> findByReconciliationIdAndTypeOrderById(Long reconciliationId, DiscrepancyType type,
+                                                                      Pageable pageable);
+
+    // Keyset page of statement credits not yet recorded, for batch posting
+    @Query("SELECT d FROM StatementDiscrepancy d WHERE d.reconciliation.id = :reconciliationId " +
+            "AND d.type = com.kuria.chama7v.entity.enums.DiscrepancyType.MISSING_IN_SYSTEM " +
+            "AND d.posted = false AND d.id > :afterId ORDER BY d.id")
+    List<StatementDiscrepancy> findUnposted(@Param("reconciliationId") Long reconciliationId,
+                                            @Param("afterId") Long afterId,
+                                            Pageable pageable);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE StatementDiscrepancy d SET d.posted = true WHERE d.id IN :ids")
+    int markPosted(@Param("ids") Collection<Long> ids);
+}
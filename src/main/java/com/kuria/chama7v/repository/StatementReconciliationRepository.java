@@ -0,0 +1,13 @@
+package com.kuria.chama7v.repository;
+
+import com.kuria.chama7v.entity.StatementReconciliation;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface StatementReconciliationRepository extends JpaRepository<StatementReconciliation, Long> {
+
+    Page<StatementReconciliation> findAllByOrderByCreatedAtDesc(Pageable pageable);
+}
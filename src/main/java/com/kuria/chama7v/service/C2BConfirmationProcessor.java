@@ -0,0 +1,81 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.request.C2BPaymentRequest;
+import com.kuria.chama7v.entity.MpesaTransaction;
+import com.kuria.chama7v.entity.enums.TransactionStatus;
+import com.kuria.chama7v.repository.MpesaTransactionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Records confirmed Paybill payments as SUCCESS rows in mpesa_transactions, where
+ * {@link MpesaPostingService} picks them up like any settled STK push. A batch is one receipt
+ * lookup and one insert; receipts already on file are skipped, so redelivered confirmations
+ * are harmless. Payments that match no member are kept with no member ID, which leaves them
+ * out of posting until a treasurer assigns them through {@link PaymentAssignmentService}.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class C2BConfirmationProcessor {
+
+    private static final DateTimeFormatter TRANS_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private final MpesaTransactionRepository transactionRepository;
+    private final MemberDirectory memberDirectory;
+
+    // Returns the number of payments recorded
+    @Transactional
+    public int applyBatch(List<C2BPaymentRequest> confirmations) {
+        Set<String> seen = new HashSet<>(transactionRepository.findExistingReceiptNumbers(
+                confirmations.stream().map(C2BPaymentRequest::getTransId).toList()));
+
+        List<MpesaTransaction> transactions = new ArrayList<>(confirmations.size());
+        for (C2BPaymentRequest confirmation : confirmations) {
+            if (!seen.add(confirmation.getTransId())) {
+                log.info("Ignoring duplicate C2B confirmation {}", confirmation.getTransId());
+                continue;
+            }
+
+            MpesaTransaction transaction = new MpesaTransaction();
+            transaction.setMpesaReceiptNumber(confirmation.getTransId());
+            transaction.setPhoneNumber(confirmation.getMsisdn());
+            transaction.setAmount(confirmation.getTransAmount());
+            transaction.setTransactionDate(parseTransTime(confirmation.getTransTime()));
+            transaction.setStatus(TransactionStatus.SUCCESS);
+            transaction.setResultCode("0");
+            transaction.setResultDesc(confirmation.getTransactionType());
+            transaction.setTransactionType("CONTRIBUTION");
+            transaction.setAccountReference(confirmation.getBillRefNumber());
+            transaction.setMemberId(memberDirectory.resolve(confirmation.getBillRefNumber(), confirmation.getMsisdn())
+                    .orElse(null));
+            if (transaction.getMemberId() == null) {
+                log.warn("C2B payment {} of {} (account '{}') matches no member, left for manual assignment",
+                        confirmation.getTransId(), confirmation.getTransAmount(), confirmation.getBillRefNumber());
+            }
+            transactions.add(transaction);
+        }
+
+        transactionRepository.saveAll(transactions);
+        return transactions.size();
+    }
+
+    private static LocalDateTime parseTransTime(String transTime) {
+        try {
+            return transTime == null ? LocalDateTime.now() : LocalDateTime.parse(transTime, TRANS_TIME_FORMAT);
+        } catch (DateTimeParseException e) {
+            log.warn("Unreadable C2B TransTime '{}', using the time received", transTime);
+            return LocalDateTime.now();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.request.C2BPaymentRequest;
+import com.kuria.chama7v.util.BoundedBatchQueue;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Acknowledges Paybill confirmations straight away and records them in batches on worker
+ * threads, the same way {@link MpesaCallbackQueue} handles STK callbacks: each confirmation is
+ * journaled before it is acknowledged, retried with backoff when it cannot be recorded, and
+ * replayed from the journal on startup if it never was.
+ */
+@Component
+@Slf4j
+public class C2BConfirmationQueue {
+
+    private final C2BConfirmationProcessor confirmationProcessor;
+    private final MpesaCallbackJournal callbackJournal;
+    private final BoundedBatchQueue<QueuedConfirmation> queue;
+    private final ScheduledExecutorService retryScheduler;
+    private final int retryAttempts;
+    private final long retryDelayMs;
+
+    private final Counter recordedCounter;
+    private final Counter failedCounter;
+    private final Counter overflowCounter;
+
+    public C2BConfirmationQueue(C2BConfirmationProcessor confirmationProcessor,
+                                MpesaCallbackJournal callbackJournal,
+                                MeterRegistry meterRegistry,
+                                @Value("${mpesa.c2b.queue-capacity:5000}") int capacity,
+                                @Value("${mpesa.c2b.batch-size:100}") int batchSize,
+                                @Value("${mpesa.c2b.workers:1}") int workers,
+                                @Value("${mpesa.c2b.retry-attempts:5}") int retryAttempts,
+                                @Value("${mpesa.c2b.retry-delay-ms:500}") long retryDelayMs) {
+        this.confirmationProcessor = confirmationProcessor;
+        this.callbackJournal = callbackJournal;
+        this.queue = new BoundedBatchQueue<>("c2b-confirmation", capacity, batchSize, workers, this::applyBatch);
+        this.queue.registerMetrics(meterRegistry, "mpesa.c2b.queue");
+        this.retryAttempts = retryAttempts;
+        this.retryDelayMs = retryDelayMs;
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "c2b-confirmation-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.recordedCounter = Counter.builder("mpesa.c2b.recorded")
+                .description("Paybill payments recorded in mpesa_transactions")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("mpesa.c2b.failed")
+                .description("Paybill confirmations that could not be recorded")
+                .register(meterRegistry);
+        this.overflowCounter = Counter.builder("mpesa.c2b.queue.overflow")
+                .description("Paybill confirmations deferred because the queue was full")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        queue.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        retryScheduler.shutdownNow();
+        queue.stop(5000);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void replayRecovered() {
+        List<MpesaCallbackJournal.ConfirmationEntry> pending = callbackJournal.drainRecoveredConfirmations();
+        if (pending.isEmpty()) {
+            return;
+        }
+        log.info("Replaying {} C2B confirmations recovered from the journal", pending.size());
+        for (MpesaCallbackJournal.ConfirmationEntry entry : pending) {
+            submit(entry.sequence(), entry.confirmation());
+        }
+    }
+
+    // Journals the confirmation (forced to disk) before it is enqueued, so an acknowledged
+    // payment survives a crash
+    public void submit(C2BPaymentRequest confirmation) {
+        submit(callbackJournal.appendConfirmation(confirmation), confirmation);
+    }
+
+    private void submit(long journalSequence, C2BPaymentRequest confirmation) {
+        QueuedConfirmation queued = new QueuedConfirmation(journalSequence, confirmation, 0);
+        if (!queue.offer(queued)) {
+            overflowCounter.increment();
+            defer(queued);
+        }
+    }
+
+    private void applyBatch(List<QueuedConfirmation> batch) {
+        try {
+            recordedCounter.increment(confirmationProcessor.applyBatch(
+                    batch.stream().map(QueuedConfirmation::confirmation).toList()));
+            batch.forEach(queued -> callbackJournal.markApplied(queued.journalSequence()));
+        } catch (Exception e) {
+            if (batch.size() == 1 && e instanceof DataIntegrityViolationException) {
+                // Lost a race on the unique receipt constraint: the payment is already recorded
+                callbackJournal.markApplied(batch.get(0).journalSequence());
+                log.warn("Duplicate receipt for C2B confirmation {}, ignoring", batch.get(0).confirmation().getTransId());
+                return;
+            }
+            if (batch.size() == 1) {
+                // Safaricom has had its acknowledgement and will not send it again; once the
+                // retries run out it stays unapplied in the journal for the next startup replay
+                QueuedConfirmation queued = batch.get(0);
+                failedCounter.increment();
+                if (scheduleRetry(queued)) {
+                    log.warn("Error recording C2B confirmation {}, retrying: {}",
+                            queued.confirmation().getTransId(), e.getMessage());
+                } else {
+                    log.error("Error recording C2B confirmation {}: ", queued.confirmation().getTransId(), e);
+                }
+                return;
+            }
+            log.warn("Batch of {} C2B confirmations failed, retrying individually: {}", batch.size(), e.getMessage());
+            for (QueuedConfirmation queued : batch) {
+                applyBatch(List.of(queued));
+            }
+        }
+    }
+
+    private boolean scheduleRetry(QueuedConfirmation queued) {
+        if (queued.attempts() >= retryAttempts || retryScheduler.isShutdown()) {
+            return false;
+        }
+        QueuedConfirmation retry = new QueuedConfirmation(queued.journalSequence(), queued.confirmation(),
+                queued.attempts() + 1);
+        retryScheduler.schedule(() -> {
+            if (!queue.offer(retry)) {
+                defer(retry);
+            }
+        }, retryDelayMs << queued.attempts(), TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    // Already journaled, so a full queue only delays a confirmation; the request thread never records it
+    private void defer(QueuedConfirmation queued) {
+        if (retryScheduler.isShutdown()) {
+            log.warn("C2B confirmation {} left in the journal for replay", queued.confirmation().getTransId());
+            return;
+        }
+        log.warn("C2B confirmation queue is full, deferring {}", queued.confirmation().getTransId());
+        retryScheduler.schedule(() -> {
+            if (!queue.offer(queued)) {
+                defer(queued);
+            }
+        }, retryDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private record QueuedConfirmation(long journalSequence, C2BPaymentRequest confirmation, int attempts) {
+    }
+}
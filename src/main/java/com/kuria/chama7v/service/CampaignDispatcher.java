@@ -0,0 +1,189 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.request.MpesaStkRequest;
+import com.kuria.chama7v.dto.response.MpesaResponse;
+import com.kuria.chama7v.entity.CampaignRecipient;
+import com.kuria.chama7v.entity.MpesaTransaction;
+import com.kuria.chama7v.entity.PaymentCampaign;
+import com.kuria.chama7v.entity.enums.CampaignStatus;
+import com.kuria.chama7v.entity.enums.DarajaPriority;
+import com.kuria.chama7v.entity.enums.RecipientStatus;
+import com.kuria.chama7v.exception.DarajaOutcomeUnknownException;
+import com.kuria.chama7v.exception.DarajaUnavailableException;
+import com.kuria.chama7v.repository.CampaignRecipientRepository;
+import com.kuria.chama7v.repository.MpesaTransactionRepository;
+import com.kuria.chama7v.repository.PaymentCampaignRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Fans campaign STK pushes out in the background through {@link PacedDispatch}. Queued
+ * recipients are read in batches and each is claimed just before its push, so a restart simply
+ * picks up where the last run stopped and two instances never push the same member. A push left
+ * half-sent by an instance that stopped is only recovered once it is too old to be in flight
+ * anywhere, and is not sent again if its prompt reached the member.
+ */
+@Component
+@Slf4j
+public class CampaignDispatcher {
+
+    private static final List<RecipientStatus> UNSENT = List.of(RecipientStatus.QUEUED, RecipientStatus.SENT);
+
+    private final PaymentCampaignRepository campaignRepository;
+    private final CampaignRecipientRepository recipientRepository;
+    private final MpesaTransactionRepository transactionRepository;
+    private final MpesaService mpesaService;
+    private final CampaignProgressTracker progressTracker;
+    private final PacedDispatch dispatch;
+
+    @Value("${campaign.dispatch.batch-size:50}")
+    private int batchSize;
+
+    @Value("${campaign.dispatch.send-timeout-seconds:60}")
+    private long sendTimeoutSeconds;
+
+    public CampaignDispatcher(PaymentCampaignRepository campaignRepository,
+                              CampaignRecipientRepository recipientRepository,
+                              MpesaTransactionRepository transactionRepository,
+                              MpesaService mpesaService,
+                              CampaignProgressTracker progressTracker,
+                              @Qualifier("mpesaExecutor") Executor mpesaExecutor,
+                              @Value("${campaign.dispatch.concurrency:10}") int concurrency,
+                              @Value("${campaign.dispatch.requests-per-second:10}") int requestsPerSecond) {
+        this.campaignRepository = campaignRepository;
+        this.recipientRepository = recipientRepository;
+        this.transactionRepository = transactionRepository;
+        this.mpesaService = mpesaService;
+        this.progressTracker = progressTracker;
+        this.dispatch = new PacedDispatch("campaigns", mpesaExecutor, concurrency, requestsPerSecond);
+    }
+
+    @Scheduled(fixedDelayString = "${campaign.dispatch.interval-ms:2000}")
+    public void kick() {
+        dispatch.kick(pass -> {
+            for (PaymentCampaign campaign : campaignRepository.findByStatusOrderByIdAsc(CampaignStatus.DISPATCHING)) {
+                recoverInterrupted(campaign);
+                dispatch(campaign.getId(), pass);
+            }
+        });
+    }
+
+    private void dispatch(Long campaignId, PacedDispatch.Pass pass) throws InterruptedException {
+        while (!pass.isStopped()) {
+            PaymentCampaign campaign = campaignRepository.findById(campaignId).orElse(null);
+            if (campaign == null || campaign.getStatus() != CampaignStatus.DISPATCHING) {
+                return;
+            }
+
+            List<CampaignRecipient> batch = recipientRepository.findByCampaignAndStatus(
+                    campaignId, RecipientStatus.QUEUED, PageRequest.of(0, batchSize));
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            for (CampaignRecipient recipient : batch) {
+                if (!pass.offer(() -> recipientRepository.claimForSending(recipient.getId()) == 1 ? recipient : null,
+                        claimed -> send(campaign, claimed),
+                        (claimed, response, error) -> settle(campaign, claimed, response, error))) {
+                    break;
+                }
+            }
+        }
+
+        // Wait for the last pushes so the campaign is only closed once nothing is in flight
+        pass.awaitIdle();
+        if (!recipientRepository.existsInStatus(campaignId, UNSENT)
+                && campaignRepository.transition(campaignId, CampaignStatus.DISPATCHING,
+                CampaignStatus.DISPATCHED, LocalDateTime.now()) == 1) {
+            log.info("Campaign {} fully dispatched", campaignId);
+        }
+    }
+
+    // If its STK push was recorded the member has been prompted and it is taken as accepted;
+    // otherwise it is sent again
+    private void recoverInterrupted(PaymentCampaign campaign) {
+        LocalDateTime before = PacedDispatch.interruptedBefore(sendTimeoutSeconds);
+        int accepted = 0;
+        int requeued = 0;
+        List<CampaignRecipient> interrupted;
+        while (!(interrupted = recipientRepository.findInterrupted(campaign.getId(), before,
+                PageRequest.of(0, batchSize))).isEmpty()) {
+            for (CampaignRecipient recipient : interrupted) {
+                Optional<MpesaTransaction> push = transactionRepository.findPushesSince(recipient.getMemberId(),
+                        campaign.getAccountReference(), campaign.getAmount(), recipient.getUpdatedAt().minusMinutes(1),
+                        PageRequest.of(0, 1)).stream().findFirst();
+                if (push.isPresent()) {
+                    onAccepted(campaign.getId(), recipient, push.get().getCheckoutRequestId());
+                    accepted++;
+                } else {
+                    requeue(recipient);
+                    requeued++;
+                }
+            }
+        }
+        if (accepted + requeued > 0) {
+            log.warn("Campaign {}: {} pushes were interrupted mid-send; {} had reached the member, {} requeued",
+                    campaign.getId(), accepted + requeued, accepted, requeued);
+        }
+    }
+
+    private CompletableFuture<MpesaResponse> send(PaymentCampaign campaign, CampaignRecipient recipient) {
+        MpesaStkRequest request = new MpesaStkRequest();
+        request.setPhoneNumber(recipient.getPhoneNumber());
+        request.setAmount(campaign.getAmount());
+        request.setAccountReference(campaign.getAccountReference());
+        request.setTransactionDesc(campaign.getTransactionDesc());
+        request.setTransactionType(campaign.getTransactionType());
+        request.setMemberId(recipient.getMemberId());
+        request.setPriority(DarajaPriority.BATCH);
+        request.setTimeout(Duration.ofSeconds(sendTimeoutSeconds));
+        return mpesaService.initiateSTKPushAsync(request);
+    }
+
+    private void settle(PaymentCampaign campaign, CampaignRecipient recipient, MpesaResponse response, Throwable error) {
+        if (error == null) {
+            onAccepted(campaign.getId(), recipient, response.getCheckoutRequestID());
+        } else if (error instanceof DarajaUnavailableException) {
+            // Not the member's failure: sent again on a later kick
+            requeue(recipient);
+        } else if (error instanceof DarajaOutcomeUnknownException) {
+            // The member may have been prompted: left SENT for recoverInterrupted
+            log.warn("Campaign {} push to member {}: {}", campaign.getId(), recipient.getMemberId(), error.getMessage());
+        } else {
+            onSendFailed(campaign.getId(), recipient, error);
+        }
+    }
+
+    private void onAccepted(Long campaignId, CampaignRecipient recipient, String checkoutRequestId) {
+        if (recipientRepository.markAccepted(recipient.getId(), checkoutRequestId) == 0) {
+            return;
+        }
+        campaignRepository.incrementProgress(campaignId, 1, 1, 0, 0);
+        transactionRepository.findSettledStatus(checkoutRequestId)
+                .ifPresent(status -> progressTracker.applySettlements(Map.of(checkoutRequestId, status)));
+    }
+
+    private void requeue(CampaignRecipient recipient) {
+        recipientRepository.transition(List.of(recipient.getId()), RecipientStatus.SENT, RecipientStatus.QUEUED);
+    }
+
+    private void onSendFailed(Long campaignId, CampaignRecipient recipient, Throwable error) {
+        log.warn("Campaign {} push to member {} failed: {}", campaignId, recipient.getMemberId(), error.getMessage());
+        String message = error.getMessage() == null ? error.getClass().getSimpleName() : error.getMessage();
+        if (recipientRepository.markSendFailed(recipient.getId(), message.length() > 255 ? message.substring(0, 255) : message) == 1) {
+            campaignRepository.incrementProgress(campaignId, 1, 0, 0, 1);
+        }
+    }
+}
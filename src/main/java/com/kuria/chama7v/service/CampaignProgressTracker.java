@@ -0,0 +1,67 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.entity.CampaignRecipient;
+import com.kuria.chama7v.entity.enums.RecipientStatus;
+import com.kuria.chama7v.entity.enums.TransactionStatus;
+import com.kuria.chama7v.event.MpesaTransactionStatusChangedEvent;
+import com.kuria.chama7v.repository.CampaignRecipientRepository;
+import com.kuria.chama7v.repository.PaymentCampaignRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Moves campaign recipients from ACCEPTED to PAID or FAILED as their STK callbacks are applied,
+ * and rolls the changes up into the campaign counters with one increment per campaign.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class CampaignProgressTracker {
+
+    private final CampaignRecipientRepository recipientRepository;
+    private final PaymentCampaignRepository campaignRepository;
+
+    @TransactionalEventListener
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void onTransactionStatusChanged(MpesaTransactionStatusChangedEvent event) {
+        try {
+            applySettlements(event.statuses());
+        } catch (Exception e) {
+            log.error("Error updating campaign progress: ", e);
+        }
+    }
+
+    @Transactional
+    public void applySettlements(Map<String, TransactionStatus> statuses) {
+        List<CampaignRecipient> recipients = recipientRepository.findByCheckoutRequestIdIn(statuses.keySet());
+        if (recipients.isEmpty()) {
+            return;
+        }
+
+        Map<Long, int[]> tallies = new HashMap<>();
+        for (CampaignRecipient recipient : recipients) {
+            TransactionStatus status = statuses.get(recipient.getCheckoutRequestId());
+            if (status == null || status == TransactionStatus.PENDING) {
+                continue;
+            }
+            boolean paid = status == TransactionStatus.SUCCESS;
+            RecipientStatus target = paid ? RecipientStatus.PAID : RecipientStatus.FAILED;
+            // The guard makes this safe against the dispatcher settling the same recipient
+            if (recipientRepository.transition(List.of(recipient.getId()), RecipientStatus.ACCEPTED, target) == 1) {
+                int[] tally = tallies.computeIfAbsent(recipient.getCampaign().getId(), id -> new int[2]);
+                tally[paid ? 0 : 1]++;
+            }
+        }
+
+        tallies.forEach((campaignId, tally) ->
+                campaignRepository.incrementProgress(campaignId, 0, 0, tally[0], tally[1]));
+    }
+}
@@ -0,0 +1,13 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.request.CampaignRequest;
+import com.kuria.chama7v.dto.response.CampaignResponse;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+public interface CampaignService {
+    CampaignResponse createCampaign(CampaignRequest request);
+    CampaignResponse getCampaign(Long id);
+    Page<CampaignResponse> getCampaigns(Pageable pageable);
+    CampaignResponse cancelCampaign(Long id);
+}
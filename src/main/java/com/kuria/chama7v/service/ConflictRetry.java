@@ -0,0 +1,31 @@
+package com.kuria.chama7v.service;
+
+import io.github.resilience4j.retry.Retry;
+import io.github.resilience4j.retry.RetryRegistry;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.function.Supplier;
+
+/**
+ * Runs work in a transaction and starts it over when it loses a race: an optimistic-lock version
+ * mismatch, a deadlock or a lock timeout. Each attempt is a fresh transaction, so the work re-reads
+ * what the winner committed. Attempts and backoff are {@code resilience4j.retry.instances.conflict}.
+ * Must be called outside any transaction, or the retry would reuse the failed one.
+ */
+@Component
+public class ConflictRetry {
+
+    private final TransactionTemplate transactionTemplate;
+    private final Retry retry;
+
+    public ConflictRetry(PlatformTransactionManager transactionManager, RetryRegistry retryRegistry) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.retry = retryRegistry.retry("conflict", "conflict");
+    }
+
+    public <T> T inTransaction(Supplier<T> work) {
+        return retry.executeSupplier(() -> transactionTemplate.execute(status -> work.get()));
+    }
+}
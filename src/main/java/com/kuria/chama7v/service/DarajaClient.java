@@ -0,0 +1,443 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.config.MpesaProperties;
+import com.kuria.chama7v.dto.daraja.B2CPaymentRequest;
+import com.kuria.chama7v.dto.daraja.B2CPaymentResponse;
+import com.kuria.chama7v.dto.daraja.OAuthTokenResponse;
+import com.kuria.chama7v.dto.daraja.StkPushRequest;
+import com.kuria.chama7v.dto.daraja.StkPushResponse;
+import com.kuria.chama7v.dto.daraja.StkQueryRequest;
+import com.kuria.chama7v.dto.daraja.StkQueryResponse;
+import com.kuria.chama7v.entity.enums.DarajaPriority;
+import com.kuria.chama7v.exception.DarajaApiException;
+import com.kuria.chama7v.exception.DarajaUnavailableException;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.timeout.ReadTimeoutException;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.handler.timeout.WriteTimeoutHandler;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import javax.net.ssl.SSLException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The one HTTP client for Daraja. It is built once with its own Reactor Netty pool, so STK
+ * pushes reuse warm keep-alive connections and resumed TLS sessions instead of paying a TCP and
+ * TLS handshake per call. Every call is timed into {@code daraja.request}, tagged by endpoint
+ * and outcome, with percentile histograms for latency dashboards.
+ * <p>
+ * Each endpoint also sits behind its own circuit breaker and bulkhead, configured under
+ * {@code resilience4j.*.instances.daraja-*}. While Safaricom is failing or a bulkhead is full,
+ * calls fail straight away with {@link DarajaUnavailableException} instead of queueing up.
+ * Before any of that, {@link DarajaRateGovernor} holds the call until the API's TPS quota allows it.
+ * <p>
+ * OAuth and STK query are idempotent. Their timeouts follow the p99 tracked by
+ * {@link DarajaLatencyTracker}, and a call still running past the p95 is hedged with a second request.
+ */
+@Component
+@Slf4j
+public class DarajaClient {
+
+    public static final String OAUTH = "oauth";
+    public static final String STK_PUSH = "stk_push";
+    public static final String STK_QUERY = "stk_query";
+    public static final String B2C = "b2c";
+
+    private final MpesaProperties mpesaProperties;
+    private final MeterRegistry meterRegistry;
+    private final DarajaRateGovernor rateGovernor;
+    private final DarajaCodec codec;
+    private final ConnectionProvider connectionProvider;
+    private final WebClient webClient;
+    private final DarajaLatencyTracker latencyTracker;
+    private final Map<String, Guard> guards = new HashMap<>();
+    private final Map<String, Counter> hedgeCounters = new HashMap<>();
+    private final Map<String, Counter> hedgeWinCounters = new HashMap<>();
+
+    public DarajaClient(WebClient.Builder webClientBuilder,
+                        MpesaProperties mpesaProperties,
+                        MeterRegistry meterRegistry,
+                        CircuitBreakerRegistry circuitBreakerRegistry,
+                        BulkheadRegistry bulkheadRegistry,
+                        DarajaRateGovernor rateGovernor,
+                        DarajaLatencyTracker latencyTracker,
+                        DarajaCodec codec,
+                        @Value("${mpesa.http.max-connections:50}") int maxConnections,
+                        @Value("${mpesa.http.pending-acquire-timeout-ms:5000}") long pendingAcquireTimeoutMs,
+                        @Value("${mpesa.http.max-idle-time-ms:30000}") long maxIdleTimeMs,
+                        @Value("${mpesa.http.max-life-time-ms:300000}") long maxLifeTimeMs,
+                        @Value("${mpesa.http.connect-timeout-ms:5000}") int connectTimeoutMs,
+                        @Value("${mpesa.http.read-timeout-ms:30000}") long readTimeoutMs,
+                        @Value("${mpesa.http.write-timeout-ms:10000}") long writeTimeoutMs) throws SSLException {
+        this.mpesaProperties = mpesaProperties;
+        this.meterRegistry = meterRegistry;
+        this.rateGovernor = rateGovernor;
+        this.latencyTracker = latencyTracker;
+        this.codec = codec;
+
+        // Idle connections are retired before Daraja's load balancer drops them on its side
+        this.connectionProvider = ConnectionProvider.builder("daraja")
+                .maxConnections(maxConnections)
+                .pendingAcquireTimeout(Duration.ofMillis(pendingAcquireTimeoutMs))
+                .maxIdleTime(Duration.ofMillis(maxIdleTimeMs))
+                .maxLifeTime(Duration.ofMillis(maxLifeTimeMs))
+                .evictInBackground(Duration.ofMillis(maxIdleTimeMs))
+                .metrics(true)
+                .build();
+
+        // One SslContext for the whole pool, so new connections resume cached TLS sessions
+        SslContext sslContext = SslContextBuilder.forClient()
+                .sessionCacheSize(256)
+                .sessionTimeout(TimeUnit.HOURS.toSeconds(1))
+                .build();
+
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .keepAlive(true)
+                .secure(spec -> spec.sslContext(sslContext))
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .responseTimeout(Duration.ofMillis(readTimeoutMs))
+                .doOnConnected(connection -> connection
+                        .addHandlerLast(new ReadTimeoutHandler(readTimeoutMs, TimeUnit.MILLISECONDS))
+                        .addHandlerLast(new WriteTimeoutHandler(writeTimeoutMs, TimeUnit.MILLISECONDS)));
+
+        this.webClient = webClientBuilder.clone()
+                .baseUrl(mpesaProperties.getBaseUrl())
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+
+        for (String endpoint : List.of(OAUTH, STK_PUSH, STK_QUERY, B2C)) {
+            guards.put(endpoint, guard(endpoint, circuitBreakerRegistry, bulkheadRegistry));
+        }
+        for (String endpoint : List.of(OAUTH, STK_QUERY)) {
+            hedgeCounters.put(endpoint, hedgeCounter(endpoint, "sent"));
+            hedgeWinCounters.put(endpoint, hedgeCounter(endpoint, "won"));
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        connectionProvider.disposeLater().block(Duration.ofSeconds(5));
+    }
+
+    public Mono<OAuthTokenResponse> generateToken() {
+        String credentials = mpesaProperties.getConsumerKey() + ":" + mpesaProperties.getConsumerSecret();
+        String encodedCredentials = Base64.getEncoder()
+                .encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+
+        Mono<OAuthTokenResponse> call = webClient.get()
+                .uri("/oauth/v1/generate?grant_type=client_credentials")
+                .header(HttpHeaders.AUTHORIZATION, "Basic " + encodedCredentials)
+                .exchangeToMono(response -> readBody(OAUTH, response, codec::decodeTokenResponse));
+        // Every caller depends on the token, so it is never queued behind batch work
+        return hedged(OAUTH, () -> guarded(OAUTH, DarajaPriority.INTERACTIVE, timed(OAUTH, adaptive(OAUTH, call))));
+    }
+
+    // Idempotent, so it gets the adaptive timeout and may be hedged
+    public Mono<StkQueryResponse> stkQuery(String accessToken, StkQueryRequest request, DarajaPriority priority) {
+        Mono<StkQueryResponse> call = adaptive(STK_QUERY, post(STK_QUERY, "/mpesa/stkpushquery/v1/query",
+                accessToken, codec.encode(request), codec::decodeStkQueryResponse));
+        return hedged(STK_QUERY, () -> guarded(STK_QUERY, priority, timed(STK_QUERY, call)));
+    }
+
+    // A push that times out may still reach the customer, so STK push is never hedged and keeps
+    // the fixed read timeout rather than an adaptive one. maxWait, if set, bounds only the wait
+    // for a rate limit token; once the request is on its way it is never cut short
+    public Mono<StkPushResponse> stkPush(String accessToken, StkPushRequest request, DarajaPriority priority,
+                                         Duration maxWait) {
+        Mono<StkPushResponse> call = post(STK_PUSH, "/mpesa/stkpush/v1/processrequest",
+                accessToken, codec.encode(request), codec::decodeStkPushResponse);
+        return guarded(STK_PUSH, priority, maxWait, timed(STK_PUSH, call));
+    }
+
+    // Moves money, so like STK push it is never hedged, keeps the fixed read timeout and lets
+    // maxWait bound only the wait for a rate limit token
+    public Mono<B2CPaymentResponse> b2cPayment(String accessToken, B2CPaymentRequest request, DarajaPriority priority,
+                                               Duration maxWait) {
+        Mono<B2CPaymentResponse> call = post(B2C, "/mpesa/b2c/v3/paymentrequest",
+                accessToken, codec.encode(request), codec::decodeB2CPaymentResponse);
+        return guarded(B2C, priority, maxWait, timed(B2C, call));
+    }
+
+    // The body is encoded once, so hedged attempts resend the same bytes
+    private <T> Mono<T> post(String endpoint, String path, String accessToken, byte[] body,
+                             Function<byte[], T> decoder) {
+        return webClient.post()
+                .uri(path)
+                .header(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(body)
+                .exchangeToMono(response -> readBody(endpoint, response, decoder));
+    }
+
+    private <T> Mono<T> readBody(String endpoint, ClientResponse response, Function<byte[], T> decoder) {
+        int statusCode = response.statusCode().value();
+        if (response.statusCode().isError()) {
+            return response.bodyToMono(String.class)
+                    .defaultIfEmpty("")
+                    .flatMap(errorBody -> {
+                        log.error("M-Pesa {} returned {}: {}", endpoint, response.statusCode(), errorBody);
+                        return Mono.error(new DarajaApiException(endpoint, statusCode, errorBody));
+                    });
+        }
+        return response.bodyToMono(byte[].class)
+                .switchIfEmpty(Mono.error(new DarajaApiException(endpoint, statusCode, "empty response body")))
+                .handle((body, sink) -> {
+                    try {
+                        sink.next(decoder.apply(body));
+                    } catch (UncheckedIOException e) {
+                        sink.error(new DarajaApiException(endpoint, statusCode, e.getMessage()));
+                    }
+                });
+    }
+
+    private <T> Mono<T> guarded(String endpoint, DarajaPriority priority, Mono<T> call) {
+        return guarded(endpoint, priority, null, call);
+    }
+
+    // Waits for a rate limit token first, so queued calls hold no bulkhead permit. The breaker
+    // is outermost after that, so an open circuit rejects before a bulkhead permit is taken.
+    private <T> Mono<T> guarded(String endpoint, DarajaPriority priority, Duration maxWait, Mono<T> call) {
+        Guard guard = guards.get(endpoint);
+        Mono<T> protectedCall = call
+                .transformDeferred(BulkheadOperator.of(guard.bulkhead()))
+                .transformDeferred(CircuitBreakerOperator.of(guard.circuitBreaker()));
+        return Mono.defer(() -> isOpen(guard.circuitBreaker())
+                        ? protectedCall
+                        : permit(endpoint, priority, maxWait).then(protectedCall))
+                .onErrorMap(CallNotPermittedException.class, e -> {
+                    guard.circuitOpenRejections().increment();
+                    return new DarajaUnavailableException(endpoint, "circuit open", e);
+                })
+                .onErrorMap(BulkheadFullException.class, e -> {
+                    guard.bulkheadFullRejections().increment();
+                    return new DarajaUnavailableException(endpoint, "bulkhead full", e);
+                });
+    }
+
+    // Giving up on the wait cancels the queued permit, so the call is never sent and takes no
+    // token; it fails like any other call refused before reaching Daraja
+    private Mono<Void> permit(String endpoint, DarajaPriority priority, Duration maxWait) {
+        Mono<Void> permit = rateGovernor.acquire(endpoint, priority);
+        if (maxWait == null) {
+            return permit;
+        }
+        if (maxWait.isNegative() || maxWait.isZero()) {
+            return Mono.error(new DarajaUnavailableException(endpoint, "send deadline passed", null));
+        }
+        return permit.timeout(maxWait)
+                .onErrorMap(TimeoutException.class,
+                        e -> new DarajaUnavailableException(endpoint, "send deadline passed waiting for the rate limit", e));
+    }
+
+    // No point waiting for a token only to be refused by the breaker
+    private static boolean isOpen(CircuitBreaker circuitBreaker) {
+        CircuitBreaker.State state = circuitBreaker.getState();
+        return state == CircuitBreaker.State.OPEN || state == CircuitBreaker.State.FORCED_OPEN;
+    }
+
+    private Guard guard(String endpoint, CircuitBreakerRegistry circuitBreakerRegistry,
+                        BulkheadRegistry bulkheadRegistry) {
+        String name = "daraja-" + endpoint.replace('_', '-');
+        CircuitBreaker circuitBreaker = circuitBreakerRegistry.circuitBreaker(name, "daraja");
+        circuitBreaker.getEventPublisher().onStateTransition(event ->
+                log.warn("Daraja circuit breaker {}: {}", name, event.getStateTransition()));
+        Bulkhead bulkhead = bulkheadRegistry.bulkhead(name, "daraja");
+
+        return new Guard(circuitBreaker, bulkhead,
+                rejectionCounter(endpoint, "circuit_open"),
+                rejectionCounter(endpoint, "bulkhead_full"));
+    }
+
+    private Counter hedgeCounter(String endpoint, String result) {
+        return Counter.builder("daraja.hedged")
+                .description("Hedged second attempts sent to Daraja, and how many answered first")
+                .tag("endpoint", endpoint)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private Counter rejectionCounter(String endpoint, String reason) {
+        return Counter.builder("daraja.rejected")
+                .description("Daraja calls refused locally by the circuit breaker or bulkhead")
+                .tag("endpoint", endpoint)
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+
+    // The timeout is read per attempt, so it follows the latency window as it moves
+    private <T> Mono<T> adaptive(String endpoint, Mono<T> call) {
+        return Mono.defer(() -> call.timeout(latencyTracker.timeout(endpoint)));
+    }
+
+    // Sends a second attempt once the first has run past the endpoint's p95. The first reply wins
+    // and cancels the other attempt.
+    private <T> Mono<T> hedged(String endpoint, Supplier<Mono<T>> attempt) {
+        return Mono.defer(() -> {
+            Duration hedgeDelay = latencyTracker.hedgeDelay(endpoint);
+            if (hedgeDelay == null) {
+                return attempt.get();
+            }
+            return Mono.<T>create(sink -> {
+                HedgedCall<T> hedgedCall = new HedgedCall<>(sink, hedgeWinCounters.get(endpoint));
+                sink.onDispose(hedgedCall::dispose);
+                hedgedCall.launch(attempt.get(), false);
+                hedgedCall.onHedgeDue(Mono.delay(hedgeDelay).subscribe(tick -> {
+                    if (hedgedCall.isPending() && latencyTracker.tryHedge(endpoint)
+                            && hedgedCall.launch(attempt.get(), true)) {
+                        hedgeCounters.get(endpoint).increment();
+                    }
+                }));
+            });
+        });
+    }
+
+    private <T> Mono<T> timed(String endpoint, Mono<T> call) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call
+                    .doOnSuccess(result -> {
+                        latencyTracker.record(endpoint, System.nanoTime() - start);
+                        record(endpoint, "success", start);
+                    })
+                    .doOnError(error -> {
+                        if (isTimeout(error) || error instanceof DarajaApiException) {
+                            latencyTracker.record(endpoint, System.nanoTime() - start);
+                        }
+                        record(endpoint, outcome(error), start);
+                    });
+        });
+    }
+
+    private void record(String endpoint, String outcome, long startNanos) {
+        Timer.builder("daraja.request")
+                .description("Latency of calls to the Daraja API")
+                .tag("endpoint", endpoint)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static String outcome(Throwable error) {
+        if (error instanceof DarajaApiException apiError) {
+            return apiError.getStatusCode() >= 500 ? "server_error" : "client_error";
+        }
+        return isTimeout(error) ? "timeout" : "io_error";
+    }
+
+    private static boolean isTimeout(Throwable error) {
+        return error instanceof TimeoutException || error instanceof ReadTimeoutException;
+    }
+
+    private record Guard(CircuitBreaker circuitBreaker, Bulkhead bulkhead,
+                         Counter circuitOpenRejections, Counter bulkheadFullRejections) {
+    }
+
+    private static final class HedgedCall<T> {
+
+        private final MonoSink<T> sink;
+        private final Counter hedgeWins;
+        private final Disposable.Composite attempts = Disposables.composite();
+
+        private boolean done;
+        private int running;
+
+        HedgedCall(MonoSink<T> sink, Counter hedgeWins) {
+            this.sink = sink;
+            this.hedgeWins = hedgeWins;
+        }
+
+        synchronized boolean isPending() {
+            return !done;
+        }
+
+        synchronized void onHedgeDue(Disposable timer) {
+            attempts.add(timer);
+        }
+
+        synchronized boolean launch(Mono<T> attempt, boolean hedge) {
+            if (done) {
+                return false;
+            }
+            running++;
+            attempts.add(attempt.subscribe(
+                    value -> onValue(value, hedge),
+                    this::onError,
+                    () -> onValue(null, hedge)));
+            return true;
+        }
+
+        synchronized void dispose() {
+            done = true;
+            attempts.dispose();
+        }
+
+        private synchronized void onValue(T value, boolean hedge) {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (hedge) {
+                hedgeWins.increment();
+            }
+            if (value == null) {
+                sink.success();
+            } else {
+                sink.success(value);
+            }
+            attempts.dispose();
+        }
+
+        // A reply from Daraja is an answer even when it is an error; only a failed or timed-out
+        // exchange waits for the other attempt
+        private synchronized void onError(Throwable error) {
+            if (done) {
+                return;
+            }
+            running--;
+            if (running == 0 || error instanceof DarajaApiException) {
+                done = true;
+                sink.error(error);
+                attempts.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.kuria.chama7v.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.kuria.chama7v.config.MpesaProperties;
+import com.kuria.chama7v.dto.daraja.B2CPaymentRequest;
+import com.kuria.chama7v.dto.daraja.B2CPaymentResponse;
+import com.kuria.chama7v.dto.daraja.OAuthTokenResponse;
+import com.kuria.chama7v.dto.daraja.StkPushRequest;
+import com.kuria.chama7v.dto.daraja.StkPushResponse;
+import com.kuria.chama7v.dto.daraja.StkQueryRequest;
+import com.kuria.chama7v.dto.daraja.StkQueryResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Streaming JSON codec for Daraja payloads. Requests are written field by field with
+ * pre-encoded names, and the fields that never change (shortcode, transaction type, callback URL,
+ * B2C initiator) are serialized once at startup and copied in as raw bytes. Responses are read token by token
+ * straight into records; unknown fields are skipped. No intermediate Map or tree is built.
+ */
+@Component
+public class DarajaCodec {
+
+    static final String TRANSACTION_TYPE = "CustomerPayBillOnline";
+
+    private static final SerializableString PASSWORD = new SerializedString("Password");
+    private static final SerializableString TIMESTAMP = new SerializedString("Timestamp");
+    private static final SerializableString AMOUNT = new SerializedString("Amount");
+    private static final SerializableString PARTY_A = new SerializedString("PartyA");
+    private static final SerializableString PHONE_NUMBER = new SerializedString("PhoneNumber");
+    private static final SerializableString ACCOUNT_REFERENCE = new SerializedString("AccountReference");
+    private static final SerializableString TRANSACTION_DESC = new SerializedString("TransactionDesc");
+    private static final SerializableString CHECKOUT_REQUEST_ID = new SerializedString("CheckoutRequestID");
+    private static final SerializableString ORIGINATOR_CONVERSATION_ID = new SerializedString("OriginatorConversationID");
+    private static final SerializableString PARTY_B = new SerializedString("PartyB");
+    private static final SerializableString REMARKS = new SerializedString("Remarks");
+    private static final SerializableString OCCASION = new SerializedString("Occasion");
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    // Each ends with a comma so the per-request fields can follow straight on
+    private final SerializableString stkPushFixedFields;
+    private final SerializableString stkQueryFixedFields;
+    private final SerializableString b2cFixedFields;
+
+    @Autowired
+    public DarajaCodec(MpesaProperties mpesaProperties) {
+        this(mpesaProperties.getShortCode(), mpesaProperties.getCallbackUrl(), new B2CSettings(
+                mpesaProperties.getB2cShortCode(), mpesaProperties.getB2cInitiatorName(),
+                mpesaProperties.getB2cSecurityCredential(), mpesaProperties.getB2cCommandId(),
+                mpesaProperties.getB2cResultUrl(), mpesaProperties.getB2cTimeoutUrl()));
+    }
+
+    DarajaCodec(String shortCode, String callbackUrl) {
+        this(shortCode, callbackUrl, null);
+    }
+
+    DarajaCodec(String shortCode, String callbackUrl, B2CSettings b2c) {
+        this.stkPushFixedFields = fixedFields(gen -> {
+            gen.writeStringField("BusinessShortCode", shortCode);
+            gen.writeStringField("TransactionType", TRANSACTION_TYPE);
+            gen.writeStringField("PartyB", shortCode);
+            gen.writeStringField("CallBackURL", callbackUrl);
+        });
+        this.stkQueryFixedFields = fixedFields(gen -> gen.writeStringField("BusinessShortCode", shortCode));
+        this.b2cFixedFields = b2c == null ? null : fixedFields(gen -> {
+            gen.writeStringField("InitiatorName", b2c.initiatorName());
+            gen.writeStringField("SecurityCredential", b2c.securityCredential());
+            gen.writeStringField("CommandID", b2c.commandId());
+            gen.writeStringField("PartyA", b2c.shortCode());
+            gen.writeStringField("QueueTimeOutURL", b2c.timeoutUrl());
+            gen.writeStringField("ResultURL", b2c.resultUrl());
+        });
+    }
+
+    public byte[] encode(StkPushRequest request) {
+        return write(stkPushFixedFields, gen -> {
+            gen.writeFieldName(PASSWORD);
+            gen.writeString(request.password());
+            gen.writeFieldName(TIMESTAMP);
+            gen.writeString(request.timestamp());
+            gen.writeFieldName(AMOUNT);
+            gen.writeNumber(request.amount());
+            gen.writeFieldName(PARTY_A);
+            gen.writeString(request.phoneNumber());
+            gen.writeFieldName(PHONE_NUMBER);
+            gen.writeString(request.phoneNumber());
+            gen.writeFieldName(ACCOUNT_REFERENCE);
+            gen.writeString(request.accountReference());
+            gen.writeFieldName(TRANSACTION_DESC);
+            gen.writeString(request.transactionDesc());
+        });
+    }
+
+    public byte[] encode(StkQueryRequest request) {
+        return write(stkQueryFixedFields, gen -> {
+            gen.writeFieldName(PASSWORD);
+            gen.writeString(request.password());
+            gen.writeFieldName(TIMESTAMP);
+            gen.writeString(request.timestamp());
+            gen.writeFieldName(CHECKOUT_REQUEST_ID);
+            gen.writeString(request.checkoutRequestId());
+        });
+    }
+
+    public byte[] encode(B2CPaymentRequest request) {
+        if (b2cFixedFields == null) {
+            throw new IllegalStateException("B2C payouts are not configured");
+        }
+        return write(b2cFixedFields, gen -> {
+            gen.writeFieldName(ORIGINATOR_CONVERSATION_ID);
+            gen.writeString(request.originatorConversationId());
+            gen.writeFieldName(AMOUNT);
+            gen.writeNumber(request.amount());
+            gen.writeFieldName(PARTY_B);
+            gen.writeString(request.phoneNumber());
+            gen.writeFieldName(REMARKS);
+            gen.writeString(request.remarks());
+            gen.writeFieldName(OCCASION);
+            gen.writeString(request.occasion());
+        });
+    }
+
+    public StkPushResponse decodeStkPushResponse(byte[] body) {
+        try (JsonParser parser = openObject(body)) {
+            String merchantRequestId = null;
+            String checkoutRequestId = null;
+            String responseCode = null;
+            String responseDescription = null;
+            String customerMessage = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "MerchantRequestID" -> merchantRequestId = parser.getValueAsString();
+                    case "CheckoutRequestID" -> checkoutRequestId = parser.getValueAsString();
+                    case "ResponseCode" -> responseCode = parser.getValueAsString();
+                    case "ResponseDescription" -> responseDescription = parser.getValueAsString();
+                    case "CustomerMessage" -> customerMessage = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+            return new StkPushResponse(merchantRequestId, checkoutRequestId, responseCode,
+                    responseDescription, customerMessage);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unreadable STK push response", e);
+        }
+    }
+
+    public StkQueryResponse decodeStkQueryResponse(byte[] body) {
+        try (JsonParser parser = openObject(body)) {
+            String responseCode = null;
+            String responseDescription = null;
+            String merchantRequestId = null;
+            String checkoutRequestId = null;
+            String resultCode = null;
+            String resultDesc = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "ResponseCode" -> responseCode = parser.getValueAsString();
+                    case "ResponseDescription" -> responseDescription = parser.getValueAsString();
+                    case "MerchantRequestID" -> merchantRequestId = parser.getValueAsString();
+                    case "CheckoutRequestID" -> checkoutRequestId = parser.getValueAsString();
+                    case "ResultCode" -> resultCode = parser.getValueAsString();
+                    case "ResultDesc" -> resultDesc = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+            return new StkQueryResponse(responseCode, responseDescription, merchantRequestId,
+                    checkoutRequestId, resultCode, resultDesc);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unreadable STK query response", e);
+        }
+    }
+
+    public B2CPaymentResponse decodeB2CPaymentResponse(byte[] body) {
+        try (JsonParser parser = openObject(body)) {
+            String conversationId = null;
+            String originatorConversationId = null;
+            String responseCode = null;
+            String responseDescription = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "ConversationID" -> conversationId = parser.getValueAsString();
+                    case "OriginatorConversationID" -> originatorConversationId = parser.getValueAsString();
+                    case "ResponseCode" -> responseCode = parser.getValueAsString();
+                    case "ResponseDescription" -> responseDescription = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+            return new B2CPaymentResponse(conversationId, originatorConversationId, responseCode, responseDescription);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unreadable B2C payment response", e);
+        }
+    }
+
+    public OAuthTokenResponse decodeTokenResponse(byte[] body) {
+        try (JsonParser parser = openObject(body)) {
+            String accessToken = null;
+            String expiresIn = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "access_token" -> accessToken = parser.getValueAsString();
+                    case "expires_in" -> expiresIn = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+            return new OAuthTokenResponse(accessToken, expiresIn);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unreadable OAuth response", e);
+        }
+    }
+
+    private JsonParser openObject(byte[] body) throws IOException {
+        JsonParser parser = jsonFactory.createParser(body);
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            parser.close();
+            throw new IOException("Expected a JSON object");
+        }
+        return parser;
+    }
+
+    private byte[] write(SerializableString fixedFields, FieldWriter fields) {
+        ExactByteSink out = new ExactByteSink();
+        try (JsonGenerator gen = jsonFactory.createGenerator(out)) {
+            gen.writeStartObject();
+            gen.writeRaw(fixedFields);
+            fields.write(gen);
+            gen.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.bytes;
+    }
+
+    // Serializes the fields as an object, then keeps what is between the braces
+    private SerializableString fixedFields(FieldWriter fields) {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator gen = jsonFactory.createGenerator(out)) {
+            gen.writeStartObject();
+            fields.write(gen);
+            gen.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        String object = out.toString();
+        return new SerializedString(object.substring(1, object.length() - 1) + ",");
+    }
+
+    // The generator buffers internally and, for payloads this small, flushes once on close, so
+    // the body is copied exactly once into an array of the right size
+    private static final class ExactByteSink extends OutputStream {
+
+        private byte[] bytes = new byte[0];
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            byte[] grown = Arrays.copyOf(bytes, bytes.length + length);
+            System.arraycopy(buffer, offset, grown, bytes.length, length);
+            bytes = grown;
+        }
+    }
+
+    record B2CSettings(String shortCode, String initiatorName, String securityCredential, String commandId,
+                       String resultUrl, String timeoutUrl) {
+    }
+
+    @FunctionalInterface
+    private interface FieldWriter {
+        void write(JsonGenerator gen) throws IOException;
+    }
+}
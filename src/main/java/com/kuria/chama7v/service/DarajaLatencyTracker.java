@@ -0,0 +1,172 @@
+package com.kuria.chama7v.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rolling per-endpoint latency histograms for Daraja. Calls record into a lock-free HdrHistogram
+ * recorder; every interval the recorder is swapped out and the last few intervals are merged into
+ * a window, from which the adaptive timeout (a multiple of p99) and the hedge delay (p95) are
+ * derived. Until the window holds enough samples the configured read timeout applies and no call
+ * is hedged.
+ */
+@Component
+@Slf4j
+public class DarajaLatencyTracker {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+    private static final long BUDGET_UNIT = 100;
+
+    private final Map<String, EndpointLatency> endpoints = new HashMap<>();
+    private final MeterRegistry meterRegistry;
+
+    private final int windowIntervals;
+    private final long minSamples;
+    private final double timeoutMultiplier;
+    private final long minTimeoutMicros;
+    private final long maxTimeoutMicros;
+    private final boolean hedgingEnabled;
+    private final long minHedgeDelayMicros;
+    private final long hedgeBudgetPercent;
+
+    public DarajaLatencyTracker(MeterRegistry meterRegistry,
+                                @Value("${mpesa.latency.window-intervals:6}") int windowIntervals,
+                                @Value("${mpesa.latency.min-samples:50}") long minSamples,
+                                @Value("${mpesa.latency.timeout-multiplier:1.5}") double timeoutMultiplier,
+                                @Value("${mpesa.latency.min-timeout-ms:2000}") long minTimeoutMs,
+                                @Value("${mpesa.http.read-timeout-ms:30000}") long maxTimeoutMs,
+                                @Value("${mpesa.latency.hedge.enabled:true}") boolean hedgingEnabled,
+                                @Value("${mpesa.latency.hedge.min-delay-ms:100}") long minHedgeDelayMs,
+                                @Value("${mpesa.latency.hedge.budget-percent:10}") long hedgeBudgetPercent) {
+        this.meterRegistry = meterRegistry;
+        this.windowIntervals = Math.max(1, windowIntervals);
+        this.minSamples = minSamples;
+        this.timeoutMultiplier = timeoutMultiplier;
+        this.minTimeoutMicros = TimeUnit.MILLISECONDS.toMicros(minTimeoutMs);
+        this.maxTimeoutMicros = TimeUnit.MILLISECONDS.toMicros(maxTimeoutMs);
+        this.hedgingEnabled = hedgingEnabled;
+        this.minHedgeDelayMicros = TimeUnit.MILLISECONDS.toMicros(minHedgeDelayMs);
+        this.hedgeBudgetPercent = hedgeBudgetPercent;
+
+        for (String endpoint : List.of(DarajaClient.OAUTH, DarajaClient.STK_PUSH, DarajaClient.STK_QUERY, DarajaClient.B2C)) {
+            EndpointLatency latency = new EndpointLatency();
+            endpoints.put(endpoint, latency);
+            Gauge.builder("daraja.latency.p95", latency, l -> l.p95Micros / 1000.0)
+                    .description("p95 Daraja latency over the rolling window")
+                    .baseUnit("milliseconds")
+                    .tag("endpoint", endpoint)
+                    .register(meterRegistry);
+            Gauge.builder("daraja.latency.p99", latency, l -> l.p99Micros / 1000.0)
+                    .description("p99 Daraja latency over the rolling window")
+                    .baseUnit("milliseconds")
+                    .tag("endpoint", endpoint)
+                    .register(meterRegistry);
+        }
+    }
+
+    // Registered once constructed, since the gauge reads the tracker itself
+    @PostConstruct
+    void registerTimeoutGauges() {
+        for (String endpoint : endpoints.keySet()) {
+            Gauge.builder("daraja.latency.timeout", this, t -> t.timeout(endpoint).toMillis())
+                    .description("Adaptive timeout currently applied to Daraja calls")
+                    .baseUnit("milliseconds")
+                    .tag("endpoint", endpoint)
+                    .register(meterRegistry);
+        }
+    }
+
+    // Every answered call records its latency, error replies included; timed-out calls record the
+    // timeout they hit, so a slowdown pushes p99, and with it the timeout, up instead of hiding
+    // behind the cut-off
+    public void record(String endpoint, long nanos) {
+        EndpointLatency latency = endpoints.get(endpoint);
+        if (latency != null) {
+            latency.recorder.recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos)));
+        }
+    }
+
+    public Duration timeout(String endpoint) {
+        EndpointLatency latency = endpoints.get(endpoint);
+        if (latency == null || latency.samples < minSamples) {
+            return Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(maxTimeoutMicros));
+        }
+        long micros = (long) (latency.p99Micros * timeoutMultiplier);
+        return Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(
+                Math.min(maxTimeoutMicros, Math.max(minTimeoutMicros, micros))));
+    }
+
+    // Null when the call should not be hedged. Each call earns a fraction of a hedge, so hedges
+    // stay within the budget even when Daraja slows down across the board.
+    public Duration hedgeDelay(String endpoint) {
+        EndpointLatency latency = endpoints.get(endpoint);
+        if (!hedgingEnabled || latency == null || latency.samples < minSamples) {
+            return null;
+        }
+        latency.hedgeCredits.getAndUpdate(credits -> Math.min(BUDGET_UNIT * 10, credits + hedgeBudgetPercent));
+        return Duration.ofNanos(TimeUnit.MICROSECONDS.toNanos(Math.max(minHedgeDelayMicros, latency.p95Micros)));
+    }
+
+    public boolean tryHedge(String endpoint) {
+        EndpointLatency latency = endpoints.get(endpoint);
+        if (latency == null) {
+            return false;
+        }
+        while (true) {
+            long credits = latency.hedgeCredits.get();
+            if (credits < BUDGET_UNIT) {
+                return false;
+            }
+            if (latency.hedgeCredits.compareAndSet(credits, credits - BUDGET_UNIT)) {
+                return true;
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${mpesa.latency.interval-ms:10000}")
+    public void roll() {
+        for (EndpointLatency latency : endpoints.values()) {
+            latency.roll(windowIntervals);
+        }
+    }
+
+    private static final class EndpointLatency {
+
+        private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+        private final ArrayDeque<Histogram> intervals = new ArrayDeque<>();
+        private final AtomicLong hedgeCredits = new AtomicLong();
+
+        private volatile long samples;
+        private volatile long p95Micros;
+        private volatile long p99Micros;
+
+        synchronized void roll(int windowIntervals) {
+            intervals.addLast(recorder.getIntervalHistogram());
+            while (intervals.size() > windowIntervals) {
+                intervals.removeFirst();
+            }
+            Histogram window = new Histogram(SIGNIFICANT_DIGITS);
+            for (Histogram interval : intervals) {
+                window.add(interval);
+            }
+            samples = window.getTotalCount();
+            p95Micros = window.getValueAtPercentile(95.0);
+            p99Micros = window.getValueAtPercentile(99.0);
+        }
+    }
+}
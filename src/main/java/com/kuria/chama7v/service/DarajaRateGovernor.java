@@ -0,0 +1,241 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.entity.enums.DarajaPriority;
+import com.kuria.chama7v.exception.DarajaUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps outbound Daraja traffic under the app's per-API TPS quota. Each API has a token bucket;
+ * a call that finds the bucket empty waits in a queue instead of being sent and throttled.
+ * Interactive calls are always served before batch ones, FIFO within a priority, and a call
+ * that has waited longer than its priority's maximum fails with {@link DarajaUnavailableException}.
+ */
+@Component
+@Slf4j
+public class DarajaRateGovernor {
+
+    private final boolean enabled;
+    private final Map<DarajaPriority, Long> maxWaitNanos = new EnumMap<>(DarajaPriority.class);
+    private final Map<String, Bucket> buckets = new HashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final MeterRegistry meterRegistry;
+    private final LongSupplier nanoTime;
+
+    @Autowired
+    public DarajaRateGovernor(MeterRegistry meterRegistry,
+                              @Value("${mpesa.rate-limit.enabled:true}") boolean enabled,
+                              @Value("${mpesa.rate-limit.interactive-max-wait-ms:10000}") long interactiveMaxWaitMs,
+                              @Value("${mpesa.rate-limit.batch-max-wait-ms:60000}") long batchMaxWaitMs,
+                              @Value("${mpesa.rate-limit.oauth.tps:2}") double oauthTps,
+                              @Value("${mpesa.rate-limit.oauth.burst:2}") int oauthBurst,
+                              @Value("${mpesa.rate-limit.stk-push.tps:20}") double stkPushTps,
+                              @Value("${mpesa.rate-limit.stk-push.burst:20}") int stkPushBurst,
+                              @Value("${mpesa.rate-limit.stk-query.tps:5}") double stkQueryTps,
+                              @Value("${mpesa.rate-limit.stk-query.burst:5}") int stkQueryBurst,
+                              @Value("${mpesa.rate-limit.b2c.tps:5}") double b2cTps,
+                              @Value("${mpesa.rate-limit.b2c.burst:5}") int b2cBurst) {
+        this(meterRegistry, enabled, interactiveMaxWaitMs, batchMaxWaitMs, oauthTps, oauthBurst, stkPushTps, stkPushBurst,
+                stkQueryTps, stkQueryBurst, b2cTps, b2cBurst, System::nanoTime);
+    }
+
+    // Buckets refill and waits expire by the given clock; drains are still scheduled in real time
+    DarajaRateGovernor(MeterRegistry meterRegistry, boolean enabled, long interactiveMaxWaitMs, long batchMaxWaitMs,
+                       double oauthTps, int oauthBurst, double stkPushTps, int stkPushBurst,
+                       double stkQueryTps, int stkQueryBurst, double b2cTps, int b2cBurst, LongSupplier nanoTime) {
+        this.enabled = enabled;
+        this.meterRegistry = meterRegistry;
+        this.nanoTime = nanoTime;
+        this.maxWaitNanos.put(DarajaPriority.INTERACTIVE, TimeUnit.MILLISECONDS.toNanos(interactiveMaxWaitMs));
+        this.maxWaitNanos.put(DarajaPriority.BATCH, TimeUnit.MILLISECONDS.toNanos(batchMaxWaitMs));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "daraja-rate-governor");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        register(DarajaClient.OAUTH, oauthTps, oauthBurst);
+        register(DarajaClient.STK_PUSH, stkPushTps, stkPushBurst);
+        register(DarajaClient.STK_QUERY, stkQueryTps, stkQueryBurst);
+        register(DarajaClient.B2C, b2cTps, b2cBurst);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    // Completes once the call may be sent; nothing is taken from the bucket until then
+    public Mono<Void> acquire(String endpoint, DarajaPriority priority) {
+        Bucket bucket = buckets.get(endpoint);
+        if (!enabled || bucket == null) {
+            return Mono.empty();
+        }
+        return Mono.defer(() -> Mono.fromFuture(bucket.acquire(priority)));
+    }
+
+    public int queued(String endpoint) {
+        Bucket bucket = buckets.get(endpoint);
+        return bucket == null ? 0 : bucket.queued();
+    }
+
+    private void register(String endpoint, double tps, int burst) {
+        Bucket bucket = new Bucket(endpoint, tps, burst);
+        buckets.put(endpoint, bucket);
+        Gauge.builder("daraja.governor.queued", bucket, Bucket::queued)
+                .description("Daraja calls waiting for a rate limit token")
+                .tag("endpoint", endpoint)
+                .register(meterRegistry);
+    }
+
+    private Timer waitTimer(String endpoint, DarajaPriority priority) {
+        return Timer.builder("daraja.governor.wait")
+                .description("Time Daraja calls spent waiting for a rate limit token")
+                .tag("endpoint", endpoint)
+                .tag("priority", priority.name().toLowerCase())
+                .register(meterRegistry);
+    }
+
+    private Counter expiredCounter(String endpoint, DarajaPriority priority) {
+        return Counter.builder("daraja.governor.expired")
+                .description("Daraja calls that gave up waiting for a rate limit token")
+                .tag("endpoint", endpoint)
+                .tag("priority", priority.name().toLowerCase())
+                .register(meterRegistry);
+    }
+
+    private record Waiter(CompletableFuture<Void> permit, DarajaPriority priority, long enqueuedAt, long deadline) {
+    }
+
+    private final class Bucket {
+
+        private final String endpoint;
+        private final double tokensPerNano;
+        private final double capacity;
+        private final Map<DarajaPriority, ArrayDeque<Waiter>> waiters = new EnumMap<>(DarajaPriority.class);
+        private final Map<DarajaPriority, Timer> waitTimers = new EnumMap<>(DarajaPriority.class);
+        private final Map<DarajaPriority, Counter> expiredCounters = new EnumMap<>(DarajaPriority.class);
+
+        private double tokens;
+        private long refilledAt;
+        private boolean drainScheduled;
+
+        Bucket(String endpoint, double tps, int burst) {
+            this.endpoint = endpoint;
+            this.tokensPerNano = tps / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = Math.max(1, burst);
+            this.tokens = capacity;
+            this.refilledAt = nanoTime.getAsLong();
+            for (DarajaPriority priority : DarajaPriority.values()) {
+                waiters.put(priority, new ArrayDeque<>());
+                waitTimers.put(priority, waitTimer(endpoint, priority));
+                expiredCounters.put(priority, expiredCounter(endpoint, priority));
+            }
+        }
+
+        CompletableFuture<Void> acquire(DarajaPriority priority) {
+            synchronized (this) {
+                long now = nanoTime.getAsLong();
+                refill(now);
+                // Only take the fast path when nobody is queued, so a burst cannot jump the queue
+                if (queued() == 0 && tokens >= 1) {
+                    tokens -= 1;
+                    waitTimers.get(priority).record(0, TimeUnit.NANOSECONDS);
+                    return CompletableFuture.completedFuture(null);
+                }
+                Waiter waiter = new Waiter(new CompletableFuture<>(), priority, now, now + maxWaitNanos.get(priority));
+                waiters.get(priority).add(waiter);
+                scheduleDrain();
+                return waiter.permit();
+            }
+        }
+
+        synchronized int queued() {
+            int queued = 0;
+            for (ArrayDeque<Waiter> queue : waiters.values()) {
+                queued += queue.size();
+            }
+            return queued;
+        }
+
+        // Runs on the scheduler thread; permits are completed outside the lock because the
+        // Daraja call is subscribed from the completing thread
+        private void drain() {
+            List<Waiter> granted = new ArrayList<>();
+            List<Waiter> expired = new ArrayList<>();
+            long now = nanoTime.getAsLong();
+            synchronized (this) {
+                drainScheduled = false;
+                refill(now);
+                for (DarajaPriority priority : DarajaPriority.values()) {
+                    ArrayDeque<Waiter> queue = waiters.get(priority);
+                    queue.removeIf(waiter -> {
+                        if (waiter.permit().isDone()) {
+                            return true;
+                        }
+                        if (waiter.deadline() - now < 0) {
+                            expired.add(waiter);
+                            return true;
+                        }
+                        return false;
+                    });
+                    while (tokens >= 1 && !queue.isEmpty()) {
+                        tokens -= 1;
+                        granted.add(queue.poll());
+                    }
+                }
+                if (queued() > 0) {
+                    scheduleDrain();
+                }
+            }
+
+            for (Waiter waiter : granted) {
+                waitTimers.get(waiter.priority()).record(now - waiter.enqueuedAt(), TimeUnit.NANOSECONDS);
+                waiter.permit().complete(null);
+            }
+            for (Waiter waiter : expired) {
+                expiredCounters.get(waiter.priority()).increment();
+                waiter.permit().completeExceptionally(
+                        new DarajaUnavailableException(endpoint, "rate limit wait exceeded", null));
+            }
+            if (!expired.isEmpty()) {
+                log.warn("{} Daraja {} calls gave up waiting for the rate limit", expired.size(), endpoint);
+            }
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+        }
+
+        // Wakes up when the next token is due
+        private void scheduleDrain() {
+            if (drainScheduled || scheduler.isShutdown()) {
+                return;
+            }
+            drainScheduled = true;
+            long delay = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+            scheduler.schedule(this::drain, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.daraja.B2CPaymentRequest;
+import com.kuria.chama7v.dto.daraja.B2CPaymentResponse;
+import com.kuria.chama7v.entity.Loan;
+import com.kuria.chama7v.entity.LoanDisbursement;
+import com.kuria.chama7v.entity.enums.DisbursementStatus;
+import com.kuria.chama7v.exception.DarajaApiException;
+import com.kuria.chama7v.exception.DarajaUnavailableException;
+import com.kuria.chama7v.repository.LoanDisbursementRepository;
+import com.kuria.chama7v.util.PhoneNumberNormalizer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Pays approved loans out over M-Pesa B2C in the background through {@link PacedDispatch}.
+ * Queued payouts are read in batches and each is claimed just before it is sent. The loan only
+ * becomes DISBURSED when the result callback confirms the payout (see
+ * {@link DisbursementResultProcessor}).
+ * <p>
+ * Unlike an STK push, a repeated B2C request pays out twice. Only a request that provably never
+ * reached Daraja is put back on the queue; anything whose outcome is unknown is marked UNCERTAIN
+ * and cannot be retried until a B2C result settles it.
+ */
+@Component
+@Slf4j
+public class DisbursementDispatcher {
+
+    private static final String ORIGINATOR_PREFIX = "DSB-";
+
+    private final LoanDisbursementRepository disbursementRepository;
+    private final MpesaService mpesaService;
+    private final PacedDispatch dispatch;
+
+    @Value("${disbursement.dispatch.enabled:true}")
+    private boolean enabled;
+
+    @Value("${disbursement.dispatch.batch-size:20}")
+    private int batchSize;
+
+    @Value("${disbursement.dispatch.send-timeout-seconds:60}")
+    private long sendTimeoutSeconds;
+
+    @Value("${disbursement.result-timeout-minutes:60}")
+    private long resultTimeoutMinutes;
+
+    public DisbursementDispatcher(LoanDisbursementRepository disbursementRepository,
+                                  MpesaService mpesaService,
+                                  @Qualifier("mpesaExecutor") Executor mpesaExecutor,
+                                  @Value("${disbursement.dispatch.concurrency:4}") int concurrency,
+                                  @Value("${disbursement.dispatch.requests-per-second:2}") int requestsPerSecond) {
+        this.disbursementRepository = disbursementRepository;
+        this.mpesaService = mpesaService;
+        this.dispatch = new PacedDispatch("loan disbursements", mpesaExecutor, concurrency, requestsPerSecond);
+    }
+
+    // An interrupted payout may have been paid, so unlike a push it is never simply sent again
+    @Scheduled(fixedDelayString = "${disbursement.interrupted-sweep-interval-ms:60000}")
+    public void flagInterrupted() {
+        int flagged = disbursementRepository.markUncertain(DisbursementStatus.SENT,
+                PacedDispatch.interruptedBefore(sendTimeoutSeconds),
+                "Interrupted by shutdown while the B2C request was in flight");
+        if (flagged > 0) {
+            log.warn("{} loan disbursements were interrupted mid-send and need checking", flagged);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${disbursement.dispatch.interval-ms:5000}")
+    public void kick() {
+        if (enabled) {
+            dispatch.kick(this::dispatch);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${disbursement.result-sweep-interval-ms:300000}")
+    public void flagMissingResults() {
+        int flagged = disbursementRepository.markUncertain(DisbursementStatus.ACCEPTED,
+                LocalDateTime.now().minusMinutes(resultTimeoutMinutes), "No B2C result received");
+        if (flagged > 0) {
+            log.warn("{} loan disbursements got no B2C result within {} minutes", flagged, resultTimeoutMinutes);
+        }
+    }
+
+    private void dispatch(PacedDispatch.Pass pass) throws InterruptedException {
+        while (!pass.isStopped()) {
+            List<LoanDisbursement> batch = disbursementRepository.findByStatus(
+                    DisbursementStatus.QUEUED, PageRequest.of(0, batchSize));
+            if (batch.isEmpty()) {
+                break;
+            }
+
+            for (LoanDisbursement disbursement : batch) {
+                String originatorConversationId = originatorConversationId(disbursement.getId(),
+                        disbursement.getAttempts() + 1);
+                if (!pass.offer(() -> disbursementRepository.claimForSending(disbursement.getId(),
+                                originatorConversationId) == 1 ? disbursement : null,
+                        claimed -> send(claimed, originatorConversationId),
+                        (claimed, response, error) -> {
+                            if (error != null) {
+                                onError(claimed, error);
+                            } else if (response != null) {
+                                onResponse(claimed, response);
+                            }
+                        })) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private CompletableFuture<B2CPaymentResponse> send(LoanDisbursement disbursement, String originatorConversationId) {
+        Loan loan = disbursement.getLoan();
+        B2CPaymentRequest request;
+        try {
+            request = new B2CPaymentRequest(originatorConversationId,
+                    disbursement.getAmount().setScale(0, RoundingMode.UNNECESSARY).longValueExact(),
+                    PhoneNumberNormalizer.normalize(disbursement.getPhoneNumber()),
+                    "Loan " + loan.getLoanNumber(), loan.getLoanNumber());
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            // Settled here, before anything is sent; the null response leaves nothing to record
+            settle(disbursement, DisbursementStatus.FAILED, "Cannot pay out: " + e.getMessage());
+            return CompletableFuture.completedFuture(null);
+        }
+        return mpesaService.initiateB2CPaymentAsync(request, Duration.ofSeconds(sendTimeoutSeconds));
+    }
+
+    private void onResponse(LoanDisbursement disbursement, B2CPaymentResponse response) {
+        if (!response.isAccepted()) {
+            settle(disbursement, DisbursementStatus.FAILED,
+                    "Rejected by M-Pesa: " + response.responseCode() + " " + response.responseDescription());
+            return;
+        }
+        // Zero when the result callback got here first and has already settled the payout
+        disbursementRepository.markAccepted(disbursement.getId(), response.conversationId());
+    }
+
+    private void onError(LoanDisbursement disbursement, Throwable error) {
+        if (error instanceof DarajaUnavailableException) {
+            // Refused or given up on before anything was sent: safe to send again on a later kick
+            disbursementRepository.transition(disbursement.getId(), EnumSet.of(DisbursementStatus.SENT),
+                    DisbursementStatus.QUEUED, null);
+        } else if (error instanceof DarajaApiException apiError && apiError.getStatusCode() < 500) {
+            settle(disbursement, DisbursementStatus.FAILED, "Rejected by M-Pesa: " + apiError.getMessage());
+        } else {
+            // Read timeout, lost connection or a server error: Daraja may have taken the request
+            settle(disbursement, DisbursementStatus.UNCERTAIN, "Outcome unknown: " + describe(error));
+        }
+    }
+
+    private void settle(LoanDisbursement disbursement, DisbursementStatus status, String reason) {
+        log.warn("B2C payout for loan {} {}: {}", disbursement.getLoan().getLoanNumber(),
+                status.name().toLowerCase(), reason);
+        disbursementRepository.transition(disbursement.getId(), EnumSet.of(DisbursementStatus.SENT), status,
+                DisbursementResultProcessor.truncate(reason));
+    }
+
+    // A fresh ID per attempt, so Daraja never sees a retried payout as a duplicate. The row only
+    // keeps the latest, so the payout's own ID is part of each to match results of earlier ones
+    static String originatorConversationId(long disbursementId, int attempt) {
+        return ORIGINATOR_PREFIX + disbursementId + "-" + attempt;
+    }
+
+    // Null for IDs this dispatcher did not make
+    static Long disbursementIdOf(String originatorConversationId) {
+        if (originatorConversationId == null || !originatorConversationId.startsWith(ORIGINATOR_PREFIX)) {
+            return null;
+        }
+        int end = originatorConversationId.indexOf('-', ORIGINATOR_PREFIX.length());
+        try {
+            return Long.valueOf(originatorConversationId.substring(ORIGINATOR_PREFIX.length(),
+                    end < 0 ? originatorConversationId.length() : end));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String describe(Throwable error) {
+        return error.getMessage() == null ? error.getClass().getSimpleName() : error.getMessage();
+    }
+}
@@ -0,0 +1,177 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.request.B2CResultRequest;
+import com.kuria.chama7v.entity.LoanDisbursement;
+import com.kuria.chama7v.entity.enums.DisbursementStatus;
+import com.kuria.chama7v.event.AccountChangedEvent;
+import com.kuria.chama7v.repository.LoanDisbursementRepository;
+import com.kuria.chama7v.repository.LoanRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Applies B2C result callbacks to loan_disbursements and moves the loan to DISBURSED. Results
+ * arrive in batches from {@link DisbursementResultQueue}; each batch is one lookup query and one
+ * transaction. Every change is a guarded UPDATE that re-checks the status in the database: a failure
+ * is only applied to the payout's latest attempt while it awaits one, a success never overwrites a
+ * completed payout, and the loan transition is guarded on APPROVED, so neither a redelivered result
+ * nor one racing another writer changes anything twice.
+ * <p>
+ * A successful result settles the payout even when it is for an attempt that has since been
+ * retried: the member has been paid. If another attempt also pays, the payout is flagged in its
+ * result description rather than overwritten.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DisbursementResultProcessor {
+
+    // UNCERTAIN is included: a late result is exactly what settles it
+    static final Set<DisbursementStatus> AWAITING_RESULT =
+            EnumSet.of(DisbursementStatus.SENT, DisbursementStatus.ACCEPTED, DisbursementStatus.UNCERTAIN);
+
+    private final LoanDisbursementRepository disbursementRepository;
+    private final LoanRepository loanRepository;
+    private final ApplicationEventPublisher eventPublisher;
+
+    // Returns the number of payouts settled or flagged by the batch
+    @Transactional
+    public int applyBatch(List<B2CResultRequest.Result> results) {
+        Map<String, LoanDisbursement> disbursements = new HashMap<>();
+        for (LoanDisbursement disbursement : disbursementRepository.findByOriginatorConversationIdIn(
+                results.stream().map(B2CResultRequest.Result::getOriginatorConversationID).toList())) {
+            disbursements.put(disbursement.getOriginatorConversationId(), disbursement);
+        }
+        // The row only keeps the latest attempt's ID, so a result for an earlier attempt of a
+        // retried payout is found by the payout ID inside its own
+        Map<Long, LoanDisbursement> retried = new HashMap<>();
+        List<Long> retriedIds = results.stream()
+                .map(B2CResultRequest.Result::getOriginatorConversationID)
+                .filter(id -> !disbursements.containsKey(id))
+                .map(DisbursementDispatcher::disbursementIdOf)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        if (!retriedIds.isEmpty()) {
+            for (LoanDisbursement disbursement : disbursementRepository.findAllById(retriedIds)) {
+                retried.put(disbursement.getId(), disbursement);
+            }
+        }
+
+        int updated = 0;
+        Set<Long> disbursedMembers = new HashSet<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (B2CResultRequest.Result result : results) {
+            String originatorConversationId = result.getOriginatorConversationID();
+            LoanDisbursement disbursement = disbursements.get(originatorConversationId);
+            if (disbursement == null) {
+                Long disbursementId = DisbursementDispatcher.disbursementIdOf(originatorConversationId);
+                disbursement = disbursementId != null ? retried.get(disbursementId) : null;
+            }
+            if (disbursement == null) {
+                log.warn("Disbursement not found for OriginatorConversationID: {}", originatorConversationId);
+                continue;
+            }
+            boolean latestAttempt = originatorConversationId.equals(disbursement.getOriginatorConversationId());
+            boolean paid = Integer.valueOf(0).equals(result.getResultCode());
+            String receipt = receipt(result);
+
+            // The row read above may be stale by now: another result batch, the timeout callback or
+            // the dispatcher's sweeps can have moved it on, so every write re-checks the status
+            if (disbursement.getStatus() == DisbursementStatus.COMPLETED) {
+                if (paid && flagPaidTwice(disbursement, disbursement.getTransactionReceipt(),
+                        originatorConversationId, receipt)) {
+                    updated++;
+                } else if (!paid) {
+                    log.info("Ignoring B2C result for settled disbursement {}", originatorConversationId);
+                }
+                continue;
+            }
+
+            if (paid) {
+                // Settles the payout whichever attempt it came from: a retry still queued is then
+                // never claimed, and one in flight shows up here as a second payout if it goes through
+                if (!latestAttempt) {
+                    log.warn("Late B2C result for {} settles loan {} after its retry as {} ({})", originatorConversationId,
+                            disbursement.getLoan().getId(), disbursement.getOriginatorConversationId(),
+                            disbursement.getStatus());
+                }
+                if (disbursementRepository.complete(disbursement.getId(), originatorConversationId,
+                        result.getConversationID(), String.valueOf(result.getResultCode()), result.getResultDesc(),
+                        receipt, now) == 0) {
+                    // Completed since it was read, by a result for another attempt
+                    if (flagPaidTwice(disbursement, disbursementRepository.findReceiptById(disbursement.getId()),
+                            originatorConversationId, receipt)) {
+                        updated++;
+                    }
+                    continue;
+                }
+                if (loanRepository.markDisbursed(disbursement.getLoan().getId(), now) == 1) {
+                    log.info("Loan {} disbursed: {}", disbursement.getLoan().getId(), receipt);
+                    disbursedMembers.add(disbursement.getLoan().getMember().getId());
+                }
+                updated++;
+            } else if (latestAttempt && disbursementRepository.failByOriginator(originatorConversationId,
+                    AWAITING_RESULT, result.getConversationID(), String.valueOf(result.getResultCode()),
+                    result.getResultDesc()) == 1) {
+                log.warn("B2C payout for loan {} failed: {} - {}", disbursement.getLoan().getId(),
+                        result.getResultCode(), result.getResultDesc());
+                updated++;
+            } else {
+                // A failed earlier attempt says nothing about the latest one
+                log.info("Ignoring failed B2C result {} for disbursement {} ({})", originatorConversationId,
+                        disbursement.getId(), disbursement.getStatus());
+            }
+        }
+
+        if (!disbursedMembers.isEmpty()) {
+            eventPublisher.publishEvent(new AccountChangedEvent(disbursedMembers, AccountChangedEvent.Change.LOAN));
+        }
+        return updated;
+    }
+
+    // Two attempts both went through; only a treasurer can recover the second payout
+    private boolean flagPaidTwice(LoanDisbursement disbursement, String settledReceipt,
+                                  String originatorConversationId, String receipt) {
+        if (Objects.equals(receipt, settledReceipt)) {
+            log.info("Ignoring B2C result for settled disbursement {}", originatorConversationId);
+            return false;
+        }
+        log.error("Loan {} was paid out twice: {} and {} under {}", disbursement.getLoan().getId(),
+                settledReceipt, receipt, originatorConversationId);
+        return disbursementRepository.flagCompleted(disbursement.getId(), truncate("Paid out twice: "
+                + originatorConversationId + " also paid, receipt " + receipt)) == 1;
+    }
+
+    // Daraja gave up on the request while it was queued on its side. Whether it was paid out is
+    // unknown until a result arrives, so the payout is parked for a manual check, never requeued.
+    public void applyTimeout(B2CResultRequest.Result result) {
+        String description = result.getResultDesc() != null ? result.getResultDesc() : "B2C request timed out at Daraja";
+        if (disbursementRepository.transitionByOriginator(result.getOriginatorConversationID(),
+                EnumSet.of(DisbursementStatus.SENT, DisbursementStatus.ACCEPTED),
+                DisbursementStatus.UNCERTAIN, truncate(description)) == 1) {
+            log.warn("B2C payout {} timed out at Daraja, marked uncertain", result.getOriginatorConversationID());
+        }
+    }
+
+    private static String receipt(B2CResultRequest.Result result) {
+        Object receipt = result.findResultParameter("TransactionReceipt");
+        return receipt != null ? String.valueOf(receipt) : result.getTransactionID();
+    }
+
+    static String truncate(String message) {
+        return message.length() > 255 ? message.substring(0, 255) : message;
+    }
+}
@@ -0,0 +1,80 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.request.B2CResultRequest;
+import com.kuria.chama7v.util.BoundedBatchQueue;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Acknowledges B2C result callbacks straight away and applies them in batches on worker threads,
+ * the same way {@link MpesaCallbackQueue} does for STK callbacks. A result lost here (queue full
+ * and the inline apply failing, or a crash) leaves its payout ACCEPTED, which
+ * {@link DisbursementDispatcher} eventually flags as UNCERTAIN.
+ */
+@Component
+@Slf4j
+public class DisbursementResultQueue {
+
+    private final DisbursementResultProcessor resultProcessor;
+    private final BoundedBatchQueue<B2CResultRequest.Result> queue;
+
+    private final Counter appliedCounter;
+    private final Counter failedCounter;
+
+    public DisbursementResultQueue(DisbursementResultProcessor resultProcessor,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${disbursement.result.queue-capacity:1000}") int capacity,
+                                   @Value("${disbursement.result.batch-size:50}") int batchSize,
+                                   @Value("${disbursement.result.workers:1}") int workers) {
+        this.resultProcessor = resultProcessor;
+        this.queue = new BoundedBatchQueue<>("b2c-result", capacity, batchSize, workers, this::applyBatch);
+        this.queue.registerMetrics(meterRegistry, "mpesa.b2c.result.queue");
+
+        this.appliedCounter = Counter.builder("mpesa.b2c.result.applied")
+                .description("B2C results applied to loan_disbursements")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("mpesa.b2c.result.failed")
+                .description("B2C results that could not be applied")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        queue.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        queue.stop(5000);
+    }
+
+    public void submit(B2CResultRequest.Result result) {
+        if (!queue.offer(result)) {
+            log.warn("B2C result queue is full, applying {} inline", result.getOriginatorConversationID());
+            applyBatch(List.of(result));
+        }
+    }
+
+    private void applyBatch(List<B2CResultRequest.Result> batch) {
+        try {
+            appliedCounter.increment(resultProcessor.applyBatch(batch));
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                failedCounter.increment();
+                log.error("Error applying B2C result {}: ", batch.get(0).getOriginatorConversationID(), e);
+                return;
+            }
+            log.warn("Batch of {} B2C results failed, retrying individually: {}", batch.size(), e.getMessage());
+            for (B2CResultRequest.Result result : batch) {
+                applyBatch(List.of(result));
+            }
+        }
+    }
+}
@@ -0,0 +1,472 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.response.LoanAccrualRunResponse;
+import com.kuria.chama7v.entity.Loan;
+import com.kuria.chama7v.entity.LoanAccrualChunk;
+import com.kuria.chama7v.entity.LoanAccrualRun;
+import com.kuria.chama7v.entity.LoanCharge;
+import com.kuria.chama7v.entity.LoanInstallment;
+import com.kuria.chama7v.entity.enums.AccrualRunStatus;
+import com.kuria.chama7v.entity.enums.LoanChargeType;
+import com.kuria.chama7v.event.AccountChangedEvent;
+import com.kuria.chama7v.repository.LoanAccrualChunkRepository;
+import com.kuria.chama7v.repository.LoanAccrualRunRepository;
+import com.kuria.chama7v.repository.LoanChargeRepository;
+import com.kuria.chama7v.repository.LoanInstallmentRepository;
+import com.kuria.chama7v.repository.LoanRepository;
+import com.kuria.chama7v.repository.MemberRepository;
+import com.kuria.chama7v.util.LoanCalculator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * The nightly accrual batch. For each business date it posts every payable loan's share of its
+ * current installment's scheduled interest, and a penalty on installments still open past the
+ * grace period. An approved loan whose B2C payout has not completed accrues nothing until it has.
+ * Loans are scanned in id order and cut into chunks of {@code chunk-size}, which {@code workers}
+ * threads post in parallel.
+ * <p>
+ * Every chunk is recorded before it is handed to a worker and marked done in the transaction that
+ * posts it, so a run stopped part-way resumes with the chunks it had not finished and carries on
+ * scanning where it left off. Charges are unique per loan, day and type, so nothing is posted twice.
+ * The run's heartbeat is renewed as chunks finish; another instance takes over a run once it goes
+ * stale for {@code stale-minutes}.
+ * <p>
+ * Accruals are a ledger of interest earned: scheduled interest is already in the loan balance, so
+ * they do not move it. Penalties are new debt and are added to the loan balance, the member's
+ * outstanding loan and the oldest overdue installment, where the next repayment settles them first.
+ */
+@Component
+@Slf4j
+public class LoanAccrualBatch {
+
+    // The installment accrued on falls due within a month of the business date
+    private static final int DUE_WINDOW_DAYS = 31;
+    private static final BigDecimal HUNDRED = BigDecimal.valueOf(100);
+
+    private final LoanRepository loanRepository;
+    private final LoanInstallmentRepository installmentRepository;
+    private final LoanChargeRepository chargeRepository;
+    private final LoanAccrualRunRepository runRepository;
+    private final LoanAccrualChunkRepository chunkRepository;
+    private final MemberRepository memberRepository;
+    private final RepaymentAllocator repaymentAllocator;
+    private final ConflictRetry conflictRetry;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ExecutorService accrualExecutor;
+    private final Executor taskExecutor;
+
+    // One run at a time per instance, whether started by the schedule or by hand
+    private final ReentrantLock runLock = new ReentrantLock();
+
+    private final LocalTime runAfter;
+    private final Counter chunksCounter;
+    private final Counter accrualsCounter;
+    private final Counter penaltiesCounter;
+
+    @Value("${loan-accrual.enabled:true}")
+    private boolean enabled;
+
+    @Value("${loan-accrual.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${loan-accrual.workers:4}")
+    private int workers;
+
+    @Value("${loan-accrual.catch-up-days:7}")
+    private int catchUpDays;
+
+    @Value("${loan-accrual.stale-minutes:5}")
+    private long staleMinutes;
+
+    @Value("${loan-accrual.penalty.daily-rate:0.1}")
+    private BigDecimal penaltyDailyRate;
+
+    @Value("${loan-accrual.penalty.grace-days:3}")
+    private int graceDays;
+
+    public LoanAccrualBatch(LoanRepository loanRepository,
+                            LoanInstallmentRepository installmentRepository,
+                            LoanChargeRepository chargeRepository,
+                            LoanAccrualRunRepository runRepository,
+                            LoanAccrualChunkRepository chunkRepository,
+                            MemberRepository memberRepository,
+                            RepaymentAllocator repaymentAllocator,
+                            ConflictRetry conflictRetry,
+                            ApplicationEventPublisher eventPublisher,
+                            @Qualifier("accrualExecutor") ExecutorService accrualExecutor,
+                            @Qualifier("taskExecutor") Executor taskExecutor,
+                            MeterRegistry meterRegistry,
+                            @Value("${loan-accrual.run-after:00:30}") String runAfter) {
+        this.loanRepository = loanRepository;
+        this.installmentRepository = installmentRepository;
+        this.chargeRepository = chargeRepository;
+        this.runRepository = runRepository;
+        this.chunkRepository = chunkRepository;
+        this.memberRepository = memberRepository;
+        this.repaymentAllocator = repaymentAllocator;
+        this.conflictRetry = conflictRetry;
+        this.eventPublisher = eventPublisher;
+        this.accrualExecutor = accrualExecutor;
+        this.taskExecutor = taskExecutor;
+        this.runAfter = LocalTime.parse(runAfter);
+        this.chunksCounter = counter(meterRegistry, "chunks", "Loan accrual chunks posted");
+        this.accrualsCounter = counter(meterRegistry, "accruals", "Daily interest accruals posted");
+        this.penaltiesCounter = counter(meterRegistry, "penalties", "Overdue penalties charged");
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String name, String description) {
+        return Counter.builder("loan_accrual." + name).description(description).register(meterRegistry);
+    }
+
+    // Runs every date since the last completed one, up to yesterday once run-after has passed.
+    // Also picks up a run another instance abandoned, once its heartbeat is stale
+    @Scheduled(fixedDelayString = "${loan-accrual.check-interval-ms:300000}",
+            initialDelayString = "${loan-accrual.initial-delay-ms:60000}")
+    public void catchUp() {
+        if (!enabled) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        LocalDate latest = now.toLocalDate().minusDays(now.toLocalTime().isBefore(runAfter) ? 2 : 1);
+        LocalDate from = runRepository.findLastCompletedDate()
+                .map(date -> date.plusDays(1))
+                .orElse(latest);
+        if (from.isBefore(latest.minusDays(catchUpDays - 1))) {
+            log.warn("Loan accrual is {} days behind; catching up the last {} only",
+                    ChronoUnit.DAYS.between(from, latest) + 1, catchUpDays);
+            from = latest.minusDays(catchUpDays - 1);
+        }
+        try {
+            for (LocalDate date = from; !date.isAfter(latest); date = date.plusDays(1)) {
+                if (!runFor(date)) {
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error running loan accrual: ", e);
+        }
+    }
+
+    public List<LoanAccrualRunResponse> recentRuns(int limit) {
+        return runRepository.findAllByOrderByBusinessDateDesc(PageRequest.of(0, limit)).stream()
+                .map(this::toResponse)
+                .toList();
+    }
+
+    public void start(LocalDate date) {
+        if (!date.isBefore(LocalDate.now())) {
+            throw new IllegalArgumentException("Accruals can only be run for a past date");
+        }
+        CompletableFuture.runAsync(() -> runFor(date), taskExecutor)
+                .exceptionally(e -> {
+                    log.error("Error running loan accrual for {}: ", date, e);
+                    return null;
+                });
+    }
+
+    // Starts or resumes the run for a past date; returns false if it did not complete here,
+    // because another instance holds it or a chunk failed
+    public boolean runFor(LocalDate date) {
+        if (!date.isBefore(LocalDate.now())) {
+            throw new IllegalArgumentException("Accruals can only be run for a past date");
+        }
+        if (!runLock.tryLock()) {
+            log.info("Loan accrual already running on this instance, {} left for later", date);
+            return false;
+        }
+        try {
+            Optional<LoanAccrualRun> claimed = claim(date);
+            if (claimed.isEmpty()) {
+                return runRepository.findByBusinessDate(date)
+                        .map(run -> run.getStatus() == AccrualRunStatus.COMPLETED)
+                        .orElse(false);
+            }
+            return process(claimed.get());
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    // A new run, or a running one whose heartbeat has gone stale
+    private Optional<LoanAccrualRun> claim(LocalDate date) {
+        LocalDateTime now = LocalDateTime.now();
+        Optional<LoanAccrualRun> existing = runRepository.findByBusinessDate(date);
+        if (existing.isEmpty()) {
+            LoanAccrualRun run = new LoanAccrualRun();
+            run.setBusinessDate(date);
+            run.setStartedAt(now);
+            run.setHeartbeatAt(now);
+            try {
+                return Optional.of(runRepository.saveAndFlush(run));
+            } catch (DataIntegrityViolationException e) {
+                // Another instance started it first
+                return Optional.empty();
+            }
+        }
+        LoanAccrualRun run = existing.get();
+        if (run.getStatus() != AccrualRunStatus.RUNNING
+                || runRepository.claim(run.getId(), now, now.minusMinutes(staleMinutes)) == 0) {
+            return Optional.empty();
+        }
+        log.warn("Resuming loan accrual for {} from loan {} after {} chunks",
+                date, run.getScannedThroughId(), run.getChunksDone());
+        return Optional.of(run);
+    }
+
+    private boolean process(LoanAccrualRun run) {
+        long started = System.currentTimeMillis();
+        Semaphore inFlight = new Semaphore(workers * 2);
+        List<CompletableFuture<Void>> posted = new ArrayList<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        try {
+            for (LoanAccrualChunk chunk : chunkRepository.findByRunIdAndDoneFalseOrderByFirstLoanIdAsc(run.getId())) {
+                posted.add(submit(run, chunk, inFlight, failure));
+            }
+            long afterId = Math.max(run.getScannedThroughId(),
+                    chunkRepository.findLastScannedId(run.getId()).orElse(0L));
+            while (failure.get() == null) {
+                List<Long> ids = loanRepository.findPayableIds(afterId, PageRequest.of(0, chunkSize));
+                if (ids.isEmpty()) {
+                    break;
+                }
+                afterId = ids.get(ids.size() - 1);
+                LoanAccrualChunk chunk = new LoanAccrualChunk();
+                chunk.setRunId(run.getId());
+                chunk.setFirstLoanId(ids.get(0));
+                chunk.setLastLoanId(afterId);
+                chunk = chunkRepository.save(chunk);
+                runRepository.recordScan(run.getId(), afterId, LocalDateTime.now());
+                posted.add(submit(run, chunk, inFlight, failure));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+
+        CompletableFuture.allOf(posted.toArray(CompletableFuture[]::new)).join();
+        if (failure.get() != null) {
+            log.error("Loan accrual for {} stopped; it resumes from its last checkpoint: ",
+                    run.getBusinessDate(), failure.get());
+            return false;
+        }
+        runRepository.complete(run.getId(), LocalDateTime.now());
+        LoanAccrualRun done = runRepository.findById(run.getId()).orElse(run);
+        log.info("Loan accrual for {} completed in {} ms: {} loans, {} accrued, {} in penalties",
+                run.getBusinessDate(), System.currentTimeMillis() - started, done.getLoansProcessed(),
+                done.getInterestAccrued(), done.getPenaltiesCharged());
+        return true;
+    }
+
+    private CompletableFuture<Void> submit(LoanAccrualRun run, LoanAccrualChunk chunk, Semaphore inFlight,
+                                           AtomicReference<Throwable> failure) throws InterruptedException {
+        inFlight.acquire();
+        return CompletableFuture.runAsync(() -> {
+            if (failure.get() == null) {
+                conflictRetry.inTransaction(() -> post(run, chunk));
+            }
+        }, accrualExecutor).whenComplete((ignored, error) -> {
+            inFlight.release();
+            if (error != null) {
+                failure.compareAndSet(null, error);
+            }
+        }).exceptionally(error -> null);
+    }
+
+    // One transaction: the chunk is done exactly when its charges are in
+    private Void post(LoanAccrualRun run, LoanAccrualChunk chunk) {
+        LocalDateTime now = LocalDateTime.now();
+        if (chunkRepository.markDone(chunk.getId(), now) == 0) {
+            return null;
+        }
+        LocalDate date = run.getBusinessDate();
+        List<Loan> loans = loanRepository.lockPayableBetween(chunk.getFirstLoanId(), chunk.getLastLoanId());
+        if (loans.isEmpty()) {
+            runRepository.addProgress(run.getId(), 0, BigDecimal.ZERO, BigDecimal.ZERO, now);
+            return null;
+        }
+        List<Long> ids = loans.stream().map(Loan::getId).toList();
+
+        Map<Long, Set<LoanChargeType>> alreadyPosted = new HashMap<>();
+        for (LoanCharge charge : chargeRepository.findByLoanIdInAndChargeDate(ids, date)) {
+            alreadyPosted.computeIfAbsent(charge.getLoan().getId(), id -> EnumSet.noneOf(LoanChargeType.class))
+                    .add(charge.getType());
+        }
+        Map<Long, List<LoanInstallment>> installments = installmentsFor(loans, date);
+
+        List<LoanCharge> charges = new ArrayList<>();
+        List<LoanInstallment> penalized = new ArrayList<>();
+        // Sorted so members are always locked in the same order
+        Map<Long, BigDecimal> penaltiesByMember = new TreeMap<>();
+        BigDecimal interestTotal = BigDecimal.ZERO;
+        BigDecimal penaltyTotal = BigDecimal.ZERO;
+
+        for (Loan loan : loans) {
+            LocalDate start = startDate(loan);
+            if (!start.isBefore(date)) {
+                continue;
+            }
+            Set<LoanChargeType> done = alreadyPosted.getOrDefault(loan.getId(), Set.of());
+            List<LoanInstallment> schedule = installments.getOrDefault(loan.getId(), List.of());
+
+            if (!done.contains(LoanChargeType.INTEREST_ACCRUAL)) {
+                LoanCharge accrual = accrue(loan, schedule, start, date);
+                if (accrual != null) {
+                    charges.add(accrual);
+                    interestTotal = interestTotal.add(accrual.getAmount());
+                }
+            }
+            if (!done.contains(LoanChargeType.PENALTY)) {
+                LoanCharge penalty = penalize(loan, schedule, date, penalized);
+                if (penalty != null) {
+                    charges.add(penalty);
+                    penaltyTotal = penaltyTotal.add(penalty.getAmount());
+                    loanRepository.addPenalty(loan.getId(), penalty.getAmount());
+                    penaltiesByMember.merge(loan.getMember().getId(), penalty.getAmount(), BigDecimal::add);
+                }
+            }
+        }
+
+        installmentRepository.saveAll(penalized);
+        chargeRepository.saveAll(charges);
+        penaltiesByMember.forEach(memberRepository::addOutstandingLoan);
+        runRepository.addProgress(run.getId(), loans.size(), interestTotal, penaltyTotal, now);
+        if (!penaltiesByMember.isEmpty()) {
+            eventPublisher.publishEvent(new AccountChangedEvent(List.copyOf(penaltiesByMember.keySet()),
+                    AccountChangedEvent.Change.LOAN));
+        }
+
+        chunksCounter.increment();
+        accrualsCounter.increment(charges.size() - penalized.size());
+        penaltiesCounter.increment(penalized.size());
+        return null;
+    }
+
+    // Loans approved before schedules were stored get theirs here, as a repayment would
+    private Map<Long, List<LoanInstallment>> installmentsFor(List<Loan> loans, LocalDate date) {
+        List<Long> ids = loans.stream().map(Loan::getId).toList();
+        Set<Long> scheduled = Set.copyOf(installmentRepository.findLoanIdsWithSchedule(ids));
+        for (Loan loan : loans) {
+            if (!scheduled.contains(loan.getId())) {
+                installmentRepository.saveAll(repaymentAllocator.reconstruct(loan));
+            }
+        }
+        return installmentRepository.findForAccrual(ids, date, date.plusDays(DUE_WINDOW_DAYS),
+                        date.minusDays(graceDays)).stream()
+                .collect(Collectors.groupingBy(installment -> installment.getLoan().getId()));
+    }
+
+    // The business date's share of the interest on the installment it falls in. Each day gets the
+    // difference of two floors, so the days of a period add up to its interest to the cent
+    private LoanCharge accrue(Loan loan, List<LoanInstallment> schedule, LocalDate start, LocalDate date) {
+        LoanInstallment current = schedule.stream()
+                .filter(installment -> !installment.getDueDate().isBefore(date))
+                .findFirst()
+                .orElse(null);
+        if (current == null) {
+            return null;
+        }
+        // Due dates run monthly from the start date, so the previous one need not be read
+        LocalDate periodStart = start.plusMonths(current.getInstallmentNumber() - 1);
+        long days = ChronoUnit.DAYS.between(periodStart, current.getDueDate());
+        long day = ChronoUnit.DAYS.between(periodStart, date);
+        if (days <= 0 || day <= 0 || day > days) {
+            return null;
+        }
+        long interestCents = LoanCalculator.toCents(current.getInterestAmount());
+        long cents = interestCents * day / days - interestCents * (day - 1) / days;
+        if (cents == 0) {
+            return null;
+        }
+        return charge(loan, date, LoanChargeType.INTEREST_ACCRUAL, LoanCalculator.fromCents(cents),
+                current.getInstallmentNumber());
+    }
+
+    // A day's penalty on the interest and principal still owed on installments past their grace
+    // period, charged to the oldest of them
+    private LoanCharge penalize(Loan loan, List<LoanInstallment> schedule, LocalDate date,
+                                List<LoanInstallment> penalized) {
+        LocalDate overdueBefore = date.minusDays(graceDays);
+        List<LoanInstallment> overdue = schedule.stream()
+                .filter(installment -> !installment.isSettled() && installment.getDueDate().isBefore(overdueBefore))
+                .toList();
+        if (overdue.isEmpty()) {
+            return null;
+        }
+        BigDecimal owed = BigDecimal.ZERO;
+        for (LoanInstallment installment : overdue) {
+            owed = owed.add(installment.getInterestAmount().subtract(installment.getInterestPaid()))
+                    .add(installment.getPrincipalAmount().subtract(installment.getPrincipalPaid()));
+        }
+        BigDecimal amount = owed.multiply(penaltyDailyRate).divide(HUNDRED, 2, RoundingMode.HALF_UP);
+        if (amount.signum() <= 0) {
+            return null;
+        }
+        LoanInstallment oldest = overdue.get(0);
+        oldest.setPenaltyAmount(oldest.getPenaltyAmount().add(amount));
+        penalized.add(oldest);
+        return charge(loan, date, LoanChargeType.PENALTY, amount, oldest.getInstallmentNumber());
+    }
+
+    private static LoanCharge charge(Loan loan, LocalDate date, LoanChargeType type, BigDecimal amount,
+                                     int installmentNumber) {
+        LoanCharge charge = new LoanCharge();
+        charge.setLoan(loan);
+        charge.setChargeDate(date);
+        charge.setType(type);
+        charge.setAmount(amount);
+        charge.setInstallmentNumber(installmentNumber);
+        return charge;
+    }
+
+    private static LocalDate startDate(Loan loan) {
+        return (loan.getApprovalDate() != null ? loan.getApprovalDate() : loan.getApplicationDate()).toLocalDate();
+    }
+
+    private LoanAccrualRunResponse toResponse(LoanAccrualRun run) {
+        LoanAccrualRunResponse response = new LoanAccrualRunResponse();
+        response.setBusinessDate(run.getBusinessDate());
+        response.setStatus(run.getStatus());
+        response.setChunksDone(run.getChunksDone());
+        response.setLoansProcessed(run.getLoansProcessed());
+        response.setInterestAccrued(run.getInterestAccrued());
+        response.setPenaltiesCharged(run.getPenaltiesCharged());
+        response.setStartedAt(run.getStartedAt());
+        response.setHeartbeatAt(run.getHeartbeatAt());
+        response.setFinishedAt(run.getFinishedAt());
+        return response;
+    }
+}
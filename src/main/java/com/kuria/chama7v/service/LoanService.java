@@ -2,6 +2,9 @@ package com.kuria.chama7v.service;
 
 
 import com.kuria.chama7v.dto.request.LoanApplicationRequest;
+import com.kuria.chama7v.dto.response.BatchLoanApprovalResponse;
+import com.kuria.chama7v.dto.response.DisbursementResponse;
+import com.kuria.chama7v.dto.response.LoanInstallmentResponse;
 import com.kuria.chama7v.dto.response.LoanResponse;
 import com.kuria.chama7v.entity.enums.LoanStatus;
 import org.springframework.data.domain.Page;
@@ -9,6 +12,7 @@ import org.springframework.data.domain.Pageable;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.List;
 
 public interface LoanService {
     LoanResponse applyForLoan(LoanApplicationRequest request);
@@ -18,7 +22,11 @@ public interface LoanService {
     Page<LoanResponse> filterLoans(Long memberId, LoanStatus status, BigDecimal minAmount, BigDecimal maxAmount,
                                    LocalDateTime from, LocalDateTime to, Pageable pageable);
     LoanResponse approveLoan(Long loanId);
+    BatchLoanApprovalResponse approveLoans(List<Long> loanIds);
+    DisbursementResponse getDisbursement(Long loanId);
+    DisbursementResponse retryDisbursement(Long loanId);
     LoanResponse rejectLoan(Long loanId, String reason);
     LoanResponse getLoanById(Long id);
+    List<LoanInstallmentResponse> getLoanSchedule(Long loanId);
     LoanResponse makeLoanPayment(Long loanId, java.math.BigDecimal amount);
 }
\ No newline at end of file
@@ -0,0 +1,160 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.entity.Member;
+import com.kuria.chama7v.entity.enums.MemberStatus;
+import com.kuria.chama7v.event.MemberChangedEvent;
+import com.kuria.chama7v.repository.MemberRepository;
+import com.kuria.chama7v.util.PhoneNumberNormalizer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * In-memory lookup from member number and phone to member ID, for the C2B validation callback
+ * which must answer before Daraja's deadline without touching the database. Lookups read an
+ * immutable snapshot; a member change rebuilds the snapshot from the cached entries after the
+ * change commits. A periodic reload catches changes made elsewhere, such as another instance.
+ * Suspended and inactive members are left out, so their payments are not matched to them.
+ * <p>
+ * Phone numbers are not unique across members; a phone shared by several members is left out
+ * of the index so a payment is never credited to the wrong one.
+ */
+@Component
+@Slf4j
+public class MemberDirectory {
+
+    private final MemberRepository memberRepository;
+    private final MeterRegistry meterRegistry;
+
+    private final Object writeLock = new Object();
+    // Guarded by writeLock
+    private final Map<Long, Entry> entries = new HashMap<>();
+    private volatile Index index = new Index(Map.of(), Map.of());
+
+    public MemberDirectory(MemberRepository memberRepository, MeterRegistry meterRegistry) {
+        this.memberRepository = memberRepository;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void registerGauge() {
+        Gauge.builder("member.directory.size", this, directory -> directory.index.byMemberNumber().size())
+                .description("Members indexed for C2B account lookups")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        reload();
+    }
+
+    @Scheduled(fixedDelayString = "${member-directory.refresh-interval-ms:600000}",
+            initialDelayString = "${member-directory.refresh-interval-ms:600000}")
+    public void reload() {
+        Map<Long, Entry> loaded = new HashMap<>();
+        for (Member member : memberRepository.findByDeletedFalse()) {
+            if (isIndexed(member)) {
+                loaded.put(member.getId(), Entry.of(member));
+            }
+        }
+        synchronized (writeLock) {
+            entries.clear();
+            entries.putAll(loaded);
+            index = Index.of(entries);
+        }
+        log.debug("Member directory loaded with {} members", loaded.size());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMemberChanged(MemberChangedEvent event) {
+        Optional<Member> member = memberRepository.findById(event.memberId()).filter(MemberDirectory::isIndexed);
+        synchronized (writeLock) {
+            if (member.isPresent()) {
+                entries.put(event.memberId(), Entry.of(member.get()));
+            } else {
+                entries.remove(event.memberId());
+            }
+            index = Index.of(entries);
+        }
+    }
+
+    private static boolean isIndexed(Member member) {
+        return !member.isDeleted() && member.getStatus() != MemberStatus.SUSPENDED
+                && member.getStatus() != MemberStatus.INACTIVE;
+    }
+
+    // The account reference is tried as a member number, then as a phone number, since members
+    // often type their own number; the payer's MSISDN is the last resort
+    public Optional<Long> resolve(String accountReference, String payerPhone) {
+        Index current = index;
+        Long memberId = accountReference == null ? null : current.byMemberNumber().get(canonicalMemberNumber(accountReference));
+        if (memberId == null) {
+            memberId = byPhone(current, accountReference);
+        }
+        if (memberId == null) {
+            memberId = byPhone(current, payerPhone);
+        }
+        return Optional.ofNullable(memberId);
+    }
+
+    private static Long byPhone(Index current, String phone) {
+        return PhoneNumberNormalizer.isValid(phone) ? current.byPhone().get(PhoneNumberNormalizer.normalize(phone)) : null;
+    }
+
+    // Uppercase with separators dropped, and the digits padded so "c1" and "C-001" both find C001
+    static String canonicalMemberNumber(String reference) {
+        StringBuilder canonical = new StringBuilder(reference.length());
+        for (int i = 0; i < reference.length(); i++) {
+            char c = reference.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                canonical.append(Character.toUpperCase(c));
+            }
+        }
+        int digits = canonical.length() - 1;
+        if (digits >= 1 && digits < 3 && Character.isLetter(canonical.charAt(0))) {
+            for (int i = 1; i < canonical.length(); i++) {
+                if (!Character.isDigit(canonical.charAt(i))) {
+                    return canonical.toString();
+                }
+            }
+            canonical.insert(1, "0".repeat(3 - digits));
+        }
+        return canonical.toString();
+    }
+
+    private record Entry(String memberNumber, String phone) {
+        static Entry of(Member member) {
+            String phone = PhoneNumberNormalizer.isValid(member.getPhone())
+                    ? PhoneNumberNormalizer.normalize(member.getPhone()) : null;
+            return new Entry(canonicalMemberNumber(member.getMemberNumber()), phone);
+        }
+    }
+
+    private record Index(Map<String, Long> byMemberNumber, Map<String, Long> byPhone) {
+        static Index of(Map<Long, Entry> entries) {
+            Map<String, Long> byMemberNumber = new HashMap<>(entries.size() * 2);
+            Map<String, Long> byPhone = new HashMap<>(entries.size() * 2);
+            Set<String> sharedPhones = new HashSet<>();
+            entries.forEach((memberId, entry) -> {
+                byMemberNumber.put(entry.memberNumber(), memberId);
+                if (entry.phone() != null && byPhone.putIfAbsent(entry.phone(), memberId) != null) {
+                    sharedPhones.add(entry.phone());
+                }
+            });
+            byPhone.keySet().removeAll(sharedPhones);
+            return new Index(Map.copyOf(byMemberNumber), Map.copyOf(byPhone));
+        }
+    }
+}
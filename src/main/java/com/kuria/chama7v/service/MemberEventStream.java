@@ -0,0 +1,310 @@
+package com.kuria.chama7v.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kuria.chama7v.entity.enums.TransactionStatus;
+import com.kuria.chama7v.event.AccountChangedEvent;
+import com.kuria.chama7v.event.MpesaTransactionStatusChangedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes payment status and account changes to members' connected clients over server-sent
+ * events, so they no longer poll. Each member has a channel holding the last {@code replay-size}
+ * events; a client reconnecting with {@code Last-Event-ID} gets what it missed from there, or a
+ * {@code resync} event telling it to refetch when the gap is too old or the server restarted.
+ * <p>
+ * Each connection is written to from its own bounded buffer on a virtual thread, so a slow client
+ * never holds up a callback batch. A connection whose buffer fills is closed; the client
+ * reconnects and catches up from the channel. Events only reach clients connected to the
+ * instance that applied the change.
+ */
+@Component
+@Slf4j
+public class MemberEventStream {
+
+    // Event IDs are "<epoch>-<sequence>": an ID from before a restart carries another epoch
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+    private final Map<Long, Channel> channels = new ConcurrentHashMap<>();
+    private final ObjectMapper objectMapper;
+    private final Executor eventStreamExecutor;
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final Counter droppedCounter;
+
+    @Value("${events.stream.timeout-ms:1800000}")
+    private long timeoutMs;
+
+    @Value("${events.stream.replay-size:50}")
+    private int replaySize;
+
+    @Value("${events.stream.connection-buffer:100}")
+    private int connectionBuffer;
+
+    @Value("${events.stream.max-connections-per-member:5}")
+    private int maxConnectionsPerMember;
+
+    @Value("${events.stream.idle-retention-minutes:10}")
+    private long idleRetentionMinutes;
+
+    public MemberEventStream(ObjectMapper objectMapper,
+                             @Qualifier("eventStreamExecutor") Executor eventStreamExecutor,
+                             MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+        this.eventStreamExecutor = eventStreamExecutor;
+        Gauge.builder("events.stream.connections", connectionCount, AtomicInteger::get)
+                .description("Open server-sent event connections")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("events.stream.dropped")
+                .description("Connections closed because the client fell too far behind")
+                .register(meterRegistry);
+    }
+
+    public SseEmitter connect(Long memberId, String lastEventId) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        while (!register(memberId, emitter, lastEventId)) {
+            // The channel was retired as idle between the lookup and the lock; take the new one
+        }
+        return emitter;
+    }
+
+    // Registered and caught up under the channel lock, so no event falls between the two
+    private boolean register(Long memberId, SseEmitter emitter, String lastEventId) {
+        Channel channel = channels.computeIfAbsent(memberId, id -> new Channel(replaySize));
+        synchronized (channel) {
+            if (channel.retired) {
+                return false;
+            }
+            Connection connection = new Connection(channel, emitter, connectionBuffer);
+            emitter.onCompletion(() -> connection.close(false));
+            emitter.onTimeout(() -> connection.close(true));
+            emitter.onError(error -> connection.close(true));
+            channel.touch();
+            // A new client gets an ID to resume from even if nothing happens before it drops
+            List<Event> missed = channel.since(lastEventId, epoch);
+            if (lastEventId == null || lastEventId.isBlank()) {
+                connection.enqueue(new Event(channel.currentId(epoch), "connected", "{}"));
+            } else if (missed == null) {
+                connection.enqueue(new Event(channel.currentId(epoch), "resync", "{}"));
+            } else {
+                missed.forEach(connection::enqueue);
+            }
+            channel.connections.add(connection);
+            connectionCount.incrementAndGet();
+            if (channel.connections.size() > maxConnectionsPerMember) {
+                channel.connections.get(0).close(true);
+            }
+        }
+        return true;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onTransactionStatusChanged(MpesaTransactionStatusChangedEvent event) {
+        event.statuses().forEach((checkoutRequestId, status) -> {
+            Long memberId = event.memberIds().get(checkoutRequestId);
+            if (memberId != null) {
+                publish(memberId, "mpesa-transaction", new TransactionUpdate(checkoutRequestId, status));
+            }
+        });
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onAccountChanged(AccountChangedEvent event) {
+        String name = event.change().name().toLowerCase();
+        for (Long memberId : event.memberIds()) {
+            publish(memberId, name, new AccountUpdate(event.change()));
+        }
+    }
+
+    // Keeps proxies from closing idle connections and notices clients that have gone away
+    @Scheduled(fixedDelayString = "${events.stream.heartbeat-interval-ms:15000}")
+    public void heartbeat() {
+        long idleCutoff = System.currentTimeMillis() - idleRetentionMinutes * 60_000;
+        channels.forEach((memberId, channel) -> {
+            synchronized (channel) {
+                if (channel.connections.isEmpty()) {
+                    if (channel.lastActive < idleCutoff) {
+                        channel.retired = true;
+                        channels.remove(memberId, channel);
+                    }
+                    return;
+                }
+                channel.touch();
+                channel.connections.forEach(connection -> connection.enqueue(Event.HEARTBEAT));
+            }
+        });
+    }
+
+    @PreDestroy
+    public void closeAll() {
+        channels.values().forEach(channel -> channel.connections.forEach(connection -> connection.close(true)));
+    }
+
+    private void publish(Long memberId, String name, Object payload) {
+        Channel channel = channels.get(memberId);
+        if (channel == null) {
+            return;
+        }
+        String data;
+        try {
+            data = objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            log.error("Error serializing {} event for member {}: ", name, memberId, e);
+            return;
+        }
+        synchronized (channel) {
+            Event event = channel.append(epoch, name, data);
+            channel.connections.forEach(connection -> connection.enqueue(event));
+        }
+    }
+
+    private record Event(String id, String name, String data) {
+        static final Event HEARTBEAT = new Event(null, null, null);
+    }
+
+    private record TransactionUpdate(String checkoutRequestId, TransactionStatus status) {
+    }
+
+    private record AccountUpdate(AccountChangedEvent.Change change) {
+    }
+
+    // A member's recent events and open connections; guarded by its own monitor
+    private static final class Channel {
+        private final Event[] recent;
+        private final List<Connection> connections = new CopyOnWriteArrayList<>();
+        private long sequence;
+        private long lastActive = System.currentTimeMillis();
+        private boolean retired;
+
+        Channel(int replaySize) {
+            this.recent = new Event[Math.max(1, replaySize)];
+        }
+
+        Event append(String epoch, String name, String data) {
+            Event event = new Event(epoch + "-" + ++sequence, name, data);
+            recent[(int) (sequence % recent.length)] = event;
+            return event;
+        }
+
+        String currentId(String epoch) {
+            return epoch + "-" + sequence;
+        }
+
+        void touch() {
+            lastActive = System.currentTimeMillis();
+        }
+
+        // The events after lastEventId, or null if they can no longer all be replayed
+        List<Event> since(String lastEventId, String epoch) {
+            if (lastEventId == null || lastEventId.isBlank()) {
+                return List.of();
+            }
+            int dash = lastEventId.lastIndexOf('-');
+            if (dash < 0 || !epoch.equals(lastEventId.substring(0, dash))) {
+                return null;
+            }
+            long seen;
+            try {
+                seen = Long.parseLong(lastEventId.substring(dash + 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (seen > sequence || sequence - seen > recent.length) {
+                return null;
+            }
+            List<Event> missed = new ArrayList<>((int) (sequence - seen));
+            for (long s = seen + 1; s <= sequence; s++) {
+                missed.add(recent[(int) (s % recent.length)]);
+            }
+            return missed;
+        }
+    }
+
+    private final class Connection {
+        private final Channel channel;
+        private final SseEmitter emitter;
+        private final Queue<Event> buffer;
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Connection(Channel channel, SseEmitter emitter, int capacity) {
+            this.channel = channel;
+            this.emitter = emitter;
+            this.buffer = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        }
+
+        void enqueue(Event event) {
+            if (closed.get()) {
+                return;
+            }
+            if (!buffer.offer(event)) {
+                droppedCounter.increment();
+                log.debug("Event stream client fell {} events behind, closing it", buffer.size());
+                close(true);
+                return;
+            }
+            if (draining.compareAndSet(false, true)) {
+                eventStreamExecutor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                Event event;
+                while (!closed.get() && (event = buffer.poll()) != null) {
+                    try {
+                        emitter.send(toSse(event));
+                    } catch (IOException | IllegalStateException e) {
+                        close(true);
+                        return;
+                    }
+                }
+                draining.set(false);
+            } while (!buffer.isEmpty() && !closed.get() && draining.compareAndSet(false, true));
+        }
+
+        private SseEmitter.SseEventBuilder toSse(Event event) {
+            if (event == Event.HEARTBEAT) {
+                return SseEmitter.event().comment("heartbeat");
+            }
+            return SseEmitter.event().id(event.id()).name(event.name()).data(event.data());
+        }
+
+        void close(boolean complete) {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            channel.connections.remove(this);
+            connectionCount.decrementAndGet();
+            buffer.clear();
+            if (complete) {
+                try {
+                    emitter.complete();
+                } catch (IllegalStateException e) {
+                    // Already completed by the container
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.request.MpesaCallbackRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * First tier of callback idempotency: remembers recently seen CheckoutRequestIDs and receipt
+ * numbers so Daraja's redeliveries are dropped before they reach the journal or the database.
+ * Entries expire after the TTL and the least recently seen are evicted past the size limit;
+ * anything that slips through is caught by {@link MpesaCallbackProcessor} and the unique
+ * receipt constraint.
+ */
+@Component
+@Slf4j
+public class MpesaCallbackDeduplicator {
+
+    private static final String RECEIPT_ITEM = "MpesaReceiptNumber";
+
+    private final long ttlMillis;
+    private final BoundedMap seen;
+
+    private final Counter memoryDuplicateCounter;
+    private final Counter databaseDuplicateCounter;
+
+    public MpesaCallbackDeduplicator(MeterRegistry meterRegistry,
+                                     @Value("${mpesa.callback.dedup.max-entries:100000}") int maxEntries,
+                                     @Value("${mpesa.callback.dedup.ttl-minutes:1440}") long ttlMinutes) {
+        this.ttlMillis = TimeUnit.MINUTES.toMillis(ttlMinutes);
+        this.seen = new BoundedMap(maxEntries);
+
+        this.memoryDuplicateCounter = Counter.builder("mpesa.callback.duplicates")
+                .tag("tier", "memory")
+                .description("Duplicate STK callbacks suppressed")
+                .register(meterRegistry);
+        this.databaseDuplicateCounter = Counter.builder("mpesa.callback.duplicates")
+                .tag("tier", "database")
+                .description("Duplicate STK callbacks suppressed")
+                .register(meterRegistry);
+        Gauge.builder("mpesa.callback.dedup.entries", seen, MpesaCallbackDeduplicator::size)
+                .description("Keys held by the in-memory callback duplicate filter")
+                .register(meterRegistry);
+    }
+
+    // Records the callback's keys and returns false if either was already seen within the TTL
+    public boolean firstDelivery(MpesaCallbackRequest.StkCallback stkCallback) {
+        String checkoutKey = "C:" + stkCallback.getCheckoutRequestID();
+        String receiptKey = receiptKey(stkCallback);
+        long now = System.currentTimeMillis();
+
+        synchronized (seen) {
+            if (isFresh(checkoutKey, now) || (receiptKey != null && isFresh(receiptKey, now))) {
+                memoryDuplicateCounter.increment();
+                log.info("Dropping duplicate M-Pesa callback for CheckoutRequestID: {}",
+                        stkCallback.getCheckoutRequestID());
+                return false;
+            }
+            seen.put(checkoutKey, now);
+            if (receiptKey != null) {
+                seen.put(receiptKey, now);
+            }
+            return true;
+        }
+    }
+
+    // Undoes firstDelivery when the callback could not be accepted, so Daraja's retry gets through
+    public void forget(MpesaCallbackRequest.StkCallback stkCallback) {
+        String receiptKey = receiptKey(stkCallback);
+        synchronized (seen) {
+            seen.remove("C:" + stkCallback.getCheckoutRequestID());
+            if (receiptKey != null) {
+                seen.remove(receiptKey);
+            }
+        }
+    }
+
+    public void recordDatabaseDuplicate() {
+        databaseDuplicateCounter.increment();
+    }
+
+    public int size() {
+        return size(seen);
+    }
+
+    private static int size(BoundedMap seen) {
+        synchronized (seen) {
+            return seen.size();
+        }
+    }
+
+    private boolean isFresh(String key, long now) {
+        Long seenAt = seen.get(key);
+        if (seenAt == null) {
+            return false;
+        }
+        if (now - seenAt > ttlMillis) {
+            seen.remove(key);
+            return false;
+        }
+        return true;
+    }
+
+    private static String receiptKey(MpesaCallbackRequest.StkCallback stkCallback) {
+        Object receipt = stkCallback.findMetadataValue(RECEIPT_ITEM);
+        return receipt == null ? null : "R:" + receipt;
+    }
+
+    // Least recently seen keys are evicted first; guarded by its own monitor
+    private static final class BoundedMap extends LinkedHashMap<String, Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        BoundedMap(int maxEntries) {
+            super(1024, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
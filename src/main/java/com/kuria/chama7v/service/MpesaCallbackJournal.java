@@ -0,0 +1,582 @@
+package com.kuria.chama7v.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kuria.chama7v.dto.request.C2BPaymentRequest;
+import com.kuria.chama7v.dto.request.MpesaCallbackRequest;
+import com.kuria.chama7v.dto.response.CallbackJournalStatusResponse;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only, memory-mapped journal of raw STK callbacks and Paybill confirmations. Each is
+ * appended and forced to disk before Safaricom gets its acknowledgement, and an APPLIED marker is
+ * appended once it is committed to mpesa_transactions. Anything without a marker is replayed on
+ * startup.
+ *
+ * <p>Record layout: payload length (int), type (byte), sequence (long), timestamp (long),
+ * payload, CRC32C over type..payload (int). A zero length marks the end of a segment's data.
+ * Concurrent appenders share fsyncs: whoever takes the force lock first flushes every record
+ * written so far, and the rest find their sequence already durable.
+ */
+@Component
+@Slf4j
+public class MpesaCallbackJournal {
+
+    private static final byte TYPE_CALLBACK = 1;
+    private static final byte TYPE_APPLIED = 2;
+    private static final byte TYPE_CONFIRMATION = 3;
+    private static final int HEADER_BYTES = 4 + 1 + 8 + 8;
+    private static final int TRAILER_BYTES = 4;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${mpesa.callback-journal.enabled:true}")
+    private boolean enabled;
+
+    @Value("${mpesa.callback-journal.dir:data/callback-journal}")
+    private String directory;
+
+    @Value("${mpesa.callback-journal.segment-size-bytes:8388608}")
+    private int segmentSize;
+
+    @Value("${mpesa.callback-journal.max-segments:32}")
+    private int maxSegments;
+
+    // Applied segments are kept this long so a time range can still be replayed
+    @Value("${mpesa.callback-journal.retention-hours:72}")
+    private long retentionHours;
+
+    private final Object writeLock = new Object();
+    private final Object forceLock = new Object();
+
+    // Everything below is guarded by writeLock
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final Map<Long, Segment> pendingSegmentBySequence = new HashMap<>();
+    private final Map<Long, Long> movedSequences = new HashMap<>();
+    private final List<Path> undeletedSegments = new ArrayList<>();
+    private List<JournalEntry> recoveredPending = new ArrayList<>();
+    private List<ConfirmationEntry> recoveredConfirmations = new ArrayList<>();
+    private Segment active;
+    private long nextSequence = 1;
+    private long lastWrittenSequence;
+
+    private volatile long durableSequence;
+
+    public MpesaCallbackJournal(ObjectMapper objectMapper, MeterRegistry meterRegistry) {
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!enabled) {
+            log.warn("M-Pesa callback journal is disabled; callbacks are not durable before acknowledgement");
+            return;
+        }
+
+        Path dir = Paths.get(directory);
+        Files.createDirectories(dir);
+
+        synchronized (writeLock) {
+            Map<Long, JournalEntry> pendingCallbacks = new HashMap<>();
+            Map<Long, ConfirmationEntry> pendingConfirmations = new HashMap<>();
+            Set<Long> applied = new HashSet<>();
+
+            for (Path path : listSegmentFiles(dir)) {
+                Segment segment = openSegment(path, baseSequenceOf(path));
+                recoverSegment(segment, pendingCallbacks, pendingConfirmations, applied);
+                segments.addLast(segment);
+            }
+
+            for (Long sequence : applied) {
+                pendingCallbacks.remove(sequence);
+                pendingConfirmations.remove(sequence);
+            }
+            recoveredPending = new ArrayList<>(pendingCallbacks.values());
+            recoveredPending.sort((a, b) -> Long.compare(a.sequence(), b.sequence()));
+            recoveredConfirmations = new ArrayList<>(pendingConfirmations.values());
+            recoveredConfirmations.sort((a, b) -> Long.compare(a.sequence(), b.sequence()));
+            Set<Long> pending = new HashSet<>(pendingCallbacks.keySet());
+            pending.addAll(pendingConfirmations.keySet());
+            for (Long sequence : pending) {
+                Segment segment = segmentContaining(sequence);
+                pendingSegmentBySequence.put(sequence, segment);
+                segment.pendingCount++;
+            }
+
+            Segment last = segments.peekLast();
+            if (last != null) {
+                zeroTail(last);
+            }
+            if (last != null && last.buffer.remaining() > HEADER_BYTES + TRAILER_BYTES + 4) {
+                active = last;
+            } else {
+                active = createSegment(nextSequence);
+            }
+            lastWrittenSequence = nextSequence - 1;
+            durableSequence = lastWrittenSequence;
+        }
+
+        Gauge.builder("mpesa.callback.journal.pending", this, j -> j.pendingCount())
+                .description("Journaled callbacks not yet applied")
+                .register(meterRegistry);
+        Gauge.builder("mpesa.callback.journal.segments", this, j -> j.segmentCount())
+                .description("Callback journal segments on disk")
+                .register(meterRegistry);
+
+        log.info("M-Pesa callback journal opened at {} with {} segment(s), {} pending callback(s) and {} "
+                        + "confirmation(s) to replay",
+                dir.toAbsolutePath(), segments.size(), recoveredPending.size(), recoveredConfirmations.size());
+    }
+
+    @PreDestroy
+    public void close() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (writeLock) {
+            for (Segment segment : segments) {
+                segment.buffer.force();
+                closeQuietly(segment);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Returns once the callback is on disk; the sequence is passed back to markApplied
+    public long append(MpesaCallbackRequest callbackRequest) {
+        return appendPending(TYPE_CALLBACK, callbackRequest);
+    }
+
+    // The same for a Paybill confirmation
+    public long appendConfirmation(C2BPaymentRequest confirmation) {
+        return appendPending(TYPE_CONFIRMATION, confirmation);
+    }
+
+    private long appendPending(byte type, Object request) {
+        if (!enabled) {
+            return 0;
+        }
+
+        byte[] payload;
+        try {
+            payload = objectMapper.writeValueAsBytes(request);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to serialize M-Pesa " + request.getClass().getSimpleName()
+                    + " for the journal", e);
+        }
+
+        long sequence;
+        synchronized (writeLock) {
+            sequence = writeRecord(type, System.currentTimeMillis(), payload);
+            pendingSegmentBySequence.put(sequence, active);
+            active.pendingCount++;
+        }
+        awaitDurable(sequence);
+        return sequence;
+    }
+
+    // Markers are not forced: losing one only means an idempotent re-apply on the next start
+    public void markApplied(long sequence) {
+        if (!enabled || sequence <= 0) {
+            return;
+        }
+        synchronized (writeLock) {
+            Long moved = movedSequences.remove(sequence);
+            long target = moved != null ? moved : sequence;
+            Segment segment = pendingSegmentBySequence.remove(target);
+            if (segment == null) {
+                return;
+            }
+            segment.pendingCount--;
+            writeRecord(TYPE_APPLIED, System.currentTimeMillis(), ByteBuffer.allocate(8).putLong(target).array());
+        }
+    }
+
+    // Pending callbacks found on disk at startup; handed out once
+    public List<JournalEntry> drainRecoveredPending() {
+        synchronized (writeLock) {
+            List<JournalEntry> entries = recoveredPending;
+            recoveredPending = new ArrayList<>();
+            return entries;
+        }
+    }
+
+    // Pending confirmations found on disk at startup; handed out once
+    public List<ConfirmationEntry> drainRecoveredConfirmations() {
+        synchronized (writeLock) {
+            List<ConfirmationEntry> entries = recoveredConfirmations;
+            recoveredConfirmations = new ArrayList<>();
+            return entries;
+        }
+    }
+
+    // Every journaled callback received in [fromMillis, toMillis], applied or not
+    public List<JournalEntry> entriesBetween(long fromMillis, long toMillis) {
+        if (!enabled) {
+            return List.of();
+        }
+        List<JournalEntry> entries = new ArrayList<>();
+        synchronized (writeLock) {
+            for (Segment segment : segments) {
+                ByteBuffer view = segment.buffer.duplicate();
+                view.limit(segment.buffer.position()).position(0);
+                readRecords(view, (type, sequence, timestamp, payload) -> {
+                    if (type == TYPE_CALLBACK && timestamp >= fromMillis && timestamp <= toMillis) {
+                        entries.add(new JournalEntry(sequence, timestamp, deserialize(payload, MpesaCallbackRequest.class)));
+                    }
+                });
+            }
+        }
+        return entries;
+    }
+
+    // Drops old segments, carrying any still-pending callbacks forward into the active one
+    @Scheduled(fixedDelayString = "${mpesa.callback-journal.compaction-interval-ms:60000}")
+    public void compact() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long retentionMillis = retentionHours * 3_600_000L;
+
+        synchronized (writeLock) {
+            undeletedSegments.removeIf(this::deleteSegmentFile);
+
+            while (segments.size() > 1 && segments.peekFirst() != active) {
+                Segment oldest = segments.peekFirst();
+                boolean expired = now - oldest.lastTimestamp > retentionMillis;
+                boolean overLimit = segments.size() > maxSegments;
+                if (!expired && !overLimit) {
+                    break;
+                }
+
+                if (oldest.pendingCount > 0) {
+                    carryForward(oldest);
+                }
+                segments.removeFirst();
+                closeQuietly(oldest);
+                if (!deleteSegmentFile(oldest.path)) {
+                    undeletedSegments.add(oldest.path);
+                }
+                log.info("Compacted M-Pesa callback journal segment {}", oldest.path.getFileName());
+            }
+        }
+    }
+
+    public CallbackJournalStatusResponse getStatus() {
+        CallbackJournalStatusResponse status = new CallbackJournalStatusResponse();
+        status.setEnabled(enabled);
+        if (!enabled) {
+            return status;
+        }
+        synchronized (writeLock) {
+            status.setDirectory(Paths.get(directory).toAbsolutePath().toString());
+            status.setSegments(segments.size());
+            status.setActiveSegment(active.path.getFileName().toString());
+            status.setActiveSegmentBytesUsed(active.buffer.position());
+            status.setPendingCallbacks(pendingSegmentBySequence.size());
+            status.setLastSequence(lastWrittenSequence);
+            status.setDurableSequence(durableSequence);
+        }
+        return status;
+    }
+
+    private int pendingCount() {
+        synchronized (writeLock) {
+            return pendingSegmentBySequence.size();
+        }
+    }
+
+    private int segmentCount() {
+        synchronized (writeLock) {
+            return segments.size();
+        }
+    }
+
+    private void awaitDurable(long sequence) {
+        if (durableSequence >= sequence) {
+            return;
+        }
+        synchronized (forceLock) {
+            if (durableSequence >= sequence) {
+                return;
+            }
+            long target;
+            Segment segment;
+            int position;
+            synchronized (writeLock) {
+                target = lastWrittenSequence;
+                segment = active;
+                position = segment.buffer.position();
+            }
+            int from = segment.forcedPosition;
+            if (position > from) {
+                segment.buffer.force(from, position - from);
+                segment.forcedPosition = position;
+            }
+            durableSequence = target;
+        }
+    }
+
+    private long writeRecord(byte type, long timestamp, byte[] payload) {
+        int size = HEADER_BYTES + payload.length + TRAILER_BYTES;
+        // Always leave room for the zero length that terminates a segment
+        if (size + 4 > segmentSize) {
+            throw new IllegalArgumentException("Journal record of " + size + " bytes exceeds the segment size");
+        }
+        if (active.buffer.remaining() < size + 4) {
+            rollover();
+        }
+
+        long sequence = nextSequence++;
+        MappedByteBuffer buffer = active.buffer;
+        int start = buffer.position();
+        buffer.putInt(payload.length);
+        buffer.put(type);
+        buffer.putLong(sequence);
+        buffer.putLong(timestamp);
+        buffer.put(payload);
+        buffer.putInt(checksum(buffer, start, start + HEADER_BYTES + payload.length));
+
+        active.lastTimestamp = timestamp;
+        lastWrittenSequence = sequence;
+        return sequence;
+    }
+
+    private void rollover() {
+        Segment previous = active;
+        previous.buffer.force();
+        previous.forcedPosition = previous.buffer.position();
+        active = createSegment(nextSequence);
+        log.info("M-Pesa callback journal rolled over to {}", active.path.getFileName());
+    }
+
+    private void carryForward(Segment segment) {
+        ByteBuffer view = segment.buffer.duplicate();
+        view.limit(segment.buffer.position()).position(0);
+        List<long[]> moved = new ArrayList<>();
+        readRecords(view, (type, sequence, timestamp, payload) -> {
+            if ((type == TYPE_CALLBACK || type == TYPE_CONFIRMATION) && pendingSegmentBySequence.get(sequence) == segment) {
+                pendingSegmentBySequence.remove(sequence);
+                long newSequence = writeRecord(type, timestamp, payload);
+                pendingSegmentBySequence.put(newSequence, active);
+                active.pendingCount++;
+                moved.add(new long[]{sequence, newSequence});
+            }
+        });
+        for (long[] pair : moved) {
+            movedSequences.put(pair[0], pair[1]);
+        }
+        active.buffer.force();
+        active.forcedPosition = active.buffer.position();
+        log.warn("Carried {} unapplied M-Pesa callback(s) forward from {}", moved.size(), segment.path.getFileName());
+    }
+
+    private void recoverSegment(Segment segment, Map<Long, JournalEntry> pendingCallbacks,
+                                Map<Long, ConfirmationEntry> pendingConfirmations, Set<Long> applied) {
+        ByteBuffer view = segment.buffer.duplicate();
+        view.position(0);
+        int end = readRecords(view, (type, sequence, timestamp, payload) -> {
+            if (type == TYPE_CALLBACK) {
+                try {
+                    pendingCallbacks.put(sequence, new JournalEntry(sequence, timestamp,
+                            deserialize(payload, MpesaCallbackRequest.class)));
+                } catch (UncheckedIOException e) {
+                    log.error("Skipping unreadable journaled M-Pesa callback {}", sequence, e);
+                }
+            } else if (type == TYPE_CONFIRMATION) {
+                try {
+                    pendingConfirmations.put(sequence, new ConfirmationEntry(sequence, timestamp,
+                            deserialize(payload, C2BPaymentRequest.class)));
+                } catch (UncheckedIOException e) {
+                    log.error("Skipping unreadable journaled C2B confirmation {}", sequence, e);
+                }
+            } else if (type == TYPE_APPLIED) {
+                applied.add(ByteBuffer.wrap(payload).getLong());
+            }
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            segment.lastTimestamp = timestamp;
+        });
+
+        segment.buffer.position(end);
+        segment.forcedPosition = end;
+        if (segment.lastTimestamp == 0) {
+            segment.lastTimestamp = System.currentTimeMillis();
+        }
+    }
+
+    // Only the newest segment can end in a torn write; clear it so it is not misread later
+    private void zeroTail(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        for (int i = buffer.position(); i < buffer.capacity(); i++) {
+            if (buffer.get(i) != 0) {
+                buffer.put(i, (byte) 0);
+            }
+        }
+    }
+
+    // Reads valid records from the view's position; returns the offset just past the last one
+    private int readRecords(ByteBuffer view, RecordVisitor visitor) {
+        while (view.remaining() >= HEADER_BYTES + TRAILER_BYTES) {
+            int start = view.position();
+            int length = view.getInt(start);
+            if (length <= 0 || length > view.remaining() - HEADER_BYTES - TRAILER_BYTES) {
+                return start;
+            }
+            int payloadEnd = start + HEADER_BYTES + length;
+            if (view.getInt(payloadEnd) != checksum(view, start, payloadEnd)) {
+                log.warn("Ignoring corrupt M-Pesa callback journal record at offset {}", start);
+                return start;
+            }
+
+            byte type = view.get(start + 4);
+            long sequence = view.getLong(start + 5);
+            long timestamp = view.getLong(start + 13);
+            byte[] payload = new byte[length];
+            view.get(start + HEADER_BYTES, payload);
+            view.position(payloadEnd + TRAILER_BYTES);
+
+            visitor.visit(type, sequence, timestamp, payload);
+        }
+        return view.position();
+    }
+
+    private int checksum(ByteBuffer buffer, int start, int payloadEnd) {
+        ByteBuffer covered = buffer.duplicate();
+        covered.limit(payloadEnd).position(start + 4);
+        CRC32C crc = new CRC32C();
+        crc.update(covered);
+        return (int) crc.getValue();
+    }
+
+    private <T> T deserialize(byte[] payload, Class<T> type) {
+        try {
+            return objectMapper.readValue(payload, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read journaled " + type.getSimpleName(), e);
+        }
+    }
+
+    private Segment segmentContaining(long sequence) {
+        Segment match = segments.peekFirst();
+        for (Segment segment : segments) {
+            if (segment.baseSequence <= sequence) {
+                match = segment;
+            }
+        }
+        return match;
+    }
+
+    private Segment createSegment(long baseSequence) {
+        Path path = Paths.get(directory).resolve(String.format("%s%020d%s", SEGMENT_PREFIX, baseSequence, SEGMENT_SUFFIX));
+        try {
+            Segment segment = openSegment(path, baseSequence);
+            segment.lastTimestamp = System.currentTimeMillis();
+            segments.addLast(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create M-Pesa callback journal segment " + path, e);
+        }
+    }
+
+    private Segment openSegment(Path path, long baseSequence) throws IOException {
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        return new Segment(baseSequence, path, channel, buffer);
+    }
+
+    private List<Path> listSegmentFiles(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private long baseSequenceOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private boolean deleteSegmentFile(Path path) {
+        try {
+            Files.deleteIfExists(path);
+            return true;
+        } catch (IOException e) {
+            // Some platforms refuse to delete a file that is still mapped; retried on the next compaction
+            log.debug("Could not delete journal segment {} yet: {}", path, e.getMessage());
+            return false;
+        }
+    }
+
+    private void closeQuietly(Segment segment) {
+        try {
+            segment.channel.close();
+        } catch (IOException e) {
+            log.warn("Error closing journal segment {}", segment.path, e);
+        }
+    }
+
+    public record JournalEntry(long sequence, long timestamp, MpesaCallbackRequest request) {
+    }
+
+    public record ConfirmationEntry(long sequence, long timestamp, C2BPaymentRequest confirmation) {
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(byte type, long sequence, long timestamp, byte[] payload);
+    }
+
+    private static final class Segment {
+        private final long baseSequence;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int forcedPosition;
+        private int pendingCount;
+        private long lastTimestamp;
+
+        private Segment(long baseSequence, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.baseSequence = baseSequence;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+}
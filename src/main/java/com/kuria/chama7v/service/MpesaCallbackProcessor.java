@@ -0,0 +1,166 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.request.MpesaCallbackRequest;
+import com.kuria.chama7v.entity.MpesaTransaction;
+import com.kuria.chama7v.entity.enums.TransactionStatus;
+import com.kuria.chama7v.event.MpesaTransactionStatusChangedEvent;
+import com.kuria.chama7v.repository.MpesaTransactionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies STK callbacks to mpesa_transactions. Callbacks arrive in batches from
+ * {@link MpesaCallbackQueue}; each batch is one lookup query and one transaction.
+ * Each result is written with a guarded UPDATE that only matches a row still PENDING in the
+ * database, so a redelivered or concurrent callback can never change a result that is already
+ * final, and the posting columns are never written from a stale copy of the row.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class MpesaCallbackProcessor {
+
+    private static final DateTimeFormatter TRANSACTION_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private final MpesaTransactionRepository transactionRepository;
+    private final MpesaCallbackDeduplicator deduplicator;
+    private final ApplicationEventPublisher eventPublisher;
+
+    // Returns the number applied and the CheckoutRequestIDs that matched no transaction yet
+    @Transactional
+    public BatchResult applyBatch(List<MpesaCallbackRequest.StkCallback> callbacks) {
+        List<String> checkoutRequestIds = callbacks.stream()
+                .map(MpesaCallbackRequest.StkCallback::getCheckoutRequestID)
+                .toList();
+
+        Map<String, MpesaTransaction> transactions = new HashMap<>();
+        for (MpesaTransaction transaction : transactionRepository.findByCheckoutRequestIdIn(checkoutRequestIds)) {
+            transactions.put(transaction.getCheckoutRequestId(), transaction);
+        }
+
+        Set<String> knownReceipts = findExistingReceipts(callbacks);
+
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, TransactionStatus> statuses = new HashMap<>();
+        Map<String, Long> memberIds = new HashMap<>();
+        Set<String> missing = new HashSet<>();
+        for (MpesaCallbackRequest.StkCallback stkCallback : callbacks) {
+            MpesaTransaction transaction = transactions.get(stkCallback.getCheckoutRequestID());
+            if (transaction == null) {
+                log.warn("Transaction not found for CheckoutRequestID: {}", stkCallback.getCheckoutRequestID());
+                missing.add(stkCallback.getCheckoutRequestID());
+                continue;
+            }
+            if (transaction.getStatus() != TransactionStatus.PENDING) {
+                deduplicator.recordDatabaseDuplicate();
+                log.info("Ignoring callback for finalized transaction {} ({})",
+                        stkCallback.getCheckoutRequestID(), transaction.getStatus());
+                continue;
+            }
+            Object receipt = stkCallback.findMetadataValue("MpesaReceiptNumber");
+            if (receipt != null && !knownReceipts.add(String.valueOf(receipt))) {
+                deduplicator.recordDatabaseDuplicate();
+                log.warn("Ignoring callback for {}: receipt {} is already recorded",
+                        stkCallback.getCheckoutRequestID(), receipt);
+                continue;
+            }
+            // The row read above may already be stale: another worker or the posting pass can
+            // have moved it on since, so the UPDATE re-checks PENDING in the database
+            TransactionStatus status = settle(transaction, stkCallback, now);
+            if (status == null) {
+                deduplicator.recordDatabaseDuplicate();
+                log.info("Ignoring callback for {}: settled concurrently", stkCallback.getCheckoutRequestID());
+                continue;
+            }
+            statuses.put(transaction.getCheckoutRequestId(), status);
+            memberIds.put(transaction.getCheckoutRequestId(), transaction.getMemberId());
+        }
+
+        if (!statuses.isEmpty()) {
+            eventPublisher.publishEvent(new MpesaTransactionStatusChangedEvent(statuses, memberIds));
+        }
+        return new BatchResult(statuses.size(), missing);
+    }
+
+    private Set<String> findExistingReceipts(List<MpesaCallbackRequest.StkCallback> callbacks) {
+        List<String> receipts = new ArrayList<>();
+        for (MpesaCallbackRequest.StkCallback stkCallback : callbacks) {
+            Object receipt = stkCallback.findMetadataValue("MpesaReceiptNumber");
+            if (receipt != null) {
+                receipts.add(String.valueOf(receipt));
+            }
+        }
+        Set<String> existing = new HashSet<>();
+        if (!receipts.isEmpty()) {
+            existing.addAll(transactionRepository.findExistingReceiptNumbers(receipts));
+        }
+        return existing;
+    }
+
+    // Returns the status written, or null when the row was no longer PENDING
+    private TransactionStatus settle(MpesaTransaction transaction, MpesaCallbackRequest.StkCallback stkCallback,
+                                     LocalDateTime now) {
+        TransactionStatus status;
+        String receipt = null;
+        LocalDateTime transactionDate = null;
+
+        if (stkCallback.getResultCode() == 0) {
+            status = TransactionStatus.SUCCESS;
+
+            if (stkCallback.getCallbackMetadata() != null &&
+                    stkCallback.getCallbackMetadata().getItem() != null) {
+
+                for (MpesaCallbackRequest.Item item : stkCallback.getCallbackMetadata().getItem()) {
+                    if ("MpesaReceiptNumber".equals(item.getName())) {
+                        receipt = String.valueOf(item.getValue());
+                    } else if ("TransactionDate".equals(item.getName())) {
+                        try {
+                            String dateStr = String.valueOf(item.getValue());
+                            if (dateStr.length() >= 14) {
+                                transactionDate = LocalDateTime.parse(dateStr, TRANSACTION_DATE_FORMAT);
+                            }
+                        } catch (Exception e) {
+                            log.error("Error parsing transaction date", e);
+                        }
+                    }
+                }
+            }
+
+            // An STK Query result carries no receipt or date; the push time stands in until
+            // statement reconciliation matches the payment and fills both in
+            if (transactionDate == null) {
+                transactionDate = transaction.getCreatedAt();
+            }
+        } else {
+            status = TransactionStatus.FAILED;
+        }
+
+        if (transactionRepository.settle(transaction.getCheckoutRequestId(), status,
+                String.valueOf(stkCallback.getResultCode()), stkCallback.getResultDesc(),
+                receipt, transactionDate, now) == 0) {
+            return null;
+        }
+
+        if (status == TransactionStatus.SUCCESS) {
+            log.info("M-Pesa payment successful: {}", receipt);
+        } else {
+            log.warn("M-Pesa payment failed: {} - {}", stkCallback.getResultCode(), stkCallback.getResultDesc());
+        }
+        return status;
+    }
+
+    public record BatchResult(int applied, Set<String> missing) {
+    }
+}
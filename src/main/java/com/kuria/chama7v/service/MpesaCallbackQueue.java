@@ -0,0 +1,197 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.request.MpesaCallbackRequest;
+import com.kuria.chama7v.util.BoundedBatchQueue;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decouples the callback acknowledgement from the database work: the controller enqueues
+ * and replies straight away, and worker threads apply callbacks in batches.
+ */
+@Component
+@Slf4j
+public class MpesaCallbackQueue {
+
+    private final MpesaCallbackProcessor callbackProcessor;
+    private final MpesaCallbackJournal callbackJournal;
+    private final MpesaCallbackDeduplicator callbackDeduplicator;
+    private final BoundedBatchQueue<QueuedCallback> queue;
+    private final ScheduledExecutorService retryScheduler;
+    private final int missingRetryAttempts;
+    private final long missingRetryDelayMs;
+
+    private final Counter appliedCounter;
+    private final Counter failedCounter;
+    private final Counter overflowCounter;
+
+    public MpesaCallbackQueue(MpesaCallbackProcessor callbackProcessor,
+                              MpesaCallbackJournal callbackJournal,
+                              MpesaCallbackDeduplicator callbackDeduplicator,
+                              MeterRegistry meterRegistry,
+                              @Value("${mpesa.callback.queue-capacity:10000}") int capacity,
+                              @Value("${mpesa.callback.batch-size:100}") int batchSize,
+                              @Value("${mpesa.callback.workers:2}") int workers,
+                              @Value("${mpesa.callback.missing-retry-attempts:5}") int missingRetryAttempts,
+                              @Value("${mpesa.callback.missing-retry-delay-ms:500}") long missingRetryDelayMs) {
+        this.callbackProcessor = callbackProcessor;
+        this.callbackJournal = callbackJournal;
+        this.callbackDeduplicator = callbackDeduplicator;
+        this.queue = new BoundedBatchQueue<>("mpesa-callback", capacity, batchSize, workers, this::applyBatch);
+        this.queue.registerMetrics(meterRegistry, "mpesa.callback.queue");
+        this.missingRetryAttempts = missingRetryAttempts;
+        this.missingRetryDelayMs = missingRetryDelayMs;
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mpesa-callback-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.appliedCounter = Counter.builder("mpesa.callback.applied")
+                .description("STK callbacks applied to mpesa_transactions")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("mpesa.callback.failed")
+                .description("STK callbacks that could not be applied")
+                .register(meterRegistry);
+        this.overflowCounter = Counter.builder("mpesa.callback.queue.overflow")
+                .description("STK callbacks deferred because the queue was full")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        queue.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        retryScheduler.shutdownNow();
+        queue.stop(5000);
+    }
+
+    // Intake shared by Daraja's callbacks and STK Query results: drops duplicates, journals the
+    // callback (forced to disk) and enqueues it. Returns false when it was a duplicate.
+    public boolean accept(MpesaCallbackRequest callbackRequest) {
+        MpesaCallbackRequest.StkCallback stkCallback = callbackRequest.getBody().getStkCallback();
+        if (!callbackDeduplicator.firstDelivery(stkCallback)) {
+            return false;
+        }
+
+        long journalSequence;
+        try {
+            journalSequence = callbackJournal.append(callbackRequest);
+        } catch (RuntimeException e) {
+            callbackDeduplicator.forget(stkCallback);
+            throw e;
+        }
+        submit(journalSequence, stkCallback);
+        return true;
+    }
+
+    // Enqueues for batched application. The journal sequence is marked applied once the batch
+    // holding it commits.
+    public void submit(long journalSequence, MpesaCallbackRequest.StkCallback stkCallback) {
+        QueuedCallback queued = new QueuedCallback(journalSequence, stkCallback, 0);
+        if (!queue.offer(queued)) {
+            overflowCounter.increment();
+            defer(queued);
+        }
+    }
+
+    public int getDepth() {
+        return queue.size();
+    }
+
+    public long getOldestItemAgeMillis() {
+        return queue.oldestItemAgeMillis();
+    }
+
+    private void applyBatch(List<QueuedCallback> batch) {
+        try {
+            MpesaCallbackProcessor.BatchResult result = callbackProcessor.applyBatch(
+                    batch.stream().map(QueuedCallback::stkCallback).toList());
+            appliedCounter.increment(result.applied());
+            for (QueuedCallback queued : batch) {
+                if (result.missing().contains(queued.stkCallback().getCheckoutRequestID())
+                        && scheduleRetry(queued)) {
+                    continue;
+                }
+                callbackJournal.markApplied(queued.journalSequence());
+            }
+        } catch (Exception e) {
+            if (batch.size() == 1 && e instanceof DataIntegrityViolationException) {
+                // Lost a race on the unique receipt constraint: another delivery already recorded it
+                callbackDeduplicator.recordDatabaseDuplicate();
+                callbackJournal.markApplied(batch.get(0).journalSequence());
+                log.warn("Duplicate receipt for M-Pesa callback {}, ignoring", batch.get(0).stkCallback().getCheckoutRequestID());
+                return;
+            }
+            if (batch.size() == 1) {
+                // The deduplicator has already taken this callback as delivered; forget it so
+                // Daraja's redelivery gets through, and retry it a few times ourselves. Once the
+                // retries run out it stays unapplied in the journal for the next startup replay
+                QueuedCallback queued = batch.get(0);
+                failedCounter.increment();
+                callbackDeduplicator.forget(queued.stkCallback());
+                if (scheduleRetry(queued)) {
+                    log.warn("Error processing M-Pesa callback {}, retrying: {}",
+                            queued.stkCallback().getCheckoutRequestID(), e.getMessage());
+                } else {
+                    log.error("Error processing M-Pesa callback {}: ", queued.stkCallback().getCheckoutRequestID(), e);
+                }
+                return;
+            }
+            // One bad callback must not sink the rest of the batch: retry them one at a time
+            log.warn("Batch of {} M-Pesa callbacks failed, retrying individually: {}", batch.size(), e.getMessage());
+            for (QueuedCallback queued : batch) {
+                applyBatch(List.of(queued));
+            }
+        }
+    }
+
+    // Daraja can call back before the STK push response has been saved, most visibly under
+    // bulk dispatch, and a callback can fail on a passing database error. Either way it is
+    // re-offered a few times with backoff before being given up on.
+    private boolean scheduleRetry(QueuedCallback queued) {
+        if (queued.attempts() >= missingRetryAttempts || retryScheduler.isShutdown()) {
+            return false;
+        }
+        QueuedCallback retry = new QueuedCallback(queued.journalSequence(), queued.stkCallback(), queued.attempts() + 1);
+        long delay = missingRetryDelayMs << queued.attempts();
+        retryScheduler.schedule(() -> {
+            if (!queue.offer(retry)) {
+                defer(retry);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    // A full queue only delays a callback: it is already journaled, so it is re-offered from the
+    // retry thread rather than applied on the caller's, and a shutdown leaves it for the replay
+    private void defer(QueuedCallback queued) {
+        if (retryScheduler.isShutdown()) {
+            log.warn("M-Pesa callback {} left in the journal for replay", queued.stkCallback().getCheckoutRequestID());
+            return;
+        }
+        log.warn("M-Pesa callback queue is full, deferring {}", queued.stkCallback().getCheckoutRequestID());
+        retryScheduler.schedule(() -> {
+            if (!queue.offer(queued)) {
+                defer(queued);
+            }
+        }, missingRetryDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private record QueuedCallback(long journalSequence, MpesaCallbackRequest.StkCallback stkCallback, int attempts) {
+    }
+}
@@ -0,0 +1,58 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.request.MpesaCallbackRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+/**
+ * Feeds journaled callbacks back through {@link MpesaCallbackQueue}: unapplied ones after a
+ * restart, and any time range on request. Re-applying a callback is safe because
+ * {@link MpesaCallbackProcessor} leaves finalized transactions untouched.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class MpesaCallbackReplayService {
+
+    private final MpesaCallbackJournal callbackJournal;
+    private final MpesaCallbackQueue callbackQueue;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void replayRecovered() {
+        List<MpesaCallbackJournal.JournalEntry> pending = callbackJournal.drainRecoveredPending();
+        if (pending.isEmpty()) {
+            return;
+        }
+        log.info("Replaying {} M-Pesa callbacks recovered from the journal", pending.size());
+        resubmit(pending);
+    }
+
+    public int replayRange(LocalDateTime from, LocalDateTime to) {
+        ZoneId zone = ZoneId.systemDefault();
+        List<MpesaCallbackJournal.JournalEntry> entries = callbackJournal.entriesBetween(
+                from.atZone(zone).toInstant().toEpochMilli(), to.atZone(zone).toInstant().toEpochMilli());
+        log.info("Replaying {} journaled M-Pesa callbacks received between {} and {}", entries.size(), from, to);
+        return resubmit(entries);
+    }
+
+    private int resubmit(List<MpesaCallbackJournal.JournalEntry> entries) {
+        int submitted = 0;
+        for (MpesaCallbackJournal.JournalEntry entry : entries) {
+            MpesaCallbackRequest request = entry.request();
+            if (request == null || request.getBody() == null || request.getBody().getStkCallback() == null) {
+                log.warn("Skipping unreadable journal entry {}", entry.sequence());
+                continue;
+            }
+            callbackQueue.submit(entry.sequence(), request.getBody().getStkCallback());
+            submitted++;
+        }
+        return submitted;
+    }
+}
@@ -0,0 +1,190 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.entity.Contribution;
+import com.kuria.chama7v.entity.Loan;
+import com.kuria.chama7v.entity.LoanPayment;
+import com.kuria.chama7v.entity.MpesaTransaction;
+import com.kuria.chama7v.entity.enums.LoanStatus;
+import com.kuria.chama7v.event.AccountChangedEvent;
+import com.kuria.chama7v.repository.ContributionRepository;
+import com.kuria.chama7v.repository.LoanPaymentRepository;
+import com.kuria.chama7v.repository.LoanRepository;
+import com.kuria.chama7v.repository.MemberRepository;
+import com.kuria.chama7v.repository.MpesaTransactionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Turns successful M-Pesa transactions into Contribution and LoanPayment rows. A batch is one
+ * transaction: each row is claimed with a guarded UPDATE so it is posted exactly once, and the
+ * balance changes are summed per member so a member with several payments in the batch gets a
+ * single write. Loan balances are taken down with guarded increments, never by saving the loan.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class MpesaPostingProcessor {
+
+    private static final List<LoanStatus> PAYABLE_LOAN_STATUSES = List.of(LoanStatus.APPROVED, LoanStatus.DISBURSED);
+    private static final int MAX_LOAN_UPDATE_ATTEMPTS = 3;
+
+    private final MpesaTransactionRepository transactionRepository;
+    private final ContributionRepository contributionRepository;
+    private final LoanPaymentRepository loanPaymentRepository;
+    private final LoanRepository loanRepository;
+    private final MemberRepository memberRepository;
+    private final RepaymentAllocator repaymentAllocator;
+    private final ReferenceGenerator referenceGenerator;
+    private final ApplicationEventPublisher eventPublisher;
+
+    @Transactional
+    public PostingResult postBatch(List<MpesaTransaction> transactions) {
+        LocalDateTime now = LocalDateTime.now();
+        Map<Long, BalanceDelta> memberDeltas = new LinkedHashMap<>();
+        List<Contribution> contributions = new ArrayList<>();
+        List<LoanPayment> loanPayments = new ArrayList<>();
+
+        for (MpesaTransaction transaction : transactions) {
+            if (transactionRepository.claimForPosting(transaction.getId(), now) == 0) {
+                continue;
+            }
+
+            BalanceDelta delta = memberDeltas.computeIfAbsent(transaction.getMemberId(), id -> new BalanceDelta());
+            BigDecimal remaining = transaction.getAmount();
+
+            if ("LOAN_PAYMENT".equals(transaction.getTransactionType())) {
+                Optional<Loan> loan = findPayableLoan(transaction);
+                BigDecimal applied = loan.map(l -> applyToLoan(l, transaction.getAmount())).orElse(BigDecimal.ZERO);
+                if (applied.signum() > 0) {
+                    loanPayments.add(toLoanPayment(transaction, loan.get(), applied));
+                    delta.loanRepayments = delta.loanRepayments.add(applied);
+                    remaining = remaining.subtract(applied);
+                } else {
+                    log.warn("No payable loan for M-Pesa payment {} (reference {}), posting as contribution",
+                            transaction.getMpesaReceiptNumber(), transaction.getAccountReference());
+                }
+            }
+
+            // Contributions, plus any loan payment that found no loan or overpaid it
+            if (remaining.compareTo(BigDecimal.ZERO) > 0) {
+                contributions.add(toContribution(transaction, remaining));
+                delta.contributions = delta.contributions.add(remaining);
+            }
+        }
+
+        contributionRepository.saveAll(contributions);
+        loanPaymentRepository.saveAll(loanPayments);
+        memberDeltas.forEach((memberId, delta) ->
+                memberRepository.applyBalanceDeltas(memberId, delta.contributions, delta.loanRepayments));
+        publishChanges(memberDeltas);
+
+        return new PostingResult(contributions.size(), loanPayments.size(), memberDeltas.size());
+    }
+
+    private void publishChanges(Map<Long, BalanceDelta> memberDeltas) {
+        Set<Long> contributed = new LinkedHashSet<>();
+        Set<Long> repaid = new LinkedHashSet<>();
+        memberDeltas.forEach((memberId, delta) -> {
+            if (delta.contributions.signum() > 0) {
+                contributed.add(memberId);
+            }
+            if (delta.loanRepayments.signum() > 0) {
+                repaid.add(memberId);
+            }
+        });
+        if (!contributed.isEmpty()) {
+            eventPublisher.publishEvent(new AccountChangedEvent(contributed, AccountChangedEvent.Change.CONTRIBUTION));
+        }
+        if (!repaid.isEmpty()) {
+            eventPublisher.publishEvent(new AccountChangedEvent(repaid, AccountChangedEvent.Change.LOAN));
+        }
+    }
+
+    // The account reference names the loan; otherwise the member's oldest open loan is paid down
+    private Optional<Loan> findPayableLoan(MpesaTransaction transaction) {
+        Long memberId = transaction.getMemberId();
+        Optional<Loan> loan = Optional.ofNullable(transaction.getAccountReference())
+                .flatMap(loanRepository::findByLoanNumber)
+                .filter(l -> memberId.equals(l.getMember().getId()));
+        if (loan.isEmpty()) {
+            loan = loanRepository.findByMemberIdAndStatusIn(memberId, PAYABLE_LOAN_STATUSES).stream()
+                    .filter(l -> l.getBalance() != null && l.getBalance().compareTo(BigDecimal.ZERO) > 0)
+                    .min(Comparator.comparing(Loan::getApplicationDate));
+        }
+        loan = loan.filter(l -> PAYABLE_LOAN_STATUSES.contains(l.getStatus())
+                && l.getBalance() != null && l.getBalance().compareTo(BigDecimal.ZERO) > 0);
+        return loan;
+    }
+
+    // Takes as much of the amount as the loan still owes. The balance is read fresh, since an API
+    // payment or an earlier one in this batch may have moved it, and the guarded update fails if
+    // another payment lands in between, in which case it is read again
+    private BigDecimal applyToLoan(Loan loan, BigDecimal amount) {
+        for (int attempt = 0; attempt < MAX_LOAN_UPDATE_ATTEMPTS; attempt++) {
+            BigDecimal applied = amount.min(loanRepository.findPayableBalance(loan.getId()).orElse(BigDecimal.ZERO));
+            if (applied.signum() <= 0) {
+                return BigDecimal.ZERO;
+            }
+            if (loanRepository.applyPayment(loan.getId(), applied) == 1) {
+                return applied;
+            }
+        }
+        throw new ConcurrencyFailureException("Loan " + loan.getLoanNumber() + " kept changing while posting a payment");
+    }
+
+    private LoanPayment toLoanPayment(MpesaTransaction transaction, Loan loan, BigDecimal amount) {
+        RepaymentAllocator.Allocation allocation = repaymentAllocator.allocate(loan, amount,
+                transaction.getTransactionDate() != null ? transaction.getTransactionDate().toLocalDate() : LocalDate.now());
+
+        LoanPayment payment = new LoanPayment();
+        payment.setLoan(loan);
+        payment.setAmount(amount);
+        payment.setPenaltyAmount(allocation.penalty());
+        payment.setInterestAmount(allocation.interest());
+        payment.setPrincipalAmount(allocation.principal());
+        payment.setTransactionReference(reference(transaction));
+        payment.setMpesaReceiptNumber(transaction.getMpesaReceiptNumber());
+        return payment;
+    }
+
+    private Contribution toContribution(MpesaTransaction transaction, BigDecimal amount) {
+        Contribution contribution = new Contribution();
+        contribution.setMember(memberRepository.getReferenceById(transaction.getMemberId()));
+        contribution.setAmount(amount);
+        contribution.setTransactionReference(reference(transaction));
+        contribution.setMpesaReceiptNumber(transaction.getMpesaReceiptNumber());
+        contribution.setDescription("LOAN_PAYMENT".equals(transaction.getTransactionType())
+                ? "M-Pesa loan payment surplus" : "M-Pesa contribution");
+        return contribution;
+    }
+
+    // Paybill payments keep their M-Pesa receipt, which members quote; STK pushes get one of ours
+    private String reference(MpesaTransaction transaction) {
+        return transaction.getCheckoutRequestId() != null
+                ? referenceGenerator.next(ReferenceGenerator.Kind.STK) : "C2B-" + transaction.getMpesaReceiptNumber();
+    }
+
+    private static class BalanceDelta {
+        private BigDecimal contributions = BigDecimal.ZERO;
+        private BigDecimal loanRepayments = BigDecimal.ZERO;
+    }
+
+    public record PostingResult(int contributions, int loanPayments, int membersUpdated) {
+    }
+}
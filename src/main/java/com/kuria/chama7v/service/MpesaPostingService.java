@@ -0,0 +1,115 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.entity.MpesaTransaction;
+import com.kuria.chama7v.repository.MpesaTransactionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sweeps SUCCESS transactions that have not been posted to the ledger and hands them to
+ * {@link MpesaPostingProcessor} in batches. The short interval doubles as the coalescing
+ * window: payments that land in the same sweep share one balance write per member.
+ * <p>
+ * A batch that fails is posted again one row at a time, so one bad payment does not hold up the
+ * rest. A row that fails on its own has the failure counted against it, and after
+ * {@code max-attempts} it is parked: left unposted and skipped by later sweeps until someone looks.
+ */
+@Service
+@Slf4j
+public class MpesaPostingService {
+
+    private final MpesaTransactionRepository transactionRepository;
+    private final MpesaPostingProcessor postingProcessor;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final Counter contributionCounter;
+    private final Counter loanPaymentCounter;
+    private final Counter failedCounter;
+
+    @Value("${mpesa.posting.batch-size:200}")
+    private int batchSize;
+
+    @Value("${mpesa.posting.max-attempts:10}")
+    private int maxAttempts;
+
+    public MpesaPostingService(MpesaTransactionRepository transactionRepository,
+                               MpesaPostingProcessor postingProcessor,
+                               MeterRegistry meterRegistry) {
+        this.transactionRepository = transactionRepository;
+        this.postingProcessor = postingProcessor;
+
+        this.contributionCounter = Counter.builder("mpesa.posting.posted")
+                .tag("type", "contribution")
+                .description("Ledger rows created from successful M-Pesa payments")
+                .register(meterRegistry);
+        this.loanPaymentCounter = Counter.builder("mpesa.posting.posted")
+                .tag("type", "loan_payment")
+                .description("Ledger rows created from successful M-Pesa payments")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("mpesa.posting.failed")
+                .description("M-Pesa payments that failed to post on their own")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${mpesa.posting.interval-ms:5000}")
+    public void postPending() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long afterId = 0;
+            while (true) {
+                List<MpesaTransaction> batch = transactionRepository.findUnposted(afterId, maxAttempts,
+                        PageRequest.of(0, batchSize));
+                if (batch.isEmpty()) {
+                    return;
+                }
+                afterId = batch.get(batch.size() - 1).getId();
+                post(batch);
+            }
+        } catch (Exception e) {
+            log.error("Error posting M-Pesa payments to the ledger: ", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private void post(List<MpesaTransaction> batch) {
+        try {
+            MpesaPostingProcessor.PostingResult result = postingProcessor.postBatch(batch);
+            contributionCounter.increment(result.contributions());
+            loanPaymentCounter.increment(result.loanPayments());
+            log.info("Posted {} contributions and {} loan payments from M-Pesa for {} members",
+                    result.contributions(), result.loanPayments(), result.membersUpdated());
+        } catch (Exception e) {
+            if (batch.size() > 1) {
+                log.warn("Batch of {} M-Pesa payments failed to post, posting individually: {}",
+                        batch.size(), e.getMessage());
+                batch.forEach(transaction -> post(List.of(transaction)));
+                return;
+            }
+            MpesaTransaction transaction = batch.get(0);
+            failedCounter.increment();
+            transactionRepository.recordPostingFailure(transaction.getId(), truncate(e.toString()));
+            if (transaction.getPostingAttempts() + 1 >= maxAttempts) {
+                log.error("Parking M-Pesa payment {} after {} failed posting attempts: ",
+                        transaction.getMpesaReceiptNumber(), maxAttempts, e);
+            } else {
+                log.warn("Error posting M-Pesa payment {}, retrying next sweep: {}",
+                        transaction.getMpesaReceiptNumber(), e.getMessage());
+            }
+        }
+    }
+
+    private static String truncate(String message) {
+        return message.length() <= 255 ? message : message.substring(0, 255);
+    }
+}
@@ -0,0 +1,265 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.config.MpesaProperties;
+import com.kuria.chama7v.dto.daraja.StkQueryRequest;
+import com.kuria.chama7v.dto.daraja.StkQueryResponse;
+import com.kuria.chama7v.dto.request.MpesaCallbackRequest;
+import com.kuria.chama7v.dto.response.ReconciliationRunResponse;
+import com.kuria.chama7v.entity.MpesaTransaction;
+import com.kuria.chama7v.entity.enums.DarajaPriority;
+import com.kuria.chama7v.entity.enums.TransactionStatus;
+import com.kuria.chama7v.exception.DarajaApiException;
+import com.kuria.chama7v.repository.MpesaTransactionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Resolves STK pushes whose callback never arrived by asking Daraja's STK Query API.
+ * Stale PENDING rows are read in keyset pages and each row is claimed by stamping its last query
+ * time before it is queried, so nodes sweeping at the same time split a page rather than all
+ * querying it. Claimed rows are queried with bounded concurrency behind a fixed request rate,
+ * and the final results are handed to
+ * {@link MpesaCallbackQueue} exactly like real callbacks, so they pass the duplicate filter and
+ * the journal and are applied by the same workers rather than racing them.
+ */
+@Service
+@Slf4j
+public class MpesaReconciliationService {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private final MpesaTransactionRepository transactionRepository;
+    private final MpesaCallbackQueue callbackQueue;
+    private final DarajaClient darajaClient;
+    private final MpesaTokenManager tokenManager;
+    private final MpesaProperties mpesaProperties;
+    private final Executor mpesaExecutor;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final Counter resolvedCounter;
+    private final Counter pendingCounter;
+    private final Counter errorCounter;
+
+    // Leave the callback this long to arrive before querying
+    @Value("${mpesa.reconciliation.min-age-seconds:120}")
+    private long minAgeSeconds;
+
+    @Value("${mpesa.reconciliation.requery-interval-seconds:300}")
+    private long requeryIntervalSeconds;
+
+    @Value("${mpesa.reconciliation.page-size:200}")
+    private int pageSize;
+
+    @Value("${mpesa.reconciliation.max-per-run:10000}")
+    private int maxPerRun;
+
+    @Value("${mpesa.reconciliation.concurrency:8}")
+    private int concurrency;
+
+    @Value("${mpesa.reconciliation.requests-per-second:20}")
+    private int requestsPerSecond;
+
+    public MpesaReconciliationService(MpesaTransactionRepository transactionRepository,
+                                      MpesaCallbackQueue callbackQueue,
+                                      DarajaClient darajaClient,
+                                      MpesaTokenManager tokenManager,
+                                      MpesaProperties mpesaProperties,
+                                      @Qualifier("mpesaExecutor") Executor mpesaExecutor,
+                                      MeterRegistry meterRegistry) {
+        this.transactionRepository = transactionRepository;
+        this.callbackQueue = callbackQueue;
+        this.darajaClient = darajaClient;
+        this.tokenManager = tokenManager;
+        this.mpesaProperties = mpesaProperties;
+        this.mpesaExecutor = mpesaExecutor;
+
+        this.resolvedCounter = Counter.builder("mpesa.reconciliation.queries")
+                .tag("outcome", "resolved")
+                .description("STK queries issued by the reconciliation engine")
+                .register(meterRegistry);
+        this.pendingCounter = Counter.builder("mpesa.reconciliation.queries")
+                .tag("outcome", "pending")
+                .description("STK queries issued by the reconciliation engine")
+                .register(meterRegistry);
+        this.errorCounter = Counter.builder("mpesa.reconciliation.queries")
+                .tag("outcome", "error")
+                .description("STK queries issued by the reconciliation engine")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${mpesa.reconciliation.interval-ms:60000}",
+            initialDelayString = "${mpesa.reconciliation.initial-delay-ms:60000}")
+    public void scheduledRun() {
+        ReconciliationRunResponse run = reconcileStale();
+        if (run.getQueried() > 0) {
+            log.info("M-Pesa reconciliation: queried {}, resolved {}, still pending {}, errors {}",
+                    run.getQueried(), run.getResolved(), run.getStillPending(), run.getErrors());
+        }
+    }
+
+    // One pass over stale PENDING rows; concurrent calls return immediately with skipped=true
+    public ReconciliationRunResponse reconcileStale() {
+        ReconciliationRunResponse run = new ReconciliationRunResponse();
+        run.setStartedAt(LocalDateTime.now());
+        if (!running.compareAndSet(false, true)) {
+            run.setSkipped(true);
+            run.setFinishedAt(LocalDateTime.now());
+            return run;
+        }
+
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime createdBefore = now.minusSeconds(minAgeSeconds);
+            LocalDateTime queriedBefore = now.minusSeconds(requeryIntervalSeconds);
+            long afterId = 0;
+
+            while (run.getQueried() < maxPerRun) {
+                List<MpesaTransaction> page = transactionRepository.findStalePending(
+                        createdBefore, queriedBefore, afterId,
+                        PageRequest.of(0, Math.min(pageSize, maxPerRun - run.getQueried())));
+                if (page.isEmpty()) {
+                    break;
+                }
+                afterId = page.get(page.size() - 1).getId();
+                reconcilePage(page, queriedBefore, run);
+            }
+        } catch (Exception e) {
+            log.error("M-Pesa reconciliation run failed: ", e);
+        } finally {
+            running.set(false);
+        }
+
+        run.setFinishedAt(LocalDateTime.now());
+        return run;
+    }
+
+    // Called for Daraja timeout notifications: query these right away instead of waiting for the
+    // sweep, unless a sweep has just queried them
+    public void reconcileAsync(Collection<String> checkoutRequestIds) {
+        if (checkoutRequestIds.isEmpty()) {
+            return;
+        }
+        mpesaExecutor.execute(() -> {
+            try {
+                List<MpesaTransaction> transactions =
+                        transactionRepository.findByCheckoutRequestIdIn(checkoutRequestIds).stream()
+                                .filter(t -> t.getStatus() == TransactionStatus.PENDING)
+                                .toList();
+                if (!transactions.isEmpty()) {
+                    reconcilePage(transactions, LocalDateTime.now().minusSeconds(requeryIntervalSeconds),
+                            new ReconciliationRunResponse());
+                }
+            } catch (Exception e) {
+                log.error("Error reconciling timed-out M-Pesa transactions {}: ", checkoutRequestIds, e);
+            }
+        });
+    }
+
+    // A row that loses its claim is being queried elsewhere; one whose node stops before the
+    // query is claimable again once the requery interval has passed
+    private void reconcilePage(List<MpesaTransaction> page, LocalDateTime queriedBefore, ReconciliationRunResponse run) {
+        LocalDateTime claimedAt = LocalDateTime.now();
+        List<MpesaTransaction> claimed = page.stream()
+                .filter(t -> transactionRepository.claimForQuery(t.getId(), claimedAt, queriedBefore) == 1)
+                .toList();
+        if (claimed.isEmpty()) {
+            return;
+        }
+
+        long spacingMillis = Math.max(1, 1000L / Math.max(1, requestsPerSecond));
+
+        List<QueryOutcome> outcomes = Flux.fromIterable(claimed)
+                .delayElements(Duration.ofMillis(spacingMillis))
+                .flatMap(this::query, concurrency)
+                .collectList()
+                .block();
+        if (outcomes == null) {
+            return;
+        }
+
+        for (QueryOutcome outcome : outcomes) {
+            if (outcome.result() != null) {
+                submit(outcome.result());
+                resolvedCounter.increment();
+                run.setResolved(run.getResolved() + 1);
+            } else if (outcome.error()) {
+                errorCounter.increment();
+                run.setErrors(run.getErrors() + 1);
+            } else {
+                pendingCounter.increment();
+                run.setStillPending(run.getStillPending() + 1);
+            }
+        }
+        run.setQueried(run.getQueried() + outcomes.size());
+    }
+
+    private void submit(MpesaCallbackRequest.StkCallback result) {
+        MpesaCallbackRequest.Body body = new MpesaCallbackRequest.Body();
+        body.setStkCallback(result);
+        MpesaCallbackRequest request = new MpesaCallbackRequest();
+        request.setBody(body);
+        try {
+            callbackQueue.accept(request);
+        } catch (Exception e) {
+            // Left PENDING, so a later pass queries it again
+            log.warn("Could not queue STK query result for {}: {}", result.getCheckoutRequestID(), e.getMessage());
+        }
+    }
+
+    private Mono<QueryOutcome> query(MpesaTransaction transaction) {
+        String checkoutRequestId = transaction.getCheckoutRequestId();
+        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
+
+        StkQueryRequest request = new StkQueryRequest(mpesaProperties.getStkPassword(timestamp), timestamp,
+                checkoutRequestId);
+
+        return Mono.fromFuture(tokenManager::getAccessTokenAsync)
+                .flatMap(token -> darajaClient.stkQuery(token, request, DarajaPriority.BATCH))
+                .map(response -> toOutcome(checkoutRequestId, response))
+                .onErrorResume(e -> Mono.just(errorOutcome(checkoutRequestId, e)));
+    }
+
+    private QueryOutcome toOutcome(String checkoutRequestId, StkQueryResponse response) {
+        if (!response.hasResult()) {
+            return new QueryOutcome(null, false);
+        }
+
+        MpesaCallbackRequest.StkCallback result = new MpesaCallbackRequest.StkCallback();
+        result.setCheckoutRequestID(checkoutRequestId);
+        result.setMerchantRequestID(response.merchantRequestId());
+        result.setResultCode(Integer.parseInt(response.resultCode()));
+        result.setResultDesc(response.resultDesc());
+        return new QueryOutcome(result, false);
+    }
+
+    private QueryOutcome errorOutcome(String checkoutRequestId, Throwable e) {
+        if (e instanceof DarajaApiException apiError && apiError.isStillProcessing()) {
+            return new QueryOutcome(null, false);
+        }
+        if (e instanceof DarajaApiException apiError && apiError.isUnauthorized()) {
+            tokenManager.invalidate();
+        }
+        log.warn("STK query failed for {}: {}", checkoutRequestId, e.getMessage());
+        return new QueryOutcome(null, true);
+    }
+
+    private record QueryOutcome(MpesaCallbackRequest.StkCallback result, boolean error) {
+    }
+}
@@ -1,11 +1,25 @@
 package com.kuria.chama7v.service;
 
+import com.kuria.chama7v.dto.daraja.B2CPaymentRequest;
+import com.kuria.chama7v.dto.daraja.B2CPaymentResponse;
+import com.kuria.chama7v.dto.request.B2CResultRequest;
+import com.kuria.chama7v.dto.request.C2BPaymentRequest;
 import com.kuria.chama7v.dto.request.MpesaCallbackRequest;
 import com.kuria.chama7v.dto.request.MpesaStkRequest;
+import com.kuria.chama7v.dto.response.C2BResponse;
 import com.kuria.chama7v.dto.response.MpesaResponse;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
 public interface MpesaService {
     MpesaResponse initiateSTKPush(MpesaStkRequest request);
+    CompletableFuture<MpesaResponse> initiateSTKPushAsync(MpesaStkRequest request);
     void handleCallback(MpesaCallbackRequest callbackRequest);
+    CompletableFuture<B2CPaymentResponse> initiateB2CPaymentAsync(B2CPaymentRequest request, Duration maxWait);
+    void handleB2CResult(B2CResultRequest resultRequest);
+    void handleB2CTimeout(B2CResultRequest timeoutRequest);
+    C2BResponse validateC2BPayment(C2BPaymentRequest request);
+    void handleC2BConfirmation(C2BPaymentRequest request);
     String getAccessToken();
 }
@@ -0,0 +1,254 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.daraja.OAuthTokenResponse;
+import com.kuria.chama7v.dto.response.MpesaTokenStatusResponse;
+import com.kuria.chama7v.exception.DarajaUnavailableException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches the Daraja OAuth token for its advertised lifetime so STK pushes do not pay an
+ * extra round trip to /oauth/v1/generate. Refreshes are single-flight: every caller that
+ * needs a new token joins the same in-flight request.
+ */
+@Service
+@Slf4j
+public class MpesaTokenManager {
+
+    private final DarajaClient darajaClient;
+    private final LongSupplier currentTimeMillis;
+
+    private final AtomicReference<CachedToken> cachedToken = new AtomicReference<>();
+    private final AtomicReference<CompletableFuture<CachedToken>> inFlightRefresh = new AtomicReference<>();
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter refreshCounter;
+    private final Counter refreshFailureCounter;
+
+    private volatile LocalDateTime lastRefreshAt;
+
+    // Refresh this long before the token expires so callers never see an expired token
+    @Value("${mpesa.token.refresh-ahead-seconds:300}")
+    private long refreshAheadSeconds;
+
+    // Treat the token as expired this long before Daraja does, to absorb clock skew
+    @Value("${mpesa.token.expiry-skew-seconds:30}")
+    private long expirySkewSeconds;
+
+    @Value("${mpesa.token.fetch-timeout-seconds:30}")
+    private long fetchTimeoutSeconds;
+
+    @Autowired
+    public MpesaTokenManager(DarajaClient darajaClient, MeterRegistry meterRegistry) {
+        this(darajaClient, meterRegistry, System::currentTimeMillis);
+    }
+
+    // Expiry and refresh times are read from the given clock
+    MpesaTokenManager(DarajaClient darajaClient, MeterRegistry meterRegistry, LongSupplier currentTimeMillis) {
+        this.darajaClient = darajaClient;
+        this.currentTimeMillis = currentTimeMillis;
+
+        this.hitCounter = Counter.builder("mpesa.token.cache")
+                .tag("result", "hit")
+                .description("Daraja token requests served from cache")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("mpesa.token.cache")
+                .tag("result", "miss")
+                .description("Daraja token requests that had to wait for a refresh")
+                .register(meterRegistry);
+        this.refreshCounter = Counter.builder("mpesa.token.refresh")
+                .tag("outcome", "success")
+                .description("Daraja token refreshes")
+                .register(meterRegistry);
+        this.refreshFailureCounter = Counter.builder("mpesa.token.refresh")
+                .tag("outcome", "failure")
+                .description("Daraja token refreshes")
+                .register(meterRegistry);
+        Gauge.builder("mpesa.token.seconds.remaining", this, MpesaTokenManager::secondsRemaining)
+                .description("Seconds until the cached Daraja token expires")
+                .register(meterRegistry);
+    }
+
+    public String getAccessToken() {
+        CachedToken token = cachedToken.get();
+        long now = currentTimeMillis.getAsLong();
+
+        if (token != null && token.isUsable(now)) {
+            hitCounter.increment();
+            if (token.shouldRefresh(now)) {
+                refresh();
+            }
+            return token.value();
+        }
+
+        missCounter.increment();
+        return awaitRefresh();
+    }
+
+    // Non-blocking variant for the reactive STK path; cache hits complete immediately
+    public CompletableFuture<String> getAccessTokenAsync() {
+        CachedToken token = cachedToken.get();
+        long now = currentTimeMillis.getAsLong();
+
+        if (token != null && token.isUsable(now)) {
+            hitCounter.increment();
+            if (token.shouldRefresh(now)) {
+                refresh();
+            }
+            return CompletableFuture.completedFuture(token.value());
+        }
+
+        missCounter.increment();
+        // Time out the dependent stage only; other callers may still be joined to the refresh
+        return refresh()
+                .thenApply(CachedToken::value)
+                .orTimeout(fetchTimeoutSeconds, TimeUnit.SECONDS);
+    }
+
+    // Drop the cached token, e.g. after Daraja rejects it with 401
+    public void invalidate() {
+        cachedToken.set(null);
+        log.info("M-Pesa access token invalidated");
+    }
+
+    // Proactively refresh in the background so the STK path keeps hitting the cache
+    @Scheduled(fixedDelayString = "${mpesa.token.refresh-check-interval-ms:30000}")
+    public void refreshIfExpiring() {
+        CachedToken token = cachedToken.get();
+        if (token != null && token.shouldRefresh(currentTimeMillis.getAsLong())) {
+            log.debug("M-Pesa access token expiring soon, refreshing in background");
+            refresh();
+        }
+    }
+
+    public MpesaTokenStatusResponse getStatus() {
+        CachedToken token = cachedToken.get();
+        long now = currentTimeMillis.getAsLong();
+
+        MpesaTokenStatusResponse status = new MpesaTokenStatusResponse();
+        status.setCached(token != null && token.isUsable(now));
+        if (token != null) {
+            status.setTokenPreview(token.value().substring(0, Math.min(20, token.value().length())) + "...");
+            status.setExpiresAt(LocalDateTime.ofInstant(Instant.ofEpochMilli(token.expiresAtMillis()),
+                    ZoneId.systemDefault()));
+            status.setSecondsRemaining(Math.max(0, (token.expiresAtMillis() - now) / 1000));
+        }
+        status.setRefreshInFlight(inFlightRefresh.get() != null);
+        status.setLastRefreshAt(lastRefreshAt);
+        status.setHits((long) hitCounter.count());
+        status.setMisses((long) missCounter.count());
+        status.setRefreshes((long) refreshCounter.count());
+        status.setRefreshFailures((long) refreshFailureCounter.count());
+        return status;
+    }
+
+    private String awaitRefresh() {
+        try {
+            return refresh().get(fetchTimeoutSeconds, TimeUnit.SECONDS).value();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof DarajaUnavailableException unavailable) {
+                throw unavailable;
+            }
+            throw new RuntimeException("Failed to get M-Pesa access token: " + cause.getMessage(), cause);
+        } catch (TimeoutException e) {
+            throw new RuntimeException("Timed out waiting for M-Pesa access token", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for M-Pesa access token", e);
+        }
+    }
+
+    // Starts a refresh unless one is already running, in which case the caller joins it
+    private CompletableFuture<CachedToken> refresh() {
+        while (true) {
+            CompletableFuture<CachedToken> existing = inFlightRefresh.get();
+            if (existing != null) {
+                return existing;
+            }
+
+            CompletableFuture<CachedToken> created = new CompletableFuture<>();
+            if (!inFlightRefresh.compareAndSet(null, created)) {
+                continue;
+            }
+
+            fetchToken().subscribe(
+                    token -> {
+                        cachedToken.set(token);
+                        lastRefreshAt = LocalDateTime.now();
+                        refreshCounter.increment();
+                        inFlightRefresh.set(null);
+                        created.complete(token);
+                        log.debug("Successfully obtained M-Pesa access token");
+                    },
+                    error -> {
+                        refreshFailureCounter.increment();
+                        inFlightRefresh.set(null);
+                        created.completeExceptionally(error);
+                        log.error("Error getting M-Pesa access token: {}", error.getMessage());
+                    });
+            return created;
+        }
+    }
+
+    private Mono<CachedToken> fetchToken() {
+        return darajaClient.generateToken()
+                .map(response -> {
+                    if (response.accessToken() == null) {
+                        throw new RuntimeException("Failed to get access token from M-Pesa");
+                    }
+                    return toCachedToken(response);
+                });
+    }
+
+    private CachedToken toCachedToken(OAuthTokenResponse response) {
+        String accessToken = response.accessToken();
+        long expiresInSeconds;
+        try {
+            expiresInSeconds = Long.parseLong(response.expiresIn());
+        } catch (NumberFormatException e) {
+            // Daraja tokens live for an hour when the field is missing or malformed
+            expiresInSeconds = 3599;
+        }
+
+        long fetchedAt = currentTimeMillis.getAsLong();
+        long expiresAt = fetchedAt + TimeUnit.SECONDS.toMillis(expiresInSeconds);
+        long usableUntil = expiresAt - TimeUnit.SECONDS.toMillis(expirySkewSeconds);
+        long refreshAt = Math.max(fetchedAt, expiresAt - TimeUnit.SECONDS.toMillis(refreshAheadSeconds));
+        return new CachedToken(accessToken, expiresAt, usableUntil, refreshAt);
+    }
+
+    private double secondsRemaining() {
+        CachedToken token = cachedToken.get();
+        return token == null ? 0 : Math.max(0, (token.expiresAtMillis() - currentTimeMillis.getAsLong()) / 1000.0);
+    }
+
+    private record CachedToken(String value, long expiresAtMillis, long usableUntilMillis, long refreshAtMillis) {
+
+        boolean isUsable(long now) {
+            return now < usableUntilMillis;
+        }
+
+        boolean shouldRefresh(long now) {
+            return now >= refreshAtMillis;
+        }
+    }
+}
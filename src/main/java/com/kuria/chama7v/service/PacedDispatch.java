@@ -0,0 +1,154 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.exception.DarajaUnavailableException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The throttled send loop shared by the background M-Pesa senders. A kick runs one pass on the
+ * mpesa executor's virtual threads, so throttling never blocks the scheduler that kicked it, and
+ * a kick while a pass is still running is dropped. Within a pass at most {@code concurrency} sends
+ * are in flight, they are spaced to stay under {@code requestsPerSecond}, and each item is claimed
+ * just before it is sent. Once a send fails with {@link DarajaUnavailableException} nothing more
+ * is claimed, and the rest is left for a later kick.
+ */
+@Slf4j
+final class PacedDispatch {
+
+    private final String name;
+    private final Executor executor;
+    private final int concurrency;
+    private final long spacingNanos;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    PacedDispatch(String name, Executor executor, int concurrency, int requestsPerSecond) {
+        this.name = name;
+        this.executor = executor;
+        this.concurrency = concurrency;
+        this.spacingNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, requestsPerSecond);
+    }
+
+    // A send still claimed this long after its claim was cut short by a process that stopped. On
+    // a live instance a send waits at most the send timeout to go out and the read timeout for
+    // Daraja's answer, so it is never that old.
+    static LocalDateTime interruptedBefore(long sendTimeoutSeconds) {
+        return LocalDateTime.now().minusSeconds(2 * sendTimeoutSeconds);
+    }
+
+    void kick(Body body) {
+        kick(body, () -> false);
+    }
+
+    // again is checked once the pass has finished, so work that arrived while it was winding down
+    // and whose kick was dropped still gets a pass
+    void kick(Body body, BooleanSupplier again) {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                Pass pass = new Pass();
+                body.run(pass);
+                pass.awaitIdle();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("Error dispatching {}: ", name, e);
+            } finally {
+                running.set(false);
+                if (again.getAsBoolean()) {
+                    kick(body, again);
+                }
+            }
+        });
+    }
+
+    @FunctionalInterface
+    interface Body {
+        void run(Pass pass) throws InterruptedException;
+    }
+
+    @FunctionalInterface
+    interface Settle<C, R> {
+        // error is unwrapped from CompletionException; null when the send succeeded
+        void settle(C claimed, R result, Throwable error);
+    }
+
+    // Used only from the thread running the pass, apart from the completions it releases
+    final class Pass {
+        private final Semaphore inFlight = new Semaphore(concurrency);
+        private final AtomicBoolean darajaUnavailable = new AtomicBoolean();
+        private long nextSendAt = System.nanoTime();
+
+        boolean isStopped() {
+            return darajaUnavailable.get();
+        }
+
+        // Waits for a free slot, then claims: a null claim means another sender got there first.
+        // Returns false without claiming once the pass has stopped.
+        <C, R> boolean offer(Supplier<C> claim, Function<C, CompletableFuture<R>> send, Settle<C, R> settle)
+                throws InterruptedException {
+            inFlight.acquire();
+            if (darajaUnavailable.get()) {
+                inFlight.release();
+                return false;
+            }
+            C claimed;
+            try {
+                claimed = claim.get();
+            } catch (RuntimeException e) {
+                inFlight.release();
+                throw e;
+            }
+            if (claimed == null) {
+                inFlight.release();
+                return true;
+            }
+
+            long wait = nextSendAt - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            nextSendAt = Math.max(nextSendAt, System.nanoTime()) + spacingNanos;
+
+            CompletableFuture<R> sent;
+            try {
+                sent = send.apply(claimed);
+            } catch (RuntimeException e) {
+                sent = CompletableFuture.failedFuture(e);
+            }
+            sent.handle((result, error) -> {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                try {
+                    if (cause instanceof DarajaUnavailableException) {
+                        darajaUnavailable.set(true);
+                    }
+                    settle.settle(claimed, result, cause);
+                } catch (Exception e) {
+                    log.error("Error recording {} send: ", name, e);
+                } finally {
+                    inFlight.release();
+                }
+                return null;
+            });
+            return true;
+        }
+
+        // Returns once nothing sent in this pass is still in flight
+        void awaitIdle() throws InterruptedException {
+            inFlight.acquire(concurrency);
+            inFlight.release(concurrency);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.response.UnassignedPaymentResponse;
+import com.kuria.chama7v.entity.MpesaTransaction;
+import com.kuria.chama7v.exception.ResourceNotFoundException;
+import com.kuria.chama7v.repository.MemberRepository;
+import com.kuria.chama7v.repository.MpesaTransactionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+/**
+ * Lets a treasurer attach a member to a settled payment that matched none, such as a Paybill
+ * payment with a mistyped account number. Once it has a member, {@link MpesaPostingService}
+ * posts it on the next sweep like any other payment.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PaymentAssignmentService {
+
+    private final MpesaTransactionRepository transactionRepository;
+    private final MemberRepository memberRepository;
+
+    public Page<UnassignedPaymentResponse> getUnassigned(Pageable pageable) {
+        return transactionRepository.findUnassigned(pageable).map(this::mapToResponse);
+    }
+
+    public void assignMember(Long transactionId, Long memberId, String assignedBy) {
+        memberRepository.findByIdAndDeletedFalse(memberId)
+                .orElseThrow(() -> new ResourceNotFoundException("Member", "id", memberId));
+        MpesaTransaction transaction = transactionRepository.findById(transactionId)
+                .orElseThrow(() -> new ResourceNotFoundException("M-Pesa transaction", "id", transactionId));
+        // Guarded update: a payment that already has a member, or has been posted, is never moved
+        if (transactionRepository.assignMember(transactionId, memberId) == 0) {
+            throw new IllegalArgumentException("Payment " + transaction.getMpesaReceiptNumber()
+                    + " is not an unassigned settled payment");
+        }
+        log.info("Payment {} of {} assigned to member {} by {}", transaction.getMpesaReceiptNumber(),
+                transaction.getAmount(), memberId, assignedBy);
+    }
+
+    private UnassignedPaymentResponse mapToResponse(MpesaTransaction transaction) {
+        UnassignedPaymentResponse response = new UnassignedPaymentResponse();
+        response.setId(transaction.getId());
+        response.setMpesaReceiptNumber(transaction.getMpesaReceiptNumber());
+        response.setPhoneNumber(transaction.getPhoneNumber());
+        response.setAmount(transaction.getAmount());
+        response.setTransactionDate(transaction.getTransactionDate());
+        response.setAccountReference(transaction.getAccountReference());
+        return response;
+    }
+}
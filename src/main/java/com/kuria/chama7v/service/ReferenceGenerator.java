@@ -0,0 +1,153 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.entity.IdSequence;
+import com.kuria.chama7v.repository.IdSequenceRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Hands out loan numbers and contribution, payment and STK references such as {@code LN-0000042}.
+ * Values come from a hi/lo scheme: each node reserves a block of numbers from {@code id_sequences}
+ * in a short transaction of its own and then counts through it in memory, so a reference costs
+ * no database round trip and two nodes never hand out the same one.
+ * <p>
+ * References are unique and increase on each node; across nodes they interleave by block. Numbers
+ * left in a block when a node stops are never used. The next block is fetched in the background
+ * once half the current one is used, so callers, which usually hold a connection for their own
+ * transaction, do not wait for a second one.
+ */
+@Component
+@Slf4j
+public class ReferenceGenerator {
+
+    // Padded so references sort and read alike; still within Daraja's 12-character AccountReference
+    private static final int DIGITS = 7;
+
+    public enum Kind {
+        LOAN("LN"), CONTRIBUTION("CNT"), PAYMENT("PAY"), STK("STK");
+
+        private final String prefix;
+
+        Kind(String prefix) {
+            this.prefix = prefix;
+        }
+    }
+
+    private final IdSequenceRepository sequenceRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Executor taskExecutor;
+    private final Map<Kind, Sequence> sequences = new EnumMap<>(Kind.class);
+
+    @Value("${references.block-size:100}")
+    private long blockSize;
+
+    public ReferenceGenerator(IdSequenceRepository sequenceRepository, PlatformTransactionManager transactionManager,
+                              @Qualifier("taskExecutor") Executor taskExecutor) {
+        this.sequenceRepository = sequenceRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.taskExecutor = taskExecutor;
+        for (Kind kind : Kind.values()) {
+            sequences.put(kind, new Sequence(kind));
+        }
+    }
+
+    public String next(Kind kind) {
+        return format(kind.prefix, sequences.get(kind).nextValue());
+    }
+
+    // Reserve the first blocks before any request arrives holding a connection
+    @EventListener(ApplicationReadyEvent.class)
+    public void reserveBlocks() {
+        sequences.values().forEach(Sequence::refill);
+    }
+
+    static String format(String prefix, long value) {
+        String digits = Long.toString(value);
+        StringBuilder reference = new StringBuilder(prefix.length() + 1 + Math.max(DIGITS, digits.length()))
+                .append(prefix).append('-');
+        for (int i = digits.length(); i < DIGITS; i++) {
+            reference.append('0');
+        }
+        return reference.append(digits).toString();
+    }
+
+    // Returns the start of a freshly reserved block; the first node to ask creates the row
+    private long reserveBlock(Kind kind) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> {
+                    if (sequenceRepository.advance(kind.name(), blockSize) == 0) {
+                        sequenceRepository.saveAndFlush(new IdSequence(kind.name(), 1 + blockSize));
+                        return 1L;
+                    }
+                    return sequenceRepository.findNextValue(kind.name()) - blockSize;
+                });
+            } catch (DataIntegrityViolationException e) {
+                // Another node created the row first; take a block from it instead
+                if (attempt > 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private final class Sequence {
+        private final Kind kind;
+        private long next;
+        private long limit;
+        private long spareStart = -1;
+        private boolean refilling;
+
+        Sequence(Kind kind) {
+            this.kind = kind;
+        }
+
+        synchronized long nextValue() {
+            if (next == limit) {
+                long start = spareStart >= 0 ? spareStart : reserveBlock(kind);
+                spareStart = -1;
+                next = start;
+                limit = start + blockSize;
+            }
+            if (spareStart < 0 && !refilling && limit - next <= blockSize / 2) {
+                refilling = true;
+                taskExecutor.execute(this::refill);
+            }
+            return next++;
+        }
+
+        void refill() {
+            long start;
+            try {
+                start = reserveBlock(kind);
+            } catch (RuntimeException e) {
+                log.warn("Could not reserve a block of {} references: {}", kind, e.getMessage());
+                synchronized (this) {
+                    refilling = false;
+                }
+                return;
+            }
+            synchronized (this) {
+                refilling = false;
+                if (spareStart < 0) {
+                    spareStart = start;
+                } else {
+                    log.debug("Dropping surplus block of {} references starting at {}", kind, start);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.entity.Loan;
+import com.kuria.chama7v.entity.LoanInstallment;
+import com.kuria.chama7v.repository.LoanInstallmentRepository;
+import com.kuria.chama7v.util.AmortizationSchedule;
+import com.kuria.chama7v.util.LoanCalculator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies loan repayments to the installment schedule: oldest open installment first, and within
+ * each its penalty, then its interest, then its principal. Open installments are read a few at a
+ * time off the (loan, settled, number) index, so posting a payment costs the same on the last
+ * installment of a five-year loan as on the first.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class RepaymentAllocator {
+
+    // Most payments settle one installment, or one and part of the next
+    private static final int OPEN_INSTALLMENTS_PER_READ = 4;
+
+    private final LoanInstallmentRepository installmentRepository;
+    private final LoanCalculator loanCalculator;
+
+    // Callers apply the amount to the loan balance themselves; it must not exceed it. The loan's
+    // amountPaid must not yet count this payment
+    @Transactional
+    public Allocation allocate(Loan loan, BigDecimal amount, LocalDate paidOn) {
+        return allocate(loan, paidSoFar(loan), amount, paidOn);
+    }
+
+    // For callers that take the amount off the loan before reading it back, so its amountPaid
+    // already counts this payment
+    @Transactional
+    public Allocation allocateApplied(Loan loan, BigDecimal amount, LocalDate paidOn) {
+        return allocate(loan, paidSoFar(loan).subtract(amount), amount, paidOn);
+    }
+
+    private Allocation allocate(Loan loan, BigDecimal paidBefore, BigDecimal amount, LocalDate paidOn) {
+        Allocation allocation = new Allocation();
+        BigDecimal remaining = amount;
+        if (!installmentRepository.existsByLoanId(loan.getId())) {
+            installmentRepository.saveAll(reconstruct(loan, paidBefore));
+        }
+
+        List<LoanInstallment> touched = new ArrayList<>();
+        int afterNumber = 0;
+        while (remaining.signum() > 0) {
+            List<LoanInstallment> open = installmentRepository.findOpen(loan.getId(), afterNumber,
+                    PageRequest.of(0, OPEN_INSTALLMENTS_PER_READ));
+            if (open.isEmpty()) {
+                break;
+            }
+            for (LoanInstallment installment : open) {
+                afterNumber = installment.getInstallmentNumber();
+                remaining = apply(installment, remaining, paidOn, allocation);
+                touched.add(installment);
+                if (remaining.signum() == 0) {
+                    break;
+                }
+            }
+        }
+        installmentRepository.saveAll(touched);
+
+        // The loan balance is the monthly payment times the term, which can run a few cents past
+        // the schedule's own interest; calculateLoan counts that as interest too
+        if (remaining.signum() > 0) {
+            log.debug("Loan {} paid {} beyond its schedule, booked as interest", loan.getLoanNumber(), remaining);
+            allocation.interest = allocation.interest.add(remaining);
+        }
+        return allocation;
+    }
+
+    // Installments fall due monthly from the approval date, each counted from the approval date
+    // itself so a loan approved on the 31st stays on the last day of shorter months. Loans entered
+    // as approved by hand may have no approval date; theirs run from the application
+    public List<LoanInstallment> buildInstallments(Loan loan) {
+        AmortizationSchedule schedule = loanCalculator.buildSchedule(loan.getAmount(), loan.getInterestRate(),
+                loan.getDurationMonths());
+        LocalDate start = (loan.getApprovalDate() != null ? loan.getApprovalDate() : loan.getApplicationDate())
+                .toLocalDate();
+        List<LoanInstallment> installments = new ArrayList<>(schedule.size());
+        for (int i = 0; i < schedule.size(); i++) {
+            LoanInstallment installment = new LoanInstallment();
+            installment.setLoan(loan);
+            installment.setInstallmentNumber(i + 1);
+            installment.setDueDate(start.plusMonths(i + 1));
+            installment.setPrincipalAmount(LoanCalculator.fromCents(schedule.principalCents(i)));
+            installment.setInterestAmount(LoanCalculator.fromCents(schedule.interestCents(i)));
+            installment.setAmountDue(LoanCalculator.fromCents(schedule.amountCents(i)));
+            installment.setClosingBalance(LoanCalculator.fromCents(schedule.balanceCents(i)));
+            installments.add(installment);
+        }
+        return installments;
+    }
+
+    // For loans approved before schedules were stored: the schedule with what has been repaid so
+    // far applied oldest first. When each payment was made is not known, so no settled dates
+    public List<LoanInstallment> reconstruct(Loan loan) {
+        return reconstruct(loan, paidSoFar(loan));
+    }
+
+    private List<LoanInstallment> reconstruct(Loan loan, BigDecimal paid) {
+        List<LoanInstallment> installments = buildInstallments(loan);
+        BigDecimal remaining = paid;
+        Allocation ignored = new Allocation();
+        for (LoanInstallment installment : installments) {
+            if (remaining.signum() == 0) {
+                break;
+            }
+            remaining = apply(installment, remaining, null, ignored);
+        }
+        return installments;
+    }
+
+    private static BigDecimal paidSoFar(Loan loan) {
+        return loan.getAmountPaid() != null ? loan.getAmountPaid() : BigDecimal.ZERO;
+    }
+
+    private BigDecimal apply(LoanInstallment installment, BigDecimal amount, LocalDate paidOn, Allocation allocation) {
+        BigDecimal penalty = amount.min(installment.getPenaltyAmount().subtract(installment.getPenaltyPaid()));
+        installment.setPenaltyPaid(installment.getPenaltyPaid().add(penalty));
+        allocation.penalty = allocation.penalty.add(penalty);
+        BigDecimal remaining = amount.subtract(penalty);
+
+        BigDecimal interest = remaining.min(installment.getInterestAmount().subtract(installment.getInterestPaid()));
+        installment.setInterestPaid(installment.getInterestPaid().add(interest));
+        allocation.interest = allocation.interest.add(interest);
+        remaining = remaining.subtract(interest);
+
+        BigDecimal principal = remaining.min(installment.getPrincipalAmount().subtract(installment.getPrincipalPaid()));
+        installment.setPrincipalPaid(installment.getPrincipalPaid().add(principal));
+        allocation.principal = allocation.principal.add(principal);
+        remaining = remaining.subtract(principal);
+
+        if (installment.outstanding().signum() == 0) {
+            installment.setSettled(true);
+            installment.setSettledDate(paidOn);
+        }
+        return remaining;
+    }
+
+    public static class Allocation {
+        private BigDecimal penalty = BigDecimal.ZERO;
+        private BigDecimal interest = BigDecimal.ZERO;
+        private BigDecimal principal = BigDecimal.ZERO;
+
+        public BigDecimal penalty() {
+            return penalty;
+        }
+
+        public BigDecimal interest() {
+            return interest;
+        }
+
+        public BigDecimal principal() {
+            return principal;
+        }
+    }
+}
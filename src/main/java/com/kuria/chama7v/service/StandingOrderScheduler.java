@@ -0,0 +1,409 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.request.MpesaStkRequest;
+import com.kuria.chama7v.dto.response.MpesaResponse;
+import com.kuria.chama7v.entity.MpesaTransaction;
+import com.kuria.chama7v.entity.StandingOrder;
+import com.kuria.chama7v.entity.StandingOrderRun;
+import com.kuria.chama7v.entity.enums.DarajaPriority;
+import com.kuria.chama7v.entity.enums.StandingOrderRunStatus;
+import com.kuria.chama7v.entity.enums.TransactionStatus;
+import com.kuria.chama7v.event.MpesaTransactionStatusChangedEvent;
+import com.kuria.chama7v.exception.DarajaOutcomeUnknownException;
+import com.kuria.chama7v.exception.DarajaUnavailableException;
+import com.kuria.chama7v.repository.MpesaTransactionRepository;
+import com.kuria.chama7v.repository.StandingOrderRepository;
+import com.kuria.chama7v.repository.StandingOrderRunRepository;
+import com.kuria.chama7v.util.HashedTimingWheel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Collects standing orders by STK push. Each due order gets a run whose slot is hashed across
+ * the collection window, so a thousand orders on the 1st come in as a steady trickle rather than
+ * a burst at the window's start. Runs due within the horizon sit on a {@link HashedTimingWheel}
+ * and are claimed from the database as their tick comes round, so several instances never push
+ * the same run twice. Interrupted pushes are recovered the way {@link CampaignDispatcher} does it.
+ * <p>
+ * A declined or unanswered prompt is retried after a backoff that doubles each attempt, moving
+ * to the next day's window when today's has closed, up to {@code max-attempts}. Pushes go out at
+ * BATCH priority through {@link PacedDispatch} and the Daraja rate governor.
+ */
+@Component
+@Slf4j
+public class StandingOrderScheduler {
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private final StandingOrderRepository orderRepository;
+    private final StandingOrderRunRepository runRepository;
+    private final MpesaTransactionRepository transactionRepository;
+    private final MpesaService mpesaService;
+    private final PacedDispatch dispatch;
+
+    private final HashedTimingWheel<Long> wheel;
+    // Runs on the wheel, so a reload does not schedule them twice
+    private final Set<Long> onWheel = ConcurrentHashMap.newKeySet();
+    private final Queue<Long> due = new ConcurrentLinkedQueue<>();
+
+    private final LocalTime windowStart;
+    private final LocalTime windowEnd;
+
+    private final Counter plannedCounter;
+    private final Counter sentCounter;
+    private final Counter paidCounter;
+    private final Counter retriedCounter;
+    private final Counter failedCounter;
+
+    @Value("${standing-orders.enabled:true}")
+    private boolean enabled;
+
+    @Value("${standing-orders.horizon-minutes:120}")
+    private long horizonMinutes;
+
+    @Value("${standing-orders.send-timeout-seconds:60}")
+    private long sendTimeoutSeconds;
+
+    @Value("${standing-orders.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${standing-orders.retry-backoff-minutes:60}")
+    private long retryBackoffMinutes;
+
+    public StandingOrderScheduler(StandingOrderRepository orderRepository,
+                                  StandingOrderRunRepository runRepository,
+                                  MpesaTransactionRepository transactionRepository,
+                                  MpesaService mpesaService,
+                                  @Qualifier("mpesaExecutor") Executor mpesaExecutor,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${standing-orders.concurrency:4}") int concurrency,
+                                  @Value("${standing-orders.requests-per-second:2}") int requestsPerSecond,
+                                  @Value("${standing-orders.wheel-size:512}") int wheelSize,
+                                  @Value("${standing-orders.tick-ms:1000}") long tickMillis,
+                                  @Value("${standing-orders.window-start:08:00}") String windowStart,
+                                  @Value("${standing-orders.window-end:20:00}") String windowEnd) {
+        this.orderRepository = orderRepository;
+        this.runRepository = runRepository;
+        this.transactionRepository = transactionRepository;
+        this.mpesaService = mpesaService;
+        this.dispatch = new PacedDispatch("standing orders", mpesaExecutor, concurrency, requestsPerSecond);
+        this.wheel = new HashedTimingWheel<>(wheelSize, tickMillis, System.currentTimeMillis());
+        this.windowStart = LocalTime.parse(windowStart);
+        this.windowEnd = LocalTime.parse(windowEnd);
+        if (!this.windowEnd.isAfter(this.windowStart)) {
+            throw new IllegalArgumentException("standing-orders.window-end must be after window-start");
+        }
+
+        Gauge.builder("standing_orders.wheel.size", onWheel, Set::size)
+                .description("Standing order runs waiting on the timing wheel")
+                .register(meterRegistry);
+        this.plannedCounter = counter(meterRegistry, "planned", "Standing order runs planned");
+        this.sentCounter = counter(meterRegistry, "sent", "Standing order STK pushes sent");
+        this.paidCounter = counter(meterRegistry, "paid", "Standing order runs paid");
+        this.retriedCounter = counter(meterRegistry, "retried", "Standing order runs rescheduled after a decline");
+        this.failedCounter = counter(meterRegistry, "failed", "Standing order runs that ran out of attempts");
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String name, String description) {
+        return Counter.builder("standing_orders." + name).description(description).register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        plan();
+    }
+
+    // Hourly, so orders created during the day are still collected on their day
+    @Scheduled(cron = "${standing-orders.plan-cron:0 5 * * * *}")
+    public void plan() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            recoverInterrupted();
+            planRuns(LocalDate.now());
+            loadWheel();
+        } catch (Exception e) {
+            log.error("Error planning standing orders: ", e);
+        }
+    }
+
+    @Scheduled(fixedRateString = "${standing-orders.tick-ms:1000}")
+    public void tick() {
+        List<Long> expired;
+        synchronized (wheel) {
+            expired = wheel.advance(System.currentTimeMillis());
+        }
+        if (expired.isEmpty()) {
+            return;
+        }
+        expired.forEach(onWheel::remove);
+        due.addAll(expired);
+        kick();
+    }
+
+    @TransactionalEventListener
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void onTransactionStatusChanged(MpesaTransactionStatusChangedEvent event) {
+        try {
+            for (StandingOrderRun run : runRepository.findByCheckoutRequestIdIn(event.statuses().keySet())) {
+                settle(run, event.statuses().get(run.getCheckoutRequestId()));
+            }
+        } catch (Exception e) {
+            log.error("Error settling standing order runs: ", e);
+        }
+    }
+
+    // Taken as accepted if its push was recorded, otherwise put straight back on the wheel
+    private void recoverInterrupted() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime before = PacedDispatch.interruptedBefore(sendTimeoutSeconds);
+        int accepted = 0;
+        int requeued = 0;
+        List<StandingOrderRun> interrupted;
+        while (!(interrupted = runRepository.findInterrupted(before,
+                PageRequest.of(0, 500))).isEmpty()) {
+            for (StandingOrderRun run : interrupted) {
+                Optional<MpesaTransaction> push = transactionRepository.findPushesSince(run.getMemberId(),
+                        run.getAccountReference(), run.getAmount(), run.getUpdatedAt().minusMinutes(1),
+                        PageRequest.of(0, 1)).stream().findFirst();
+                if (push.isPresent()) {
+                    onAccepted(run, push.get().getCheckoutRequestId());
+                    accepted++;
+                } else if (runRepository.scheduleRetry(run.getId(), StandingOrderRunStatus.SENT, now,
+                        "Interrupted while sending") == 1) {
+                    schedule(run.getId(), now);
+                    requeued++;
+                }
+            }
+        }
+        if (accepted + requeued > 0) {
+            log.warn("{} standing order pushes were interrupted mid-send; {} had reached the member, {} requeued",
+                    accepted + requeued, accepted, requeued);
+        }
+    }
+
+    private void planRuns(LocalDate date) {
+        boolean lastDayOfMonth = date.getDayOfMonth() == date.lengthOfMonth();
+        List<StandingOrder> orders = orderRepository.findDueWithoutRun(date, date.getDayOfMonth(), lastDayOfMonth);
+        if (orders.isEmpty()) {
+            return;
+        }
+
+        // Planned late in the day, the orders share what is left of the window, or tomorrow's
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime from = date.atTime(windowStart);
+        LocalDateTime to = date.atTime(windowEnd);
+        if (now.isAfter(from)) {
+            from = now;
+        }
+        if (!to.isAfter(from)) {
+            from = date.plusDays(1).atTime(windowStart);
+            to = date.plusDays(1).atTime(windowEnd);
+        }
+
+        List<StandingOrderRun> runs = new ArrayList<>(orders.size());
+        for (StandingOrder order : orders) {
+            StandingOrderRun run = new StandingOrderRun();
+            run.setStandingOrder(order);
+            run.setRunDate(date);
+            run.setMemberId(order.getMemberId());
+            run.setPhoneNumber(order.getPhoneNumber());
+            run.setAmount(order.getAmount());
+            run.setAccountReference(order.getAccountReference());
+            run.setScheduledAt(slot(order.getId(), date, from, to));
+            run.setNextAttemptAt(run.getScheduledAt());
+            runs.add(run);
+        }
+        try {
+            runRepository.saveAll(runs);
+        } catch (DataIntegrityViolationException e) {
+            // Another instance planned the same day first; the next pass picks up any it missed
+            log.info("Standing orders for {} were planned concurrently elsewhere", date);
+            return;
+        }
+        plannedCounter.increment(runs.size());
+        log.info("Planned {} standing order collections for {} between {} and {}", runs.size(), date,
+                from.toLocalTime(), to.toLocalTime());
+    }
+
+    // A stable pseudo-random point in [from, to): the same order lands at a different time each
+    // day, and orders spread evenly however they cluster by ID
+    static LocalDateTime slot(long orderId, LocalDate date, LocalDateTime from, LocalDateTime to) {
+        long span = Duration.between(from, to).toSeconds();
+        long hash = orderId * 0x9E3779B97F4A7C15L ^ date.toEpochDay();
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return from.plusSeconds(Math.floorMod(hash, Math.max(1, span)));
+    }
+
+    private void loadWheel() {
+        LocalDateTime horizon = LocalDateTime.now().plusMinutes(horizonMinutes);
+        long afterId = 0;
+        List<StandingOrderRun> page;
+        int loaded = 0;
+        do {
+            page = runRepository.findWaiting(horizon, afterId, PageRequest.of(0, 500));
+            for (StandingOrderRun run : page) {
+                if (schedule(run.getId(), run.getNextAttemptAt())) {
+                    loaded++;
+                }
+                afterId = run.getId();
+            }
+        } while (!page.isEmpty());
+        if (loaded > 0) {
+            log.debug("Loaded {} standing order runs onto the timing wheel", loaded);
+        }
+    }
+
+    private boolean schedule(Long runId, LocalDateTime at) {
+        if (!onWheel.add(runId)) {
+            return false;
+        }
+        synchronized (wheel) {
+            wheel.schedule(runId, at.atZone(ZONE).toInstant().toEpochMilli());
+        }
+        return true;
+    }
+
+    private void kick() {
+        dispatch.kick(this::dispatch, () -> !due.isEmpty());
+    }
+
+    private void dispatch(PacedDispatch.Pass pass) throws InterruptedException {
+        Long runId;
+        while ((runId = due.poll()) != null) {
+            Long id = runId;
+            if (!pass.offer(() -> runRepository.claimForSending(id, LocalDateTime.now()) == 1
+                            ? runRepository.findById(id).orElse(null) : null,
+                    this::send, this::settleSend)) {
+                // Still waiting in the database, so it only needs to go back on the wheel
+                schedule(id, LocalDateTime.now().plusMinutes(1));
+            }
+        }
+    }
+
+    private CompletableFuture<MpesaResponse> send(StandingOrderRun run) {
+        MpesaStkRequest request = new MpesaStkRequest();
+        request.setPhoneNumber(run.getPhoneNumber());
+        request.setAmount(run.getAmount());
+        request.setAccountReference(run.getAccountReference());
+        request.setTransactionDesc("Standing order");
+        request.setTransactionType("CONTRIBUTION");
+        request.setMemberId(run.getMemberId());
+        request.setPriority(DarajaPriority.BATCH);
+        request.setTimeout(Duration.ofSeconds(sendTimeoutSeconds));
+        return mpesaService.initiateSTKPushAsync(request);
+    }
+
+    private void settleSend(StandingOrderRun run, MpesaResponse response, Throwable error) {
+        if (error == null) {
+            sentCounter.increment();
+            onAccepted(run, response.getCheckoutRequestID());
+        } else if (error instanceof DarajaUnavailableException) {
+            // Not the member's failure, so it does not count as an attempt
+            release(run);
+        } else if (error instanceof DarajaOutcomeUnknownException) {
+            // Retrying now could prompt the member twice; recoverInterrupted decides
+            log.warn("Standing order run {}: {}", run.getId(), error.getMessage());
+        } else {
+            retryOrFail(run, StandingOrderRunStatus.SENT, "Push failed: " + describe(error));
+        }
+    }
+
+    private void onAccepted(StandingOrderRun run, String checkoutRequestId) {
+        if (runRepository.markAccepted(run.getId(), checkoutRequestId) == 0) {
+            return;
+        }
+        run.setStatus(StandingOrderRunStatus.ACCEPTED);
+        run.setCheckoutRequestId(checkoutRequestId);
+        transactionRepository.findSettledStatus(checkoutRequestId).ifPresent(status -> settle(run, status));
+    }
+
+    private void settle(StandingOrderRun run, TransactionStatus status) {
+        if (status == null || status == TransactionStatus.PENDING) {
+            return;
+        }
+        if (status == TransactionStatus.SUCCESS) {
+            if (runRepository.transition(run.getId(), StandingOrderRunStatus.ACCEPTED, StandingOrderRunStatus.PAID, null) == 1) {
+                paidCounter.increment();
+            }
+        } else {
+            retryOrFail(run, StandingOrderRunStatus.ACCEPTED, "Prompt declined or not completed");
+        }
+    }
+
+    private void retryOrFail(StandingOrderRun run, StandingOrderRunStatus from, String reason) {
+        String message = reason.length() > 255 ? reason.substring(0, 255) : reason;
+        // Read after the claim, so attempts counts the push that just failed
+        int attempts = run.getAttempts();
+        if (attempts >= maxAttempts) {
+            if (runRepository.transition(run.getId(), from, StandingOrderRunStatus.FAILED, message) == 1) {
+                failedCounter.increment();
+                log.warn("Standing order collection {} for member {} failed after {} attempts: {}",
+                        run.getId(), run.getMemberId(), attempts, reason);
+            }
+            return;
+        }
+        LocalDateTime next = nextAttempt(run.getId(), attempts, LocalDateTime.now());
+        if (runRepository.scheduleRetry(run.getId(), from, next, message) == 1) {
+            retriedCounter.increment();
+            schedule(run.getId(), next);
+        }
+    }
+
+    // Backoff doubles with each attempt; past the window's close it moves into tomorrow's
+    private LocalDateTime nextAttempt(long runId, int attempts, LocalDateTime now) {
+        LocalDateTime next = now.plusMinutes(retryBackoffMinutes << Math.min(attempts - 1, 10));
+        LocalTime time = next.toLocalTime();
+        if (time.isBefore(windowStart) || time.isAfter(windowEnd)) {
+            LocalDate day = time.isBefore(windowStart) ? next.toLocalDate() : next.toLocalDate().plusDays(1);
+            next = slot(runId, day, day.atTime(windowStart), day.atTime(windowEnd));
+        }
+        return next;
+    }
+
+    private void release(StandingOrderRun run) {
+        LocalDateTime next = LocalDateTime.now().plusMinutes(1);
+        if (runRepository.release(run.getId(), next) == 1) {
+            schedule(run.getId(), next);
+        }
+    }
+
+    private static String describe(Throwable error) {
+        return error.getMessage() == null ? error.getClass().getSimpleName() : error.getMessage();
+    }
+
+    public int waitingOnWheel() {
+        return onWheel.size();
+    }
+}
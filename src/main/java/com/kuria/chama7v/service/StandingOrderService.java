@@ -0,0 +1,15 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.request.StandingOrderRequest;
+import com.kuria.chama7v.dto.response.StandingOrderDayStats;
+import com.kuria.chama7v.dto.response.StandingOrderResponse;
+
+import java.time.LocalDate;
+import java.util.List;
+
+public interface StandingOrderService {
+    StandingOrderResponse createStandingOrder(StandingOrderRequest request);
+    List<StandingOrderResponse> getMyStandingOrders();
+    StandingOrderResponse cancelStandingOrder(Long id);
+    StandingOrderDayStats getDayStats(LocalDate date);
+}
@@ -0,0 +1,474 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.response.StatementDiscrepancyResponse;
+import com.kuria.chama7v.dto.response.StatementReconciliationResponse;
+import com.kuria.chama7v.entity.Contribution;
+import com.kuria.chama7v.entity.MpesaTransaction;
+import com.kuria.chama7v.entity.StatementDiscrepancy;
+import com.kuria.chama7v.entity.StatementReconciliation;
+import com.kuria.chama7v.entity.enums.DiscrepancyType;
+import com.kuria.chama7v.entity.enums.TransactionStatus;
+import com.kuria.chama7v.exception.ResourceNotFoundException;
+import com.kuria.chama7v.repository.ContributionRepository;
+import com.kuria.chama7v.repository.MpesaTransactionRepository;
+import com.kuria.chama7v.repository.StatementDiscrepancyRepository;
+import com.kuria.chama7v.repository.StatementReconciliationRepository;
+import com.kuria.chama7v.util.MpesaStatementReader;
+import com.kuria.chama7v.util.ReceiptSet;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reconciles a Paybill statement export against mpesa_transactions and contributions.
+ * <p>
+ * The statement is streamed and its completed credits are matched in chunks: each chunk is
+ * hashed by receipt and probed with one query per table, so memory is bounded by the chunk
+ * size whatever the length of the file. Every credit's receipt also goes into a compact
+ * {@link ReceiptSet}; once the statement is read, our settled payments over the statement's
+ * period are paged through and any receipt the statement lacks is reported. Discrepancies are
+ * saved as they are found, and statement credits we have no record of can then be posted as
+ * M-Pesa transactions in one batch.
+ * <p>
+ * STK pushes settled through STK Query have no receipt, so a credit whose receipt we lack is
+ * first matched against those by payer, amount and time. A match takes the statement's receipt
+ * and time instead of being reported missing, since it has already been posted to the member.
+ */
+@Service
+@Slf4j
+public class StatementReconciliationService {
+
+    private static final String COMPLETED = "completed";
+
+    private final StatementReconciliationRepository reconciliationRepository;
+    private final StatementDiscrepancyRepository discrepancyRepository;
+    private final MpesaTransactionRepository transactionRepository;
+    private final ContributionRepository contributionRepository;
+    private final MemberDirectory memberDirectory;
+
+    private final AtomicBoolean posting = new AtomicBoolean();
+
+    @Value("${statement.reconciliation.chunk-size:2000}")
+    private int chunkSize;
+
+    @Value("${statement.reconciliation.page-size:1000}")
+    private int pageSize;
+
+    @Value("${statement.reconciliation.receipt-match-window-minutes:10}")
+    private long receiptMatchWindowMinutes;
+
+    public StatementReconciliationService(StatementReconciliationRepository reconciliationRepository,
+                                          StatementDiscrepancyRepository discrepancyRepository,
+                                          MpesaTransactionRepository transactionRepository,
+                                          ContributionRepository contributionRepository,
+                                          MemberDirectory memberDirectory) {
+        this.reconciliationRepository = reconciliationRepository;
+        this.discrepancyRepository = discrepancyRepository;
+        this.transactionRepository = transactionRepository;
+        this.contributionRepository = contributionRepository;
+        this.memberDirectory = memberDirectory;
+    }
+
+    public StatementReconciliationResponse reconcile(InputStream statement, String fileName, String uploadedBy)
+            throws IOException {
+        StatementReconciliation run = new StatementReconciliation();
+        run.setFileName(fileName);
+        run.setUploadedBy(uploadedBy);
+        run = reconciliationRepository.save(run);
+
+        ReceiptSet statementReceipts = new ReceiptSet();
+        List<MpesaStatementReader.Row> chunk = new ArrayList<>(chunkSize);
+        try (MpesaStatementReader reader = new MpesaStatementReader(statement)) {
+            MpesaStatementReader.Row row;
+            while ((row = reader.next()) != null) {
+                run.setStatementRows(run.getStatementRows() + 1);
+                if (!isCredit(row)) {
+                    continue;
+                }
+                run.setCreditRows(run.getCreditRows() + 1);
+                statementReceipts.add(row.receiptNumber());
+                extendPeriod(run, row.completedAt());
+                chunk.add(row);
+                if (chunk.size() == chunkSize) {
+                    matchChunk(run, chunk);
+                    chunk.clear();
+                }
+            }
+            matchChunk(run, chunk);
+        } catch (IllegalArgumentException e) {
+            // The run is kept, incomplete, with whatever was matched before the bad line
+            reconciliationRepository.save(run);
+            throw e;
+        }
+
+        statementReceipts.seal();
+        if (run.getPeriodStart() != null) {
+            findMissingInStatement(run, statementReceipts);
+        }
+
+        run.setCompletedAt(LocalDateTime.now());
+        run = reconciliationRepository.save(run);
+        log.info("Statement {} reconciled: {} credits, {} matched, {} amount mismatches, {} missing here, {} missing from statement",
+                fileName, run.getCreditRows(), run.getMatched(), run.getAmountMismatches(),
+                run.getMissingInSystem(), run.getMissingInStatement());
+        return mapToResponse(run);
+    }
+
+    // Records each statement credit we have no record of as a settled M-Pesa transaction; the
+    // posting sweep then turns those with a member into contributions
+    public StatementReconciliationResponse postMissing(Long reconciliationId) {
+        StatementReconciliation run = findRun(reconciliationId);
+        if (run.getCompletedAt() == null) {
+            throw new IllegalArgumentException("Reconciliation " + reconciliationId + " did not complete");
+        }
+        if (!posting.compareAndSet(false, true)) {
+            throw new IllegalArgumentException("Missing payments are already being posted");
+        }
+        try {
+            long posted = 0;
+            long afterId = 0;
+            while (true) {
+                List<StatementDiscrepancy> page = discrepancyRepository.findUnposted(
+                        reconciliationId, afterId, PageRequest.of(0, pageSize));
+                if (page.isEmpty()) {
+                    break;
+                }
+                afterId = page.get(page.size() - 1).getId();
+                posted += postPage(page);
+            }
+            run.setPosted(run.getPosted() + posted);
+            run = reconciliationRepository.save(run);
+            log.info("Posted {} payments missing from our records for statement reconciliation {}", posted, reconciliationId);
+            return mapToResponse(run);
+        } finally {
+            posting.set(false);
+        }
+    }
+
+    public StatementReconciliationResponse getReconciliation(Long reconciliationId) {
+        return mapToResponse(findRun(reconciliationId));
+    }
+
+    public Page<StatementReconciliationResponse> getReconciliations(Pageable pageable) {
+        return reconciliationRepository.findAllByOrderByCreatedAtDesc(pageable).map(this::mapToResponse);
+    }
+
+    public Page<StatementDiscrepancyResponse> getDiscrepancies(Long reconciliationId, DiscrepancyType type,
+                                                               Pageable pageable) {
+        findRun(reconciliationId);
+        return discrepancyRepository.findByReconciliationIdAndTypeOrderById(reconciliationId, type, pageable)
+                .map(this::mapToDiscrepancyResponse);
+    }
+
+    private static boolean isCredit(MpesaStatementReader.Row row) {
+        return row.paidIn().signum() > 0 && (row.status().isEmpty() || COMPLETED.equalsIgnoreCase(row.status()));
+    }
+
+    private static void extendPeriod(StatementReconciliation run, LocalDateTime completedAt) {
+        if (completedAt == null) {
+            return;
+        }
+        if (run.getPeriodStart() == null || completedAt.isBefore(run.getPeriodStart())) {
+            run.setPeriodStart(completedAt);
+        }
+        if (run.getPeriodEnd() == null || completedAt.isAfter(run.getPeriodEnd())) {
+            run.setPeriodEnd(completedAt);
+        }
+    }
+
+    private void matchChunk(StatementReconciliation run, List<MpesaStatementReader.Row> chunk) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        Map<String, MpesaStatementReader.Row> byReceipt = new LinkedHashMap<>(chunk.size() * 2);
+        for (MpesaStatementReader.Row row : chunk) {
+            byReceipt.putIfAbsent(row.receiptNumber(), row);
+        }
+
+        // A receipt posted from M-Pesa has one transaction; a hand-recorded one only has contributions
+        Map<String, BigDecimal> recorded = new HashMap<>(byReceipt.size() * 2);
+        for (MpesaTransaction transaction : transactionRepository.findByMpesaReceiptNumberIn(byReceipt.keySet())) {
+            recorded.put(transaction.getMpesaReceiptNumber(), transaction.getAmount());
+        }
+        Set<String> unrecorded = new HashSet<>(byReceipt.keySet());
+        unrecorded.removeAll(recorded.keySet());
+        if (!unrecorded.isEmpty()) {
+            for (Contribution contribution : contributionRepository.findByMpesaReceiptNumberIn(unrecorded)) {
+                recorded.merge(contribution.getMpesaReceiptNumber(), contribution.getAmount(), BigDecimal::add);
+            }
+            unrecorded.removeAll(recorded.keySet());
+        }
+        if (!unrecorded.isEmpty()) {
+            List<Credit> credits = unrecorded.stream()
+                    .map(byReceipt::get)
+                    .map(row -> new Credit(row.receiptNumber(), row.completedAt(), row.paidIn(), row.otherParty()))
+                    .toList();
+            for (Credit credit : attachToReceiptless(credits)) {
+                recorded.put(credit.receipt(), credit.amount());
+            }
+        }
+
+        List<StatementDiscrepancy> discrepancies = new ArrayList<>();
+        for (MpesaStatementReader.Row row : byReceipt.values()) {
+            BigDecimal recordedAmount = recorded.get(row.receiptNumber());
+            if (recordedAmount == null) {
+                discrepancies.add(discrepancy(run, DiscrepancyType.MISSING_IN_SYSTEM, row, null));
+                run.setMissingInSystem(run.getMissingInSystem() + 1);
+            } else if (recordedAmount.compareTo(row.paidIn()) != 0) {
+                discrepancies.add(discrepancy(run, DiscrepancyType.AMOUNT_MISMATCH, row, recordedAmount));
+                run.setAmountMismatches(run.getAmountMismatches() + 1);
+            } else {
+                run.setMatched(run.getMatched() + 1);
+            }
+        }
+        discrepancyRepository.saveAll(discrepancies);
+    }
+
+    private void findMissingInStatement(StatementReconciliation run, ReceiptSet statementReceipts) {
+        long afterId = 0;
+        while (true) {
+            List<MpesaTransaction> page = transactionRepository.findSettledBetween(
+                    run.getPeriodStart(), run.getPeriodEnd(), afterId, PageRequest.of(0, pageSize));
+            if (page.isEmpty()) {
+                break;
+            }
+            afterId = page.get(page.size() - 1).getId();
+
+            List<StatementDiscrepancy> discrepancies = new ArrayList<>();
+            for (MpesaTransaction transaction : page) {
+                if (!statementReceipts.contains(transaction.getMpesaReceiptNumber())) {
+                    discrepancies.add(missingInStatement(run, transaction.getMpesaReceiptNumber(),
+                            transaction.getTransactionDate(), transaction.getAmount(), transaction.getAccountReference()));
+                }
+            }
+            discrepancyRepository.saveAll(discrepancies);
+            run.setMissingInStatement(run.getMissingInStatement() + discrepancies.size());
+        }
+
+        // Contributions recorded by hand with a receipt; those posted from M-Pesa were covered above
+        afterId = 0;
+        while (true) {
+            List<Contribution> page = contributionRepository.findWithReceiptBetween(
+                    run.getPeriodStart(), run.getPeriodEnd(), afterId, PageRequest.of(0, pageSize));
+            if (page.isEmpty()) {
+                break;
+            }
+            afterId = page.get(page.size() - 1).getId();
+
+            Map<String, Contribution> absent = new LinkedHashMap<>();
+            for (Contribution contribution : page) {
+                if (!statementReceipts.contains(contribution.getMpesaReceiptNumber())) {
+                    absent.putIfAbsent(contribution.getMpesaReceiptNumber(), contribution);
+                }
+            }
+            if (absent.isEmpty()) {
+                continue;
+            }
+            transactionRepository.findExistingReceiptNumbers(absent.keySet()).forEach(absent::remove);
+
+            List<StatementDiscrepancy> discrepancies = new ArrayList<>();
+            absent.forEach((receipt, contribution) -> discrepancies.add(missingInStatement(run, receipt,
+                    contribution.getContributionDate(), contribution.getAmount(), contribution.getTransactionReference())));
+            discrepancyRepository.saveAll(discrepancies);
+            run.setMissingInStatement(run.getMissingInStatement() + discrepancies.size());
+        }
+    }
+
+    private int postPage(List<StatementDiscrepancy> page) {
+        Map<String, StatementDiscrepancy> byReceipt = new LinkedHashMap<>();
+        page.forEach(discrepancy -> byReceipt.put(discrepancy.getReceiptNumber(), discrepancy));
+        // Recorded since the reconciliation ran, e.g. by a late C2B confirmation
+        Set<String> existing = new HashSet<>(transactionRepository.findExistingReceiptNumbers(byReceipt.keySet()));
+
+        // Settled through STK Query since, or before this build matched those during reconciliation
+        List<Credit> credits = byReceipt.values().stream()
+                .filter(discrepancy -> !existing.contains(discrepancy.getReceiptNumber()))
+                .map(discrepancy -> new Credit(discrepancy.getReceiptNumber(), discrepancy.getTransactionTime(),
+                        discrepancy.getStatementAmount(), discrepancy.getOtherParty()))
+                .toList();
+        attachToReceiptless(credits).forEach(credit -> existing.add(credit.receipt()));
+
+        List<MpesaTransaction> transactions = new ArrayList<>();
+        for (StatementDiscrepancy discrepancy : byReceipt.values()) {
+            if (existing.contains(discrepancy.getReceiptNumber())) {
+                continue;
+            }
+            String payerPhone = payerPhone(discrepancy.getOtherParty());
+            MpesaTransaction transaction = new MpesaTransaction();
+            transaction.setMpesaReceiptNumber(discrepancy.getReceiptNumber());
+            transaction.setPhoneNumber(payerPhone);
+            transaction.setAmount(discrepancy.getStatementAmount());
+            transaction.setTransactionDate(discrepancy.getTransactionTime());
+            transaction.setStatus(TransactionStatus.SUCCESS);
+            transaction.setResultCode("0");
+            transaction.setResultDesc("Recorded from M-Pesa statement");
+            transaction.setTransactionType("CONTRIBUTION");
+            transaction.setAccountReference(discrepancy.getAccountReference());
+            transaction.setMemberId(memberDirectory.resolve(discrepancy.getAccountReference(), payerPhone).orElse(null));
+            transactions.add(transaction);
+        }
+        transactionRepository.saveAll(transactions);
+
+        discrepancyRepository.markPosted(page.stream().map(StatementDiscrepancy::getId).toList());
+        return transactions.size();
+    }
+
+    // Gives each credit's receipt and time to the receipt-less SUCCESS row for the same payer and
+    // amount settled closest to it within the window. Returns the credits that found one.
+    private List<Credit> attachToReceiptless(List<Credit> credits) {
+        List<Credit> timed = credits.stream().filter(credit -> credit.completedAt() != null).toList();
+        if (timed.isEmpty()) {
+            return List.of();
+        }
+        LocalDateTime from = timed.get(0).completedAt();
+        LocalDateTime to = from;
+        for (Credit credit : timed) {
+            from = credit.completedAt().isBefore(from) ? credit.completedAt() : from;
+            to = credit.completedAt().isAfter(to) ? credit.completedAt() : to;
+        }
+        List<MpesaTransaction> candidates = new ArrayList<>(transactionRepository.findReceiptlessBetween(
+                from.minusMinutes(receiptMatchWindowMinutes), to.plusMinutes(receiptMatchWindowMinutes)));
+        if (candidates.isEmpty()) {
+            return List.of();
+        }
+
+        List<Credit> attached = new ArrayList<>();
+        for (Credit credit : timed) {
+            MpesaTransaction best = null;
+            long bestGap = Long.MAX_VALUE;
+            for (MpesaTransaction candidate : candidates) {
+                long gap = Math.abs(Duration.between(candidate.getTransactionDate(), credit.completedAt()).toSeconds());
+                if (gap <= receiptMatchWindowMinutes * 60 && gap < bestGap
+                        && candidate.getAmount() != null && candidate.getAmount().compareTo(credit.amount()) == 0
+                        && samePayer(payerPhone(credit.otherParty()), candidate.getPhoneNumber())) {
+                    best = candidate;
+                    bestGap = gap;
+                }
+            }
+            if (best != null && transactionRepository.attachReceipt(best.getId(), credit.receipt(), credit.completedAt()) == 1) {
+                candidates.remove(best);
+                attached.add(credit);
+                log.info("Statement receipt {} matched to STK push {} settled without a receipt",
+                        credit.receipt(), best.getCheckoutRequestId());
+            }
+        }
+        return attached;
+    }
+
+    // Compares the trailing nine digits, the subscriber number; a masked digit on the statement matches any
+    private static boolean samePayer(String statementPhone, String phone) {
+        if (statementPhone == null || phone == null) {
+            return false;
+        }
+        String masked = statementPhone.replaceAll("[^0-9*]", "");
+        String digits = phone.replaceAll("[^0-9]", "");
+        if (masked.length() < 9 || digits.length() < 9) {
+            return false;
+        }
+        for (int i = 1; i <= 9; i++) {
+            char expected = masked.charAt(masked.length() - i);
+            if (expected != '*' && expected != digits.charAt(digits.length() - i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Other Party Info reads "254712345678 - JOHN DOE"; the number is often masked
+    private static String payerPhone(String otherParty) {
+        if (otherParty == null) {
+            return null;
+        }
+        int separator = otherParty.indexOf(" - ");
+        return (separator < 0 ? otherParty : otherParty.substring(0, separator)).strip();
+    }
+
+    private static StatementDiscrepancy discrepancy(StatementReconciliation run, DiscrepancyType type,
+                                                    MpesaStatementReader.Row row, BigDecimal recordedAmount) {
+        StatementDiscrepancy discrepancy = new StatementDiscrepancy();
+        discrepancy.setReconciliation(run);
+        discrepancy.setType(type);
+        discrepancy.setReceiptNumber(row.receiptNumber());
+        discrepancy.setTransactionTime(row.completedAt());
+        discrepancy.setStatementAmount(row.paidIn());
+        discrepancy.setRecordedAmount(recordedAmount);
+        discrepancy.setAccountReference(truncate(row.accountNumber()));
+        discrepancy.setOtherParty(truncate(row.otherParty()));
+        return discrepancy;
+    }
+
+    private static StatementDiscrepancy missingInStatement(StatementReconciliation run, String receipt,
+                                                           LocalDateTime transactionTime, BigDecimal amount,
+                                                           String accountReference) {
+        StatementDiscrepancy discrepancy = new StatementDiscrepancy();
+        discrepancy.setReconciliation(run);
+        discrepancy.setType(DiscrepancyType.MISSING_IN_STATEMENT);
+        discrepancy.setReceiptNumber(receipt);
+        discrepancy.setTransactionTime(transactionTime);
+        discrepancy.setRecordedAmount(amount);
+        discrepancy.setAccountReference(truncate(accountReference));
+        return discrepancy;
+    }
+
+    private static String truncate(String value) {
+        return value == null || value.length() <= 255 ? value : value.substring(0, 255);
+    }
+
+    private StatementReconciliation findRun(Long reconciliationId) {
+        return reconciliationRepository.findById(reconciliationId)
+                .orElseThrow(() -> new ResourceNotFoundException("StatementReconciliation", "id", reconciliationId));
+    }
+
+    private StatementReconciliationResponse mapToResponse(StatementReconciliation run) {
+        StatementReconciliationResponse response = new StatementReconciliationResponse();
+        response.setId(run.getId());
+        response.setFileName(run.getFileName());
+        response.setPeriodStart(run.getPeriodStart());
+        response.setPeriodEnd(run.getPeriodEnd());
+        response.setStatementRows(run.getStatementRows());
+        response.setCreditRows(run.getCreditRows());
+        response.setMatched(run.getMatched());
+        response.setAmountMismatches(run.getAmountMismatches());
+        response.setMissingInSystem(run.getMissingInSystem());
+        response.setMissingInStatement(run.getMissingInStatement());
+        response.setPosted(run.getPosted());
+        response.setUploadedBy(run.getUploadedBy());
+        response.setCreatedAt(run.getCreatedAt());
+        response.setCompletedAt(run.getCompletedAt());
+        return response;
+    }
+
+    private StatementDiscrepancyResponse mapToDiscrepancyResponse(StatementDiscrepancy discrepancy) {
+        StatementDiscrepancyResponse response = new StatementDiscrepancyResponse();
+        response.setId(discrepancy.getId());
+        response.setType(discrepancy.getType());
+        response.setReceiptNumber(discrepancy.getReceiptNumber());
+        response.setTransactionTime(discrepancy.getTransactionTime());
+        response.setStatementAmount(discrepancy.getStatementAmount());
+        response.setRecordedAmount(discrepancy.getRecordedAmount());
+        response.setAccountReference(discrepancy.getAccountReference());
+        response.setOtherParty(discrepancy.getOtherParty());
+        response.setPosted(discrepancy.isPosted());
+        return response;
+    }
+
+    private record Credit(String receipt, LocalDateTime completedAt, BigDecimal amount, String otherParty) {
+    }
+}
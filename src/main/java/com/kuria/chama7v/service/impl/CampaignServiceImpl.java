@@ -0,0 +1,141 @@
+package com.kuria.chama7v.service.impl;
+
+import com.kuria.chama7v.dto.request.CampaignRequest;
+import com.kuria.chama7v.dto.response.CampaignResponse;
+import com.kuria.chama7v.entity.CampaignRecipient;
+import com.kuria.chama7v.entity.Member;
+import com.kuria.chama7v.entity.PaymentCampaign;
+import com.kuria.chama7v.entity.enums.CampaignStatus;
+import com.kuria.chama7v.entity.enums.MemberStatus;
+import com.kuria.chama7v.exception.ResourceNotFoundException;
+import com.kuria.chama7v.repository.CampaignRecipientRepository;
+import com.kuria.chama7v.repository.MemberRepository;
+import com.kuria.chama7v.repository.PaymentCampaignRepository;
+import com.kuria.chama7v.service.CampaignService;
+import com.kuria.chama7v.service.MemberService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class CampaignServiceImpl implements CampaignService {
+
+    private final PaymentCampaignRepository campaignRepository;
+    private final CampaignRecipientRepository recipientRepository;
+    private final MemberRepository memberRepository;
+    private final MemberService memberService;
+
+    // Only records the campaign and its recipients; CampaignDispatcher sends the pushes
+    @Override
+    @Transactional
+    public CampaignResponse createCampaign(CampaignRequest request) {
+        List<Member> members = resolveTargets(request);
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("Campaign has no eligible members");
+        }
+
+        PaymentCampaign campaign = new PaymentCampaign();
+        campaign.setName(request.getName());
+        campaign.setAmount(request.getAmount());
+        campaign.setAccountReference(request.getAccountReference());
+        campaign.setTransactionDesc(request.getTransactionDesc() != null ? request.getTransactionDesc() : request.getName());
+        campaign.setTransactionType(request.getTransactionType());
+        campaign.setTargetType(request.getTarget());
+        campaign.setTargetRole(request.getRole());
+        campaign.setCreatedBy(memberService.getCurrentMember().getEmail());
+        campaign.setTotalRecipients(members.size());
+        PaymentCampaign savedCampaign = campaignRepository.save(campaign);
+
+        List<CampaignRecipient> recipients = new ArrayList<>(members.size());
+        for (Member member : members) {
+            CampaignRecipient recipient = new CampaignRecipient();
+            recipient.setCampaign(savedCampaign);
+            recipient.setMemberId(member.getId());
+            recipient.setPhoneNumber(member.getPhone());
+            recipients.add(recipient);
+        }
+        recipientRepository.saveAll(recipients);
+
+        log.info("Campaign {} created by {} for {} members", savedCampaign.getName(),
+                savedCampaign.getCreatedBy(), members.size());
+        return mapToCampaignResponse(savedCampaign);
+    }
+
+    @Override
+    public CampaignResponse getCampaign(Long id) {
+        return mapToCampaignResponse(findCampaign(id));
+    }
+
+    @Override
+    public Page<CampaignResponse> getCampaigns(Pageable pageable) {
+        return campaignRepository.findAllByOrderByCreatedAtDesc(pageable).map(this::mapToCampaignResponse);
+    }
+
+    // Stops further pushes; prompts already sent still settle and are counted
+    @Override
+    public CampaignResponse cancelCampaign(Long id) {
+        PaymentCampaign campaign = findCampaign(id);
+        if (campaignRepository.transition(id, CampaignStatus.DISPATCHING, CampaignStatus.CANCELLED, LocalDateTime.now()) == 0) {
+            throw new IllegalArgumentException("Only campaigns that are still dispatching can be cancelled");
+        }
+        log.info("Campaign {} cancelled", campaign.getName());
+        return mapToCampaignResponse(findCampaign(id));
+    }
+
+    private List<Member> resolveTargets(CampaignRequest request) {
+        List<Member> members = switch (request.getTarget()) {
+            case ALL_ACTIVE -> memberRepository.findByStatusAndDeletedFalse(MemberStatus.ACTIVE);
+            case ROLE -> {
+                if (request.getRole() == null) {
+                    throw new IllegalArgumentException("Role is required for a ROLE campaign");
+                }
+                yield memberRepository.findByRoleAndDeletedFalse(request.getRole());
+            }
+            case MEMBERS -> {
+                if (request.getMemberIds() == null || request.getMemberIds().isEmpty()) {
+                    throw new IllegalArgumentException("Member IDs are required for a MEMBERS campaign");
+                }
+                yield memberRepository.findAllById(request.getMemberIds().stream().distinct().toList());
+            }
+        };
+        return members.stream()
+                .filter(m -> !m.isDeleted() && m.getStatus() == MemberStatus.ACTIVE)
+                .filter(m -> m.getPhone() != null && !m.getPhone().isBlank())
+                .toList();
+    }
+
+    private PaymentCampaign findCampaign(Long id) {
+        return campaignRepository.findById(id)
+                .orElseThrow(() -> new ResourceNotFoundException("Campaign", "id", id));
+    }
+
+    private CampaignResponse mapToCampaignResponse(PaymentCampaign campaign) {
+        CampaignResponse response = new CampaignResponse();
+        response.setId(campaign.getId());
+        response.setName(campaign.getName());
+        response.setAmount(campaign.getAmount());
+        response.setAccountReference(campaign.getAccountReference());
+        response.setTransactionType(campaign.getTransactionType());
+        response.setTarget(campaign.getTargetType());
+        response.setRole(campaign.getTargetRole());
+        response.setStatus(campaign.getStatus());
+        response.setCreatedBy(campaign.getCreatedBy());
+        response.setTotalRecipients(campaign.getTotalRecipients());
+        response.setSent(campaign.getSentCount());
+        response.setAccepted(campaign.getAcceptedCount());
+        response.setPaid(campaign.getPaidCount());
+        response.setFailed(campaign.getFailedCount());
+        response.setCreatedAt(campaign.getCreatedAt());
+        response.setDispatchedAt(campaign.getDispatchedAt());
+        return response;
+    }
+}
@@ -4,17 +4,20 @@ import com.kuria.chama7v.dto.request.ContributionRequest;
 import com.kuria.chama7v.dto.response.ContributionResponse;
 import com.kuria.chama7v.entity.Contribution;
 import com.kuria.chama7v.entity.Member;
+import com.kuria.chama7v.event.AccountChangedEvent;
 import com.kuria.chama7v.exception.ResourceNotFoundException;
 import com.kuria.chama7v.repository.ContributionRepository;
 import com.kuria.chama7v.repository.MemberRepository;
+import com.kuria.chama7v.service.ConflictRetry;
 import com.kuria.chama7v.service.ContributionService;
 import com.kuria.chama7v.service.MemberService;
+import com.kuria.chama7v.service.ReferenceGenerator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -27,33 +30,35 @@ public class ContributionServiceImpl implements ContributionService {
     private final ContributionRepository contributionRepository;
     private final MemberRepository memberRepository;
     private final MemberService memberService;
+    private final ConflictRetry conflictRetry;
+    private final ReferenceGenerator referenceGenerator;
+    private final ApplicationEventPublisher eventPublisher;
 
     @Override
-    @Transactional
     public ContributionResponse makeContribution(ContributionRequest request) {
+        return conflictRetry.inTransaction(() -> contribute(request));
+    }
+
+    private ContributionResponse contribute(ContributionRequest request) {
         Member member = memberService.getCurrentMember();
 
         Contribution contribution = new Contribution();
         contribution.setMember(member);
         contribution.setAmount(request.getAmount());
         contribution.setDescription(request.getDescription());
-        contribution.setTransactionReference(generateTransactionReference());
+        contribution.setTransactionReference(referenceGenerator.next(ReferenceGenerator.Kind.CONTRIBUTION));
 
         Contribution savedContribution = contributionRepository.save(contribution);
 
         // Update member's total contributions
-        member.setTotalContributions(member.getTotalContributions().add(request.getAmount()));
-        memberRepository.save(member);
+        memberRepository.applyBalanceDeltas(member.getId(), request.getAmount(), BigDecimal.ZERO);
+        eventPublisher.publishEvent(AccountChangedEvent.of(member.getId(), AccountChangedEvent.Change.CONTRIBUTION));
 
         log.info("Contribution made by member {}: {}", member.getEmail(), request.getAmount());
 
         return mapToContributionResponse(savedContribution);
     }
 
-    private String generateTransactionReference() {
-        return "CNT-" + System.currentTimeMillis();
-    }
-
     @Override
     public Page<ContributionResponse> getMemberContributions(Long memberId, Pageable pageable) {
         Member member = memberRepository.findById(memberId)
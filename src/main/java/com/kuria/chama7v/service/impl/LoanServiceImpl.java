@@ -1,32 +1,51 @@
 package com.kuria.chama7v.service.impl;
 
 import com.kuria.chama7v.dto.request.LoanApplicationRequest;
+import com.kuria.chama7v.dto.response.BatchLoanApprovalResponse;
+import com.kuria.chama7v.dto.response.DisbursementResponse;
+import com.kuria.chama7v.dto.response.LoanInstallmentResponse;
 import com.kuria.chama7v.dto.response.LoanResponse;
 import com.kuria.chama7v.entity.Loan;
+import com.kuria.chama7v.entity.LoanDisbursement;
+import com.kuria.chama7v.entity.LoanInstallment;
 import com.kuria.chama7v.entity.LoanPayment;
 import com.kuria.chama7v.entity.Member;
+import com.kuria.chama7v.entity.enums.DisbursementStatus;
 import com.kuria.chama7v.entity.enums.LoanStatus;
+import com.kuria.chama7v.event.AccountChangedEvent;
+import com.kuria.chama7v.event.LoanDecidedEvent;
 import com.kuria.chama7v.exception.ResourceNotFoundException;
+import com.kuria.chama7v.repository.LoanDisbursementRepository;
+import com.kuria.chama7v.repository.LoanInstallmentRepository;
 import com.kuria.chama7v.repository.LoanPaymentRepository;
 import com.kuria.chama7v.repository.LoanRepository;
 import com.kuria.chama7v.repository.MemberRepository;
+import com.kuria.chama7v.service.ConflictRetry;
 import com.kuria.chama7v.service.EmailService;
 import com.kuria.chama7v.service.LoanService;
 import com.kuria.chama7v.service.MemberService;
+import com.kuria.chama7v.service.ReferenceGenerator;
+import com.kuria.chama7v.service.RepaymentAllocator;
 import com.kuria.chama7v.specification.LoanSpecification;
 import com.kuria.chama7v.util.LoanCalculator;
-import com.kuria.chama7v.util.ValidationUtil;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
 
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 @Service
 @RequiredArgsConstructor
@@ -35,11 +54,16 @@ public class LoanServiceImpl implements LoanService {
 
     private final LoanRepository loanRepository;
     private final LoanPaymentRepository loanPaymentRepository;
+    private final LoanDisbursementRepository disbursementRepository;
+    private final LoanInstallmentRepository installmentRepository;
     private final MemberRepository memberRepository;
     private final MemberService memberService;
     private final LoanCalculator loanCalculator;
-    private final ValidationUtil validationUtil;
+    private final RepaymentAllocator repaymentAllocator;
+    private final ConflictRetry conflictRetry;
+    private final ReferenceGenerator referenceGenerator;
     private final EmailService emailService;
+    private final ApplicationEventPublisher eventPublisher;
 
     @Override
     @Transactional
@@ -57,7 +81,7 @@ public class LoanServiceImpl implements LoanService {
 
         Loan loan = new Loan();
         loan.setMember(member);
-        loan.setLoanNumber(generateUniqueLoanNumber());
+        loan.setLoanNumber(referenceGenerator.next(ReferenceGenerator.Kind.LOAN));
         loan.setAmount(request.getAmount());
         loan.setInterestRate(request.getInterestRate());
         loan.setDurationMonths(request.getDurationMonths());
@@ -68,6 +92,7 @@ public class LoanServiceImpl implements LoanService {
         loan.setStatus(LoanStatus.PENDING);
 
         Loan savedLoan = loanRepository.save(loan);
+        publishLoanChanged(member.getId());
 
         log.info("Loan application submitted by member {}: {}", member.getEmail(), request.getAmount());
 
@@ -80,12 +105,8 @@ public class LoanServiceImpl implements LoanService {
                 .isEmpty();
     }
 
-    private String generateUniqueLoanNumber() {
-        String loanNumber;
-        do {
-            loanNumber = validationUtil.generateLoanNumber();
-        } while (loanRepository.findByLoanNumber(loanNumber).isPresent());
-        return loanNumber;
+    private void publishLoanChanged(Long memberId) {
+        eventPublisher.publishEvent(AccountChangedEvent.of(memberId, AccountChangedEvent.Change.LOAN));
     }
 
     @Override
@@ -115,40 +136,117 @@ public class LoanServiceImpl implements LoanService {
                 .map(this::mapToLoanResponse);
     }
 
+    // A second approver racing this one fails the version check, is retried and then finds the
+    // loan no longer pending
     @Override
-    @Transactional
     public LoanResponse approveLoan(Long loanId) {
-        Loan loan = loanRepository.findById(loanId)
-                .orElseThrow(() -> new ResourceNotFoundException("Loan", "id", loanId));
+        return conflictRetry.inTransaction(() -> {
+            Loan loan = loanRepository.findById(loanId)
+                    .orElseThrow(() -> new ResourceNotFoundException("Loan", "id", loanId));
 
-        if (loan.getStatus() != LoanStatus.PENDING) {
-            throw new IllegalArgumentException("Only pending loans can be approved");
-        }
+            if (loan.getStatus() != LoanStatus.PENDING) {
+                throw new IllegalArgumentException("Only pending loans can be approved");
+            }
+
+            return mapToLoanResponse(approve(loan, memberService.getCurrentMember()));
+        });
+    }
 
+    // Loans that are missing or no longer pending are skipped and reported, not fatal
+    @Override
+    public BatchLoanApprovalResponse approveLoans(List<Long> loanIds) {
+        return conflictRetry.inTransaction(() -> approveAll(loanIds));
+    }
+
+    private BatchLoanApprovalResponse approveAll(List<Long> loanIds) {
         Member currentMember = memberService.getCurrentMember();
+        Map<Long, Loan> loans = new HashMap<>();
+        for (Loan loan : loanRepository.findAllById(loanIds)) {
+            loans.put(loan.getId(), loan);
+        }
+
+        BatchLoanApprovalResponse response = new BatchLoanApprovalResponse();
+        for (Long loanId : loanIds) {
+            Loan loan = loans.get(loanId);
+            if (loan == null) {
+                response.getSkipped().put(loanId, "Loan not found");
+            } else if (loan.getStatus() != LoanStatus.PENDING) {
+                response.getSkipped().put(loanId, "Loan is " + loan.getStatus());
+            } else {
+                response.getApproved().add(mapToLoanResponse(approve(loan, currentMember)));
+            }
+        }
+        log.info("Batch approval by {}: {} approved, {} skipped", currentMember.getEmail(),
+                response.getApproved().size(), response.getSkipped().size());
+        return response;
+    }
 
+    // Approval queues the payout; DisbursementDispatcher sends it and the B2C result moves the
+    // loan on to DISBURSED
+    private Loan approve(Loan loan, Member approver) {
         loan.setStatus(LoanStatus.APPROVED);
-        loan.setApprovedBy(currentMember.getName());
+        loan.setApprovedBy(approver.getName());
         loan.setApprovalDate(LocalDateTime.now());
 
-        Loan savedLoan = loanRepository.save(loan);
+        // Flushed now so a concurrent approval fails its version check here, before either
+        // writes a schedule or a payout
+        Loan savedLoan = loanRepository.saveAndFlush(loan);
+        installmentRepository.saveAll(repaymentAllocator.buildInstallments(savedLoan));
 
         // Update member's outstanding loan
         Member member = loan.getMember();
-        member.setOutstandingLoan(member.getOutstandingLoan().add(loan.getAmount()));
-        memberRepository.save(member);
+        memberRepository.addOutstandingLoan(member.getId(), loan.getAmount());
 
-        // Send approval email
-        emailService.sendLoanApprovalEmail(member.getEmail(), member.getName(), loan.getLoanNumber());
+        LoanDisbursement disbursement = new LoanDisbursement();
+        disbursement.setLoan(savedLoan);
+        disbursement.setPhoneNumber(member.getPhone());
+        disbursement.setAmount(loan.getAmount());
+        disbursement.setStatus(DisbursementStatus.QUEUED);
+        disbursementRepository.save(disbursement);
+        publishLoanChanged(member.getId());
 
-        log.info("Loan approved: {} by {}", loan.getLoanNumber(), currentMember.getEmail());
+        eventPublisher.publishEvent(new LoanDecidedEvent(member.getEmail(), member.getName(), loan.getLoanNumber(),
+                LoanDecidedEvent.Decision.APPROVED, null));
 
-        return mapToLoanResponse(savedLoan);
+        log.info("Loan approved: {} by {}", loan.getLoanNumber(), approver.getEmail());
+
+        return savedLoan;
+    }
+
+    @Override
+    public DisbursementResponse getDisbursement(Long loanId) {
+        LoanDisbursement disbursement = disbursementRepository.findByLoanId(loanId)
+                .orElseThrow(() -> new ResourceNotFoundException("Disbursement", "loanId", loanId));
+        return mapToDisbursementResponse(disbursement);
     }
 
+    // Only for payouts known not to have gone through. An UNCERTAIN one may have been paid, so it
+    // waits for its B2C result, which settles it as FAILED or COMPLETED
     @Override
     @Transactional
+    public DisbursementResponse retryDisbursement(Long loanId) {
+        LoanDisbursement disbursement = disbursementRepository.findByLoanId(loanId)
+                .orElseThrow(() -> new ResourceNotFoundException("Disbursement", "loanId", loanId));
+
+        if (disbursementRepository.transition(disbursement.getId(),
+                EnumSet.of(DisbursementStatus.FAILED), DisbursementStatus.QUEUED, null) == 0) {
+            throw new IllegalArgumentException("Only failed disbursements can be retried");
+        }
+
+        log.info("Disbursement for loan {} requeued by {} after {}", disbursement.getLoan().getLoanNumber(),
+                memberService.getCurrentMember().getEmail(), disbursement.getStatus());
+        DisbursementResponse response = mapToDisbursementResponse(disbursement);
+        response.setStatus(DisbursementStatus.QUEUED);
+        response.setResultDesc(null);
+        return response;
+    }
+
+    @Override
     public LoanResponse rejectLoan(Long loanId, String reason) {
+        return conflictRetry.inTransaction(() -> reject(loanId, reason));
+    }
+
+    private LoanResponse reject(Long loanId, String reason) {
         Loan loan = loanRepository.findById(loanId)
                 .orElseThrow(() -> new ResourceNotFoundException("Loan", "id", loanId));
 
@@ -163,15 +261,26 @@ public class LoanServiceImpl implements LoanService {
 
         Loan savedLoan = loanRepository.save(loan);
 
-        // Send rejection email
         Member member = loan.getMember();
-        emailService.sendLoanRejectionEmail(member.getEmail(), member.getName(), loan.getLoanNumber(), reason);
+        publishLoanChanged(member.getId());
+        eventPublisher.publishEvent(new LoanDecidedEvent(member.getEmail(), member.getName(), loan.getLoanNumber(),
+                LoanDecidedEvent.Decision.REJECTED, reason));
 
         log.info("Loan rejected: {} by {}", loan.getLoanNumber(), currentMember.getEmail());
 
         return mapToLoanResponse(savedLoan);
     }
 
+    // Only the attempt that commits gets here, so the member hears of the decision once
+    @TransactionalEventListener
+    public void onLoanDecided(LoanDecidedEvent event) {
+        if (event.decision() == LoanDecidedEvent.Decision.APPROVED) {
+            emailService.sendLoanApprovalEmail(event.email(), event.memberName(), event.loanNumber());
+        } else {
+            emailService.sendLoanRejectionEmail(event.email(), event.memberName(), event.loanNumber(), event.reason());
+        }
+    }
+
     @Override
     public LoanResponse getLoanById(Long id) {
         Loan loan = loanRepository.findById(id)
@@ -180,61 +289,79 @@ public class LoanServiceImpl implements LoanService {
         return mapToLoanResponse(loan);
     }
 
+    // Loans approved before schedules were stored get theirs drawn up on the fly
     @Override
-    @Transactional
-    public LoanResponse makeLoanPayment(Long loanId, BigDecimal amount) {
+    public List<LoanInstallmentResponse> getLoanSchedule(Long loanId) {
         Loan loan = loanRepository.findById(loanId)
                 .orElseThrow(() -> new ResourceNotFoundException("Loan", "id", loanId));
-
-        if (loan.getStatus() != LoanStatus.APPROVED && loan.getStatus() != LoanStatus.DISBURSED) {
-            throw new IllegalArgumentException("Can only make payments on approved or disbursed loans");
+        if (loan.getApprovalDate() == null) {
+            throw new IllegalArgumentException("A repayment schedule is only drawn up once the loan is approved");
         }
+        List<LoanInstallment> installments = installmentRepository.findByLoanIdOrderByInstallmentNumberAsc(loanId);
+        if (installments.isEmpty()) {
+            installments = repaymentAllocator.reconstruct(loan);
+        }
+        return installments.stream().map(this::mapToInstallmentResponse).toList();
+    }
+
+    private LoanInstallmentResponse mapToInstallmentResponse(LoanInstallment installment) {
+        LoanInstallmentResponse response = new LoanInstallmentResponse();
+        response.setInstallmentNumber(installment.getInstallmentNumber());
+        response.setDueDate(installment.getDueDate());
+        response.setPrincipalAmount(installment.getPrincipalAmount());
+        response.setInterestAmount(installment.getInterestAmount());
+        response.setAmountDue(installment.getAmountDue());
+        response.setClosingBalance(installment.getClosingBalance());
+        response.setPenaltyAmount(installment.getPenaltyAmount());
+        response.setAmountPaid(installment.getPenaltyPaid().add(installment.getInterestPaid())
+                .add(installment.getPrincipalPaid()));
+        response.setOutstanding(installment.outstanding());
+        response.setSettled(installment.isSettled());
+        response.setSettledDate(installment.getSettledDate());
+        response.setOverdue(!installment.isSettled() && installment.getDueDate().isBefore(LocalDate.now()));
+        return response;
+    }
+
+    @Override
+    public LoanResponse makeLoanPayment(Long loanId, BigDecimal amount) {
+        return conflictRetry.inTransaction(() -> applyLoanPayment(loanId, amount));
+    }
 
-        if (amount.compareTo(loan.getBalance()) > 0) {
+    // The balance is taken down first: the guarded update holds the loan row until commit, so
+    // concurrent payments on one loan allocate against the schedule one at a time
+    private LoanResponse applyLoanPayment(Long loanId, BigDecimal amount) {
+        if (loanRepository.applyPayment(loanId, amount) == 0) {
+            Loan loan = loanRepository.findById(loanId)
+                    .orElseThrow(() -> new ResourceNotFoundException("Loan", "id", loanId));
+            if (loan.getStatus() != LoanStatus.APPROVED && loan.getStatus() != LoanStatus.DISBURSED) {
+                throw new IllegalArgumentException("Can only make payments on approved or disbursed loans");
+            }
             throw new IllegalArgumentException("Payment amount cannot exceed outstanding balance");
         }
+        Loan loan = loanRepository.findById(loanId)
+                .orElseThrow(() -> new ResourceNotFoundException("Loan", "id", loanId));
 
         // Create payment record
         LoanPayment payment = new LoanPayment();
         payment.setLoan(loan);
         payment.setAmount(amount);
-        payment.setTransactionReference("PAY-" + System.currentTimeMillis());
-
-        // Calculate principal and interest portions (simplified)
-        BigDecimal interestRate = loan.getInterestRate().divide(BigDecimal.valueOf(100), 4, BigDecimal.ROUND_HALF_UP);
-        BigDecimal monthlyInterestRate = interestRate.divide(BigDecimal.valueOf(12), 4, BigDecimal.ROUND_HALF_UP);
-        BigDecimal interestAmount = loan.getBalance().multiply(monthlyInterestRate);
-        BigDecimal principalAmount = amount.subtract(interestAmount);
-
-        if (principalAmount.compareTo(BigDecimal.ZERO) < 0) {
-            principalAmount = amount;
-            interestAmount = BigDecimal.ZERO;
-        }
+        payment.setTransactionReference(referenceGenerator.next(ReferenceGenerator.Kind.PAYMENT));
 
-        payment.setPrincipalAmount(principalAmount);
-        payment.setInterestAmount(interestAmount);
+        RepaymentAllocator.Allocation allocation = repaymentAllocator.allocateApplied(loan, amount, LocalDate.now());
+        payment.setPenaltyAmount(allocation.penalty());
+        payment.setInterestAmount(allocation.interest());
+        payment.setPrincipalAmount(allocation.principal());
 
         loanPaymentRepository.save(payment);
 
-        // Update loan
-        loan.setAmountPaid(loan.getAmountPaid().add(amount));
-        loan.setBalance(loan.getBalance().subtract(amount));
-
-        if (loan.getBalance().compareTo(BigDecimal.ZERO) <= 0) {
-            loan.setStatus(LoanStatus.PAID);
-            loan.setBalance(BigDecimal.ZERO);
-        }
-
-        Loan savedLoan = loanRepository.save(loan);
-
         // Update member's outstanding loan
         Member member = loan.getMember();
-        member.setOutstandingLoan(member.getOutstandingLoan().subtract(amount));
-        memberRepository.save(member);
+        memberRepository.applyBalanceDeltas(member.getId(), BigDecimal.ZERO, amount);
+        publishLoanChanged(member.getId());
 
         log.info("Loan payment made: {} for loan {}", amount, loan.getLoanNumber());
 
-        return mapToLoanResponse(savedLoan);
+        return mapToLoanResponse(loan);
     }
 
     private LoanResponse mapToLoanResponse(Loan loan) {
@@ -254,7 +381,24 @@ public class LoanServiceImpl implements LoanService {
         response.setPurpose(loan.getPurpose());
         response.setApprovedBy(loan.getApprovedBy());
         response.setApprovalDate(loan.getApprovalDate());
+        response.setDisbursementDate(loan.getDisbursementDate());
         response.setApplicationDate(loan.getApplicationDate());
         return response;
     }
+
+    private DisbursementResponse mapToDisbursementResponse(LoanDisbursement disbursement) {
+        DisbursementResponse response = new DisbursementResponse();
+        response.setId(disbursement.getId());
+        response.setLoanId(disbursement.getLoan().getId());
+        response.setLoanNumber(disbursement.getLoan().getLoanNumber());
+        response.setPhoneNumber(disbursement.getPhoneNumber());
+        response.setAmount(disbursement.getAmount());
+        response.setStatus(disbursement.getStatus());
+        response.setTransactionReceipt(disbursement.getTransactionReceipt());
+        response.setResultDesc(disbursement.getResultDesc());
+        response.setAttempts(disbursement.getAttempts());
+        response.setCreatedAt(disbursement.getCreatedAt());
+        response.setCompletedAt(disbursement.getCompletedAt());
+        return response;
+    }
 }
\ No newline at end of file
@@ -5,6 +5,7 @@ import com.kuria.chama7v.dto.response.MemberResponse;
 import com.kuria.chama7v.entity.Member;
 import com.kuria.chama7v.entity.enums.MemberRole;
 import com.kuria.chama7v.entity.enums.MemberStatus;
+import com.kuria.chama7v.event.MemberChangedEvent;
 import com.kuria.chama7v.exception.ResourceNotFoundException;
 import com.kuria.chama7v.repository.MemberRepository;
 import com.kuria.chama7v.service.EmailService;
@@ -12,6 +13,7 @@ import com.kuria.chama7v.service.MemberService;
 import com.kuria.chama7v.util.ValidationUtil;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -32,6 +34,7 @@ public class MemberServiceImpl implements MemberService {
     private final PasswordEncoder passwordEncoder;
     private final ValidationUtil validationUtil;
     private final EmailService emailService;
+    private final ApplicationEventPublisher eventPublisher;
 
     @Override
     @Transactional
@@ -64,6 +67,7 @@ public class MemberServiceImpl implements MemberService {
         member.setAccountActivated(false);
 
         Member saved = memberRepository.save(member);
+        eventPublisher.publishEvent(new MemberChangedEvent(saved.getId()));
 
         // Send credentials email
         emailService.sendCredentialsEmail(saved.getEmail(), saved.getName(),
@@ -106,6 +110,7 @@ public class MemberServiceImpl implements MemberService {
             member.setStatus(MemberStatus.ACTIVE);
             member.setFirstLoginDate(LocalDateTime.now());
             memberRepository.save(member);
+            eventPublisher.publishEvent(new MemberChangedEvent(member.getId()));
             log.info("Account activated for member: {} - Status changed to ACTIVE", email);
         }
     }
@@ -138,6 +143,7 @@ public class MemberServiceImpl implements MemberService {
         }
 
         Member updatedMember = memberRepository.save(member);
+        eventPublisher.publishEvent(new MemberChangedEvent(updatedMember.getId()));
         log.info("Member updated: {}", updatedMember.getEmail());
 
         return mapToMemberResponse(updatedMember);
@@ -151,6 +157,7 @@ public class MemberServiceImpl implements MemberService {
 
         member.setStatus(MemberStatus.SUSPENDED);
         memberRepository.save(member);
+        eventPublisher.publishEvent(new MemberChangedEvent(member.getId()));
         log.info("Member suspended: {}", member.getEmail());
     }
 
@@ -162,6 +169,7 @@ public class MemberServiceImpl implements MemberService {
 
         member.setStatus(MemberStatus.ACTIVE);
         memberRepository.save(member);
+        eventPublisher.publishEvent(new MemberChangedEvent(member.getId()));
         log.info("Member activated: {}", member.getEmail());
     }
 
@@ -175,6 +183,7 @@ public class MemberServiceImpl implements MemberService {
         member.setDeleted(true);
         member.setStatus(MemberStatus.INACTIVE);
         memberRepository.save(member);
+        eventPublisher.publishEvent(new MemberChangedEvent(member.getId()));
         log.info("Member soft deleted: {}", member.getEmail());
     }
 
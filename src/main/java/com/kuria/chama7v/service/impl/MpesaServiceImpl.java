@@ -1,301 +1,292 @@
 package com.kuria.chama7v.service.impl;
 
+import com.kuria.chama7v.config.MpesaProperties;
+import com.kuria.chama7v.dto.daraja.B2CPaymentRequest;
+import com.kuria.chama7v.dto.daraja.B2CPaymentResponse;
+import com.kuria.chama7v.dto.daraja.StkPushRequest;
+import com.kuria.chama7v.dto.daraja.StkPushResponse;
+import com.kuria.chama7v.dto.request.B2CResultRequest;
+import com.kuria.chama7v.dto.request.C2BPaymentRequest;
 import com.kuria.chama7v.dto.request.MpesaCallbackRequest;
 import com.kuria.chama7v.dto.request.MpesaStkRequest;
+import com.kuria.chama7v.dto.response.C2BResponse;
 import com.kuria.chama7v.dto.response.MpesaResponse;
 import com.kuria.chama7v.entity.MpesaTransaction;
+import com.kuria.chama7v.entity.enums.DarajaPriority;
 import com.kuria.chama7v.entity.enums.TransactionStatus;
+import com.kuria.chama7v.exception.DarajaApiException;
+import com.kuria.chama7v.exception.DarajaOutcomeUnknownException;
+import com.kuria.chama7v.exception.DarajaUnavailableException;
 import com.kuria.chama7v.repository.MpesaTransactionRepository;
+import com.kuria.chama7v.service.C2BConfirmationQueue;
+import com.kuria.chama7v.service.DarajaClient;
+import com.kuria.chama7v.service.DisbursementResultProcessor;
+import com.kuria.chama7v.service.DisbursementResultQueue;
+import com.kuria.chama7v.service.MemberDirectory;
+import com.kuria.chama7v.service.MpesaCallbackQueue;
 import com.kuria.chama7v.service.MpesaService;
+import com.kuria.chama7v.service.MpesaTokenManager;
+import com.kuria.chama7v.util.PhoneNumberNormalizer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.reactive.function.client.WebClient;
-import reactor.core.publisher.Mono;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Base64;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class MpesaServiceImpl implements MpesaService {
 
-    private final MpesaTransactionRepository transactionRepository;
-    private final WebClient.Builder webClientBuilder;
-
-    @Value("${mpesa.environment:sandbox}")
-    private String environment;
-
-    // Sandbox Configuration
-    @Value("${mpesa.sandbox.consumer-key:}")
-    private String sandboxConsumerKey;
-
-    @Value("${mpesa.sandbox.consumer-secret:}")
-    private String sandboxConsumerSecret;
-
-    @Value("${mpesa.sandbox.shortcode:174379}")
-    private String sandboxShortCode;
-
-    @Value("${mpesa.sandbox.passkey:bfb279f9aa9bdbcf158e97dd71a467cd2e0c893059b10f78e6b72ada1ed2c919}")
-    private String sandboxPasskey;
-
-    @Value("${mpesa.sandbox.base-url:https://sandbox.safaricom.co.ke}")
-    private String sandboxBaseUrl;
-
-    // Production Configuration
-    @Value("${mpesa.production.consumer-key:}")
-    private String prodConsumerKey;
-
-    @Value("${mpesa.production.consumer-secret:}")
-    private String prodConsumerSecret;
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
 
-    @Value("${mpesa.production.shortcode:}")
-    private String prodShortCode;
+    private final MpesaTransactionRepository transactionRepository;
+    private final DarajaClient darajaClient;
+    private final MpesaProperties mpesaProperties;
+    private final MpesaTokenManager tokenManager;
+    private final MpesaCallbackQueue callbackQueue;
+    private final DisbursementResultQueue disbursementResultQueue;
+    private final DisbursementResultProcessor disbursementResultProcessor;
+    private final MemberDirectory memberDirectory;
+    private final C2BConfirmationQueue c2bConfirmationQueue;
+
+    @Qualifier("mpesaExecutor")
+    private final Executor mpesaExecutor;
 
-    @Value("${mpesa.production.passkey:}")
-    private String prodPasskey;
+    @Override
+    public MpesaResponse initiateSTKPush(MpesaStkRequest request) {
+        try {
+            return initiateSTKPushAsync(request).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
 
-    @Value("${mpesa.production.base-url:https://api.safaricom.co.ke}")
-    private String prodBaseUrl;
+    // No transaction spans the Daraja round trip: the token and STK calls run on the reactive
+    // client, and only the final insert borrows a pooled connection, on an mpesa executor thread
+    @Override
+    public CompletableFuture<MpesaResponse> initiateSTKPushAsync(MpesaStkRequest request) {
+        log.info("Initiating STK Push for phone: {}, amount: {}", request.getPhoneNumber(), request.getAmount());
 
-    // Callback URL
-    @Value("${mpesa.callback-url:http://localhost:8080/api/mpesa/callback}")
-    private String callbackUrl;
+        String formattedPhone;
+        StkPushRequest stkRequest;
+        try {
+            formattedPhone = PhoneNumberNormalizer.normalize(request.getPhoneNumber());
+            stkRequest = buildStkRequest(request, formattedPhone);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(stkPushFailure(e));
+        }
 
-    private String getConsumerKey() {
-        return "sandbox".equalsIgnoreCase(environment) ? sandboxConsumerKey : prodConsumerKey;
+        long deadline = request.getTimeout() == null ? 0 : System.nanoTime() + request.getTimeout().toNanos();
+        return accessTokenWithin(request.getTimeout())
+                .thenCompose(token -> sendStkPush(token, stkRequest, request.getPriority(), deadline))
+                .thenApplyAsync(response -> recordStkPush(request, formattedPhone, response), mpesaExecutor)
+                .handle((mpesaResponse, error) -> {
+                    if (error != null) {
+                        throw stkPushFailure(unwrap(error));
+                    }
+                    return mpesaResponse;
+                });
     }
 
-    private String getConsumerSecret() {
-        return "sandbox".equalsIgnoreCase(environment) ? sandboxConsumerSecret : prodConsumerSecret;
+    // A copy when bounded: the token future is shared with every other caller waiting on the refresh
+    private CompletableFuture<String> accessTokenWithin(Duration maxWait) {
+        CompletableFuture<String> accessToken = tokenManager.getAccessTokenAsync();
+        if (maxWait == null) {
+            return accessToken;
+        }
+        return accessToken.copy()
+                .orTimeout(maxWait.toNanos(), TimeUnit.NANOSECONDS)
+                .exceptionallyCompose(error -> CompletableFuture.failedFuture(unwrap(error) instanceof TimeoutException
+                        ? new DarajaUnavailableException(DarajaClient.OAUTH, "send deadline passed waiting for a token", error)
+                        : unwrap(error)));
     }
 
-    private String getShortCode() {
-        return "sandbox".equalsIgnoreCase(environment) ? sandboxShortCode : prodShortCode;
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
     }
 
-    private String getPasskey() {
-        return "sandbox".equalsIgnoreCase(environment) ? sandboxPasskey : prodPasskey;
+    // Shortcode, transaction type and callback URL are added by DarajaCodec
+    private StkPushRequest buildStkRequest(MpesaStkRequest request, String formattedPhone) {
+        String timestamp = LocalDateTime.now().format(TIMESTAMP_FORMAT);
+        return new StkPushRequest(mpesaProperties.getStkPassword(timestamp), timestamp,
+                request.getAmount().intValue(), formattedPhone,
+                request.getAccountReference(), request.getTransactionDesc());
     }
 
-    private String getBaseUrl() {
-        return "sandbox".equalsIgnoreCase(environment) ? sandboxBaseUrl : prodBaseUrl;
+    // The deadline only bounds the wait to be sent. Once the request is written the prompt may
+    // reach the member whatever happens next, so a failure without an answer from Daraja is
+    // reported as an unknown outcome rather than a failed push
+    private CompletableFuture<StkPushResponse> sendStkPush(String accessToken, StkPushRequest stkRequest,
+                                                          DarajaPriority priority, long deadline) {
+        Duration maxWait = deadline == 0 ? null : Duration.ofNanos(deadline - System.nanoTime());
+        return darajaClient.stkPush(accessToken, stkRequest, priority, maxWait)
+                .doOnError(DarajaApiException.class, e -> {
+                    if (e.isUnauthorized()) {
+                        tokenManager.invalidate();
+                    }
+                })
+                .onErrorMap(e -> !(e instanceof DarajaApiException || e instanceof DarajaUnavailableException),
+                        e -> new DarajaOutcomeUnknownException(DarajaClient.STK_PUSH,
+                                e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage(), e))
+                .toFuture();
     }
 
-    @Override
-    @Transactional
-    public MpesaResponse initiateSTKPush(MpesaStkRequest request) {
-        try {
-            log.info("Initiating STK Push for phone: {}, amount: {}", request.getPhoneNumber(), request.getAmount());
-
-            String formattedPhone = formatPhoneNumber(request.getPhoneNumber());
-            String accessToken = getAccessToken();
-            String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
-            String password = Base64.getEncoder().encodeToString(
-                    (getShortCode() + getPasskey() + timestamp).getBytes());
-
-            Map<String, Object> stkRequest = new HashMap<>();
-            stkRequest.put("BusinessShortCode", getShortCode());
-            stkRequest.put("Password", password);
-            stkRequest.put("Timestamp", timestamp);
-            stkRequest.put("TransactionType", "CustomerPayBillOnline");
-            stkRequest.put("Amount", request.getAmount().intValue());
-            stkRequest.put("PartyA", formattedPhone);
-            stkRequest.put("PartyB", getShortCode());
-            stkRequest.put("PhoneNumber", formattedPhone);
-            stkRequest.put("CallBackURL", callbackUrl);
-            stkRequest.put("AccountReference", request.getAccountReference());
-            stkRequest.put("TransactionDesc", request.getTransactionDesc());
-
-            log.debug("STK Push Request: {}", stkRequest);
-
-            WebClient webClient = webClientBuilder.build();
-            Map<String, Object> response = webClient.post()
-                    .uri(getBaseUrl() + "/mpesa/stkpush/v1/processrequest")
-                    .header(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken)
-                    .contentType(MediaType.APPLICATION_JSON)
-                    .bodyValue(stkRequest)
-                    .retrieve()
-                    .onStatus(status -> status.isError(), clientResponse -> {
-                        log.error("M-Pesa API error: {}", clientResponse.statusCode());
-                        return clientResponse.bodyToMono(String.class)
-                                .flatMap(errorBody -> {
-                                    log.error("Error body: {}", errorBody);
-                                    return Mono.error(new RuntimeException("M-Pesa API error: " + errorBody));
-                                });
-                    })
-                    .bodyToMono(Map.class)
-                    .block();
-
-            if (response == null) {
-                throw new RuntimeException("No response from M-Pesa API");
-            }
-
-            log.info("STK Push Response: {}", response);
-
-            String responseCode = String.valueOf(response.get("ResponseCode"));
-            if (!"0".equals(responseCode)) {
-                String errorMessage = String.valueOf(response.get("ResponseDescription"));
-                log.error("M-Pesa STK Push failed: {}", errorMessage);
-                throw new RuntimeException("M-Pesa request failed: " + errorMessage);
-            }
+    // Runs after Daraja has replied; the save is a short transaction of its own
+    private MpesaResponse recordStkPush(MpesaStkRequest request, String formattedPhone, StkPushResponse response) {
+        if (!response.isAccepted()) {
+            log.error("M-Pesa STK Push failed: {} - {}", response.responseCode(), response.responseDescription());
+            throw new RuntimeException("M-Pesa request failed: " + response.responseDescription());
+        }
 
-            MpesaTransaction transaction = new MpesaTransaction();
-            transaction.setCheckoutRequestId((String) response.get("CheckoutRequestID"));
-            transaction.setMerchantRequestId((String) response.get("MerchantRequestID"));
-            transaction.setPhoneNumber(formattedPhone);
-            transaction.setAmount(request.getAmount());
-            transaction.setStatus(TransactionStatus.PENDING);
-            transaction.setTransactionType(request.getTransactionType());
+        MpesaTransaction transaction = new MpesaTransaction();
+        transaction.setCheckoutRequestId(response.checkoutRequestId());
+        transaction.setMerchantRequestId(response.merchantRequestId());
+        transaction.setPhoneNumber(formattedPhone);
+        transaction.setAmount(request.getAmount());
+        transaction.setStatus(TransactionStatus.PENDING);
+        transaction.setTransactionType(request.getTransactionType());
+        transaction.setAccountReference(request.getAccountReference());
+        transaction.setMemberId(request.getMemberId());
 
-            transactionRepository.save(transaction);
+        transactionRepository.save(transaction);
 
-            MpesaResponse mpesaResponse = new MpesaResponse();
-            mpesaResponse.setMerchantRequestID((String) response.get("MerchantRequestID"));
-            mpesaResponse.setCheckoutRequestID((String) response.get("CheckoutRequestID"));
-            mpesaResponse.setResponseCode(responseCode);
-            mpesaResponse.setResponseDescription((String) response.get("ResponseDescription"));
-            mpesaResponse.setCustomerMessage((String) response.get("CustomerMessage"));
+        MpesaResponse mpesaResponse = new MpesaResponse();
+        mpesaResponse.setMerchantRequestID(response.merchantRequestId());
+        mpesaResponse.setCheckoutRequestID(response.checkoutRequestId());
+        mpesaResponse.setResponseCode(response.responseCode());
+        mpesaResponse.setResponseDescription(response.responseDescription());
+        mpesaResponse.setCustomerMessage(response.customerMessage());
 
-            log.info("STK Push initiated successfully: {}", mpesaResponse.getCheckoutRequestID());
+        log.info("STK Push initiated successfully: {}", mpesaResponse.getCheckoutRequestID());
 
-            return mpesaResponse;
+        return mpesaResponse;
+    }
 
-        } catch (Exception e) {
-            log.error("Error initiating STK Push: ", e);
-            throw new RuntimeException("Failed to initiate M-Pesa payment: " + e.getMessage(), e);
+    private RuntimeException stkPushFailure(Throwable e) {
+        if (e instanceof DarajaUnavailableException unavailable) {
+            // Passed through as-is so callers can answer 503 instead of a generic failure
+            log.warn("STK Push rejected: {}", unavailable.getMessage());
+            return unavailable;
         }
+        if (e instanceof DarajaOutcomeUnknownException unknown) {
+            // Passed through so background senders leave the push to be reconciled, not retried
+            log.warn("STK Push outcome unknown: {}", unknown.getMessage());
+            return unknown;
+        }
+        log.error("Error initiating STK Push: ", e);
+        return new RuntimeException("Failed to initiate M-Pesa payment: " + e.getMessage(), e);
     }
 
+    // Only validates, journals and enqueues; MpesaCallbackQueue applies the result in the background.
+    // The journal append is forced to disk first, so an acknowledged callback survives a crash.
     @Override
-    @Transactional
     public void handleCallback(MpesaCallbackRequest callbackRequest) {
-        try {
-            log.info("Received M-Pesa callback");
+        log.info("Received M-Pesa callback");
 
-            if (callbackRequest == null || callbackRequest.getBody() == null) {
-                log.warn("Received null callback request");
-                return;
-            }
+        if (callbackRequest == null || callbackRequest.getBody() == null) {
+            log.warn("Received null callback request");
+            return;
+        }
 
-            MpesaCallbackRequest.StkCallback stkCallback = callbackRequest.getBody().getStkCallback();
+        MpesaCallbackRequest.StkCallback stkCallback = callbackRequest.getBody().getStkCallback();
 
-            if (stkCallback == null) {
-                log.warn("STK callback is null");
-                return;
-            }
+        if (stkCallback == null) {
+            log.warn("STK callback is null");
+            return;
+        }
 
-            MpesaTransaction transaction = transactionRepository
-                    .findByCheckoutRequestId(stkCallback.getCheckoutRequestID())
-                    .orElse(null);
+        if (stkCallback.getCheckoutRequestID() == null || stkCallback.getCheckoutRequestID().isBlank()
+                || stkCallback.getResultCode() == null) {
+            log.warn("Ignoring STK callback without CheckoutRequestID or ResultCode: {}", stkCallback);
+            return;
+        }
 
-            if (transaction == null) {
-                log.warn("Transaction not found for CheckoutRequestID: {}", stkCallback.getCheckoutRequestID());
-                return;
-            }
+        callbackQueue.accept(callbackRequest);
+    }
 
-            transaction.setResultCode(String.valueOf(stkCallback.getResultCode()));
-            transaction.setResultDesc(stkCallback.getResultDesc());
-
-            if (stkCallback.getResultCode() == 0) {
-                transaction.setStatus(TransactionStatus.SUCCESS);
-
-                if (stkCallback.getCallbackMetadata() != null &&
-                        stkCallback.getCallbackMetadata().getItem() != null) {
-
-                    for (MpesaCallbackRequest.Item item : stkCallback.getCallbackMetadata().getItem()) {
-                        if ("MpesaReceiptNumber".equals(item.getName())) {
-                            transaction.setMpesaReceiptNumber(String.valueOf(item.getValue()));
-                        } else if ("TransactionDate".equals(item.getName())) {
-                            try {
-                                String dateStr = String.valueOf(item.getValue());
-                                if (dateStr.length() >= 14) {
-                                    LocalDateTime transactionDate = LocalDateTime.parse(dateStr,
-                                            DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
-                                    transaction.setTransactionDate(transactionDate);
-                                }
-                            } catch (Exception e) {
-                                log.error("Error parsing transaction date", e);
+    // Failures are passed through unwrapped: the dispatcher needs to tell a refused request from
+    // one whose outcome is unknown. maxWait bounds the token and rate limit waits, never the send
+    @Override
+    public CompletableFuture<B2CPaymentResponse> initiateB2CPaymentAsync(B2CPaymentRequest request, Duration maxWait) {
+        log.info("Initiating B2C payment {} to {}, amount: {}", request.originatorConversationId(),
+                request.phoneNumber(), request.amount());
+        long deadline = System.nanoTime() + maxWait.toNanos();
+        return accessTokenWithin(maxWait)
+                .thenCompose(accessToken -> darajaClient.b2cPayment(accessToken, request, DarajaPriority.BATCH,
+                                Duration.ofNanos(deadline - System.nanoTime()))
+                        .doOnError(DarajaApiException.class, e -> {
+                            if (e.isUnauthorized()) {
+                                tokenManager.invalidate();
                             }
-                        }
-                    }
-                }
-
-                log.info("M-Pesa payment successful: {}", transaction.getMpesaReceiptNumber());
-
-            } else {
-                transaction.setStatus(TransactionStatus.FAILED);
-                log.warn("M-Pesa payment failed: {} - {}", stkCallback.getResultCode(), stkCallback.getResultDesc());
-            }
-
-            transactionRepository.save(transaction);
+                        })
+                        .toFuture());
+    }
 
-        } catch (Exception e) {
-            log.error("Error processing M-Pesa callback: ", e);
+    @Override
+    public void handleB2CResult(B2CResultRequest resultRequest) {
+        B2CResultRequest.Result result = validB2CResult(resultRequest);
+        if (result != null) {
+            disbursementResultQueue.submit(result);
         }
     }
 
     @Override
-    public String getAccessToken() {
-        try {
-            String credentials = getConsumerKey() + ":" + getConsumerSecret();
-            String encodedCredentials = Base64.getEncoder().encodeToString(credentials.getBytes());
-
-            WebClient webClient = webClientBuilder.build();
-            Map<String, Object> response = webClient.get()
-                    .uri(getBaseUrl() + "/oauth/v1/generate?grant_type=client_credentials")
-                    .header(HttpHeaders.AUTHORIZATION, "Basic " + encodedCredentials)
-                    .retrieve()
-                    .onStatus(status -> status.isError(), clientResponse -> {
-                        log.error("Failed to get access token: {}", clientResponse.statusCode());
-                        return clientResponse.bodyToMono(String.class)
-                                .flatMap(errorBody -> {
-                                    log.error("Error body: {}", errorBody);
-                                    return Mono.error(new RuntimeException("Failed to get access token: " + errorBody));
-                                });
-                    })
-                    .bodyToMono(Map.class)
-                    .block();
-
-            if (response == null || !response.containsKey("access_token")) {
-                throw new RuntimeException("Failed to get access token from M-Pesa");
-            }
-
-            String accessToken = (String) response.get("access_token");
-            log.debug("Successfully obtained M-Pesa access token");
-            return accessToken;
-
-        } catch (Exception e) {
-            log.error("Error getting M-Pesa access token: ", e);
-            throw new RuntimeException("Failed to get M-Pesa access token: " + e.getMessage(), e);
+    public void handleB2CTimeout(B2CResultRequest timeoutRequest) {
+        B2CResultRequest.Result result = validB2CResult(timeoutRequest);
+        if (result != null) {
+            disbursementResultProcessor.applyTimeout(result);
         }
     }
 
-    private String formatPhoneNumber(String phone) {
-        if (phone == null || phone.isEmpty()) {
-            throw new IllegalArgumentException("Phone number is required");
+    private B2CResultRequest.Result validB2CResult(B2CResultRequest request) {
+        B2CResultRequest.Result result = request == null ? null : request.getResult();
+        if (result == null || result.getOriginatorConversationID() == null
+                || result.getOriginatorConversationID().isBlank() || result.getResultCode() == null) {
+            log.warn("Ignoring B2C callback without OriginatorConversationID or ResultCode: {}", request);
+            return null;
         }
+        return result;
+    }
 
-        phone = phone.replaceAll("\\D", "");
+    // Answered from the in-memory member directory: Daraja only waits a few seconds for this
+    @Override
+    public C2BResponse validateC2BPayment(C2BPaymentRequest request) {
+        if (request.getTransAmount() == null || request.getTransAmount().signum() <= 0) {
+            return C2BResponse.rejected(C2BResponse.INVALID_AMOUNT);
+        }
+        if (mpesaProperties.isC2bRejectUnknownAccounts()
+                && memberDirectory.resolve(request.getBillRefNumber(), request.getMsisdn()).isEmpty()) {
+            log.info("Rejecting Paybill payment {} for unknown account '{}'", request.getTransId(), request.getBillRefNumber());
+            return C2BResponse.rejected(C2BResponse.INVALID_ACCOUNT);
+        }
+        return C2BResponse.accepted();
+    }
 
-        if (phone.startsWith("254")) {
-            return phone;
-        } else if (phone.startsWith("0")) {
-            return "254" + phone.substring(1);
-        } else if (phone.startsWith("7") || phone.startsWith("1")) {
-            return "254" + phone;
+    @Override
+    public void handleC2BConfirmation(C2BPaymentRequest request) {
+        if (request == null || request.getTransId() == null || request.getTransId().isBlank()
+                || request.getTransAmount() == null) {
+            log.warn("Ignoring C2B confirmation without TransID or TransAmount: {}", request);
+            return;
         }
+        c2bConfirmationQueue.submit(request);
+    }
 
-        throw new IllegalArgumentException("Invalid phone number format: " + phone);
+    @Override
+    public String getAccessToken() {
+        return tokenManager.getAccessToken();
     }
 }
\ No newline at end of file
@@ -0,0 +1,121 @@
+package com.kuria.chama7v.service.impl;
+
+import com.kuria.chama7v.dto.request.StandingOrderRequest;
+import com.kuria.chama7v.dto.response.StandingOrderDayStats;
+import com.kuria.chama7v.dto.response.StandingOrderResponse;
+import com.kuria.chama7v.entity.Member;
+import com.kuria.chama7v.entity.StandingOrder;
+import com.kuria.chama7v.entity.enums.StandingOrderRunStatus;
+import com.kuria.chama7v.entity.enums.StandingOrderStatus;
+import com.kuria.chama7v.exception.ResourceNotFoundException;
+import com.kuria.chama7v.repository.StandingOrderRepository;
+import com.kuria.chama7v.repository.StandingOrderRunRepository;
+import com.kuria.chama7v.service.MemberService;
+import com.kuria.chama7v.service.StandingOrderScheduler;
+import com.kuria.chama7v.service.StandingOrderService;
+import com.kuria.chama7v.util.PhoneNumberNormalizer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class StandingOrderServiceImpl implements StandingOrderService {
+
+    private final StandingOrderRepository orderRepository;
+    private final StandingOrderRunRepository runRepository;
+    private final StandingOrderScheduler scheduler;
+    private final MemberService memberService;
+
+    @Value("${standing-orders.max-per-member:3}")
+    private int maxPerMember;
+
+    @Override
+    @Transactional
+    public StandingOrderResponse createStandingOrder(StandingOrderRequest request) {
+        Member member = memberService.getCurrentMember();
+        if (orderRepository.findByMemberIdAndStatusOrderByIdAsc(member.getId(), StandingOrderStatus.ACTIVE).size() >= maxPerMember) {
+            throw new IllegalArgumentException("You can have at most " + maxPerMember + " active standing orders");
+        }
+        String phone = request.getPhoneNumber() != null && !request.getPhoneNumber().isBlank()
+                ? request.getPhoneNumber() : member.getPhone();
+        if (!PhoneNumberNormalizer.isValid(phone)) {
+            throw new IllegalArgumentException("A valid Safaricom phone number is required for a standing order");
+        }
+
+        StandingOrder order = new StandingOrder();
+        order.setMemberId(member.getId());
+        order.setPhoneNumber(PhoneNumberNormalizer.normalize(phone));
+        order.setAmount(request.getAmount());
+        order.setAccountReference(member.getMemberNumber());
+        order.setDayOfMonth(request.getDayOfMonth());
+        StandingOrder saved = orderRepository.save(order);
+
+        log.info("Standing order created by member {}: {} on day {}", member.getEmail(), request.getAmount(),
+                request.getDayOfMonth());
+        return mapToResponse(saved);
+    }
+
+    @Override
+    public List<StandingOrderResponse> getMyStandingOrders() {
+        Member member = memberService.getCurrentMember();
+        return orderRepository.findByMemberIdAndStatusOrderByIdAsc(member.getId(), StandingOrderStatus.ACTIVE)
+                .stream()
+                .map(this::mapToResponse)
+                .toList();
+    }
+
+    // Stops future collections; a run already planned for today still goes ahead
+    @Override
+    @Transactional
+    public StandingOrderResponse cancelStandingOrder(Long id) {
+        Member member = memberService.getCurrentMember();
+        StandingOrder order = orderRepository.findById(id)
+                .filter(o -> o.getMemberId().equals(member.getId()))
+                .orElseThrow(() -> new ResourceNotFoundException("Standing order", "id", id));
+        order.setStatus(StandingOrderStatus.CANCELLED);
+        return mapToResponse(orderRepository.save(order));
+    }
+
+    @Override
+    public StandingOrderDayStats getDayStats(LocalDate date) {
+        StandingOrderDayStats stats = new StandingOrderDayStats();
+        stats.setDate(date);
+        for (Object[] row : runRepository.countByStatus(date)) {
+            long count = ((Number) row[1]).longValue();
+            stats.getByStatus().put((StandingOrderRunStatus) row[0], count);
+            stats.setPlanned(stats.getPlanned() + count);
+        }
+        for (Object[] row : runRepository.countByHour(date)) {
+            long sent = ((Number) row[2]).longValue();
+            stats.getByHour().add(new StandingOrderDayStats.HourStats(((Number) row[0]).intValue(),
+                    ((Number) row[1]).longValue(), sent));
+            stats.setSent(stats.getSent() + sent);
+        }
+        stats.setWaitingOnWheel(scheduler.waitingOnWheel());
+        return stats;
+    }
+
+    private StandingOrderResponse mapToResponse(StandingOrder order) {
+        StandingOrderResponse response = new StandingOrderResponse();
+        response.setId(order.getId());
+        response.setAmount(order.getAmount());
+        response.setDayOfMonth(order.getDayOfMonth());
+        response.setPhoneNumber(order.getPhoneNumber());
+        response.setStatus(order.getStatus());
+        response.setCreatedAt(order.getCreatedAt());
+        if (order.getId() != null) {
+            runRepository.findFirstByStandingOrderIdOrderByRunDateDesc(order.getId()).ifPresent(run -> {
+                response.setLastRunDate(run.getRunDate());
+                response.setLastRunStatus(run.getStatus());
+            });
+        }
+        return response;
+    }
+}
@@ -0,0 +1,65 @@
+package com.kuria.chama7v.util;
+
+/**
+ * An equal-installment repayment table in integer cents. Each month's interest is the opening
+ * balance times the monthly rate, rounded half-up to the cent; the rest of the payment is
+ * principal, and the last installment clears whatever balance remains.
+ * <p>
+ * The rate is carried in millionths, the scale {@link LoanCalculator} rounds it to, so
+ * {@code (balance * rate + 500_000) / 1_000_000} is exactly what {@code BigDecimal} gives for
+ * {@code balance.multiply(rate).setScale(2, HALF_UP)} on non-negative amounts. Loans up to
+ * 1,000,000.00 at 50% a year keep the product below 10^13, far inside a long.
+ */
+public final class AmortizationSchedule {
+
+    private static final long RATE_SCALE = 1_000_000L;
+
+    private final long[] principal;
+    private final long[] interest;
+    private final long[] balance;
+
+    private AmortizationSchedule(int months) {
+        this.principal = new long[months];
+        this.interest = new long[months];
+        this.balance = new long[months];
+    }
+
+    public static AmortizationSchedule compute(long principalCents, long monthlyRateMicros, long paymentCents, int months) {
+        if (principalCents < 0 || monthlyRateMicros < 0 || months < 1) {
+            throw new IllegalArgumentException("Invalid loan terms for a schedule");
+        }
+        AmortizationSchedule schedule = new AmortizationSchedule(months);
+        long remaining = principalCents;
+        int last = months - 1;
+        for (int i = 0; i < months; i++) {
+            long due = (remaining * monthlyRateMicros + RATE_SCALE / 2) / RATE_SCALE;
+            long repaid = i == last ? remaining : Math.min(Math.max(paymentCents - due, 0), remaining);
+            remaining -= repaid;
+            schedule.interest[i] = due;
+            schedule.principal[i] = repaid;
+            schedule.balance[i] = remaining;
+        }
+        return schedule;
+    }
+
+    public int size() {
+        return principal.length;
+    }
+
+    public long principalCents(int installment) {
+        return principal[installment];
+    }
+
+    public long interestCents(int installment) {
+        return interest[installment];
+    }
+
+    public long amountCents(int installment) {
+        return principal[installment] + interest[installment];
+    }
+
+    // Outstanding principal once the installment is paid
+    public long balanceCents(int installment) {
+        return balance[installment];
+    }
+}
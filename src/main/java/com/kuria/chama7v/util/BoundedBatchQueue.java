@@ -0,0 +1,140 @@
+package com.kuria.chama7v.util;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Bounded in-process queue drained by a small pool of worker threads. Workers hand items to
+ * the batch handler in groups of up to {@code batchSize}, so the handler can apply them in a
+ * single transaction. Producers never block: {@link #offer} returns false when the queue is full.
+ */
+@Slf4j
+public class BoundedBatchQueue<T> {
+
+    private static final long POLL_TIMEOUT_MS = 500;
+
+    private final String name;
+    private final ArrayBlockingQueue<QueuedItem<T>> queue;
+    private final int batchSize;
+    private final int workerCount;
+    private final Consumer<List<T>> batchHandler;
+    private final List<Thread> workers = new ArrayList<>();
+
+    private volatile boolean running;
+
+    public BoundedBatchQueue(String name, int capacity, int batchSize, int workerCount,
+                             Consumer<List<T>> batchHandler) {
+        this.name = name;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.workerCount = workerCount;
+        this.batchHandler = batchHandler;
+    }
+
+    public boolean offer(T item) {
+        return queue.offer(new QueuedItem<>(item, System.currentTimeMillis()));
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    public int remainingCapacity() {
+        return queue.remainingCapacity();
+    }
+
+    public long oldestItemAgeMillis() {
+        QueuedItem<T> oldest = queue.peek();
+        return oldest == null ? 0 : System.currentTimeMillis() - oldest.enqueuedAt();
+    }
+
+    public void registerMetrics(MeterRegistry meterRegistry, String metricPrefix) {
+        Gauge.builder(metricPrefix + ".depth", queue, ArrayBlockingQueue::size)
+                .description("Items waiting in the " + name + " queue")
+                .register(meterRegistry);
+        Gauge.builder(metricPrefix + ".oldest.age", this, q -> q.oldestItemAgeMillis() / 1000.0)
+                .description("Age in seconds of the oldest item in the " + name + " queue")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::drainLoop, name + "-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        log.info("Started {} queue with {} workers", name, workerCount);
+    }
+
+    // Stops the workers, then applies whatever is still queued on the calling thread
+    public synchronized void stop(long timeoutMillis) {
+        running = false;
+        for (Thread worker : workers) {
+            try {
+                worker.join(timeoutMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        workers.clear();
+
+        List<T> batch = new ArrayList<>(batchSize);
+        while (drainBatch(batch) > 0) {
+            handle(batch);
+            batch = new ArrayList<>(batchSize);
+        }
+        log.info("Stopped {} queue", name);
+    }
+
+    private void drainLoop() {
+        while (running) {
+            try {
+                QueuedItem<T> first = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<T> batch = new ArrayList<>(batchSize);
+                batch.add(first.item());
+                drainBatch(batch);
+                handle(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private int drainBatch(List<T> batch) {
+        List<QueuedItem<T>> drained = new ArrayList<>(batchSize);
+        queue.drainTo(drained, batchSize - batch.size());
+        for (QueuedItem<T> queued : drained) {
+            batch.add(queued.item());
+        }
+        return batch.size();
+    }
+
+    private void handle(List<T> batch) {
+        try {
+            batchHandler.accept(batch);
+        } catch (Exception e) {
+            log.error("Error handling batch of {} items from {} queue", batch.size(), name, e);
+        }
+    }
+
+    private record QueuedItem<T>(T item, long enqueuedAt) {
+    }
+}
@@ -0,0 +1,95 @@
+package com.kuria.chama7v.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A hashed timing wheel: timers hash into {@code wheelSize} buckets by their deadline tick and
+ * carry the number of full turns left, so scheduling is O(1) and each tick only looks at one
+ * bucket, however many timers are pending. Deadlines are rounded up to the tick. A cancelled
+ * timer is only marked, and dropped when its bucket next comes round. Not thread-safe on its
+ * own; callers synchronize, including around {@link Timeout#cancel()}.
+ */
+public class HashedTimingWheel<T> {
+
+    private final long tickMillis;
+    private final List<ArrayDeque<Timeout>> buckets;
+    private final int mask;
+    private long currentTick;
+    private int size;
+
+    public HashedTimingWheel(int wheelSize, long tickMillis, long startMillis) {
+        if (Integer.bitCount(wheelSize) != 1 || tickMillis <= 0) {
+            throw new IllegalArgumentException("Wheel size must be a power of two and the tick positive");
+        }
+        this.tickMillis = tickMillis;
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            buckets.add(new ArrayDeque<>());
+        }
+        this.mask = wheelSize - 1;
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    // A deadline already passed fires on the next tick
+    public Timeout schedule(T item, long deadlineMillis) {
+        long tick = Math.max(Math.ceilDiv(deadlineMillis, tickMillis), currentTick + 1);
+        long rounds = (tick - currentTick - 1) / buckets.size();
+        Timeout timeout = new Timeout(item, rounds);
+        buckets.get((int) (tick & mask)).add(timeout);
+        size++;
+        return timeout;
+    }
+
+    // Returns the items whose deadline is at or before now, in deadline order
+    public List<T> advance(long nowMillis) {
+        long nowTick = nowMillis / tickMillis;
+        List<T> expired = new ArrayList<>();
+        while (currentTick < nowTick) {
+            currentTick++;
+            Iterator<Timeout> timeouts = buckets.get((int) (currentTick & mask)).iterator();
+            while (timeouts.hasNext()) {
+                Timeout timeout = timeouts.next();
+                if (timeout.done) {
+                    timeouts.remove();
+                } else if (timeout.rounds == 0) {
+                    timeouts.remove();
+                    timeout.done = true;
+                    expired.add(timeout.item);
+                    size--;
+                } else {
+                    timeout.rounds--;
+                }
+            }
+        }
+        return expired;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // A pending timer; done once it has fired or been cancelled
+    public final class Timeout {
+        private final T item;
+        private long rounds;
+        private boolean done;
+
+        private Timeout(T item, long rounds) {
+            this.item = item;
+            this.rounds = rounds;
+        }
+
+        // False if the timer has already fired or been cancelled
+        public boolean cancel() {
+            if (done) {
+                return false;
+            }
+            done = true;
+            size--;
+            return true;
+        }
+    }
+}
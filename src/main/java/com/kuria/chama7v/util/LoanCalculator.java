@@ -11,9 +11,7 @@ import java.math.RoundingMode;
 public class LoanCalculator {
 
     public LoanCalculation calculateLoan(BigDecimal principal, BigDecimal annualInterestRate, int durationMonths) {
-        // Convert annual interest rate to monthly
-        BigDecimal monthlyInterestRate = annualInterestRate.divide(BigDecimal.valueOf(100), 6, RoundingMode.HALF_UP)
-                .divide(BigDecimal.valueOf(12), 6, RoundingMode.HALF_UP);
+        BigDecimal monthlyInterestRate = monthlyRate(annualInterestRate);
 
         // Calculate monthly payment using amortization formula
         // M = P * [r(1+r)^n] / [(1+r)^n - 1]
@@ -37,6 +35,29 @@ public class LoanCalculator {
         return new LoanCalculation(monthlyPayment, totalAmount, totalInterest);
     }
 
+    // Convert annual interest rate to monthly, at the scale the schedule's fixed-point rate uses
+    public static BigDecimal monthlyRate(BigDecimal annualInterestRate) {
+        return annualInterestRate.divide(BigDecimal.valueOf(100), 6, RoundingMode.HALF_UP)
+                .divide(BigDecimal.valueOf(12), 6, RoundingMode.HALF_UP);
+    }
+
+    // The installment table behind calculateLoan's monthly payment; see AmortizationSchedule
+    public AmortizationSchedule buildSchedule(BigDecimal principal, BigDecimal annualInterestRate, int durationMonths) {
+        BigDecimal payment = calculateLoan(principal, annualInterestRate, durationMonths).getMonthlyPayment();
+        return AmortizationSchedule.compute(toCents(principal),
+                monthlyRate(annualInterestRate).movePointRight(6).longValueExact(),
+                toCents(payment), durationMonths);
+    }
+
+    // Amounts are stored to the cent, so the rounding only matters for unsaved input
+    public static long toCents(BigDecimal amount) {
+        return amount.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal fromCents(long cents) {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
     @Data
     public static class LoanCalculation {
         private final BigDecimal monthlyPayment;
@@ -0,0 +1,179 @@
+package com.kuria.chama7v.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Streams rows out of an M-Pesa organisation statement CSV, one at a time, so a statement of
+ * any size is read in constant memory. The export starts with a few lines of account details;
+ * everything up to the header row (the one with a "Receipt No." column) is skipped, and
+ * columns are found by name so their order does not matter.
+ */
+public class MpesaStatementReader implements Closeable {
+
+    private static final List<DateTimeFormatter> TIME_FORMATS = List.of(
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"),
+            DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss"),
+            DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss"),
+            DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm"));
+
+    private final BufferedReader reader;
+    private final StringBuilder record = new StringBuilder(256);
+    private final List<String> fields = new ArrayList<>(16);
+    private Map<String, Integer> columns;
+    private long lineNumber;
+
+    public MpesaStatementReader(InputStream in) {
+        this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    public record Row(String receiptNumber, LocalDateTime completedAt, String details, String status,
+                      BigDecimal paidIn, BigDecimal withdrawn, String otherParty, String accountNumber) {
+    }
+
+    // Next transaction row, or null at the end of the statement
+    public Row next() throws IOException {
+        while (readRecord()) {
+            if (columns == null) {
+                columns = findHeader();
+                continue;
+            }
+            String receipt = field("receipt no");
+            if (receipt.isEmpty()) {
+                continue;
+            }
+            try {
+                return new Row(receipt, parseTime(field("completion time")), field("details"),
+                        field("transaction status"), parseAmount(field("paid in")), parseAmount(field("withdrawn")),
+                        field("other party info"), field("a/c no"));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(e.getMessage() + " on line " + lineNumber, e);
+            }
+        }
+        if (columns == null) {
+            throw new IllegalArgumentException("Not an M-Pesa statement: no 'Receipt No.' header row");
+        }
+        return null;
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private Map<String, Integer> findHeader() {
+        Map<String, Integer> header = new HashMap<>();
+        for (int i = 0; i < fields.size(); i++) {
+            header.put(columnKey(fields.get(i)), i);
+        }
+        if (!header.containsKey("receipt no")) {
+            return null;
+        }
+        for (String required : List.of("completion time", "paid in")) {
+            if (!header.containsKey(required)) {
+                throw new IllegalArgumentException("M-Pesa statement has no '" + required + "' column");
+            }
+        }
+        return header;
+    }
+
+    // "Receipt No." and "RECEIPT NO" name the same column
+    private static String columnKey(String name) {
+        String key = name.strip().toLowerCase(Locale.ROOT);
+        return key.endsWith(".") ? key.substring(0, key.length() - 1) : key;
+    }
+
+    private String field(String column) {
+        Integer index = columns.get(column);
+        return index == null || index >= fields.size() ? "" : fields.get(index);
+    }
+
+    // Splits the next CSV record into fields; a quoted field may contain commas, doubled
+    // quotes and line breaks
+    private boolean readRecord() throws IOException {
+        fields.clear();
+        record.setLength(0);
+        boolean quoted = false;
+        String line = reader.readLine();
+        if (line == null) {
+            return false;
+        }
+        lineNumber++;
+        if (lineNumber == 1 && !line.isEmpty() && line.charAt(0) == '\uFEFF') {
+            line = line.substring(1);
+        }
+        while (true) {
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c != '"') {
+                        record.append(c);
+                    } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        record.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(record.toString().strip());
+                    record.setLength(0);
+                } else {
+                    record.append(c);
+                }
+            }
+            if (!quoted) {
+                break;
+            }
+            line = reader.readLine();
+            if (line == null) {
+                break;
+            }
+            lineNumber++;
+            record.append('\n');
+        }
+        fields.add(record.toString().strip());
+        return true;
+    }
+
+    private static BigDecimal parseAmount(String value) {
+        String digits = value.replace(",", "").replace(" ", "");
+        if (digits.isEmpty()) {
+            return BigDecimal.ZERO;
+        }
+        try {
+            return new BigDecimal(digits);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unreadable amount in M-Pesa statement: " + value);
+        }
+    }
+
+    private static LocalDateTime parseTime(String value) {
+        for (DateTimeFormatter format : TIME_FORMATS) {
+            try {
+                return LocalDateTime.parse(value, format);
+            } catch (DateTimeParseException ignored) {
+                // try the next format
+            }
+        }
+        return null;
+    }
+}
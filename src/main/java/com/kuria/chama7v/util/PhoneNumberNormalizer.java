@@ -0,0 +1,94 @@
+package com.kuria.chama7v.util;
+
+/**
+ * Canonicalizes Kenyan mobile numbers to the 12-digit {@code 2547XXXXXXXX} / {@code 2541XXXXXXXX}
+ * form that Daraja expects. Accepts {@code +254}, {@code 254}, {@code 0} and bare 9-digit
+ * prefixes; any character other than a digit or a leading {@code +} is treated as a separator.
+ * The input is scanned once into a fixed 12-char buffer with no regex or intermediate strings,
+ * and a number that is already canonical is returned as is.
+ */
+public final class PhoneNumberNormalizer {
+
+    private static final int CANONICAL_LENGTH = 12;
+    private static final int NATIONAL_LENGTH = 9;
+
+    private PhoneNumberNormalizer() {
+    }
+
+    public static String normalize(String phone) {
+        if (phone == null || phone.isEmpty()) {
+            throw new IllegalArgumentException("Phone number is required");
+        }
+        if (isCanonical(phone)) {
+            return phone;
+        }
+        char[] digits = new char[CANONICAL_LENGTH];
+        if (!parse(phone, digits)) {
+            throw new IllegalArgumentException("Invalid phone number format: " + phone);
+        }
+        return new String(digits);
+    }
+
+    public static boolean isValid(String phone) {
+        return phone != null && (isCanonical(phone) || parse(phone, new char[CANONICAL_LENGTH]));
+    }
+
+    // Digits are written as they arrive, then moved behind a 254 prefix once the format is known
+    private static boolean parse(String phone, char[] digits) {
+        int count = 0;
+        boolean plus = false;
+        for (int i = 0; i < phone.length(); i++) {
+            char c = phone.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (count == CANONICAL_LENGTH) {
+                    return false;
+                }
+                digits[count++] = c;
+            } else if (c == '+') {
+                if (plus || count > 0) {
+                    return false;
+                }
+                plus = true;
+            }
+        }
+
+        int nationalStart;
+        if (count == CANONICAL_LENGTH && digits[0] == '2' && digits[1] == '5' && digits[2] == '4') {
+            nationalStart = 3;
+        } else if (plus) {
+            return false;
+        } else if (count == NATIONAL_LENGTH + 1 && digits[0] == '0') {
+            nationalStart = 1;
+        } else if (count == NATIONAL_LENGTH) {
+            nationalStart = 0;
+        } else {
+            return false;
+        }
+        if (digits[nationalStart] != '7' && digits[nationalStart] != '1') {
+            return false;
+        }
+
+        System.arraycopy(digits, nationalStart, digits, 3, NATIONAL_LENGTH);
+        digits[0] = '2';
+        digits[1] = '5';
+        digits[2] = '4';
+        return true;
+    }
+
+    private static boolean isCanonical(String phone) {
+        if (phone.length() != CANONICAL_LENGTH || !phone.startsWith("254")) {
+            return false;
+        }
+        char first = phone.charAt(3);
+        if (first != '7' && first != '1') {
+            return false;
+        }
+        for (int i = 4; i < CANONICAL_LENGTH; i++) {
+            char c = phone.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,75 @@
+package com.kuria.chama7v.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Compact set of M-Pesa receipt numbers for statement-sized inputs. Receipts are short and
+ * alphanumeric, so each is packed into a long (bijective base 36, which keeps "0A" and "A"
+ * apart and fits up to 12 characters) and kept in a sorted long[]: 8 bytes a receipt instead
+ * of a String and a hash entry. The odd receipt that does not pack goes into a plain HashSet.
+ * <p>
+ * Add everything, call {@link #seal()}, then query with {@link #contains(String)}.
+ */
+public final class ReceiptSet {
+
+    private static final int MAX_PACKED_LENGTH = 12;
+
+    private long[] packed = new long[1024];
+    private int size;
+    private final Set<String> unpacked = new HashSet<>();
+    private boolean sealed;
+
+    public void add(String receipt) {
+        if (sealed) {
+            throw new IllegalStateException("ReceiptSet is sealed");
+        }
+        long value = pack(receipt);
+        if (value < 0) {
+            unpacked.add(receipt);
+            return;
+        }
+        if (size == packed.length) {
+            packed = Arrays.copyOf(packed, size * 2);
+        }
+        packed[size++] = value;
+    }
+
+    public void seal() {
+        Arrays.sort(packed, 0, size);
+        sealed = true;
+    }
+
+    public boolean contains(String receipt) {
+        if (!sealed) {
+            throw new IllegalStateException("ReceiptSet must be sealed before lookups");
+        }
+        long value = pack(receipt);
+        return value < 0 ? unpacked.contains(receipt) : Arrays.binarySearch(packed, 0, size, value) >= 0;
+    }
+
+    // Case-insensitive, as Safaricom only issues uppercase receipts; -1 when the receipt does not pack
+    static long pack(String receipt) {
+        int length = receipt.length();
+        if (length == 0 || length > MAX_PACKED_LENGTH) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = receipt.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'A' && c <= 'Z') {
+                digit = c - 'A' + 10;
+            } else if (c >= 'a' && c <= 'z') {
+                digit = c - 'a' + 10;
+            } else {
+                return -1;
+            }
+            value = value * 36 + digit + 1;
+        }
+        return value;
+    }
+}
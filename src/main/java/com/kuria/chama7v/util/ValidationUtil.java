@@ -37,37 +37,6 @@ public class ValidationUtil {
     }
 
     public String formatPhoneNumber(String phone) {
-        if (phone == null) return null;
-
-        // Remove any non-digit characters except +
-        phone = phone.replaceAll("[^\\d+]", "");
-
-        // Handle different input formats
-        if (phone.startsWith("+254")) {
-            phone = phone.substring(1); // Remove the +
-        } else if (phone.startsWith("07") || phone.startsWith("01")) {
-            // Convert 07XXXXXXXX or 01XXXXXXXX to 254XXXXXXX
-            phone = "254" + phone.substring(1);
-        } else if (phone.startsWith("7") && phone.length() == 9) {
-            // Convert 7XXXXXXXX to 254XXXXXXX
-            phone = "254" + phone;
-        } else if (phone.startsWith("1") && phone.length() == 9) {
-            // Convert 1XXXXXXXX to 254XXXXXXX
-            phone = "254" + phone;
-        }
-
-        // Validate final format
-        if (!PHONE_PATTERN_254.matcher(phone).matches()) {
-            throw new IllegalArgumentException("Invalid phone number format: " + phone);
-        }
-
-        return phone;
-    }
-
-    public String generateLoanNumber() {
-        java.time.LocalDate now = java.time.LocalDate.now();
-        String date = String.format("%d%02d%02d", now.getYear(), now.getMonthValue(), now.getDayOfMonth());
-        String random = String.format("%04d", (int) (Math.random() * 10000));
-        return "LN-" + date + "-" + random;
+        return phone == null ? null : PhoneNumberNormalizer.normalize(phone);
     }
 }
\ No newline at end of file
@@ -0,0 +1,408 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.request.MpesaStkRequest;
+import com.kuria.chama7v.dto.response.MpesaResponse;
+import com.kuria.chama7v.entity.CampaignRecipient;
+import com.kuria.chama7v.entity.MpesaTransaction;
+import com.kuria.chama7v.entity.PaymentCampaign;
+import com.kuria.chama7v.entity.enums.CampaignStatus;
+import com.kuria.chama7v.entity.enums.RecipientStatus;
+import com.kuria.chama7v.entity.enums.TransactionStatus;
+import com.kuria.chama7v.exception.DarajaUnavailableException;
+import com.kuria.chama7v.repository.CampaignRecipientRepository;
+import com.kuria.chama7v.repository.MpesaTransactionRepository;
+import com.kuria.chama7v.repository.PaymentCampaignRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Campaign dispatch and progress against repositories kept in memory, whose guarded updates
+ * behave like the real ones: a row only moves on if it is still in the expected status. Pushes
+ * go to a stubbed M-Pesa service, and each test waits for the dispatch passes it started.
+ */
+class CampaignDispatcherTest {
+
+    private static final String ACCOUNT = "JAN-CONTRIBUTION";
+    private static final BigDecimal AMOUNT = new BigDecimal("500.00");
+    private static final int CONCURRENCY = 20;
+    private static final int BATCH_SIZE = 5;
+
+    private final Object lock = new Object();
+    private final PaymentCampaign campaign = campaign();
+    private final Map<Long, CampaignRecipient> recipients = new ConcurrentHashMap<>();
+    private final List<MpesaTransaction> recordedPushes = new CopyOnWriteArrayList<>();
+    private final Map<String, TransactionStatus> settled = new ConcurrentHashMap<>();
+    private final Map<Long, AtomicInteger> pushes = new ConcurrentHashMap<>();
+    private final AtomicInteger lostClaims = new AtomicInteger();
+    private final List<CompletableFuture<Void>> passes = new CopyOnWriteArrayList<>();
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+
+    private final PaymentCampaignRepository campaignRepository = campaignRepository();
+    private final CampaignRecipientRepository recipientRepository = recipientRepository();
+    private final MpesaTransactionRepository transactionRepository = transactionRepository();
+    private final CampaignProgressTracker progressTracker = new CampaignProgressTracker(recipientRepository, campaignRepository);
+
+    // Set by a test before the first read of queued recipients; each dispatcher waits on it
+    private CountDownLatch firstReads = new CountDownLatch(0);
+    private Function<MpesaStkRequest, CompletableFuture<MpesaResponse>> stkPush = this::accepted;
+
+    @AfterEach
+    void stop() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void twoDispatchersNeverPushTheSameMember() throws Exception {
+        for (long member = 1; member <= 12; member++) {
+            recipient(member, RecipientStatus.QUEUED);
+        }
+        // Both read the same first batch before either claims from it
+        firstReads = new CountDownLatch(2);
+
+        dispatcher().kick();
+        dispatcher().kick();
+        awaitPasses();
+
+        assertEquals(12, pushes.size());
+        pushes.forEach((member, count) -> assertEquals(1, count.get(), "member " + member));
+        assertTrue(lostClaims.get() > 0);
+        recipients.values().forEach(recipient -> assertEquals(RecipientStatus.ACCEPTED, recipient.getStatus()));
+        assertEquals(12, campaign.getSentCount());
+        assertEquals(12, campaign.getAcceptedCount());
+        assertEquals(CampaignStatus.DISPATCHED, campaign.getStatus());
+    }
+
+    @Test
+    void interruptedPushIsAcceptedIfRecordedAndRequeuedIfNot() throws Exception {
+        LocalDateTime claimedAt = LocalDateTime.now().minusMinutes(10);
+        CampaignRecipient prompted = recipient(1, RecipientStatus.SENT);
+        prompted.setUpdatedAt(claimedAt);
+        prompted.setAttempts(1);
+        recordPush(1, "ws_CO_recorded", claimedAt.plusSeconds(1));
+        settled.put("ws_CO_recorded", TransactionStatus.SUCCESS);
+        CampaignRecipient lost = recipient(2, RecipientStatus.SENT);
+        lost.setUpdatedAt(claimedAt);
+        lost.setAttempts(1);
+        // Claimed just now, so possibly still being sent by another instance
+        CampaignRecipient recent = recipient(3, RecipientStatus.SENT);
+        recent.setAttempts(1);
+
+        dispatcher().kick();
+        awaitPasses();
+
+        assertEquals(RecipientStatus.PAID, prompted.getStatus());
+        assertEquals("ws_CO_recorded", prompted.getCheckoutRequestId());
+        assertFalse(pushes.containsKey(1L));
+        assertEquals(RecipientStatus.ACCEPTED, lost.getStatus());
+        assertEquals(2, lost.getAttempts());
+        assertEquals(1, pushes.get(2L).get());
+        assertEquals(RecipientStatus.SENT, recent.getStatus());
+        assertFalse(pushes.containsKey(3L));
+        assertEquals(1, campaign.getPaidCount());
+        assertEquals(CampaignStatus.DISPATCHING, campaign.getStatus());
+    }
+
+    @Test
+    void unavailableDarajaRequeuesThePushAndStopsThePass() throws Exception {
+        for (long member = 1; member <= 8; member++) {
+            recipient(member, RecipientStatus.QUEUED);
+        }
+        stkPush = request -> {
+            count(request);
+            return CompletableFuture.failedFuture(new DarajaUnavailableException("stk_push", "circuit open", null));
+        };
+
+        dispatcher().kick();
+        awaitPasses();
+
+        assertEquals(1, pushes.size());
+        recipients.values().forEach(recipient -> assertEquals(RecipientStatus.QUEUED, recipient.getStatus()));
+        assertEquals(0, campaign.getSentCount());
+        assertEquals(0, campaign.getFailedCount());
+        assertEquals(CampaignStatus.DISPATCHING, campaign.getStatus());
+
+        stkPush = this::accepted;
+        dispatcher().kick();
+        awaitPasses();
+
+        recipients.values().forEach(recipient -> assertEquals(RecipientStatus.ACCEPTED, recipient.getStatus()));
+        assertEquals(8, campaign.getSentCount());
+        assertEquals(CampaignStatus.DISPATCHED, campaign.getStatus());
+    }
+
+    @Test
+    void campaignIsDispatchedOnlyOnceNothingIsInFlight() throws Exception {
+        for (long member = 1; member <= 6; member++) {
+            recipient(member, RecipientStatus.QUEUED);
+        }
+        List<CompletableFuture<MpesaResponse>> inFlight = new CopyOnWriteArrayList<>();
+        stkPush = request -> {
+            count(request);
+            CompletableFuture<MpesaResponse> response = new CompletableFuture<>();
+            inFlight.add(response);
+            return response;
+        };
+
+        dispatcher().kick();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (inFlight.size() < 6) {
+            assertTrue(System.nanoTime() < deadline, "pushes never went out");
+            Thread.sleep(1);
+        }
+
+        // Nothing is left queued, but the pushes have not been answered
+        assertFalse(recipientRepository.existsInStatus(campaign.getId(), List.of(RecipientStatus.QUEUED)));
+        assertEquals(CampaignStatus.DISPATCHING, campaign.getStatus());
+        for (int i = 0; i < inFlight.size() - 1; i++) {
+            inFlight.get(i).complete(response("ws_CO_" + i));
+        }
+        Thread.sleep(50);
+        assertEquals(CampaignStatus.DISPATCHING, campaign.getStatus());
+
+        inFlight.get(inFlight.size() - 1).complete(response("ws_CO_last"));
+        awaitPasses();
+
+        assertEquals(6, campaign.getAcceptedCount());
+        assertEquals(CampaignStatus.DISPATCHED, campaign.getStatus());
+    }
+
+    @Test
+    void settlementIsCountedOnce() {
+        CampaignRecipient paid = recipient(1, RecipientStatus.ACCEPTED);
+        paid.setCheckoutRequestId("ws_CO_paid");
+        CampaignRecipient waiting = recipient(2, RecipientStatus.ACCEPTED);
+        waiting.setCheckoutRequestId("ws_CO_waiting");
+        Map<String, TransactionStatus> statuses = Map.of(
+                "ws_CO_paid", TransactionStatus.SUCCESS, "ws_CO_waiting", TransactionStatus.PENDING);
+
+        progressTracker.applySettlements(statuses);
+        progressTracker.applySettlements(statuses);
+
+        assertEquals(RecipientStatus.PAID, paid.getStatus());
+        assertEquals(RecipientStatus.ACCEPTED, waiting.getStatus());
+        assertEquals(1, campaign.getPaidCount());
+        assertEquals(0, campaign.getFailedCount());
+    }
+
+    private CampaignDispatcher dispatcher() {
+        MpesaService mpesaService = mock(MpesaService.class);
+        when(mpesaService.initiateSTKPushAsync(any())).thenAnswer(invocation -> stkPush.apply(invocation.getArgument(0)));
+        CampaignDispatcher dispatcher = new CampaignDispatcher(campaignRepository, recipientRepository,
+                transactionRepository, mpesaService, progressTracker,
+                task -> passes.add(CompletableFuture.runAsync(task, pool)), CONCURRENCY, 1000);
+        ReflectionTestUtils.setField(dispatcher, "batchSize", BATCH_SIZE);
+        ReflectionTestUtils.setField(dispatcher, "sendTimeoutSeconds", 60L);
+        return dispatcher;
+    }
+
+    private void awaitPasses() throws Exception {
+        for (CompletableFuture<Void> pass : passes) {
+            pass.get(10, TimeUnit.SECONDS);
+        }
+        passes.clear();
+    }
+
+    private CompletableFuture<MpesaResponse> accepted(MpesaStkRequest request) {
+        int count = count(request);
+        return CompletableFuture.completedFuture(response("ws_CO_" + request.getMemberId() + "_" + count));
+    }
+
+    private int count(MpesaStkRequest request) {
+        return pushes.computeIfAbsent(request.getMemberId(), member -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private static MpesaResponse response(String checkoutRequestId) {
+        MpesaResponse response = new MpesaResponse();
+        response.setCheckoutRequestID(checkoutRequestId);
+        response.setResponseCode("0");
+        return response;
+    }
+
+    private static PaymentCampaign campaign() {
+        PaymentCampaign campaign = new PaymentCampaign();
+        campaign.setId(1L);
+        campaign.setName("January contributions");
+        campaign.setAmount(AMOUNT);
+        campaign.setAccountReference(ACCOUNT);
+        campaign.setTransactionType("CONTRIBUTION");
+        return campaign;
+    }
+
+    private CampaignRecipient recipient(long memberId, RecipientStatus status) {
+        CampaignRecipient recipient = new CampaignRecipient();
+        recipient.setId(memberId * 10);
+        recipient.setCampaign(campaign);
+        recipient.setMemberId(memberId);
+        recipient.setPhoneNumber(String.format("2547%08d", memberId));
+        recipient.setStatus(status);
+        recipient.setUpdatedAt(LocalDateTime.now());
+        recipients.put(recipient.getId(), recipient);
+        campaign.setTotalRecipients(recipients.size());
+        return recipient;
+    }
+
+    private void recordPush(long memberId, String checkoutRequestId, LocalDateTime createdAt) {
+        MpesaTransaction push = new MpesaTransaction();
+        push.setMemberId(memberId);
+        push.setAccountReference(ACCOUNT);
+        push.setAmount(AMOUNT);
+        push.setCheckoutRequestId(checkoutRequestId);
+        push.setCreatedAt(createdAt);
+        recordedPushes.add(push);
+    }
+
+    // Guarded like the UPDATE ... WHERE status = :from it stands in for
+    private int move(Long id, RecipientStatus from, RecipientStatus to) {
+        synchronized (lock) {
+            CampaignRecipient recipient = recipients.get(id);
+            if (recipient == null || recipient.getStatus() != from) {
+                return 0;
+            }
+            recipient.setStatus(to);
+            recipient.setUpdatedAt(LocalDateTime.now());
+            return 1;
+        }
+    }
+
+    private List<CampaignRecipient> inStatus(RecipientStatus status) {
+        return recipients.values().stream()
+                .filter(recipient -> recipient.getStatus() == status)
+                .sorted(Comparator.comparing(CampaignRecipient::getId))
+                .toList();
+    }
+
+    private PaymentCampaignRepository campaignRepository() {
+        PaymentCampaignRepository repository = mock(PaymentCampaignRepository.class);
+        when(repository.findByStatusOrderByIdAsc(any())).thenAnswer(invocation ->
+                campaign.getStatus() == invocation.getArgument(0) ? List.of(campaign) : List.of());
+        when(repository.findById(anyLong())).thenAnswer(invocation -> Optional.of(campaign));
+        when(repository.incrementProgress(anyLong(), anyInt(), anyInt(), anyInt(), anyInt())).thenAnswer(invocation -> {
+            synchronized (lock) {
+                campaign.setSentCount(campaign.getSentCount() + invocation.<Integer>getArgument(1));
+                campaign.setAcceptedCount(campaign.getAcceptedCount() + invocation.<Integer>getArgument(2));
+                campaign.setPaidCount(campaign.getPaidCount() + invocation.<Integer>getArgument(3));
+                campaign.setFailedCount(campaign.getFailedCount() + invocation.<Integer>getArgument(4));
+                return 1;
+            }
+        });
+        when(repository.transition(anyLong(), any(), any(), any())).thenAnswer(invocation -> {
+            synchronized (lock) {
+                if (campaign.getStatus() != invocation.getArgument(1)) {
+                    return 0;
+                }
+                campaign.setStatus(invocation.getArgument(2));
+                campaign.setDispatchedAt(invocation.getArgument(3));
+                return 1;
+            }
+        });
+        return repository;
+    }
+
+    private CampaignRecipientRepository recipientRepository() {
+        CampaignRecipientRepository repository = mock(CampaignRecipientRepository.class);
+        when(repository.findByCampaignAndStatus(anyLong(), any(), any(Pageable.class))).thenAnswer(invocation -> {
+            Pageable pageable = invocation.getArgument(2);
+            List<CampaignRecipient> page = inStatus(invocation.getArgument(1)).stream()
+                    .limit(pageable.getPageSize())
+                    .toList();
+            firstReads.countDown();
+            firstReads.await(5, TimeUnit.SECONDS);
+            return page;
+        });
+        when(repository.claimForSending(anyLong())).thenAnswer(invocation -> {
+            synchronized (lock) {
+                int claimed = move(invocation.getArgument(0), RecipientStatus.QUEUED, RecipientStatus.SENT);
+                if (claimed == 1) {
+                    CampaignRecipient recipient = recipients.get(invocation.<Long>getArgument(0));
+                    recipient.setAttempts(recipient.getAttempts() + 1);
+                } else {
+                    lostClaims.incrementAndGet();
+                }
+                return claimed;
+            }
+        });
+        when(repository.markAccepted(anyLong(), anyString())).thenAnswer(invocation -> {
+            synchronized (lock) {
+                int accepted = move(invocation.getArgument(0), RecipientStatus.SENT, RecipientStatus.ACCEPTED);
+                if (accepted == 1) {
+                    recipients.get(invocation.<Long>getArgument(0)).setCheckoutRequestId(invocation.getArgument(1));
+                }
+                return accepted;
+            }
+        });
+        when(repository.markSendFailed(anyLong(), anyString())).thenAnswer(invocation ->
+                move(invocation.getArgument(0), RecipientStatus.SENT, RecipientStatus.FAILED));
+        when(repository.transition(anyCollection(), any(), any())).thenAnswer(invocation -> {
+            Collection<Long> ids = invocation.getArgument(0);
+            int moved = 0;
+            for (Long id : ids) {
+                moved += move(id, invocation.getArgument(1), invocation.getArgument(2));
+            }
+            return moved;
+        });
+        when(repository.existsInStatus(anyLong(), anyCollection())).thenAnswer(invocation -> {
+            Collection<RecipientStatus> statuses = invocation.getArgument(1);
+            return recipients.values().stream().anyMatch(recipient -> statuses.contains(recipient.getStatus()));
+        });
+        when(repository.findInterrupted(anyLong(), any(LocalDateTime.class), any(Pageable.class))).thenAnswer(invocation -> {
+            LocalDateTime before = invocation.getArgument(1);
+            Pageable pageable = invocation.getArgument(2);
+            return inStatus(RecipientStatus.SENT).stream()
+                    .filter(recipient -> recipient.getUpdatedAt().isBefore(before))
+                    .limit(pageable.getPageSize())
+                    .toList();
+        });
+        when(repository.findByCheckoutRequestIdIn(anyCollection())).thenAnswer(invocation -> {
+            Collection<String> checkoutRequestIds = invocation.getArgument(0);
+            return new ArrayList<>(recipients.values().stream()
+                    .filter(recipient -> checkoutRequestIds.contains(recipient.getCheckoutRequestId()))
+                    .toList());
+        });
+        return repository;
+    }
+
+    private MpesaTransactionRepository transactionRepository() {
+        MpesaTransactionRepository repository = mock(MpesaTransactionRepository.class);
+        when(repository.findPushesSince(anyLong(), anyString(), any(), any(), any())).thenAnswer(invocation -> {
+            Long memberId = invocation.getArgument(0);
+            LocalDateTime since = invocation.getArgument(3);
+            return recordedPushes.stream()
+                    .filter(push -> push.getMemberId().equals(memberId) && !push.getCreatedAt().isBefore(since))
+                    .toList();
+        });
+        when(repository.findSettledStatus(anyString())).thenAnswer(invocation ->
+                Optional.ofNullable(settled.get(invocation.<String>getArgument(0))));
+        return repository;
+    }
+}
@@ -0,0 +1,97 @@
+package com.kuria.chama7v.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kuria.chama7v.dto.daraja.StkPushRequest;
+import com.kuria.chama7v.dto.daraja.StkPushResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-push serialization cost: the Map-based STK push path against {@link DarajaCodec}. Each
+ * operation encodes one request and decodes one response. Run with
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     com.kuria.chama7v.service.DarajaCodecBenchmark
+ * </pre>
+ * The gc profiler reports allocation per operation as {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DarajaCodecBenchmark {
+
+    private static final String SHORT_CODE = "174379";
+    private static final String CALLBACK_URL = "https://chama7v.example.com/api/mpesa/callback";
+    private static final TypeReference<Map<String, Object>> JSON_MAP = new TypeReference<>() {
+    };
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final DarajaCodec codec = new DarajaCodec(SHORT_CODE, CALLBACK_URL);
+
+    private final byte[] responseBody = """
+            {"MerchantRequestID":"29115-34620561-1","CheckoutRequestID":"ws_CO_191220191020363925",\
+            "ResponseCode":"0","ResponseDescription":"Success. Request accepted for processing",\
+            "CustomerMessage":"Success. Request accepted for processing"}""".getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public void mapBased(Blackhole blackhole) throws Exception {
+        Map<String, Object> request = new HashMap<>();
+        request.put("BusinessShortCode", SHORT_CODE);
+        request.put("Password", "MTc0Mzc5YmZiMjc5ZjlhYTliZGJjZjE1OGU5N2RkNzFhNDY3Y2QyZTBjODkzMDU5YjEwZjc4ZTZiNzJhZGExZWQyYzkxOTIwMjYxMDE4MTAxNTAw");
+        request.put("Timestamp", "20261018101500");
+        request.put("TransactionType", "CustomerPayBillOnline");
+        request.put("Amount", 1500);
+        request.put("PartyA", "254712345678");
+        request.put("PartyB", SHORT_CODE);
+        request.put("PhoneNumber", "254712345678");
+        request.put("CallBackURL", CALLBACK_URL);
+        request.put("AccountReference", "LN-42");
+        request.put("TransactionDesc", "Loan repayment");
+        blackhole.consume(objectMapper.writeValueAsBytes(request));
+
+        Map<String, Object> response = objectMapper.readValue(responseBody, JSON_MAP);
+        blackhole.consume(String.valueOf(response.get("ResponseCode")));
+        blackhole.consume((String) response.get("CheckoutRequestID"));
+        blackhole.consume((String) response.get("MerchantRequestID"));
+        blackhole.consume((String) response.get("ResponseDescription"));
+        blackhole.consume((String) response.get("CustomerMessage"));
+    }
+
+    @Benchmark
+    public void codec(Blackhole blackhole) {
+        StkPushRequest request = new StkPushRequest(
+                "MTc0Mzc5YmZiMjc5ZjlhYTliZGJjZjE1OGU5N2RkNzFhNDY3Y2QyZTBjODkzMDU5YjEwZjc4ZTZiNzJhZGExZWQyYzkxOTIwMjYxMDE4MTAxNTAw",
+                "20261018101500", 1500, "254712345678", "LN-42", "Loan repayment");
+        blackhole.consume(codec.encode(request));
+
+        StkPushResponse response = codec.decodeStkPushResponse(responseBody);
+        blackhole.consume(response);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(DarajaCodecBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
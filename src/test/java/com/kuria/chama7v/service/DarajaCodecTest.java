@@ -0,0 +1,110 @@
+package com.kuria.chama7v.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kuria.chama7v.dto.daraja.OAuthTokenResponse;
+import com.kuria.chama7v.dto.daraja.StkPushRequest;
+import com.kuria.chama7v.dto.daraja.StkPushResponse;
+import com.kuria.chama7v.dto.daraja.StkQueryRequest;
+import com.kuria.chama7v.dto.daraja.StkQueryResponse;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DarajaCodecTest {
+
+    private static final String CALLBACK_URL = "https://example.com/api/mpesa/callback?src=\"daraja\"";
+
+    private final DarajaCodec codec = new DarajaCodec("174379", CALLBACK_URL);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void stkPushMatchesTheMapBasedPayload() throws Exception {
+        StkPushRequest request = new StkPushRequest("cGFzc3dvcmQ=", "20261018101500", 1500,
+                "254712345678", "LN-42", "Loan repayment é");
+
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("BusinessShortCode", "174379");
+        expected.put("Password", "cGFzc3dvcmQ=");
+        expected.put("Timestamp", "20261018101500");
+        expected.put("TransactionType", "CustomerPayBillOnline");
+        expected.put("Amount", 1500);
+        expected.put("PartyA", "254712345678");
+        expected.put("PartyB", "174379");
+        expected.put("PhoneNumber", "254712345678");
+        expected.put("CallBackURL", CALLBACK_URL);
+        expected.put("AccountReference", "LN-42");
+        expected.put("TransactionDesc", "Loan repayment é");
+
+        assertEquals(objectMapper.valueToTree(expected), objectMapper.readTree(codec.encode(request)));
+    }
+
+    @Test
+    void stkQueryMatchesTheMapBasedPayload() throws Exception {
+        JsonNode encoded = objectMapper.readTree(codec.encode(
+                new StkQueryRequest("cGFzc3dvcmQ=", "20261018101500", "ws_CO_181020261015001234")));
+
+        assertEquals(objectMapper.valueToTree(Map.of(
+                "BusinessShortCode", "174379",
+                "Password", "cGFzc3dvcmQ=",
+                "Timestamp", "20261018101500",
+                "CheckoutRequestID", "ws_CO_181020261015001234")), encoded);
+    }
+
+    @Test
+    void decodesStkPushResponseAndSkipsUnknownFields() {
+        StkPushResponse response = codec.decodeStkPushResponse(bytes("""
+                {"MerchantRequestID":"29115-34620561-1","CheckoutRequestID":"ws_CO_191220191020363925",
+                 "Extra":{"nested":[1,2,{"a":null}]},"ResponseCode":"0",
+                 "ResponseDescription":"Success. Request accepted for processing",
+                 "CustomerMessage":"Success. Request accepted for processing"}"""));
+
+        assertTrue(response.isAccepted());
+        assertEquals("29115-34620561-1", response.merchantRequestId());
+        assertEquals("ws_CO_191220191020363925", response.checkoutRequestId());
+        assertEquals("Success. Request accepted for processing", response.customerMessage());
+    }
+
+    @Test
+    void decodesStkQueryResultCodeWhetherStringOrNumber() {
+        StkQueryResponse asString = codec.decodeStkQueryResponse(bytes("""
+                {"ResponseCode":"0","ResultCode":"1032","ResultDesc":"Request cancelled by user"}"""));
+        StkQueryResponse asNumber = codec.decodeStkQueryResponse(bytes("""
+                {"ResponseCode":0,"ResultCode":0,"ResultDesc":"ok"}"""));
+        StkQueryResponse pending = codec.decodeStkQueryResponse(bytes("""
+                {"ResponseCode":"0","ResponseDescription":"accepted"}"""));
+
+        assertEquals("1032", asString.resultCode());
+        assertTrue(asNumber.hasResult());
+        assertEquals("0", asNumber.resultCode());
+        assertFalse(pending.hasResult());
+        assertNull(pending.resultCode());
+    }
+
+    @Test
+    void decodesTokenResponse() {
+        OAuthTokenResponse token = codec.decodeTokenResponse(bytes("""
+                {"access_token":"c9SQxWWhmdVRlyh0zh8gZDTkubVF","expires_in":"3599"}"""));
+
+        assertEquals("c9SQxWWhmdVRlyh0zh8gZDTkubVF", token.accessToken());
+        assertEquals("3599", token.expiresIn());
+    }
+
+    @Test
+    void rejectsBodiesThatAreNotObjects() {
+        assertThrows(RuntimeException.class, () -> codec.decodeStkPushResponse(bytes("[]")));
+        assertThrows(RuntimeException.class, () -> codec.decodeStkPushResponse(bytes("{\"ResponseCode\":")));
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,139 @@
+package com.kuria.chama7v.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The rolling window, driven by calling {@code roll()} where the scheduler would: once the
+ * window holds ten samples the timeout is 1.5 × p99 clamped to 1–30 ms and the hedge delay p95,
+ * at least 1 ms, and each interval leaves the window two rolls after it closed. Latencies that
+ * are not clamped stay under 2048 µs, where the histogram records them exactly.
+ */
+class DarajaLatencyTrackerTest {
+
+    private static final Duration READ_TIMEOUT = Duration.ofMillis(30);
+
+    private final DarajaLatencyTracker tracker = tracker(true);
+
+    @Test
+    void appliesTheReadTimeoutAndNoHedgeUntilTheWindowHasEnoughSamples() {
+        record(DarajaClient.STK_PUSH, 1600, 9);
+        tracker.roll();
+
+        assertEquals(READ_TIMEOUT, tracker.timeout(DarajaClient.STK_PUSH));
+        assertNull(tracker.hedgeDelay(DarajaClient.STK_PUSH));
+    }
+
+    @Test
+    void derivesTheTimeoutFromP99AndTheHedgeDelayFromP95() {
+        record(DarajaClient.STK_PUSH, 400, 90);
+        record(DarajaClient.STK_PUSH, 1200, 8);
+        record(DarajaClient.STK_PUSH, 1600, 2);
+        tracker.roll();
+
+        assertEquals(micros(2400), tracker.timeout(DarajaClient.STK_PUSH));
+        assertEquals(micros(1200), tracker.hedgeDelay(DarajaClient.STK_PUSH));
+    }
+
+    @Test
+    void samplesOnlyCountOnceTheirIntervalIsRolledIn() {
+        tracker.roll();
+        record(DarajaClient.STK_PUSH, 1600, 20);
+
+        assertEquals(READ_TIMEOUT, tracker.timeout(DarajaClient.STK_PUSH));
+        tracker.roll();
+        assertEquals(micros(2400), tracker.timeout(DarajaClient.STK_PUSH));
+    }
+
+    @Test
+    void oldIntervalsLeaveTheWindow() {
+        record(DarajaClient.STK_QUERY, 1600, 20);
+        tracker.roll();
+        record(DarajaClient.STK_QUERY, 800, 20);
+        tracker.roll();
+        // Both intervals are in the window, so the slow one still sets p99
+        assertEquals(micros(2400), tracker.timeout(DarajaClient.STK_QUERY));
+
+        record(DarajaClient.STK_QUERY, 800, 20);
+        tracker.roll();
+        assertEquals(micros(1200), tracker.timeout(DarajaClient.STK_QUERY));
+
+        // Idle intervals empty the window and the read timeout applies again
+        tracker.roll();
+        tracker.roll();
+        assertEquals(READ_TIMEOUT, tracker.timeout(DarajaClient.STK_QUERY));
+    }
+
+    @Test
+    void clampsTheTimeoutAndHedgeDelayToTheirBounds() {
+        record(DarajaClient.OAUTH, 100, 20);
+        record(DarajaClient.B2C, 25_000, 20);
+        tracker.roll();
+
+        assertEquals(Duration.ofMillis(1), tracker.timeout(DarajaClient.OAUTH));
+        assertEquals(Duration.ofMillis(1), tracker.hedgeDelay(DarajaClient.OAUTH));
+        assertEquals(READ_TIMEOUT, tracker.timeout(DarajaClient.B2C));
+    }
+
+    @Test
+    void keepsEachEndpointsWindowSeparate() {
+        record(DarajaClient.STK_PUSH, 1600, 20);
+        tracker.roll();
+
+        assertEquals(micros(2400), tracker.timeout(DarajaClient.STK_PUSH));
+        assertEquals(READ_TIMEOUT, tracker.timeout(DarajaClient.STK_QUERY));
+        assertEquals(READ_TIMEOUT, tracker.timeout("c2b_register"));
+        assertNull(tracker.hedgeDelay("c2b_register"));
+    }
+
+    @Test
+    void hedgesAtMostTheBudgetedShareOfCalls() {
+        record(DarajaClient.STK_QUERY, 400, 20);
+        tracker.roll();
+
+        // Ten percent: each call earns a tenth of a hedge
+        for (int i = 0; i < 9; i++) {
+            tracker.hedgeDelay(DarajaClient.STK_QUERY);
+            assertFalse(tracker.tryHedge(DarajaClient.STK_QUERY));
+        }
+        tracker.hedgeDelay(DarajaClient.STK_QUERY);
+        assertTrue(tracker.tryHedge(DarajaClient.STK_QUERY));
+        assertFalse(tracker.tryHedge(DarajaClient.STK_QUERY));
+    }
+
+    @Test
+    void neverHedgesWhenHedgingIsOff() {
+        DarajaLatencyTracker unhedged = tracker(false);
+        for (int i = 0; i < 20; i++) {
+            unhedged.record(DarajaClient.STK_QUERY, 400_000);
+        }
+        unhedged.roll();
+
+        assertNull(unhedged.hedgeDelay(DarajaClient.STK_QUERY));
+        assertEquals(micros(1000), unhedged.timeout(DarajaClient.STK_QUERY));
+    }
+
+    private void record(String endpoint, long micros, int count) {
+        for (int i = 0; i < count; i++) {
+            tracker.record(endpoint, micros * 1000);
+        }
+    }
+
+    private static Duration micros(long micros) {
+        return Duration.of(micros, ChronoUnit.MICROS);
+    }
+
+    // Two-interval window, 1.5 x p99 clamped to 1-30 ms, hedge delay at least 1 ms, 10% budget
+    private static DarajaLatencyTracker tracker(boolean hedging) {
+        return new DarajaLatencyTracker(new SimpleMeterRegistry(), 2, 10, 1.5, 1, READ_TIMEOUT.toMillis(),
+                hedging, 1, 10);
+    }
+}
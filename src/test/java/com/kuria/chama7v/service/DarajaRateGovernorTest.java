@@ -0,0 +1,169 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.entity.enums.DarajaPriority;
+import com.kuria.chama7v.exception.DarajaUnavailableException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Token buckets on a clock the test moves by hand. At 1000 TPS a token is due every
+ * millisecond of that clock; the clock is moved a token and a half at a time, and with a burst
+ * of one that frees exactly one queued call. Drains still run on the governor's own thread, so
+ * a granted call is awaited rather than checked at once.
+ */
+class DarajaRateGovernorTest {
+
+    private static final double TPS = 1000;
+    private static final long TOKEN_AND_A_HALF = TimeUnit.MICROSECONDS.toNanos(1500);
+    private static final long INTERACTIVE_MAX_WAIT_MS = 100;
+    private static final long BATCH_MAX_WAIT_MS = 50;
+
+    private final AtomicLong clock = new AtomicLong(TimeUnit.SECONDS.toNanos(1));
+    private final List<DarajaRateGovernor> governors = new ArrayList<>();
+
+    @AfterEach
+    void stop() {
+        governors.forEach(DarajaRateGovernor::stop);
+    }
+
+    @Test
+    void eachApiHasItsOwnBucket() {
+        DarajaRateGovernor governor = governor(true, 1);
+
+        assertTrue(acquire(governor, DarajaClient.STK_PUSH, DarajaPriority.INTERACTIVE).isDone());
+        CompletableFuture<Void> queued = acquire(governor, DarajaClient.STK_PUSH, DarajaPriority.INTERACTIVE);
+
+        assertFalse(queued.isDone());
+        assertEquals(1, governor.queued(DarajaClient.STK_PUSH));
+        assertTrue(acquire(governor, DarajaClient.STK_QUERY, DarajaPriority.INTERACTIVE).isDone());
+        assertTrue(acquire(governor, DarajaClient.B2C, DarajaPriority.BATCH).isDone());
+        assertTrue(acquire(governor, DarajaClient.OAUTH, DarajaPriority.INTERACTIVE).isDone());
+        assertEquals(0, governor.queued(DarajaClient.STK_QUERY));
+    }
+
+    @Test
+    void burstIsServedAtOnceAndTheRestWaitsForTheRefill() throws Exception {
+        DarajaRateGovernor governor = governor(true, 3);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(acquire(governor, DarajaClient.STK_PUSH, DarajaPriority.INTERACTIVE).isDone());
+        }
+        CompletableFuture<Void> fourth = acquire(governor, DarajaClient.STK_PUSH, DarajaPriority.INTERACTIVE);
+        assertFalse(fourth.isDone());
+
+        clock.addAndGet(TOKEN_AND_A_HALF);
+
+        fourth.get(5, TimeUnit.SECONDS);
+        assertEquals(0, governor.queued(DarajaClient.STK_PUSH));
+    }
+
+    @Test
+    void idleBucketRefillsOnlyUpToTheBurst() {
+        DarajaRateGovernor governor = governor(true, 3);
+        for (int i = 0; i < 3; i++) {
+            acquire(governor, DarajaClient.STK_PUSH, DarajaPriority.INTERACTIVE);
+        }
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(60));
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(acquire(governor, DarajaClient.STK_PUSH, DarajaPriority.INTERACTIVE).isDone());
+        }
+        assertFalse(acquire(governor, DarajaClient.STK_PUSH, DarajaPriority.INTERACTIVE).isDone());
+    }
+
+    @Test
+    void interactiveCallsAreServedBeforeBatchOnesAndFifoWithinAPriority() throws Exception {
+        DarajaRateGovernor governor = governor(true, 1);
+        acquire(governor, DarajaClient.STK_PUSH, DarajaPriority.BATCH);
+        CompletableFuture<Void> batch = acquire(governor, DarajaClient.STK_PUSH, DarajaPriority.BATCH);
+        CompletableFuture<Void> firstInteractive = acquire(governor, DarajaClient.STK_PUSH, DarajaPriority.INTERACTIVE);
+        CompletableFuture<Void> secondInteractive = acquire(governor, DarajaClient.STK_PUSH, DarajaPriority.INTERACTIVE);
+
+        clock.addAndGet(TOKEN_AND_A_HALF);
+        firstInteractive.get(5, TimeUnit.SECONDS);
+        assertFalse(secondInteractive.isDone());
+        assertFalse(batch.isDone());
+
+        clock.addAndGet(TOKEN_AND_A_HALF);
+        secondInteractive.get(5, TimeUnit.SECONDS);
+        assertFalse(batch.isDone());
+
+        clock.addAndGet(TOKEN_AND_A_HALF);
+        batch.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void waitingCallsDoNotLetANewOneJumpTheQueue() throws Exception {
+        DarajaRateGovernor governor = governor(true, 1);
+        acquire(governor, DarajaClient.STK_PUSH, DarajaPriority.BATCH);
+        CompletableFuture<Void> waiting = acquire(governor, DarajaClient.STK_PUSH, DarajaPriority.BATCH);
+
+        // A token is due, but the waiting call has not been drained yet
+        clock.addAndGet(TOKEN_AND_A_HALF);
+        CompletableFuture<Void> late = acquire(governor, DarajaClient.STK_PUSH, DarajaPriority.BATCH);
+
+        waiting.get(5, TimeUnit.SECONDS);
+        assertFalse(late.isDone());
+    }
+
+    @Test
+    void callFailsOnceItHasWaitedLongerThanItsPriorityAllows() throws Exception {
+        DarajaRateGovernor governor = governor(true, 1);
+        acquire(governor, DarajaClient.B2C, DarajaPriority.INTERACTIVE);
+        CompletableFuture<Void> batch = acquire(governor, DarajaClient.B2C, DarajaPriority.BATCH);
+        CompletableFuture<Void> interactive = acquire(governor, DarajaClient.B2C, DarajaPriority.INTERACTIVE);
+
+        // Past the batch wait but within the interactive one; the one token due goes to the interactive call
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(BATCH_MAX_WAIT_MS + 10));
+
+        interactive.get(5, TimeUnit.SECONDS);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> batch.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(DarajaUnavailableException.class, e.getCause());
+        assertEquals(0, governor.queued(DarajaClient.B2C));
+    }
+
+    @Test
+    void disabledGovernorNeverQueues() {
+        DarajaRateGovernor governor = governor(false, 1);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(acquire(governor, DarajaClient.STK_PUSH, DarajaPriority.BATCH).isDone());
+        }
+        assertEquals(0, governor.queued(DarajaClient.STK_PUSH));
+    }
+
+    @Test
+    void unknownEndpointIsNotLimited() {
+        DarajaRateGovernor governor = governor(true, 1);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(acquire(governor, "c2b_register", DarajaPriority.BATCH).isDone());
+        }
+    }
+
+    private static CompletableFuture<Void> acquire(DarajaRateGovernor governor, String endpoint, DarajaPriority priority) {
+        return governor.acquire(endpoint, priority).toFuture();
+    }
+
+    private DarajaRateGovernor governor(boolean enabled, int burst) {
+        DarajaRateGovernor governor = new DarajaRateGovernor(new SimpleMeterRegistry(), enabled,
+                INTERACTIVE_MAX_WAIT_MS, BATCH_MAX_WAIT_MS, TPS, burst, TPS, burst, TPS, burst, TPS, burst, clock::get);
+        governors.add(governor);
+        return governor;
+    }
+}
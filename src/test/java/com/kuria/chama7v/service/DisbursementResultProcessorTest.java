@@ -0,0 +1,182 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.request.B2CResultRequest;
+import com.kuria.chama7v.entity.Loan;
+import com.kuria.chama7v.entity.LoanDisbursement;
+import com.kuria.chama7v.entity.enums.DisbursementStatus;
+import com.kuria.chama7v.entity.enums.LoanStatus;
+import com.kuria.chama7v.repository.LoanDisbursementRepository;
+import com.kuria.chama7v.repository.LoanRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * B2C results against the database: a late success for an attempt that has since been retried
+ * settles the payout, a second success is flagged rather than overwriting the first, and a
+ * failure only ever lands on the latest attempt while it still awaits a result. Results for two
+ * attempts in one batch stand in for two writers racing on the same row.
+ */
+@SpringBootTest(properties = "disbursement.dispatch.enabled=false")
+@ActiveProfiles("test")
+@Import(TestFixtures.class)
+class DisbursementResultProcessorTest {
+
+    @Autowired
+    private DisbursementResultProcessor resultProcessor;
+
+    @Autowired
+    private LoanRepository loanRepository;
+
+    @Autowired
+    private LoanDisbursementRepository disbursementRepository;
+
+    @Autowired
+    private TestFixtures fixtures;
+
+    @Test
+    void lateSuccessForAnEarlierAttemptSettlesTheRetriedPayout() {
+        LoanDisbursement disbursement = saveDisbursement(DisbursementStatus.QUEUED, 2);
+
+        int applied = resultProcessor.applyBatch(List.of(paid(attempt(disbursement, 1), "RCP1")));
+
+        assertEquals(1, applied);
+        LoanDisbursement settled = reload(disbursement);
+        assertEquals(DisbursementStatus.COMPLETED, settled.getStatus());
+        assertEquals(attempt(disbursement, 1), settled.getOriginatorConversationId());
+        assertEquals("RCP1", settled.getTransactionReceipt());
+        assertEquals(LoanStatus.DISBURSED, loanRepository.findById(disbursement.getLoan().getId()).orElseThrow().getStatus());
+    }
+
+    @Test
+    void secondSuccessIsFlaggedWithoutOverwritingTheFirst() {
+        LoanDisbursement disbursement = saveDisbursement(DisbursementStatus.SENT, 2);
+        resultProcessor.applyBatch(List.of(paid(attempt(disbursement, 1), "RCP1")));
+
+        int applied = resultProcessor.applyBatch(List.of(paid(attempt(disbursement, 2), "RCP2")));
+
+        assertEquals(1, applied);
+        LoanDisbursement settled = reload(disbursement);
+        assertEquals(DisbursementStatus.COMPLETED, settled.getStatus());
+        assertEquals("RCP1", settled.getTransactionReceipt());
+        assertEquals(attempt(disbursement, 1), settled.getOriginatorConversationId());
+        assertTrue(settled.getResultDesc().startsWith("Paid out twice"));
+    }
+
+    @Test
+    void redeliveredSuccessChangesNothing() {
+        LoanDisbursement disbursement = saveDisbursement(DisbursementStatus.ACCEPTED, 1);
+        resultProcessor.applyBatch(List.of(paid(attempt(disbursement, 1), "RCP1")));
+
+        int applied = resultProcessor.applyBatch(List.of(paid(attempt(disbursement, 1), "RCP1")));
+
+        assertEquals(0, applied);
+        LoanDisbursement settled = reload(disbursement);
+        assertEquals(DisbursementStatus.COMPLETED, settled.getStatus());
+        assertEquals("Paid", settled.getResultDesc());
+    }
+
+    @Test
+    void twoSuccessesInOneBatchSettleOnceAndFlagTheOther() {
+        LoanDisbursement disbursement = saveDisbursement(DisbursementStatus.UNCERTAIN, 2);
+
+        int applied = resultProcessor.applyBatch(List.of(
+                paid(attempt(disbursement, 1), "RCP1"),
+                paid(attempt(disbursement, 2), "RCP2")));
+
+        assertEquals(2, applied);
+        LoanDisbursement settled = reload(disbursement);
+        assertEquals(DisbursementStatus.COMPLETED, settled.getStatus());
+        assertEquals("RCP1", settled.getTransactionReceipt());
+        assertTrue(settled.getResultDesc().startsWith("Paid out twice"));
+    }
+
+    @Test
+    void failureForTheLatestAttemptFailsThePayout() {
+        LoanDisbursement disbursement = saveDisbursement(DisbursementStatus.ACCEPTED, 1);
+
+        int applied = resultProcessor.applyBatch(List.of(failed(attempt(disbursement, 1))));
+
+        assertEquals(1, applied);
+        LoanDisbursement failed = reload(disbursement);
+        assertEquals(DisbursementStatus.FAILED, failed.getStatus());
+        assertEquals("2001", failed.getResultCode());
+        assertEquals(LoanStatus.APPROVED, loanRepository.findById(disbursement.getLoan().getId()).orElseThrow().getStatus());
+    }
+
+    @Test
+    void failureForAnEarlierAttemptLeavesTheRetryAlone() {
+        LoanDisbursement disbursement = saveDisbursement(DisbursementStatus.SENT, 2);
+
+        int applied = resultProcessor.applyBatch(List.of(failed(attempt(disbursement, 1))));
+
+        assertEquals(0, applied);
+        LoanDisbursement retried = reload(disbursement);
+        assertEquals(DisbursementStatus.SENT, retried.getStatus());
+        assertNull(retried.getResultCode());
+    }
+
+    @Test
+    void failureNeverOverwritesACompletedPayout() {
+        LoanDisbursement disbursement = saveDisbursement(DisbursementStatus.SENT, 2);
+
+        // Read as SENT, but settled by the earlier attempt's result first in the same batch
+        int applied = resultProcessor.applyBatch(List.of(
+                paid(attempt(disbursement, 1), "RCP1"),
+                failed(attempt(disbursement, 2))));
+
+        assertEquals(1, applied);
+        LoanDisbursement settled = reload(disbursement);
+        assertEquals(DisbursementStatus.COMPLETED, settled.getStatus());
+        assertEquals("RCP1", settled.getTransactionReceipt());
+        assertEquals("0", settled.getResultCode());
+    }
+
+    private LoanDisbursement reload(LoanDisbursement disbursement) {
+        return disbursementRepository.findById(disbursement.getId()).orElseThrow();
+    }
+
+    private static String attempt(LoanDisbursement disbursement, int attempt) {
+        return DisbursementDispatcher.originatorConversationId(disbursement.getId(), attempt);
+    }
+
+    private static B2CResultRequest.Result paid(String originatorConversationId, String receipt) {
+        B2CResultRequest.Result result = result(originatorConversationId, 0, "Paid");
+        result.setTransactionID(receipt);
+        return result;
+    }
+
+    private static B2CResultRequest.Result failed(String originatorConversationId) {
+        return result(originatorConversationId, 2001, "The initiator information is invalid.");
+    }
+
+    private static B2CResultRequest.Result result(String originatorConversationId, int resultCode, String resultDesc) {
+        B2CResultRequest.Result result = new B2CResultRequest.Result();
+        result.setResultType(0);
+        result.setResultCode(resultCode);
+        result.setResultDesc(resultDesc);
+        result.setOriginatorConversationID(originatorConversationId);
+        result.setConversationID("AG_" + originatorConversationId);
+        return result;
+    }
+
+    // A payout on its given attempt, as the dispatcher leaves it
+    private LoanDisbursement saveDisbursement(DisbursementStatus status, int attempts) {
+        Loan loan = fixtures.newLoan(fixtures.saveMember(), new BigDecimal("10000.00"), LoanStatus.APPROVED);
+        loan.setApprovalDate(LocalDateTime.now());
+        LoanDisbursement disbursement = fixtures.saveDisbursement(loanRepository.save(loan), status);
+        disbursement.setAttempts(attempts);
+        disbursement.setOriginatorConversationId(attempt(disbursement, attempts));
+        return disbursementRepository.save(disbursement);
+    }
+}
@@ -0,0 +1,143 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.Chama7vApplication;
+import com.kuria.chama7v.entity.Loan;
+import com.kuria.chama7v.entity.LoanAccrualRun;
+import com.kuria.chama7v.entity.LoanInstallment;
+import com.kuria.chama7v.entity.Member;
+import com.kuria.chama7v.entity.enums.LoanStatus;
+import com.kuria.chama7v.entity.enums.MemberStatus;
+import com.kuria.chama7v.repository.LoanAccrualRunRepository;
+import com.kuria.chama7v.repository.LoanInstallmentRepository;
+import com.kuria.chama7v.repository.LoanRepository;
+import com.kuria.chama7v.repository.MemberRepository;
+import com.kuria.chama7v.util.LoanCalculator;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * A timed accrual run over a seeded portfolio, against the nightly batch's target of 100,000
+ * loans in minutes. It boots the application with the test profile, which means in-memory H2
+ * unless a datasource is passed. It then seeds {@code -Dloans} disbursed loans (100,000 by
+ * default) with their schedules, approved one to eleven months ago so most have installments
+ * past grace, and times {@link LoanAccrualBatch#runFor} for yesterday. Run like
+ * {@code DarajaCodecBenchmark}:
+ * <pre>
+ * java -Dloans=100000 -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     com.kuria.chama7v.service.LoanAccrualBatchBenchmark \
+ *     [--spring.datasource.url=... --loan-accrual.workers=8 --loan-accrual.chunk-size=1000]
+ * </pre>
+ * Seeding goes through the repositories and is timed separately from the run. Against MySQL,
+ * point it at an empty schema, since a date that has already run finishes at once.
+ */
+public class LoanAccrualBatchBenchmark {
+
+    // Member numbers are four characters, so the book is spread over at most a thousand members
+    private static final int MEMBERS = 1000;
+    private static final BigDecimal RATE = new BigDecimal("12.00");
+
+    public static void main(String[] args) {
+        int loans = Integer.getInteger("loans", 100_000);
+        String[] arguments = Stream.concat(
+                Stream.of("--spring.main.web-application-type=none", "--loan-accrual.enabled=false"),
+                Stream.of(args)).toArray(String[]::new);
+
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(Chama7vApplication.class)
+                .profiles("test")
+                .run(arguments)) {
+            LocalDate date = LocalDate.now().minusDays(1);
+            LoanAccrualRunRepository runRepository = context.getBean(LoanAccrualRunRepository.class);
+            if (runRepository.findByBusinessDate(date).isPresent()) {
+                throw new IllegalStateException("Accruals for " + date + " have already run in this database");
+            }
+
+            long seedStarted = System.nanoTime();
+            int installments = seed(context, loans);
+            System.out.printf("Seeded %,d loans with %,d installments in %.1f s%n",
+                    loans, installments, seconds(System.nanoTime() - seedStarted));
+
+            long started = System.nanoTime();
+            boolean completed = context.getBean(LoanAccrualBatch.class).runFor(date);
+            double elapsed = seconds(System.nanoTime() - started);
+
+            LoanAccrualRun run = runRepository.findByBusinessDate(date).orElseThrow();
+            Environment environment = context.getEnvironment();
+            System.out.printf("Accrual for %s %s in %.1f s: %,d loans (%,.0f a second), %d chunks of %s on %s workers, "
+                            + "%s accrued, %s in penalties%n",
+                    date, completed ? "completed" : "did not complete", elapsed, run.getLoansProcessed(),
+                    run.getLoansProcessed() / elapsed, run.getChunksDone(),
+                    environment.getProperty("loan-accrual.chunk-size", "500"),
+                    environment.getProperty("loan-accrual.workers", "4"),
+                    run.getInterestAccrued(), run.getPenaltiesCharged());
+        }
+    }
+
+    // One member at a time, each with an equal share of the loans; returns the installments saved
+    private static int seed(ConfigurableApplicationContext context, int loans) {
+        MemberRepository memberRepository = context.getBean(MemberRepository.class);
+        LoanRepository loanRepository = context.getBean(LoanRepository.class);
+        LoanInstallmentRepository installmentRepository = context.getBean(LoanInstallmentRepository.class);
+        RepaymentAllocator repaymentAllocator = context.getBean(RepaymentAllocator.class);
+        LoanCalculator loanCalculator = context.getBean(LoanCalculator.class);
+
+        Random random = new Random(20261018);
+        int perMember = (loans + MEMBERS - 1) / MEMBERS;
+        int installments = 0;
+        for (int m = 0, seeded = 0; seeded < loans; m++) {
+            Member member = memberRepository.save(member(m));
+            List<Loan> batch = new ArrayList<>();
+            for (int i = 0; i < perMember && seeded < loans; i++, seeded++) {
+                batch.add(loan(member, i, random, loanCalculator));
+            }
+            List<LoanInstallment> schedules = new ArrayList<>();
+            for (Loan loan : loanRepository.saveAll(batch)) {
+                schedules.addAll(repaymentAllocator.buildInstallments(loan));
+            }
+            installmentRepository.saveAll(schedules);
+            installments += schedules.size();
+        }
+        return installments;
+    }
+
+    private static Member member(int n) {
+        Member member = new Member();
+        member.setMemberNumber(String.format("B%03d", n));
+        member.setNationalId(String.valueOf(45_000_000 + n));
+        member.setName("Borrower " + n);
+        member.setEmail("borrower" + n + "@chama7v.com");
+        member.setPhone(String.format("0715%06d", n));
+        member.setStatus(MemberStatus.ACTIVE);
+        return member;
+    }
+
+    private static Loan loan(Member member, int n, Random random, LoanCalculator loanCalculator) {
+        BigDecimal amount = BigDecimal.valueOf(5_000 + random.nextInt(195_000)).setScale(2);
+        LoanCalculator.LoanCalculation calculation = loanCalculator.calculateLoan(amount, RATE, 12);
+        Loan loan = new Loan();
+        loan.setMember(member);
+        loan.setLoanNumber("LN" + member.getMemberNumber() + "-" + n);
+        loan.setAmount(amount);
+        loan.setInterestRate(RATE);
+        loan.setDurationMonths(12);
+        loan.setMonthlyPayment(calculation.getMonthlyPayment());
+        loan.setTotalAmount(calculation.getTotalAmount());
+        loan.setBalance(calculation.getTotalAmount());
+        loan.setPurpose("Stock");
+        loan.setStatus(LoanStatus.DISBURSED);
+        loan.setApprovalDate(LocalDate.now().minusMonths(1 + random.nextInt(11)).atTime(10, 0));
+        return loan;
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,222 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.entity.Loan;
+import com.kuria.chama7v.entity.LoanAccrualChunk;
+import com.kuria.chama7v.entity.LoanAccrualRun;
+import com.kuria.chama7v.entity.LoanCharge;
+import com.kuria.chama7v.entity.LoanInstallment;
+import com.kuria.chama7v.entity.Member;
+import com.kuria.chama7v.entity.enums.AccrualRunStatus;
+import com.kuria.chama7v.entity.enums.DisbursementStatus;
+import com.kuria.chama7v.entity.enums.LoanChargeType;
+import com.kuria.chama7v.entity.enums.LoanStatus;
+import com.kuria.chama7v.repository.LoanAccrualChunkRepository;
+import com.kuria.chama7v.repository.LoanAccrualRunRepository;
+import com.kuria.chama7v.repository.LoanChargeRepository;
+import com.kuria.chama7v.repository.LoanInstallmentRepository;
+import com.kuria.chama7v.repository.LoanRepository;
+import com.kuria.chama7v.repository.MemberRepository;
+import com.kuria.chama7v.util.LoanCalculator;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The accrual batch against the database: the amounts it posts for a day, that a day is never
+ * charged twice, and that a run abandoned part-way is taken over once stale and finished without
+ * touching the chunks it had already posted. Approved loans whose payout is still outstanding
+ * accrue nothing. Each test uses its own business dates, as runs are unique per date.
+ */
+@SpringBootTest(properties = {"loan-accrual.enabled=false", "loan-accrual.chunk-size=10"})
+@ActiveProfiles("test")
+@Import(TestFixtures.class)
+class LoanAccrualBatchTest {
+
+    private static final LocalDateTime APPROVED = LocalDateTime.of(2025, 1, 15, 10, 0);
+
+    @Autowired
+    private LoanAccrualBatch accrualBatch;
+
+    @Autowired
+    private RepaymentAllocator repaymentAllocator;
+
+    @Autowired
+    private MemberRepository memberRepository;
+
+    @Autowired
+    private LoanRepository loanRepository;
+
+    @Autowired
+    private LoanInstallmentRepository installmentRepository;
+
+    @Autowired
+    private LoanChargeRepository chargeRepository;
+
+    @Autowired
+    private LoanAccrualRunRepository runRepository;
+
+    @Autowired
+    private LoanAccrualChunkRepository chunkRepository;
+
+    @Autowired
+    private TestFixtures fixtures;
+
+    @Test
+    void chargesTheDaysInterestAndPenaltyOnce() {
+        Member member = saveMember();
+        Loan loan = saveDisbursedLoan(member);
+        BigDecimal balance = loan.getBalance();
+        BigDecimal outstanding = memberRepository.findById(member.getId()).orElseThrow().getOutstandingLoan();
+        List<LoanInstallment> schedule = installmentRepository.findByLoanIdOrderByInstallmentNumberAsc(loan.getId());
+        LoanInstallment first = schedule.get(0);
+        LoanInstallment second = schedule.get(1);
+
+        // Installment 1 fell due on 15 February and is past its three days' grace; the day is the
+        // tenth of installment 2's 28-day period
+        LocalDate date = LocalDate.of(2025, 2, 25);
+        assertTrue(accrualBatch.runFor(date));
+
+        long interestCents = LoanCalculator.toCents(second.getInterestAmount());
+        BigDecimal accrual = LoanCalculator.fromCents(interestCents * 10 / 28 - interestCents * 9 / 28);
+        BigDecimal penalty = first.getInterestAmount().add(first.getPrincipalAmount())
+                .multiply(new BigDecimal("0.1")).divide(BigDecimal.valueOf(100), 2, RoundingMode.HALF_UP);
+        Map<LoanChargeType, LoanCharge> charges = chargesOn(loan, date);
+        assertEquals(accrual, charges.get(LoanChargeType.INTEREST_ACCRUAL).getAmount());
+        assertEquals(2, charges.get(LoanChargeType.INTEREST_ACCRUAL).getInstallmentNumber());
+        assertEquals(penalty, charges.get(LoanChargeType.PENALTY).getAmount());
+        assertEquals(1, charges.get(LoanChargeType.PENALTY).getInstallmentNumber());
+
+        // The penalty is new debt on the loan, its oldest overdue installment and the member;
+        // the accrual is already part of the balance
+        assertEquals(balance.add(penalty), loanRepository.findById(loan.getId()).orElseThrow().getBalance());
+        assertEquals(penalty, installmentRepository.findById(first.getId()).orElseThrow().getPenaltyAmount());
+        assertEquals(0, installmentRepository.findById(second.getId()).orElseThrow().getPenaltyAmount().signum());
+        assertEquals(outstanding.add(penalty), memberRepository.findById(member.getId()).orElseThrow().getOutstandingLoan());
+
+        // Running the day again, even with its run record gone, charges nothing more
+        assertTrue(accrualBatch.runFor(date));
+        LoanAccrualRun run = runRepository.findByBusinessDate(date).orElseThrow();
+        chunkRepository.deleteAll(chunkRepository.findAll().stream()
+                .filter(chunk -> chunk.getRunId().equals(run.getId())).toList());
+        runRepository.delete(run);
+        assertTrue(accrualBatch.runFor(date));
+
+        assertEquals(2, chargeRepository.findByLoanIdOrderByChargeDateAscTypeAsc(loan.getId()).size());
+        assertEquals(balance.add(penalty), loanRepository.findById(loan.getId()).orElseThrow().getBalance());
+        assertEquals(penalty, installmentRepository.findById(first.getId()).orElseThrow().getPenaltyAmount());
+        assertEquals(outstanding.add(penalty), memberRepository.findById(member.getId()).orElseThrow().getOutstandingLoan());
+    }
+
+    @Test
+    void takesOverAStaleRunAndFinishesOnlyWhatWasLeft() {
+        Member member = saveMember();
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            ids.add(saveDisbursedLoan(member).getId());
+        }
+
+        // Crashed after scanning two chunks, of which it had posted only the second
+        LocalDate date = LocalDate.of(2025, 2, 26);
+        LoanAccrualRun crashed = new LoanAccrualRun();
+        crashed.setBusinessDate(date);
+        crashed.setStartedAt(LocalDateTime.now().minusHours(1));
+        crashed.setHeartbeatAt(LocalDateTime.now().minusMinutes(10));
+        crashed.setScannedThroughId(ids.get(19));
+        crashed = runRepository.save(crashed);
+        saveChunk(crashed, ids.get(0), ids.get(9), false);
+        saveChunk(crashed, ids.get(10), ids.get(19), true);
+
+        assertTrue(accrualBatch.runFor(date));
+
+        for (int i = 0; i < ids.size(); i++) {
+            int charges = chargeRepository.findByLoanIdOrderByChargeDateAscTypeAsc(ids.get(i)).size();
+            assertEquals(i >= 10 && i < 20 ? 0 : 2, charges, "loan " + i);
+        }
+        assertEquals(AccrualRunStatus.COMPLETED, runRepository.findById(crashed.getId()).orElseThrow().getStatus());
+    }
+
+    @Test
+    void leavesARunWithAFreshHeartbeatToItsOwner() {
+        Member member = saveMember();
+        Loan loan = saveDisbursedLoan(member);
+
+        LocalDate date = LocalDate.of(2025, 2, 27);
+        LoanAccrualRun live = new LoanAccrualRun();
+        live.setBusinessDate(date);
+        live.setStartedAt(LocalDateTime.now());
+        live.setHeartbeatAt(LocalDateTime.now());
+        runRepository.save(live);
+
+        assertFalse(accrualBatch.runFor(date));
+        assertTrue(chargeRepository.findByLoanIdOrderByChargeDateAscTypeAsc(loan.getId()).isEmpty());
+    }
+
+    @Test
+    void skipsApprovedLoansWhosePayoutHasNotCompleted() {
+        Member member = saveMember();
+        Loan queued = saveLoan(member, LoanStatus.APPROVED);
+        fixtures.saveDisbursement(queued, DisbursementStatus.QUEUED);
+        Loan uncertain = saveLoan(member, LoanStatus.APPROVED);
+        fixtures.saveDisbursement(uncertain, DisbursementStatus.UNCERTAIN);
+        Loan paidByHand = saveLoan(member, LoanStatus.APPROVED);
+        Loan paidOut = saveLoan(member, LoanStatus.DISBURSED);
+        fixtures.saveDisbursement(paidOut, DisbursementStatus.COMPLETED);
+
+        assertTrue(accrualBatch.runFor(LocalDate.of(2025, 2, 28)));
+
+        assertTrue(chargeRepository.findByLoanIdOrderByChargeDateAscTypeAsc(queued.getId()).isEmpty());
+        assertTrue(chargeRepository.findByLoanIdOrderByChargeDateAscTypeAsc(uncertain.getId()).isEmpty());
+        assertEquals(2, chargeRepository.findByLoanIdOrderByChargeDateAscTypeAsc(paidByHand.getId()).size());
+        assertEquals(2, chargeRepository.findByLoanIdOrderByChargeDateAscTypeAsc(paidOut.getId()).size());
+    }
+
+    private Map<LoanChargeType, LoanCharge> chargesOn(Loan loan, LocalDate date) {
+        return chargeRepository.findByLoanIdOrderByChargeDateAscTypeAsc(loan.getId()).stream()
+                .filter(charge -> charge.getChargeDate().equals(date))
+                .collect(Collectors.toMap(LoanCharge::getType, charge -> charge));
+    }
+
+    private void saveChunk(LoanAccrualRun run, long firstLoanId, long lastLoanId, boolean done) {
+        LoanAccrualChunk chunk = new LoanAccrualChunk();
+        chunk.setRunId(run.getId());
+        chunk.setFirstLoanId(firstLoanId);
+        chunk.setLastLoanId(lastLoanId);
+        chunk.setDone(done);
+        chunkRepository.save(chunk);
+    }
+
+    // Already owing on earlier loans, so the tests can see a penalty added to what they owe
+    private Member saveMember() {
+        Member member = fixtures.newMember();
+        member.setOutstandingLoan(new BigDecimal("1000.00"));
+        return memberRepository.save(member);
+    }
+
+    private Loan saveDisbursedLoan(Member member) {
+        return saveLoan(member, LoanStatus.DISBURSED);
+    }
+
+    // Approved on a fixed date, with its schedule stored
+    private Loan saveLoan(Member member, LoanStatus status) {
+        Loan loan = fixtures.newLoan(member, new BigDecimal("12000.00"), status);
+        loan.setApprovalDate(APPROVED);
+        loan = loanRepository.save(loan);
+        installmentRepository.saveAll(repaymentAllocator.buildInstallments(loan));
+        return loan;
+    }
+}
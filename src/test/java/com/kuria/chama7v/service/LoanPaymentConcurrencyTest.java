@@ -0,0 +1,203 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.request.ContributionRequest;
+import com.kuria.chama7v.entity.Loan;
+import com.kuria.chama7v.entity.LoanInstallment;
+import com.kuria.chama7v.entity.LoanPayment;
+import com.kuria.chama7v.entity.Member;
+import com.kuria.chama7v.entity.enums.LoanStatus;
+import com.kuria.chama7v.repository.LoanInstallmentRepository;
+import com.kuria.chama7v.repository.LoanPaymentRepository;
+import com.kuria.chama7v.repository.LoanRepository;
+import com.kuria.chama7v.repository.MemberRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Many writers on one loan or one member at once: every payment and contribution must show up in
+ * the balances exactly once, and a loan approved by several people at once only once. Also that
+ * a payment on a loan approved before schedules were stored is counted once in the schedule it
+ * draws up.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@Import(TestFixtures.class)
+class LoanPaymentConcurrencyTest {
+
+    private static final int PARALLEL = 100;
+    private static final String APPROVER = "admin@chama7v.com";
+
+    @Autowired
+    private LoanService loanService;
+
+    @Autowired
+    private ContributionService contributionService;
+
+    @Autowired
+    private MemberRepository memberRepository;
+
+    @Autowired
+    private LoanRepository loanRepository;
+
+    @Autowired
+    private LoanPaymentRepository loanPaymentRepository;
+
+    @Autowired
+    private LoanInstallmentRepository installmentRepository;
+
+    @Autowired
+    private RepaymentAllocator repaymentAllocator;
+
+    @Autowired
+    private TestFixtures fixtures;
+
+    @Test
+    void parallelPaymentsOnOneLoanAreAllApplied() throws Exception {
+        Member member = fixtures.saveMember();
+        Loan loan = fixtures.saveLoan(member, new BigDecimal("60000.00"), LoanStatus.PENDING);
+        authenticate(APPROVER);
+        loanService.approveLoan(loan.getId());
+        BigDecimal balanceBefore = loanRepository.findById(loan.getId()).orElseThrow().getBalance();
+        BigDecimal payment = new BigDecimal("250.00");
+
+        List<Throwable> failures = runInParallel(i -> loanService.makeLoanPayment(loan.getId(), payment));
+
+        assertEquals(List.of(), failures);
+        BigDecimal total = payment.multiply(BigDecimal.valueOf(PARALLEL));
+        Loan paid = loanRepository.findById(loan.getId()).orElseThrow();
+        assertEquals(0, balanceBefore.subtract(total).compareTo(paid.getBalance()));
+        assertEquals(0, total.compareTo(paid.getAmountPaid()));
+        assertEquals(0, new BigDecimal("60000.00").subtract(total)
+                .compareTo(memberRepository.findById(member.getId()).orElseThrow().getOutstandingLoan()));
+
+        BigDecimal allocated = BigDecimal.ZERO;
+        for (LoanInstallment installment : installmentRepository.findByLoanIdOrderByInstallmentNumberAsc(loan.getId())) {
+            allocated = allocated.add(installment.getPenaltyPaid()).add(installment.getInterestPaid())
+                    .add(installment.getPrincipalPaid());
+        }
+        assertEquals(0, total.compareTo(allocated));
+        assertEquals(PARALLEL, loanPaymentRepository.findAll().stream()
+                .filter(p -> p.getLoan().getId().equals(loan.getId()))
+                .count());
+    }
+
+    @Test
+    void parallelContributionsAreAllCounted() throws Exception {
+        Member member = fixtures.saveMember();
+        ContributionRequest request = new ContributionRequest();
+        request.setAmount(new BigDecimal("100.00"));
+
+        List<Throwable> failures = runInParallel(i -> {
+            authenticate(member.getEmail());
+            contributionService.makeContribution(request);
+        });
+
+        assertEquals(List.of(), failures);
+        assertEquals(0, new BigDecimal("10000.00")
+                .compareTo(memberRepository.findById(member.getId()).orElseThrow().getTotalContributions()));
+    }
+
+    @Test
+    void parallelApprovalsApproveOnce() throws Exception {
+        Member member = fixtures.saveMember();
+        Loan loan = fixtures.saveLoan(member, new BigDecimal("20000.00"), LoanStatus.PENDING);
+
+        List<Throwable> failures = runInParallel(i -> {
+            authenticate(APPROVER);
+            loanService.approveLoan(loan.getId());
+        });
+
+        assertEquals(PARALLEL - 1, failures.size());
+        failures.forEach(failure -> assertInstanceOf(IllegalArgumentException.class, failure));
+        assertEquals(LoanStatus.APPROVED, loanRepository.findById(loan.getId()).orElseThrow().getStatus());
+        assertEquals(0, new BigDecimal("20000.00")
+                .compareTo(memberRepository.findById(member.getId()).orElseThrow().getOutstandingLoan()));
+        assertEquals(loan.getDurationMonths(),
+                installmentRepository.findByLoanIdOrderByInstallmentNumberAsc(loan.getId()).size());
+    }
+
+    @Test
+    void paymentOnALoanWithoutAStoredScheduleIsAllocatedOnce() {
+        Member member = fixtures.saveMember();
+        Loan legacy = fixtures.newLoan(member, new BigDecimal("24000.00"), LoanStatus.APPROVED);
+        legacy.setApprovalDate(LocalDateTime.now().minusMonths(3));
+        List<LoanInstallment> schedule = repaymentAllocator.buildInstallments(legacy);
+        BigDecimal paidBefore = schedule.get(0).getAmountDue().add(schedule.get(1).getAmountDue())
+                .add(new BigDecimal("100.00"));
+        legacy.setAmountPaid(paidBefore);
+        legacy.setBalance(legacy.getTotalAmount().subtract(paidBefore));
+        Loan loan = loanRepository.save(legacy);
+        BigDecimal payment = new BigDecimal("50.00");
+
+        loanService.makeLoanPayment(loan.getId(), payment);
+
+        List<LoanInstallment> installments = installmentRepository.findByLoanIdOrderByInstallmentNumberAsc(loan.getId());
+        assertEquals(loan.getDurationMonths(), installments.size());
+        BigDecimal allocated = BigDecimal.ZERO;
+        for (LoanInstallment installment : installments) {
+            allocated = allocated.add(installment.getPenaltyPaid()).add(installment.getInterestPaid())
+                    .add(installment.getPrincipalPaid());
+        }
+        assertEquals(0, paidBefore.add(payment).compareTo(allocated));
+        assertEquals(0, new BigDecimal("150.00").compareTo(installments.get(2).getInterestPaid()
+                .add(installments.get(2).getPrincipalPaid())));
+        LoanPayment recorded = loanPaymentRepository.findAll().stream()
+                .filter(p -> p.getLoan().getId().equals(loan.getId()))
+                .findFirst().orElseThrow();
+        assertEquals(0, payment.compareTo(recorded.getInterestAmount().add(recorded.getPrincipalAmount())));
+        BigDecimal interestDue = schedule.get(2).getInterestAmount();
+        assertEquals(0, interestDue.min(new BigDecimal("150.00")).subtract(interestDue.min(new BigDecimal("100.00")))
+                .compareTo(recorded.getInterestAmount()));
+    }
+
+    // Starts every task at once and returns what they threw
+    private List<Throwable> runInParallel(IntConsumer task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(PARALLEL);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < PARALLEL; i++) {
+            int index = i;
+            futures.add(executor.submit(() -> {
+                start.await();
+                authenticate(APPROVER);
+                task.accept(index);
+                return null;
+            }));
+        }
+        start.countDown();
+        List<Throwable> failures = new ArrayList<>();
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (java.util.concurrent.ExecutionException e) {
+                failures.add(e.getCause());
+            }
+        }
+        executor.shutdown();
+        return failures;
+    }
+
+    private static void authenticate(String email) {
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(email, null, List.of()));
+    }
+}
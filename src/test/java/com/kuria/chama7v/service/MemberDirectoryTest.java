@@ -0,0 +1,69 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.entity.Member;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The directory follows member changes as they commit, without waiting for the periodic reload:
+ * a suspended or deleted member stops resolving for Paybill payments and a reactivated one
+ * resolves again, by member number and by phone.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@Import(TestFixtures.class)
+class MemberDirectoryTest {
+
+    @Autowired
+    private MemberDirectory memberDirectory;
+
+    @Autowired
+    private MemberService memberService;
+
+    @Autowired
+    private TestFixtures fixtures;
+
+    @Test
+    void suspendedMemberStopsResolvingUntilReactivated() {
+        Member member = fixtures.saveMember();
+        memberDirectory.reload();
+        assertEquals(Optional.of(member.getId()), memberDirectory.resolve(member.getMemberNumber(), null));
+
+        memberService.suspendMember(member.getId());
+
+        assertEquals(Optional.empty(), memberDirectory.resolve(member.getMemberNumber(), null));
+        assertEquals(Optional.empty(), memberDirectory.resolve(null, member.getPhone()));
+
+        memberService.activateMember(member.getId());
+
+        assertEquals(Optional.of(member.getId()), memberDirectory.resolve(member.getMemberNumber(), null));
+        assertEquals(Optional.of(member.getId()), memberDirectory.resolve(null, member.getPhone()));
+    }
+
+    @Test
+    void suspendedMemberIsLeftOutOfAFullReload() {
+        Member member = fixtures.saveMember();
+        memberService.suspendMember(member.getId());
+
+        memberDirectory.reload();
+
+        assertEquals(Optional.empty(), memberDirectory.resolve(member.getMemberNumber(), member.getPhone()));
+    }
+
+    @Test
+    void deletedMemberStopsResolving() {
+        Member member = fixtures.saveMember();
+        memberDirectory.reload();
+
+        memberService.deleteMember(member.getId());
+
+        assertEquals(Optional.empty(), memberDirectory.resolve(member.getMemberNumber(), member.getPhone()));
+    }
+}
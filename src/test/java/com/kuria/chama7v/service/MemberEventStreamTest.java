@@ -0,0 +1,141 @@
+package com.kuria.chama7v.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kuria.chama7v.controller.EventStreamController;
+import com.kuria.chama7v.entity.Member;
+import com.kuria.chama7v.event.AccountChangedEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+/**
+ * Connections leave the registry however they end: completed, timed out or failed by the
+ * container, or found dead when an event or heartbeat is written to them. The container's async
+ * listeners are fired by hand, and events are written on the calling thread.
+ */
+class MemberEventStreamTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MemberEventStream eventStream = new MemberEventStream(new ObjectMapper(), Runnable::run, meterRegistry);
+    private final MemberService memberService = mock(MemberService.class);
+    private final MockMvc mockMvc = MockMvcBuilders
+            .standaloneSetup(new EventStreamController(eventStream, memberService))
+            .build();
+
+    @BeforeEach
+    void configure() {
+        ReflectionTestUtils.setField(eventStream, "timeoutMs", 60_000L);
+        ReflectionTestUtils.setField(eventStream, "replaySize", 50);
+        ReflectionTestUtils.setField(eventStream, "connectionBuffer", 100);
+        ReflectionTestUtils.setField(eventStream, "maxConnectionsPerMember", 5);
+        ReflectionTestUtils.setField(eventStream, "idleRetentionMinutes", 10L);
+    }
+
+    @Test
+    void connectingRegistersEachConnection() throws Exception {
+        open(1L);
+        open(1L);
+        open(2L);
+
+        assertEquals(3, connections());
+    }
+
+    @Test
+    void completedConnectionIsRemoved() throws Exception {
+        MockAsyncContext first = open(3L);
+        open(3L);
+
+        for (AsyncListener listener : first.getListeners()) {
+            listener.onComplete(new AsyncEvent(first));
+        }
+
+        assertEquals(1, connections());
+    }
+
+    @Test
+    void timedOutConnectionIsRemoved() throws Exception {
+        MockAsyncContext connection = open(4L);
+
+        for (AsyncListener listener : connection.getListeners()) {
+            listener.onTimeout(new AsyncEvent(connection));
+        }
+
+        assertEquals(0, connections());
+    }
+
+    @Test
+    void failedConnectionIsRemoved() throws Exception {
+        MockAsyncContext connection = open(5L);
+
+        for (AsyncListener listener : connection.getListeners()) {
+            listener.onError(new AsyncEvent(connection, new IOException("Broken pipe")));
+        }
+
+        assertEquals(0, connections());
+    }
+
+    @Test
+    void eventsDropClosedConnectionsAndReachTheRest() {
+        SseEmitter closed = eventStream.connect(6L, null);
+        eventStream.connect(6L, null);
+        eventStream.connect(7L, null);
+        // Gone without the container telling us, so still registered
+        closed.complete();
+        assertEquals(3, connections());
+
+        eventStream.onAccountChanged(new AccountChangedEvent(List.of(6L, 7L), AccountChangedEvent.Change.CONTRIBUTION));
+
+        assertEquals(2, connections());
+    }
+
+    @Test
+    void heartbeatDropsClosedConnections() {
+        SseEmitter closed = eventStream.connect(8L, null);
+        eventStream.connect(9L, null);
+        closed.complete();
+
+        eventStream.heartbeat();
+
+        assertEquals(1, connections());
+    }
+
+    @Test
+    void oldestConnectionIsClosedOverThePerMemberLimit() {
+        for (int i = 0; i < 7; i++) {
+            eventStream.connect(10L, null);
+        }
+
+        assertEquals(5, connections());
+    }
+
+    private MockAsyncContext open(Long memberId) throws Exception {
+        Member member = new Member();
+        member.setId(memberId);
+        when(memberService.getCurrentMember()).thenReturn(member);
+        MvcResult result = mockMvc.perform(get("/api/events"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return (MockAsyncContext) result.getRequest().getAsyncContext();
+    }
+
+    private int connections() {
+        return (int) meterRegistry.get("events.stream.connections").gauge().value();
+    }
+}
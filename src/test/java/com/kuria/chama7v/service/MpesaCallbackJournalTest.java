@@ -0,0 +1,201 @@
+package com.kuria.chama7v.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.kuria.chama7v.dto.request.C2BPaymentRequest;
+import com.kuria.chama7v.dto.request.MpesaCallbackRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MpesaCallbackJournalTest {
+
+    @TempDir
+    Path dir;
+
+    private final List<MpesaCallbackJournal> opened = new ArrayList<>();
+
+    @AfterEach
+    void closeJournals() {
+        opened.forEach(MpesaCallbackJournal::close);
+    }
+
+    @Test
+    void reopeningReplaysOnlyUnappliedCallbacks() throws Exception {
+        MpesaCallbackJournal journal = open(1 << 20, 32);
+        long first = journal.append(callback("ws_1"));
+        long second = journal.append(callback("ws_2"));
+        long third = journal.append(callback("ws_3"));
+        journal.markApplied(second);
+        journal.close();
+
+        MpesaCallbackJournal reopened = open(1 << 20, 32);
+        List<MpesaCallbackJournal.JournalEntry> pending = reopened.drainRecoveredPending();
+        assertEquals(List.of(first, third), pending.stream().map(MpesaCallbackJournal.JournalEntry::sequence).toList());
+        assertEquals(List.of("ws_1", "ws_3"), checkoutIds(pending));
+        assertTrue(reopened.drainRecoveredPending().isEmpty());
+
+        // Sequences carry on from the recovered ones rather than starting over
+        assertTrue(reopened.append(callback("ws_4")) > third);
+    }
+
+    @Test
+    void tornTailRecordIsIgnoredAndOverwritten() throws Exception {
+        MpesaCallbackJournal journal = open(1 << 20, 32);
+        journal.append(callback("ws_1"));
+        journal.append(callback("ws_2"));
+        long end = journal.getStatus().getActiveSegmentBytesUsed();
+        journal.close();
+
+        // A record cut short by a crash: plausible length, payload that fails the checksum
+        ByteBuffer torn = ByteBuffer.allocate(64).putInt(40).put((byte) 1).putLong(3).putLong(System.currentTimeMillis());
+        while (torn.hasRemaining()) {
+            torn.put((byte) 0x5A);
+        }
+        try (FileChannel channel = FileChannel.open(onlySegment(), StandardOpenOption.WRITE)) {
+            channel.write(torn.flip(), end);
+        }
+
+        MpesaCallbackJournal reopened = open(1 << 20, 32);
+        assertEquals(List.of("ws_1", "ws_2"), checkoutIds(reopened.drainRecoveredPending()));
+        assertEquals(end, reopened.getStatus().getActiveSegmentBytesUsed());
+
+        // The next record takes the torn one's place and reads back whole
+        reopened.append(callback("ws_3"));
+        reopened.close();
+        assertEquals(List.of("ws_1", "ws_2", "ws_3"), checkoutIds(open(1 << 20, 32).drainRecoveredPending()));
+    }
+
+    @Test
+    void compactionCarriesUnappliedCallbacksAcrossRollovers() throws Exception {
+        int segmentSize = 1024;
+        MpesaCallbackJournal journal = open(segmentSize, 2);
+        List<Long> sequences = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            sequences.add(journal.append(callback("ws_" + i)));
+        }
+        assertTrue(journal.getStatus().getSegments() > 2, "the callbacks should span several segments");
+        sequences.subList(1, sequences.size()).forEach(journal::markApplied);
+
+        journal.compact();
+
+        assertTrue(journal.getStatus().getSegments() <= 2);
+        assertEquals(1, journal.getStatus().getPendingCallbacks());
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(journal.getStatus().getSegments(), files.count());
+        }
+        journal.close();
+
+        MpesaCallbackJournal reopened = open(segmentSize, 2);
+        List<MpesaCallbackJournal.JournalEntry> pending = reopened.drainRecoveredPending();
+        assertEquals(List.of("ws_0"), checkoutIds(pending));
+
+        reopened.markApplied(pending.get(0).sequence());
+        reopened.close();
+        assertTrue(open(segmentSize, 2).drainRecoveredPending().isEmpty());
+    }
+
+    @Test
+    void appliedMarkerForACarriedCallbackUsesItsOriginalSequence() throws Exception {
+        MpesaCallbackJournal journal = open(1024, 2);
+        long first = journal.append(callback("ws_0"));
+        for (int i = 1; i < 12; i++) {
+            journal.markApplied(journal.append(callback("ws_" + i)));
+        }
+        journal.compact();
+
+        journal.markApplied(first);
+
+        assertEquals(0, journal.getStatus().getPendingCallbacks());
+        journal.close();
+        assertTrue(open(1024, 2).drainRecoveredPending().isEmpty());
+    }
+
+    @Test
+    void confirmationsAreRecoveredSeparatelyFromCallbacks() throws Exception {
+        MpesaCallbackJournal journal = open(1024, 2);
+        journal.append(callback("ws_0"));
+        long recorded = journal.appendConfirmation(confirmation("QK1"));
+        journal.appendConfirmation(confirmation("QK2"));
+        journal.markApplied(recorded);
+        // Enough applied traffic to roll over, so compaction carries the confirmation forward
+        for (int i = 1; i < 12; i++) {
+            journal.markApplied(journal.append(callback("ws_" + i)));
+        }
+        journal.compact();
+        journal.close();
+
+        MpesaCallbackJournal reopened = open(1024, 2);
+        List<MpesaCallbackJournal.JournalEntry> callbacks = reopened.drainRecoveredPending();
+        assertEquals(List.of("ws_0"), checkoutIds(callbacks));
+        List<MpesaCallbackJournal.ConfirmationEntry> confirmations = reopened.drainRecoveredConfirmations();
+        assertEquals(List.of("QK2"), confirmations.stream().map(entry -> entry.confirmation().getTransId()).toList());
+        assertEquals(new BigDecimal("500"), confirmations.get(0).confirmation().getTransAmount());
+
+        reopened.markApplied(callbacks.get(0).sequence());
+        reopened.markApplied(confirmations.get(0).sequence());
+        assertEquals(0, reopened.getStatus().getPendingCallbacks());
+    }
+
+    private MpesaCallbackJournal open(int segmentSize, int maxSegments) throws IOException {
+        MpesaCallbackJournal journal = new MpesaCallbackJournal(new ObjectMapper(), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(journal, "enabled", true);
+        ReflectionTestUtils.setField(journal, "directory", dir.toString());
+        ReflectionTestUtils.setField(journal, "segmentSize", segmentSize);
+        ReflectionTestUtils.setField(journal, "maxSegments", maxSegments);
+        ReflectionTestUtils.setField(journal, "retentionHours", 72L);
+        journal.open();
+        opened.add(journal);
+        return journal;
+    }
+
+    private Path onlySegment() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            List<Path> segments = files.toList();
+            assertEquals(1, segments.size());
+            return segments.get(0);
+        }
+    }
+
+    private static MpesaCallbackRequest callback(String checkoutRequestId) {
+        MpesaCallbackRequest.StkCallback stkCallback = new MpesaCallbackRequest.StkCallback();
+        stkCallback.setMerchantRequestID("29115-34620561-1");
+        stkCallback.setCheckoutRequestID(checkoutRequestId);
+        stkCallback.setResultCode(0);
+        stkCallback.setResultDesc("The service request is processed successfully.");
+        MpesaCallbackRequest.Body body = new MpesaCallbackRequest.Body();
+        body.setStkCallback(stkCallback);
+        MpesaCallbackRequest request = new MpesaCallbackRequest();
+        request.setBody(body);
+        return request;
+    }
+
+    private static C2BPaymentRequest confirmation(String transId) {
+        C2BPaymentRequest confirmation = new C2BPaymentRequest();
+        confirmation.setTransactionType("Pay Bill");
+        confirmation.setTransId(transId);
+        confirmation.setTransTime("20240101120000");
+        confirmation.setTransAmount(new BigDecimal("500"));
+        confirmation.setBillRefNumber("M001");
+        return confirmation;
+    }
+
+    private static List<String> checkoutIds(List<MpesaCallbackJournal.JournalEntry> entries) {
+        return entries.stream().map(entry -> entry.request().getBody().getStkCallback().getCheckoutRequestID()).toList();
+    }
+}
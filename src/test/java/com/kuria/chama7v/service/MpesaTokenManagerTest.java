@@ -0,0 +1,113 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.daraja.OAuthTokenResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The token cache against a stubbed Daraja client, on a clock the test moves by hand. Tokens
+ * live for an hour, are refreshed from five minutes before they expire and stop being served
+ * thirty seconds before.
+ */
+class MpesaTokenManagerTest {
+
+    private static final int CALLERS = 20;
+    private static final long EXPIRES_IN_SECONDS = 3600;
+    private static final long REFRESH_AHEAD_SECONDS = 300;
+
+    private final AtomicLong clock = new AtomicLong(TimeUnit.DAYS.toMillis(1));
+    private final DarajaClient darajaClient = mock(DarajaClient.class);
+    private final MpesaTokenManager tokenManager = tokenManager();
+
+    @Test
+    void concurrentCallersShareOneFetch() throws Exception {
+        CompletableFuture<OAuthTokenResponse> response = new CompletableFuture<>();
+        when(darajaClient.generateToken()).thenReturn(Mono.fromFuture(response));
+
+        List<CompletableFuture<String>> tokens = new ArrayList<>();
+        List<Thread> callers = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            CompletableFuture<String> token = new CompletableFuture<>();
+            tokens.add(token);
+            callers.add(Thread.ofPlatform().start(() -> token.complete(tokenManager.getAccessToken())));
+        }
+        // The only timed wait on the miss path is the one on the shared refresh
+        for (Thread caller : callers) {
+            awaitWaiting(caller);
+        }
+
+        response.complete(token("token-1"));
+
+        for (CompletableFuture<String> token : tokens) {
+            assertEquals("token-1", token.get(5, TimeUnit.SECONDS));
+        }
+        verify(darajaClient, times(1)).generateToken();
+        assertEquals(CALLERS, tokenManager.getStatus().getMisses().intValue());
+    }
+
+    @Test
+    void refreshesBeforeTheTokenExpires() {
+        when(darajaClient.generateToken()).thenReturn(Mono.just(token("token-1")), Mono.just(token("token-2")));
+        assertEquals("token-1", tokenManager.getAccessToken());
+
+        clock.addAndGet(TimeUnit.SECONDS.toMillis(EXPIRES_IN_SECONDS - REFRESH_AHEAD_SECONDS - 1));
+        tokenManager.refreshIfExpiring();
+        assertEquals("token-1", tokenManager.getAccessToken());
+        verify(darajaClient, times(1)).generateToken();
+
+        // Inside the refresh window the old token is still served while the new one is fetched
+        clock.addAndGet(TimeUnit.SECONDS.toMillis(2));
+        tokenManager.refreshIfExpiring();
+        verify(darajaClient, times(2)).generateToken();
+        assertEquals("token-2", tokenManager.getAccessToken());
+        assertEquals(1, tokenManager.getStatus().getMisses().intValue());
+    }
+
+    @Test
+    void invalidatedTokenIsFetchedAgain() {
+        when(darajaClient.generateToken()).thenReturn(Mono.just(token("token-1")), Mono.just(token("token-2")));
+        assertEquals("token-1", tokenManager.getAccessToken());
+        assertEquals("token-1", tokenManager.getAccessToken());
+
+        tokenManager.invalidate();
+
+        assertEquals("token-2", tokenManager.getAccessToken());
+        verify(darajaClient, times(2)).generateToken();
+        assertEquals(2, tokenManager.getStatus().getMisses().intValue());
+    }
+
+    private static OAuthTokenResponse token(String value) {
+        return new OAuthTokenResponse(value, String.valueOf(EXPIRES_IN_SECONDS));
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (thread.getState() != Thread.State.TIMED_WAITING) {
+            assertTrue(System.nanoTime() < deadline, thread.getName() + " never started waiting");
+            Thread.sleep(1);
+        }
+    }
+
+    private MpesaTokenManager tokenManager() {
+        MpesaTokenManager manager = new MpesaTokenManager(darajaClient, new SimpleMeterRegistry(), clock::get);
+        ReflectionTestUtils.setField(manager, "refreshAheadSeconds", REFRESH_AHEAD_SECONDS);
+        ReflectionTestUtils.setField(manager, "expirySkewSeconds", 30L);
+        ReflectionTestUtils.setField(manager, "fetchTimeoutSeconds", 5L);
+        return manager;
+    }
+}
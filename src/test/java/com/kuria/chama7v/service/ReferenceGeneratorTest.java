@@ -0,0 +1,189 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.entity.IdSequence;
+import com.kuria.chama7v.repository.IdSequenceRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The hi/lo counting without a database: {@code id_sequences} is a map, and background refills
+ * queue up until the test runs them, so each step of the handoff can be checked in turn.
+ */
+class ReferenceGeneratorTest {
+
+    private static final long BLOCK_SIZE = 10;
+
+    private final Map<String, Long> table = new HashMap<>();
+    private final Queue<Runnable> background = new ArrayDeque<>();
+    private int reservations;
+    private boolean otherNodeCreatesFirst;
+    private boolean insertFails;
+    private boolean databaseDown;
+
+    private final ReferenceGenerator generator = generator();
+
+    @Test
+    void formatsWithAtLeastSevenDigits() {
+        assertEquals("LN-0000042", ReferenceGenerator.format("LN", 42));
+        assertEquals("STK-0000001", ReferenceGenerator.format("STK", 1));
+        assertEquals("CNT-9999999", ReferenceGenerator.format("CNT", 9_999_999));
+        assertEquals("PAY-12345678", ReferenceGenerator.format("PAY", 12_345_678));
+    }
+
+    @Test
+    void countsThroughABlockWithOneReservation() {
+        List<String> references = new ArrayList<>();
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            references.add(generator.next(ReferenceGenerator.Kind.LOAN));
+        }
+
+        assertEquals("LN-0000001", references.get(0));
+        assertEquals("LN-0000010", references.get(9));
+        assertEquals(1, reservations);
+        assertEquals(1 + BLOCK_SIZE, table.get("LOAN"));
+        // Kinds count separately
+        assertEquals("CNT-0000001", generator.next(ReferenceGenerator.Kind.CONTRIBUTION));
+    }
+
+    @Test
+    void nextBlockIsFetchedInTheBackgroundOnceHalfIsUsed() {
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(i, value(generator.next(ReferenceGenerator.Kind.STK)));
+        }
+        assertTrue(background.isEmpty());
+        assertEquals(6, value(generator.next(ReferenceGenerator.Kind.STK)));
+        assertEquals(1, background.size());
+
+        // Another node takes a block before the refill runs, so this node's next block is the one after
+        table.merge("STK", BLOCK_SIZE, Long::sum);
+        runBackground();
+        assertEquals(2, reservations);
+
+        for (int i = 7; i <= 10; i++) {
+            assertEquals(i, value(generator.next(ReferenceGenerator.Kind.STK)));
+        }
+        assertTrue(background.isEmpty(), "no second refill while one block is spare");
+        assertEquals(21, value(generator.next(ReferenceGenerator.Kind.STK)));
+        assertEquals(2, reservations, "the spare block is used without asking the database");
+    }
+
+    @Test
+    void blockIsReservedInlineWhenTheRefillHasNotLanded() {
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            generator.next(ReferenceGenerator.Kind.PAYMENT);
+        }
+        assertEquals(11, value(generator.next(ReferenceGenerator.Kind.PAYMENT)));
+
+        // The late refill becomes the spare for the block after
+        runBackground();
+        assertEquals(3, reservations);
+        for (int i = 12; i <= 20; i++) {
+            generator.next(ReferenceGenerator.Kind.PAYMENT);
+        }
+        assertEquals(21, value(generator.next(ReferenceGenerator.Kind.PAYMENT)));
+        assertEquals(3, reservations);
+    }
+
+    @Test
+    void failedRefillIsRetriedOnTheNextCall() {
+        for (int i = 0; i < 6; i++) {
+            generator.next(ReferenceGenerator.Kind.LOAN);
+        }
+        databaseDown = true;
+        runBackground();
+        databaseDown = false;
+
+        assertEquals(7, value(generator.next(ReferenceGenerator.Kind.LOAN)));
+        assertEquals(1, background.size());
+        runBackground();
+        for (int i = 8; i <= 10; i++) {
+            generator.next(ReferenceGenerator.Kind.LOAN);
+        }
+        assertEquals(11, value(generator.next(ReferenceGenerator.Kind.LOAN)));
+        assertEquals(2, reservations);
+    }
+
+    @Test
+    void nodeThatLosesTheRaceToCreateTheRowTakesTheNextBlock() {
+        otherNodeCreatesFirst = true;
+
+        assertEquals("LN-0000011", generator.next(ReferenceGenerator.Kind.LOAN));
+        assertEquals(1 + 2 * BLOCK_SIZE, table.get("LOAN"));
+    }
+
+    @Test
+    void secondFailureToCreateTheRowIsThrown() {
+        insertFails = true;
+
+        assertThrows(DataIntegrityViolationException.class, () -> generator.next(ReferenceGenerator.Kind.LOAN));
+    }
+
+    private void runBackground() {
+        while (!background.isEmpty()) {
+            background.poll().run();
+        }
+    }
+
+    private static long value(String reference) {
+        return Long.parseLong(reference.substring(reference.indexOf('-') + 1));
+    }
+
+    private ReferenceGenerator generator() {
+        IdSequenceRepository repository = mock(IdSequenceRepository.class);
+        when(repository.advance(anyString(), anyLong())).thenAnswer(invocation -> {
+            String name = invocation.getArgument(0);
+            if (!table.containsKey(name)) {
+                return 0;
+            }
+            table.merge(name, invocation.<Long>getArgument(1), Long::sum);
+            return 1;
+        });
+        when(repository.findNextValue(anyString())).thenAnswer(invocation -> table.get(invocation.<String>getArgument(0)));
+        when(repository.saveAndFlush(any(IdSequence.class))).thenAnswer(invocation -> {
+            IdSequence sequence = invocation.getArgument(0);
+            if (otherNodeCreatesFirst) {
+                // The other node's row lands first, along with its first block
+                otherNodeCreatesFirst = false;
+                table.put(sequence.getName(), 1 + BLOCK_SIZE);
+            }
+            if (insertFails || table.containsKey(sequence.getName())) {
+                throw new DataIntegrityViolationException("Duplicate entry '" + sequence.getName() + "'");
+            }
+            table.put(sequence.getName(), sequence.getNextValue());
+            return sequence;
+        });
+
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        // One transaction per block reserved
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> {
+            if (databaseDown) {
+                throw new IllegalStateException("Connection refused");
+            }
+            reservations++;
+            return new SimpleTransactionStatus();
+        });
+
+        ReferenceGenerator referenceGenerator = new ReferenceGenerator(repository, transactionManager, background::add);
+        ReflectionTestUtils.setField(referenceGenerator, "blockSize", BLOCK_SIZE);
+        return referenceGenerator;
+    }
+}
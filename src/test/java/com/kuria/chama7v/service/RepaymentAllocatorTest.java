@@ -0,0 +1,244 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.entity.Loan;
+import com.kuria.chama7v.entity.LoanInstallment;
+import com.kuria.chama7v.repository.LoanInstallmentRepository;
+import com.kuria.chama7v.util.LoanCalculator;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Differential test of the paged allocator against a plain walk over the whole schedule in
+ * cents, over random loans, penalties and payment sequences, plus worked examples of the
+ * allocation order and of reconstructing the schedule for a loan that predates stored ones.
+ */
+class RepaymentAllocatorTest {
+
+    private static final LocalDate PAID_ON = LocalDate.of(2026, 10, 18);
+
+    private final LoanCalculator loanCalculator = new LoanCalculator();
+    private final List<LoanInstallment> stored = new ArrayList<>();
+    private final RepaymentAllocator allocator = new RepaymentAllocator(installmentRepository(), loanCalculator);
+
+    @Test
+    void paysPenaltyThenInterestThenPrincipalOldestFirst() {
+        Loan loan = loan("12000.00", "12.00", 12, BigDecimal.ZERO);
+        storeSchedule(loan);
+        LoanInstallment first = stored.get(0);
+        LoanInstallment second = stored.get(1);
+        first.setPenaltyAmount(new BigDecimal("50.00"));
+        second.setPenaltyAmount(new BigDecimal("30.00"));
+
+        BigDecimal amount = first.getAmountDue().add(new BigDecimal("50.00"))
+                .add(new BigDecimal("30.00")).add(new BigDecimal("10.00"));
+        RepaymentAllocator.Allocation allocation = allocator.allocate(loan, amount, PAID_ON);
+
+        assertEquals(new BigDecimal("80.00"), allocation.penalty());
+        assertEquals(first.getInterestAmount().add(new BigDecimal("10.00")), allocation.interest());
+        assertEquals(first.getPrincipalAmount(), allocation.principal());
+        assertTrue(first.isSettled());
+        assertEquals(PAID_ON, first.getSettledDate());
+        assertEquals(new BigDecimal("30.00"), second.getPenaltyPaid());
+        assertEquals(new BigDecimal("10.00"), second.getInterestPaid());
+        assertEquals(0, second.getPrincipalPaid().signum());
+        assertFalse(second.isSettled());
+    }
+
+    @Test
+    void partialPaymentsPickUpWhereTheLastStopped() {
+        Loan loan = loan("5000.00", "10.00", 6, BigDecimal.ZERO);
+        storeSchedule(loan);
+        LoanInstallment first = stored.get(0);
+        first.setPenaltyAmount(new BigDecimal("20.00"));
+
+        RepaymentAllocator.Allocation penaltyOnly = allocator.allocate(loan, new BigDecimal("15.00"), PAID_ON);
+        assertEquals(new BigDecimal("15.00"), penaltyOnly.penalty());
+        assertEquals(0, penaltyOnly.interest().signum());
+        assertEquals(0, penaltyOnly.principal().signum());
+
+        RepaymentAllocator.Allocation rest = allocator.allocate(loan, new BigDecimal("5.00").add(first.getInterestAmount())
+                .add(new BigDecimal("1.00")), PAID_ON);
+        assertEquals(new BigDecimal("5.00"), rest.penalty());
+        assertEquals(first.getInterestAmount(), rest.interest());
+        assertEquals(new BigDecimal("1.00"), rest.principal());
+        assertFalse(first.isSettled());
+        assertEquals(first.getPrincipalAmount().subtract(new BigDecimal("1.00")), first.outstanding());
+    }
+
+    @Test
+    void overpaymentSettlesEverythingAndBooksTheRestAsInterest() {
+        Loan loan = loan("3000.00", "12.00", 3, BigDecimal.ZERO);
+        storeSchedule(loan);
+        BigDecimal outstanding = stored.stream().map(LoanInstallment::outstanding).reduce(BigDecimal.ZERO, BigDecimal::add);
+        BigDecimal scheduledInterest = stored.stream().map(LoanInstallment::getInterestAmount)
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+
+        RepaymentAllocator.Allocation allocation = allocator.allocate(loan, outstanding.add(new BigDecimal("0.03")), PAID_ON);
+
+        assertTrue(stored.stream().allMatch(LoanInstallment::isSettled));
+        assertEquals(new BigDecimal("3000.00"), allocation.principal());
+        assertEquals(scheduledInterest.add(new BigDecimal("0.03")), allocation.interest());
+    }
+
+    @Test
+    void reconstructsLegacyLoansFromWhatHasBeenPaid() {
+        LoanInstallment[] schedule = schedule("24000.00", "12.00", 12);
+        BigDecimal paid = schedule[0].getAmountDue().add(schedule[1].getAmountDue()).add(new BigDecimal("100.00"));
+        Loan loan = loan("24000.00", "12.00", 12, paid);
+
+        List<LoanInstallment> rebuilt = allocator.reconstruct(loan);
+
+        assertTrue(rebuilt.get(0).isSettled());
+        assertTrue(rebuilt.get(1).isSettled());
+        assertNull(rebuilt.get(0).getSettledDate());
+        assertEquals(new BigDecimal("100.00"), rebuilt.get(2).getInterestPaid().add(rebuilt.get(2).getPrincipalPaid()));
+        assertEquals(rebuilt.get(2).getInterestAmount().min(new BigDecimal("100.00")), rebuilt.get(2).getInterestPaid());
+        assertFalse(rebuilt.get(2).isSettled());
+
+        // A first payment on such a loan stores the reconstruction, then carries on from it
+        RepaymentAllocator.Allocation allocation = allocator.allocate(loan, new BigDecimal("50.00"), PAID_ON);
+        assertEquals(12, stored.size());
+        assertEquals(0, allocation.penalty().signum());
+        assertEquals(new BigDecimal("50.00"), allocation.interest().add(allocation.principal()));
+        assertEquals(new BigDecimal("150.00"), stored.get(2).getInterestPaid().add(stored.get(2).getPrincipalPaid()));
+    }
+
+    @Test
+    void matchesAPlainWalkOverTheSchedule() {
+        Random random = new Random(20261018);
+        for (int i = 0; i < 2_000; i++) {
+            stored.clear();
+            long principalCents = 100_000 + (long) (random.nextDouble() * (10_000_000 - 100_000));
+            int rateBasisPoints = 1 + random.nextInt(5000);
+            int months = 1 + random.nextInt(60);
+            Loan loan = loan(BigDecimal.valueOf(principalCents, 2).toPlainString(),
+                    BigDecimal.valueOf(rateBasisPoints, 2).toPlainString(), months, BigDecimal.ZERO);
+            storeSchedule(loan);
+            String label = loan.getAmount() + " at " + loan.getInterestRate() + "% over " + months;
+
+            long[][] expected = new long[months][];
+            long owed = 0;
+            for (int n = 0; n < months; n++) {
+                LoanInstallment installment = stored.get(n);
+                if (random.nextInt(4) == 0) {
+                    installment.setPenaltyAmount(BigDecimal.valueOf(1 + random.nextInt(50_000), 2));
+                }
+                expected[n] = new long[]{cents(installment.getPenaltyAmount()), cents(installment.getInterestAmount()),
+                        cents(installment.getPrincipalAmount()), 0, 0, 0};
+                owed += cents(installment.outstanding());
+            }
+
+            // Random payments up to a few cents past the schedule, like a loan balance that runs over it
+            long toPay = owed + random.nextInt(6);
+            while (toPay > 0) {
+                long maxPayment = Math.max(1, cents(stored.get(0).getAmountDue()) * 3 / 2);
+                long payment = Math.min(toPay, 1 + (long) (random.nextDouble() * maxPayment));
+                toPay -= payment;
+
+                long[] expectedAllocation = walk(expected, payment);
+                RepaymentAllocator.Allocation allocation = allocator.allocate(loan, BigDecimal.valueOf(payment, 2), PAID_ON);
+
+                assertEquals(expectedAllocation[0], cents(allocation.penalty()), label);
+                assertEquals(expectedAllocation[1], cents(allocation.interest()), label);
+                assertEquals(expectedAllocation[2], cents(allocation.principal()), label);
+                for (int n = 0; n < months; n++) {
+                    LoanInstallment installment = stored.get(n);
+                    assertEquals(expected[n][3], cents(installment.getPenaltyPaid()), label + " #" + (n + 1));
+                    assertEquals(expected[n][4], cents(installment.getInterestPaid()), label + " #" + (n + 1));
+                    assertEquals(expected[n][5], cents(installment.getPrincipalPaid()), label + " #" + (n + 1));
+                    assertEquals(settled(expected[n]), installment.isSettled(), label + " #" + (n + 1));
+                }
+            }
+            assertTrue(stored.stream().allMatch(LoanInstallment::isSettled), label);
+        }
+    }
+
+    // Each row is {penalty, interest, principal, penalty paid, interest paid, principal paid}
+    private static long[] walk(long[][] schedule, long payment) {
+        long[] allocated = new long[3];
+        long remaining = payment;
+        for (long[] row : schedule) {
+            for (int part = 0; part < 3 && remaining > 0; part++) {
+                long paid = Math.min(remaining, row[part] - row[part + 3]);
+                row[part + 3] += paid;
+                allocated[part] += paid;
+                remaining -= paid;
+            }
+        }
+        allocated[1] += remaining;
+        return allocated;
+    }
+
+    private static boolean settled(long[] row) {
+        return row[3] == row[0] && row[4] == row[1] && row[5] == row[2];
+    }
+
+    private static long cents(BigDecimal amount) {
+        return amount.movePointRight(2).longValueExact();
+    }
+
+    private LoanInstallment[] schedule(String amount, String rate, int months) {
+        return allocator.buildInstallments(loan(amount, rate, months, BigDecimal.ZERO)).toArray(new LoanInstallment[0]);
+    }
+
+    private void storeSchedule(Loan loan) {
+        stored.addAll(allocator.buildInstallments(loan));
+    }
+
+    private static Loan loan(String amount, String rate, int months, BigDecimal amountPaid) {
+        Loan loan = new Loan();
+        loan.setId(1L);
+        loan.setLoanNumber("LN-TEST");
+        loan.setAmount(new BigDecimal(amount));
+        loan.setInterestRate(new BigDecimal(rate));
+        loan.setDurationMonths(months);
+        loan.setAmountPaid(amountPaid);
+        loan.setApplicationDate(LocalDateTime.of(2026, 1, 10, 9, 0));
+        loan.setApprovalDate(LocalDateTime.of(2026, 1, 31, 9, 0));
+        return loan;
+    }
+
+    // Backed by the stored list, handing out the same objects the way a persistence context would
+    private LoanInstallmentRepository installmentRepository() {
+        LoanInstallmentRepository repository = mock(LoanInstallmentRepository.class);
+        when(repository.existsByLoanId(anyLong())).thenAnswer(invocation -> !stored.isEmpty());
+        when(repository.findOpen(anyLong(), anyInt(), any(Pageable.class))).thenAnswer(invocation -> {
+            int afterNumber = invocation.getArgument(1);
+            Pageable pageable = invocation.getArgument(2);
+            return stored.stream()
+                    .filter(installment -> !installment.isSettled() && installment.getInstallmentNumber() > afterNumber)
+                    .sorted(Comparator.comparingInt(LoanInstallment::getInstallmentNumber))
+                    .limit(pageable.getPageSize())
+                    .toList();
+        });
+        when(repository.saveAll(anyIterable())).thenAnswer(invocation -> {
+            Iterable<LoanInstallment> installments = invocation.getArgument(0);
+            for (LoanInstallment installment : installments) {
+                if (stored.stream().noneMatch(existing -> existing == installment)) {
+                    stored.add(installment);
+                }
+            }
+            return installments;
+        });
+        return repository;
+    }
+}
@@ -0,0 +1,173 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.dto.response.StatementDiscrepancyResponse;
+import com.kuria.chama7v.dto.response.StatementReconciliationResponse;
+import com.kuria.chama7v.entity.MpesaTransaction;
+import com.kuria.chama7v.entity.enums.DiscrepancyType;
+import com.kuria.chama7v.entity.enums.TransactionStatus;
+import com.kuria.chama7v.repository.MpesaTransactionRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Statements reconciled against the database: credits matched by receipt, amount mismatches,
+ * credits we have no record of and settled payments the statement lacks, and the STK pushes
+ * settled through STK Query without a receipt, which take the statement's receipt only for the
+ * same payer and amount inside the match window. Each test uses its own day, so the period
+ * scans never see another test's rows, and a chunk size of two makes every statement span
+ * several chunks.
+ */
+@SpringBootTest(properties = "statement.reconciliation.chunk-size=2")
+@ActiveProfiles("test")
+class StatementReconciliationServiceTest {
+
+    private static final DateTimeFormatter STATEMENT_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String HEADER = "Receipt No.,Completion Time,Details,Transaction Status,Paid In,Withdrawn,Other Party Info,A/C No.";
+    private static final AtomicInteger RECEIPTS = new AtomicInteger();
+
+    @Autowired
+    private StatementReconciliationService reconciliationService;
+
+    @Autowired
+    private MpesaTransactionRepository transactionRepository;
+
+    @Test
+    void reportsEachKindOfDiscrepancy() throws IOException {
+        LocalDateTime day = LocalDateTime.of(2019, 3, 4, 9, 0);
+        MpesaTransaction matched = saveSettled(receipt(), "254715000001", "100.00", day);
+        MpesaTransaction mismatched = saveSettled(receipt(), "254715000002", "200.00", day.plusMinutes(5));
+        MpesaTransaction absent = saveSettled(receipt(), "254715000003", "300.00", day.plusMinutes(10));
+        String unknown = receipt();
+
+        StatementReconciliationResponse response = reconcile(
+                credit(matched.getMpesaReceiptNumber(), day, "100.00", "254715000001 - ONE"),
+                credit(mismatched.getMpesaReceiptNumber(), day.plusMinutes(5), "250.00", "254715000002 - TWO"),
+                credit(unknown, day.plusMinutes(15), "400.00", "254715000004 - FOUR"),
+                row(receipt(), day.plusMinutes(20), "Business Payment to 254715000005", "Completed", "", "50.00", ""),
+                row(receipt(), day.plusMinutes(25), "Pay Bill", "Failed", "60.00", "", ""));
+
+        assertEquals(5, response.getStatementRows());
+        assertEquals(3, response.getCreditRows());
+        assertEquals(1, response.getMatched());
+        assertEquals(1, response.getAmountMismatches());
+        assertEquals(1, response.getMissingInSystem());
+        assertEquals(1, response.getMissingInStatement());
+        assertEquals(day, response.getPeriodStart());
+        assertEquals(day.plusMinutes(15), response.getPeriodEnd());
+
+        StatementDiscrepancyResponse mismatch = only(response, DiscrepancyType.AMOUNT_MISMATCH);
+        assertEquals(mismatched.getMpesaReceiptNumber(), mismatch.getReceiptNumber());
+        assertEquals(new BigDecimal("250.00"), mismatch.getStatementAmount());
+        assertEquals(new BigDecimal("200.00"), mismatch.getRecordedAmount());
+        assertEquals(unknown, only(response, DiscrepancyType.MISSING_IN_SYSTEM).getReceiptNumber());
+        assertEquals(absent.getMpesaReceiptNumber(), only(response, DiscrepancyType.MISSING_IN_STATEMENT).getReceiptNumber());
+    }
+
+    @Test
+    void receiptlessPushTakesTheStatementReceipt() throws IOException {
+        LocalDateTime settledAt = LocalDateTime.of(2019, 3, 5, 9, 0);
+        MpesaTransaction push = saveSettled(null, "254715000011", "500.00", settledAt);
+        String receipt = receipt();
+        LocalDateTime completedAt = settledAt.plusMinutes(2);
+
+        StatementReconciliationResponse response = reconcile(credit(receipt, completedAt, "500.00", "2547*****011 - ELEVEN"));
+
+        assertEquals(1, response.getMatched());
+        assertEquals(0, response.getMissingInSystem());
+        assertEquals(0, response.getMissingInStatement());
+        MpesaTransaction settled = transactionRepository.findById(push.getId()).orElseThrow();
+        assertEquals(receipt, settled.getMpesaReceiptNumber());
+        assertEquals(completedAt, settled.getTransactionDate());
+    }
+
+    @Test
+    void receiptGoesToTheClosestPushInTheWindow() throws IOException {
+        LocalDateTime completedAt = LocalDateTime.of(2019, 3, 6, 9, 0);
+        MpesaTransaction farther = saveSettled(null, "254715000021", "500.00", completedAt.minusMinutes(8));
+        MpesaTransaction closer = saveSettled(null, "254715000021", "500.00", completedAt.plusMinutes(1));
+        String receipt = receipt();
+
+        StatementReconciliationResponse response = reconcile(credit(receipt, completedAt, "500.00", "254715000021 - TWENTY ONE"));
+
+        assertEquals(1, response.getMatched());
+        assertEquals(receipt, transactionRepository.findById(closer.getId()).orElseThrow().getMpesaReceiptNumber());
+        assertNull(transactionRepository.findById(farther.getId()).orElseThrow().getMpesaReceiptNumber());
+    }
+
+    @Test
+    void receiptlessPushForAnotherPayerAmountOrTimeIsLeftAlone() throws IOException {
+        LocalDateTime completedAt = LocalDateTime.of(2019, 3, 7, 9, 0);
+        MpesaTransaction otherPayer = saveSettled(null, "254715000031", "500.00", completedAt);
+        MpesaTransaction otherAmount = saveSettled(null, "254715000032", "450.00", completedAt);
+        MpesaTransaction outsideWindow = saveSettled(null, "254715000033", "500.00", completedAt.minusMinutes(11));
+
+        StatementReconciliationResponse response = reconcile(
+                credit(receipt(), completedAt, "500.00", "254715000039 - THIRTY NINE"),
+                credit(receipt(), completedAt, "500.00", "254715000032 - THIRTY TWO"),
+                credit(receipt(), completedAt, "500.00", "254715000033 - THIRTY THREE"));
+
+        assertEquals(0, response.getMatched());
+        assertEquals(3, response.getMissingInSystem());
+        for (MpesaTransaction push : List.of(otherPayer, otherAmount, outsideWindow)) {
+            assertNull(transactionRepository.findById(push.getId()).orElseThrow().getMpesaReceiptNumber());
+        }
+    }
+
+    private StatementReconciliationResponse reconcile(String... rows) throws IOException {
+        String csv = "Account Name,CHAMA 7V\r\n" + HEADER + "\r\n" + String.join("\r\n", rows) + "\r\n";
+        return reconciliationService.reconcile(
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), "statement.csv", "treasurer@chama7v.com");
+    }
+
+    private StatementDiscrepancyResponse only(StatementReconciliationResponse response, DiscrepancyType type) {
+        List<StatementDiscrepancyResponse> discrepancies = reconciliationService
+                .getDiscrepancies(response.getId(), type, PageRequest.of(0, 10)).getContent();
+        assertEquals(1, discrepancies.size());
+        return discrepancies.get(0);
+    }
+
+    private static String credit(String receipt, LocalDateTime completedAt, String amount, String otherParty) {
+        return row(receipt, completedAt, "Pay Bill Online", "Completed", amount, "", otherParty);
+    }
+
+    private static String row(String receipt, LocalDateTime completedAt, String details, String status,
+                              String paidIn, String withdrawn, String otherParty) {
+        return String.join(",", receipt, STATEMENT_TIME.format(completedAt), details, status, paidIn, withdrawn,
+                otherParty, "M001");
+    }
+
+    private static String receipt() {
+        return String.format("SRT%07d", RECEIPTS.incrementAndGet());
+    }
+
+    // A settled STK push; one settled through STK Query has no receipt
+    private MpesaTransaction saveSettled(String receipt, String phone, String amount, LocalDateTime settledAt) {
+        MpesaTransaction transaction = new MpesaTransaction();
+        transaction.setCheckoutRequestId("ws_CO_" + System.nanoTime());
+        transaction.setPhoneNumber(phone);
+        transaction.setAmount(new BigDecimal(amount));
+        transaction.setMpesaReceiptNumber(receipt);
+        transaction.setTransactionDate(settledAt);
+        transaction.setStatus(TransactionStatus.SUCCESS);
+        transaction.setResultCode("0");
+        transaction.setTransactionType("CONTRIBUTION");
+        transaction.setAccountReference("M001");
+        transaction.setPosted(true);
+        return transactionRepository.save(transaction);
+    }
+}
@@ -0,0 +1,90 @@
+package com.kuria.chama7v.service;
+
+import com.kuria.chama7v.entity.Loan;
+import com.kuria.chama7v.entity.LoanDisbursement;
+import com.kuria.chama7v.entity.Member;
+import com.kuria.chama7v.entity.enums.DisbursementStatus;
+import com.kuria.chama7v.entity.enums.LoanStatus;
+import com.kuria.chama7v.entity.enums.MemberStatus;
+import com.kuria.chama7v.repository.LoanDisbursementRepository;
+import com.kuria.chama7v.repository.LoanRepository;
+import com.kuria.chama7v.repository.MemberRepository;
+import com.kuria.chama7v.util.LoanCalculator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.TestComponent;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Members, loans and payouts for the tests that run against the database; pulled in with
+ * {@code @Import(TestFixtures.class)}. Member numbers, national IDs and phones come from one
+ * counter, so rows made by different test classes never collide.
+ */
+@TestComponent
+public class TestFixtures {
+
+    private static final AtomicInteger MEMBERS = new AtomicInteger();
+    private static final AtomicInteger LOANS = new AtomicInteger();
+    private static final BigDecimal RATE = new BigDecimal("12.00");
+
+    @Autowired
+    private MemberRepository memberRepository;
+
+    @Autowired
+    private LoanRepository loanRepository;
+
+    @Autowired
+    private LoanDisbursementRepository disbursementRepository;
+
+    @Autowired
+    private LoanCalculator loanCalculator;
+
+    // Active, with nothing owed; not yet saved
+    public Member newMember() {
+        int n = MEMBERS.incrementAndGet();
+        Member member = new Member();
+        member.setMemberNumber(String.format("T%03d", n));
+        member.setNationalId(String.valueOf(40_000_000 + n));
+        member.setName("Member " + n);
+        member.setEmail("member" + n + "@chama7v.com");
+        member.setPhone(String.format("0711%06d", n));
+        member.setStatus(MemberStatus.ACTIVE);
+        return member;
+    }
+
+    public Member saveMember() {
+        return memberRepository.save(newMember());
+    }
+
+    // A year at 12% with its repayment worked out; not yet saved
+    public Loan newLoan(Member member, BigDecimal amount, LoanStatus status) {
+        LoanCalculator.LoanCalculation calculation = loanCalculator.calculateLoan(amount, RATE, 12);
+        Loan loan = new Loan();
+        loan.setMember(member);
+        loan.setLoanNumber("LN" + member.getMemberNumber() + "-" + LOANS.incrementAndGet());
+        loan.setAmount(amount);
+        loan.setInterestRate(RATE);
+        loan.setDurationMonths(12);
+        loan.setMonthlyPayment(calculation.getMonthlyPayment());
+        loan.setTotalAmount(calculation.getTotalAmount());
+        loan.setBalance(calculation.getTotalAmount());
+        loan.setPurpose("Stock");
+        loan.setStatus(status);
+        return loan;
+    }
+
+    public Loan saveLoan(Member member, BigDecimal amount, LoanStatus status) {
+        return loanRepository.save(newLoan(member, amount, status));
+    }
+
+    // The whole loan paid to the member's phone
+    public LoanDisbursement saveDisbursement(Loan loan, DisbursementStatus status) {
+        LoanDisbursement disbursement = new LoanDisbursement();
+        disbursement.setLoan(loan);
+        disbursement.setPhoneNumber(loan.getMember().getPhone());
+        disbursement.setAmount(loan.getAmount());
+        disbursement.setStatus(status);
+        return disbursementRepository.save(disbursement);
+    }
+}
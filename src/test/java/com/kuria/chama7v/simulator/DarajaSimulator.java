@@ -0,0 +1,423 @@
+package com.kuria.chama7v.simulator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the Daraja endpoints the application calls: OAuth, STK push, STK
+ * query and B2C. Each accepted STK push gets a callback POSTed back to its CallBackURL (or to
+ * {@link Settings#callbackUrlOverride}) after a sampled delay, optionally duplicated or dropped,
+ * so the whole payment path can be load-tested on one machine. B2C payouts get their result
+ * POSTed to the ResultURL (or {@link Settings#resultUrlOverride}) the same way.
+ *
+ * <p>Start it from a test with {@code DarajaSimulator.start(settings)}, or standalone via
+ * {@link #main} with flags such as {@code --port=18080 --latency=lognormal:250:0.6:5000
+ * --error-rate=0.02 --duplicate-rate=0.1}.
+ */
+@Slf4j
+public class DarajaSimulator implements AutoCloseable {
+
+    private static final DateTimeFormatter TRANSACTION_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    private static final String PROCESSING_ERROR_CODE = "500.001.1001";
+
+    private final Settings settings;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService requestExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService callbackScheduler = Executors.newScheduledThreadPool(2);
+    private final HttpClient callbackClient;
+
+    private final Set<String> issuedTokens = ConcurrentHashMap.newKeySet();
+    private final Map<String, StkPush> pushes = new ConcurrentHashMap<>();
+    private final AtomicLong receiptCounter = new AtomicLong();
+
+    private final Stats stats = new Stats();
+
+    private DarajaSimulator(Settings settings) throws IOException {
+        this.settings = settings;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", settings.getPort()), 512);
+        this.server.setExecutor(requestExecutor);
+        this.server.createContext("/oauth/v1/generate", this::handleOAuth);
+        this.server.createContext("/mpesa/stkpush/v1/processrequest", this::handleStkPush);
+        this.server.createContext("/mpesa/stkpushquery/v1/query", this::handleStkQuery);
+        this.server.createContext("/mpesa/b2c/v3/paymentrequest", this::handleB2CPayment);
+        this.callbackClient = HttpClient.newBuilder()
+                .executor(requestExecutor)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    public static DarajaSimulator start(Settings settings) throws IOException {
+        DarajaSimulator simulator = new DarajaSimulator(settings);
+        simulator.server.start();
+        log.info("Daraja simulator listening on {}", simulator.getBaseUrl());
+        return simulator;
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public Settings getSettings() {
+        return settings;
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        callbackScheduler.shutdownNow();
+        requestExecutor.shutdownNow();
+    }
+
+    private void handleOAuth(HttpExchange exchange) throws IOException {
+        stats.oauthRequests.incrementAndGet();
+        sleep(settings.getOauthLatency().sampleMillis());
+        if (roll(settings.getOauthErrorRate())) {
+            stats.injectedErrors.incrementAndGet();
+            respond(exchange, 500, Map.of("errorCode", "500.001.1000", "errorMessage", "Simulated OAuth failure"));
+            return;
+        }
+
+        String token = UUID.randomUUID().toString().replace("-", "");
+        issuedTokens.add(token);
+        respond(exchange, 200, Map.of("access_token", token, "expires_in", String.valueOf(settings.getTokenTtlSeconds())));
+    }
+
+    private void handleStkPush(HttpExchange exchange) throws IOException {
+        stats.stkPushRequests.incrementAndGet();
+        if (!authorized(exchange)) {
+            respond(exchange, 401, Map.of("errorCode", "404.001.04", "errorMessage", "Invalid Access Token"));
+            return;
+        }
+        Map<?, ?> request = objectMapper.readValue(exchange.getRequestBody(), Map.class);
+        sleep(settings.getStkPushLatency().sampleMillis());
+
+        if (roll(settings.getStkPushErrorRate())) {
+            stats.injectedErrors.incrementAndGet();
+            respond(exchange, 503, Map.of("errorCode", "503.001.01", "errorMessage", "Simulated service unavailable"));
+            return;
+        }
+
+        StkPush push = new StkPush();
+        push.merchantRequestId = "SIM-" + UUID.randomUUID();
+        push.checkoutRequestId = "ws_CO_SIM_" + UUID.randomUUID().toString().replace("-", "");
+        push.amount = request.get("Amount");
+        push.phoneNumber = request.get("PhoneNumber");
+        push.callbackUrl = settings.getCallbackUrlOverride() != null
+                ? settings.getCallbackUrlOverride() : String.valueOf(request.get("CallBackURL"));
+        push.succeeded = roll(settings.getSuccessRate());
+        push.receipt = push.succeeded ? nextReceipt() : null;
+        pushes.put(push.checkoutRequestId, push);
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("MerchantRequestID", push.merchantRequestId);
+        response.put("CheckoutRequestID", push.checkoutRequestId);
+        response.put("ResponseCode", "0");
+        response.put("ResponseDescription", "Success. Request accepted for processing");
+        response.put("CustomerMessage", "Success. Request accepted for processing");
+        respond(exchange, 200, response);
+
+        scheduleCallbacks(push);
+    }
+
+    private void handleStkQuery(HttpExchange exchange) throws IOException {
+        stats.stkQueryRequests.incrementAndGet();
+        if (!authorized(exchange)) {
+            respond(exchange, 401, Map.of("errorCode", "404.001.04", "errorMessage", "Invalid Access Token"));
+            return;
+        }
+        Map<?, ?> request = objectMapper.readValue(exchange.getRequestBody(), Map.class);
+        sleep(settings.getStkQueryLatency().sampleMillis());
+
+        StkPush push = pushes.get(String.valueOf(request.get("CheckoutRequestID")));
+        if (push == null) {
+            respond(exchange, 400, Map.of("errorCode", "400.002.02", "errorMessage", "Bad Request - Invalid CheckoutRequestID"));
+            return;
+        }
+        if (!push.completed) {
+            respond(exchange, 500, Map.of("errorCode", PROCESSING_ERROR_CODE,
+                    "errorMessage", "The transaction is being processed"));
+            return;
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("ResponseCode", "0");
+        response.put("ResponseDescription", "The service request has been accepted successsfully");
+        response.put("MerchantRequestID", push.merchantRequestId);
+        response.put("CheckoutRequestID", push.checkoutRequestId);
+        response.put("ResultCode", push.succeeded ? "0" : "1032");
+        response.put("ResultDesc", push.succeeded
+                ? "The service request is processed successfully." : "Request cancelled by user");
+        respond(exchange, 200, response);
+    }
+
+    private void handleB2CPayment(HttpExchange exchange) throws IOException {
+        stats.b2cRequests.incrementAndGet();
+        if (!authorized(exchange)) {
+            respond(exchange, 401, Map.of("errorCode", "404.001.04", "errorMessage", "Invalid Access Token"));
+            return;
+        }
+        Map<?, ?> request = objectMapper.readValue(exchange.getRequestBody(), Map.class);
+        sleep(settings.getB2cLatency().sampleMillis());
+
+        if (roll(settings.getB2cErrorRate())) {
+            stats.injectedErrors.incrementAndGet();
+            respond(exchange, 503, Map.of("errorCode", "503.001.01", "errorMessage", "Simulated service unavailable"));
+            return;
+        }
+
+        String originatorConversationId = String.valueOf(request.get("OriginatorConversationID"));
+        String conversationId = "AG_SIM_" + UUID.randomUUID().toString().replace("-", "");
+        String resultUrl = settings.getResultUrlOverride() != null
+                ? settings.getResultUrlOverride() : String.valueOf(request.get("ResultURL"));
+        boolean succeeded = roll(settings.getSuccessRate());
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("ConversationID", conversationId);
+        response.put("OriginatorConversationID", originatorConversationId);
+        response.put("ResponseCode", "0");
+        response.put("ResponseDescription", "Accept the service request successfully.");
+        respond(exchange, 200, response);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("ResultType", 0);
+        result.put("ResultCode", succeeded ? 0 : 2001);
+        result.put("ResultDesc", succeeded
+                ? "The service request is processed successfully." : "The initiator information is invalid.");
+        result.put("OriginatorConversationID", originatorConversationId);
+        result.put("ConversationID", conversationId);
+        if (succeeded) {
+            String receipt = nextReceipt();
+            result.put("TransactionID", receipt);
+            result.put("ResultParameters", Map.of("ResultParameter", List.of(
+                    Map.of("Key", "TransactionAmount", "Value", request.get("Amount")),
+                    Map.of("Key", "TransactionReceipt", "Value", receipt),
+                    Map.of("Key", "ReceiverPartyPublicName", "Value", request.get("PartyB") + " - Simulated"))));
+        }
+        Map<String, Object> body = Map.of("Result", result);
+
+        long delay = settings.getCallbackDelay().sampleMillis();
+        if (roll(settings.getDropCallbackRate())) {
+            stats.callbacksDropped.incrementAndGet();
+            return;
+        }
+        callbackScheduler.schedule(() -> post(resultUrl, body, false), delay, TimeUnit.MILLISECONDS);
+        if (roll(settings.getDuplicateCallbackRate())) {
+            long duplicateDelay = delay + settings.getDuplicateDelay().sampleMillis();
+            callbackScheduler.schedule(() -> post(resultUrl, body, true), duplicateDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void scheduleCallbacks(StkPush push) {
+        long delay = settings.getCallbackDelay().sampleMillis();
+        callbackScheduler.schedule(() -> push.completed = true, delay, TimeUnit.MILLISECONDS);
+
+        if (roll(settings.getDropCallbackRate())) {
+            stats.callbacksDropped.incrementAndGet();
+            return;
+        }
+        callbackScheduler.schedule(() -> deliverCallback(push, false), delay, TimeUnit.MILLISECONDS);
+        if (roll(settings.getDuplicateCallbackRate())) {
+            long duplicateDelay = delay + settings.getDuplicateDelay().sampleMillis();
+            callbackScheduler.schedule(() -> deliverCallback(push, true), duplicateDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void deliverCallback(StkPush push, boolean duplicate) {
+        post(push.callbackUrl, callbackBody(push), duplicate);
+    }
+
+    private void post(String url, Map<String, Object> payload, boolean duplicate) {
+        byte[] body;
+        try {
+            body = objectMapper.writeValueAsBytes(payload);
+        } catch (IOException e) {
+            log.error("Could not serialize simulated callback", e);
+            return;
+        }
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(10))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        callbackClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    if (error != null || response.statusCode() != 200) {
+                        stats.callbackFailures.incrementAndGet();
+                        log.warn("Simulated callback to {} failed: {}", url,
+                                error != null ? error.getMessage() : "HTTP " + response.statusCode());
+                    } else if (duplicate) {
+                        stats.duplicateCallbacksDelivered.incrementAndGet();
+                    } else {
+                        stats.callbacksDelivered.incrementAndGet();
+                    }
+                });
+    }
+
+    private Map<String, Object> callbackBody(StkPush push) {
+        Map<String, Object> stkCallback = new LinkedHashMap<>();
+        stkCallback.put("MerchantRequestID", push.merchantRequestId);
+        stkCallback.put("CheckoutRequestID", push.checkoutRequestId);
+        if (push.succeeded) {
+            stkCallback.put("ResultCode", 0);
+            stkCallback.put("ResultDesc", "The service request is processed successfully.");
+            stkCallback.put("CallbackMetadata", Map.of("Item", List.of(
+                    Map.of("Name", "Amount", "Value", push.amount),
+                    Map.of("Name", "MpesaReceiptNumber", "Value", push.receipt),
+                    Map.of("Name", "TransactionDate", "Value",
+                            Long.parseLong(LocalDateTime.now().format(TRANSACTION_DATE_FORMAT))),
+                    Map.of("Name", "PhoneNumber", "Value", push.phoneNumber))));
+        } else {
+            stkCallback.put("ResultCode", 1032);
+            stkCallback.put("ResultDesc", "Request cancelled by user");
+        }
+        return Map.of("Body", Map.of("stkCallback", stkCallback));
+    }
+
+    private boolean authorized(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        return header != null && header.startsWith("Bearer ") && issuedTokens.contains(header.substring(7));
+    }
+
+    private String nextReceipt() {
+        String suffix = Long.toString(receiptCounter.incrementAndGet(), 36).toUpperCase();
+        return "SIM" + "0".repeat(Math.max(0, 7 - suffix.length())) + suffix;
+    }
+
+    private void respond(HttpExchange exchange, int status, Map<String, ?> body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static boolean roll(double probability) {
+        return probability > 0 && ThreadLocalRandom.current().nextDouble() < probability;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = new Settings();
+        settings.setPort(18080);
+        for (String arg : args) {
+            String[] kv = arg.replaceFirst("^--", "").split("=", 2);
+            String value = kv.length > 1 ? kv[1] : "";
+            switch (kv[0]) {
+                case "port" -> settings.setPort(Integer.parseInt(value));
+                case "latency" -> {
+                    LatencyModel model = LatencyModel.parse(value);
+                    settings.setOauthLatency(model);
+                    settings.setStkPushLatency(model);
+                    settings.setStkQueryLatency(model);
+                    settings.setB2cLatency(model);
+                }
+                case "callback-delay" -> settings.setCallbackDelay(LatencyModel.parse(value));
+                case "callback-url" -> settings.setCallbackUrlOverride(value);
+                case "result-url" -> settings.setResultUrlOverride(value);
+                case "error-rate" -> settings.setStkPushErrorRate(Double.parseDouble(value));
+                case "success-rate" -> settings.setSuccessRate(Double.parseDouble(value));
+                case "duplicate-rate" -> settings.setDuplicateCallbackRate(Double.parseDouble(value));
+                case "drop-rate" -> settings.setDropCallbackRate(Double.parseDouble(value));
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+
+        DarajaSimulator simulator = start(settings);
+        Runtime.getRuntime().addShutdownHook(new Thread(simulator::close));
+        System.out.println("Daraja simulator running at " + simulator.getBaseUrl()
+                + " - point mpesa.sandbox.base-url here. Ctrl+C to stop.");
+        while (true) {
+            Thread.sleep(10_000);
+            System.out.println(simulator.getStats());
+        }
+    }
+
+    @Data
+    public static class Settings {
+        private int port = 0;
+        private LatencyModel oauthLatency = LatencyModel.none();
+        private LatencyModel stkPushLatency = LatencyModel.none();
+        private LatencyModel stkQueryLatency = LatencyModel.none();
+        private LatencyModel b2cLatency = LatencyModel.none();
+        private LatencyModel callbackDelay = LatencyModel.fixed(50);
+        private LatencyModel duplicateDelay = LatencyModel.fixed(100);
+        private double oauthErrorRate;
+        private double stkPushErrorRate;
+        private double b2cErrorRate;
+        private double successRate = 1.0;
+        private double duplicateCallbackRate;
+        private double dropCallbackRate;
+        private long tokenTtlSeconds = 3599;
+        // Where callbacks go instead of the CallBackURL in the STK request, e.g. a test's random port
+        private volatile String callbackUrlOverride;
+        // Same for the ResultURL of B2C payouts
+        private volatile String resultUrlOverride;
+    }
+
+    @Data
+    public static class Stats {
+        private final AtomicLong oauthRequests = new AtomicLong();
+        private final AtomicLong stkPushRequests = new AtomicLong();
+        private final AtomicLong stkQueryRequests = new AtomicLong();
+        private final AtomicLong b2cRequests = new AtomicLong();
+        private final AtomicLong injectedErrors = new AtomicLong();
+        private final AtomicLong callbacksDelivered = new AtomicLong();
+        private final AtomicLong duplicateCallbacksDelivered = new AtomicLong();
+        private final AtomicLong callbacksDropped = new AtomicLong();
+        private final AtomicLong callbackFailures = new AtomicLong();
+    }
+
+    private static class StkPush {
+        private String merchantRequestId;
+        private String checkoutRequestId;
+        private Object amount;
+        private Object phoneNumber;
+        private String callbackUrl;
+        private boolean succeeded;
+        private String receipt;
+        private volatile boolean completed;
+    }
+}
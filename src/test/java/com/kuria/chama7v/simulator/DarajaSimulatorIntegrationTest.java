@@ -0,0 +1,129 @@
+package com.kuria.chama7v.simulator;
+
+import com.kuria.chama7v.dto.request.MpesaStkRequest;
+import com.kuria.chama7v.dto.response.MpesaResponse;
+import com.kuria.chama7v.entity.Member;
+import com.kuria.chama7v.entity.MpesaTransaction;
+import com.kuria.chama7v.entity.enums.TransactionStatus;
+import com.kuria.chama7v.repository.MemberRepository;
+import com.kuria.chama7v.repository.MpesaTransactionRepository;
+import com.kuria.chama7v.service.MpesaService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+class DarajaSimulatorIntegrationTest {
+
+    private static final int PAYMENTS = 25;
+    private static final String CALLBACK_TOKEN = "simulator-token";
+
+    private static DarajaSimulator simulator;
+
+    @Autowired
+    private MpesaService mpesaService;
+
+    @Autowired
+    private MpesaTransactionRepository transactionRepository;
+
+    @Autowired
+    private MemberRepository memberRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @LocalServerPort
+    private int port;
+
+    @DynamicPropertySource
+    static void darajaProperties(DynamicPropertyRegistry registry) throws IOException {
+        DarajaSimulator.Settings settings = new DarajaSimulator.Settings();
+        settings.setStkPushLatency(LatencyModel.uniform(5, 30));
+        settings.setCallbackDelay(LatencyModel.uniform(20, 120));
+        settings.setDuplicateCallbackRate(1.0);
+        simulator = DarajaSimulator.start(settings);
+
+        registry.add("mpesa.environment", () -> "sandbox");
+        registry.add("mpesa.sandbox.base-url", simulator::getBaseUrl);
+        registry.add("mpesa.posting.interval-ms", () -> "200");
+        registry.add("mpesa.callback.auth.token", () -> CALLBACK_TOKEN);
+    }
+
+    @AfterAll
+    static void stopSimulator() {
+        simulator.close();
+    }
+
+    @BeforeEach
+    void routeCallbacksToThisServer() {
+        simulator.getSettings().setCallbackUrlOverride("http://127.0.0.1:" + port + "/api/mpesa/callback?token=" + CALLBACK_TOKEN);
+    }
+
+    @Test
+    void stkPushesAreSettledOnceDespiteDuplicateCallbacks() throws Exception {
+        Member member = memberRepository.findAll().get(0);
+        BigDecimal contributionsBefore = member.getTotalContributions();
+
+        List<CompletableFuture<MpesaResponse>> pushes = new ArrayList<>();
+        for (int i = 0; i < PAYMENTS; i++) {
+            MpesaStkRequest request = new MpesaStkRequest();
+            request.setPhoneNumber("254712345678");
+            request.setAmount(BigDecimal.TEN);
+            request.setAccountReference("SIM" + i);
+            request.setTransactionDesc("Simulator contribution");
+            request.setTransactionType("CONTRIBUTION");
+            request.setMemberId(member.getId());
+            pushes.add(mpesaService.initiateSTKPushAsync(request));
+        }
+        Set<String> checkoutRequestIds = pushes.stream()
+                .map(CompletableFuture::join)
+                .map(MpesaResponse::getCheckoutRequestID)
+                .collect(Collectors.toSet());
+        assertEquals(PAYMENTS, checkoutRequestIds.size());
+
+        long deadline = System.currentTimeMillis() + 20_000;
+        List<MpesaTransaction> transactions;
+        do {
+            Thread.sleep(200);
+            transactions = transactionRepository.findByCheckoutRequestIdIn(checkoutRequestIds);
+        } while (System.currentTimeMillis() < deadline
+                && !transactions.stream().allMatch(t -> t.getStatus() == TransactionStatus.SUCCESS && t.isPosted()));
+
+        assertTrue(transactions.stream().allMatch(t -> t.getStatus() == TransactionStatus.SUCCESS),
+                "every push should be settled by its callback");
+        assertTrue(transactions.stream().allMatch(MpesaTransaction::isPosted), "every payment should be posted");
+        assertEquals(PAYMENTS, transactions.stream().map(MpesaTransaction::getMpesaReceiptNumber).distinct().count());
+
+        while (System.currentTimeMillis() < deadline
+                && simulator.getStats().getDuplicateCallbacksDelivered().get() < PAYMENTS) {
+            Thread.sleep(100);
+        }
+        assertEquals(PAYMENTS, simulator.getStats().getDuplicateCallbacksDelivered().get());
+        double suppressed = meterRegistry.get("mpesa.callback.duplicates").counters().stream()
+                .mapToDouble(c -> c.count()).sum();
+        assertEquals(PAYMENTS, suppressed, 0.0);
+
+        Member after = memberRepository.findById(member.getId()).orElseThrow();
+        assertEquals(0, contributionsBefore.add(BigDecimal.TEN.multiply(BigDecimal.valueOf(PAYMENTS)))
+                .compareTo(after.getTotalContributions()));
+    }
+}
@@ -0,0 +1,53 @@
+package com.kuria.chama7v.simulator;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Response-time distributions for {@link DarajaSimulator}. Samples are in milliseconds.
+ */
+@FunctionalInterface
+public interface LatencyModel {
+
+    long sampleMillis();
+
+    static LatencyModel none() {
+        return () -> 0;
+    }
+
+    static LatencyModel fixed(long millis) {
+        return () -> millis;
+    }
+
+    static LatencyModel uniform(long minMillis, long maxMillis) {
+        return () -> ThreadLocalRandom.current().nextLong(minMillis, maxMillis + 1);
+    }
+
+    // Long-tailed, like the real sandbox: most calls near the median, a few far beyond it
+    static LatencyModel logNormal(double medianMillis, double sigma, long capMillis) {
+        return () -> {
+            double sample = medianMillis * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian());
+            return Math.min(capMillis, Math.round(sample));
+        };
+    }
+
+    // Bimodal, like Daraja under load: most calls take the fast path, a fraction stall for seconds
+    static LatencyModel bimodal(LatencyModel fast, LatencyModel slow, double slowRate) {
+        return () -> ThreadLocalRandom.current().nextDouble() < slowRate ? slow.sampleMillis() : fast.sampleMillis();
+    }
+
+    // Parses "fixed:200", "uniform:100:400", "lognormal:250:0.6:5000" or
+    // "bimodal:50:150:4000:0.05" (fast range, slow millis, slow rate) for the standalone runner
+    static LatencyModel parse(String spec) {
+        String[] parts = spec.split(":");
+        return switch (parts[0]) {
+            case "none" -> none();
+            case "fixed" -> fixed(Long.parseLong(parts[1]));
+            case "uniform" -> uniform(Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+            case "lognormal" -> logNormal(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                    Long.parseLong(parts[3]));
+            case "bimodal" -> bimodal(uniform(Long.parseLong(parts[1]), Long.parseLong(parts[2])),
+                    fixed(Long.parseLong(parts[3])), Double.parseDouble(parts[4]));
+            default -> throw new IllegalArgumentException("Unknown latency model: " + spec);
+        };
+    }
+}
@@ -0,0 +1,92 @@
+package com.kuria.chama7v.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules for 10,000 loans, the size of a full book regenerated after a rate change, worked
+ * out the way {@link LoanCalculator#buildSchedule} does (long cents) and with the installment
+ * loop in {@code BigDecimal}. Both include the per-loan {@code calculateLoan} call. Run like
+ * {@code DarajaCodecBenchmark}:
+ * <pre>
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     com.kuria.chama7v.util.AmortizationScheduleBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AmortizationScheduleBenchmark {
+
+    private static final int LOANS = 10_000;
+
+    private final LoanCalculator loanCalculator = new LoanCalculator();
+    private BigDecimal[] principals;
+    private BigDecimal[] rates;
+    private int[] months;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(20261018);
+        principals = new BigDecimal[LOANS];
+        rates = new BigDecimal[LOANS];
+        months = new int[LOANS];
+        for (int i = 0; i < LOANS; i++) {
+            principals[i] = BigDecimal.valueOf(100_000 + random.nextInt(99_900_000), 2);
+            rates[i] = BigDecimal.valueOf(1 + random.nextInt(5000), 2);
+            months[i] = 1 + random.nextInt(60);
+        }
+    }
+
+    @Benchmark
+    public void longCents(Blackhole blackhole) {
+        for (int i = 0; i < LOANS; i++) {
+            blackhole.consume(loanCalculator.buildSchedule(principals[i], rates[i], months[i]));
+        }
+    }
+
+    @Benchmark
+    public void bigDecimal(Blackhole blackhole) {
+        for (int i = 0; i < LOANS; i++) {
+            BigDecimal rate = LoanCalculator.monthlyRate(rates[i]);
+            BigDecimal payment = loanCalculator.calculateLoan(principals[i], rates[i], months[i]).getMonthlyPayment();
+            BigDecimal[] interest = new BigDecimal[months[i]];
+            BigDecimal[] principal = new BigDecimal[months[i]];
+            BigDecimal balance = principals[i];
+            for (int m = 0; m < months[i]; m++) {
+                interest[m] = balance.multiply(rate).setScale(2, RoundingMode.HALF_UP);
+                principal[m] = m == months[i] - 1 ? balance
+                        : payment.subtract(interest[m]).max(BigDecimal.ZERO).min(balance);
+                balance = balance.subtract(principal[m]);
+            }
+            blackhole.consume(interest);
+            blackhole.consume(principal);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(AmortizationScheduleBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,86 @@
+package com.kuria.chama7v.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Differential test of the long-cent schedule against the same table worked out in
+ * {@code BigDecimal}, over random loans spanning everything LoanApplicationRequest accepts
+ * (1,000.00 to 1,000,000.00, 0.01% to 50%, 1 to 60 months) plus the corners of that range.
+ */
+class AmortizationScheduleTest {
+
+    private final LoanCalculator loanCalculator = new LoanCalculator();
+
+    @Test
+    void matchesBigDecimalExactly() {
+        Random random = new Random(20261018);
+        for (int i = 0; i < 100_000; i++) {
+            long principalCents = 100_000 + (long) (random.nextDouble() * (100_000_000 - 100_000));
+            int rateBasisPoints = 1 + random.nextInt(5000);
+            int months = 1 + random.nextInt(60);
+            assertMatches(BigDecimal.valueOf(principalCents, 2), BigDecimal.valueOf(rateBasisPoints, 2), months);
+        }
+    }
+
+    @Test
+    void matchesBigDecimalAtTheLimits() {
+        for (String principal : new String[]{"1000.00", "1000.01", "999999.99", "1000000.00"}) {
+            for (String rate : new String[]{"0.01", "0.06", "12.00", "49.99", "50.00"}) {
+                for (int months : new int[]{1, 2, 12, 59, 60}) {
+                    assertMatches(new BigDecimal(principal), new BigDecimal(rate), months);
+                }
+            }
+        }
+    }
+
+    @Test
+    void repaysExactlyThePrincipal() {
+        AmortizationSchedule schedule = loanCalculator.buildSchedule(new BigDecimal("50000.00"), new BigDecimal("12.00"), 12);
+        long repaid = 0;
+        long interest = 0;
+        for (int i = 0; i < schedule.size(); i++) {
+            repaid += schedule.principalCents(i);
+            interest += schedule.interestCents(i);
+            assertEquals(444_244, schedule.amountCents(i), 2, "installment " + (i + 1));
+        }
+        assertEquals(5_000_000, repaid);
+        assertEquals(0, schedule.balanceCents(schedule.size() - 1));
+        // Twelve payments of 4442.44, a cent less where the last installment absorbs the rounding
+        assertEquals(330_927, interest);
+    }
+
+    @Test
+    void rejectsInvalidTerms() {
+        assertThrows(IllegalArgumentException.class, () -> AmortizationSchedule.compute(100, 1000, 10, 0));
+        assertThrows(IllegalArgumentException.class, () -> AmortizationSchedule.compute(-1, 1000, 10, 1));
+    }
+
+    private void assertMatches(BigDecimal principal, BigDecimal annualRate, int months) {
+        AmortizationSchedule schedule = loanCalculator.buildSchedule(principal, annualRate, months);
+        BigDecimal rate = LoanCalculator.monthlyRate(annualRate);
+        BigDecimal payment = loanCalculator.calculateLoan(principal, annualRate, months).getMonthlyPayment();
+        String loan = principal + " at " + annualRate + "% over " + months;
+
+        BigDecimal balance = principal;
+        for (int i = 0; i < months; i++) {
+            BigDecimal interest = balance.multiply(rate).setScale(2, RoundingMode.HALF_UP);
+            BigDecimal repaid = i == months - 1 ? balance
+                    : payment.subtract(interest).max(BigDecimal.ZERO).min(balance);
+            balance = balance.subtract(repaid);
+
+            assertEquals(interest, LoanCalculator.fromCents(schedule.interestCents(i)), loan);
+            assertEquals(repaid, LoanCalculator.fromCents(schedule.principalCents(i)), loan);
+            assertEquals(balance, LoanCalculator.fromCents(schedule.balanceCents(i)), loan);
+            assertTrue(schedule.interestCents(i) >= 0 && schedule.balanceCents(i) >= 0, loan);
+        }
+        assertEquals(0, balance.signum(), loan);
+    }
+}
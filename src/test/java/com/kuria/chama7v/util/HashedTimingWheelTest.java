@@ -0,0 +1,190 @@
+package com.kuria.chama7v.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Timers on an eight-bucket wheel of 10 ms ticks, driven by an explicit clock: each fires on the
+ * first tick at or after its deadline and in deadline order, timers several turns out wait out
+ * their turns in a shared bucket, cancelled timers never fire, and timers scheduled while
+ * another thread ticks, as the standing order scheduler does, each fire exactly once and never
+ * early.
+ */
+class HashedTimingWheelTest {
+
+    private static final int WHEEL_SIZE = 8;
+    private static final long TICK = 10;
+
+    private final HashedTimingWheel<String> wheel = new HashedTimingWheel<>(WHEEL_SIZE, TICK, 0);
+
+    @Test
+    void firesAtTheDeadlineRoundedUpToTheTickInDeadlineOrder() {
+        wheel.schedule("c", 35);
+        wheel.schedule("a", 12);
+        wheel.schedule("b", 20);
+        wheel.schedule("d", 20);
+
+        assertEquals(List.of(), wheel.advance(19));
+        assertEquals(List.of("a", "b", "d"), wheel.advance(20));
+        assertEquals(List.of(), wheel.advance(39));
+        assertEquals(List.of("c"), wheel.advance(40));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void returnsEveryTickPassedInOneAdvanceInOrder() {
+        wheel.schedule("late", 255);
+        wheel.schedule("middle", 95);
+        wheel.schedule("early", 5);
+
+        assertEquals(List.of("early", "middle", "late"), wheel.advance(1000));
+    }
+
+    @Test
+    void timersMoreThanOneTurnOutWaitTheirTurn() {
+        // Ticks 1, 9 and 17 all hash to bucket 1
+        wheel.schedule("third", 165);
+        wheel.schedule("second", 85);
+        wheel.schedule("first", 10);
+
+        assertEquals(List.of("first"), wheel.advance(10));
+        assertEquals(List.of(), wheel.advance(89));
+        assertEquals(List.of("second"), wheel.advance(90));
+        assertEquals(List.of(), wheel.advance(169));
+        assertEquals(List.of("third"), wheel.advance(170));
+    }
+
+    @Test
+    void timerAFullTurnOutFiresWhenItsBucketNextComesRound() {
+        wheel.advance(30);
+        wheel.schedule("turn", 30 + WHEEL_SIZE * TICK);
+
+        assertEquals(List.of(), wheel.advance(30 + WHEEL_SIZE * TICK - 1));
+        assertEquals(List.of("turn"), wheel.advance(30 + WHEEL_SIZE * TICK));
+    }
+
+    @Test
+    void passedDeadlineFiresOnTheNextTick() {
+        wheel.advance(50);
+        wheel.schedule("past", 20);
+        wheel.schedule("now", 50);
+
+        assertEquals(List.of(), wheel.advance(59));
+        assertEquals(List.of("past", "now"), wheel.advance(60));
+    }
+
+    @Test
+    void cancelledTimerNeverFires() {
+        HashedTimingWheel<String>.Timeout cancelled = wheel.schedule("cancelled", 30);
+        HashedTimingWheel<String>.Timeout distant = wheel.schedule("distant", 165);
+        wheel.schedule("kept", 30);
+
+        assertTrue(cancelled.cancel());
+        assertTrue(distant.cancel());
+        assertFalse(cancelled.cancel());
+        assertEquals(1, wheel.size());
+
+        assertEquals(List.of("kept"), wheel.advance(30));
+        assertEquals(List.of(), wheel.advance(1000));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void firedTimerCannotBeCancelled() {
+        HashedTimingWheel<String>.Timeout timeout = wheel.schedule("fired", 10);
+        wheel.advance(10);
+
+        assertFalse(timeout.cancel());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void rejectsAWheelSizeThatIsNotAPowerOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new HashedTimingWheel<String>(6, TICK, 0));
+        assertThrows(IllegalArgumentException.class, () -> new HashedTimingWheel<String>(8, 0, 0));
+    }
+
+    @Test
+    void timersScheduledWhileTickingFireOnceAndNeverEarly() throws Exception {
+        int schedulers = 4;
+        int perScheduler = 5_000;
+        AtomicLong clock = new AtomicLong();
+        Map<String, Long> deadlines = new ConcurrentHashMap<>();
+        Map<String, Long> firedAt = new ConcurrentHashMap<>();
+        List<String> firedTwice = new ArrayList<>();
+        AtomicBoolean scheduling = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(schedulers + 1);
+        try {
+            Future<?> ticker = executor.submit(() -> {
+                start.await();
+                while (scheduling.get()) {
+                    tick(clock.addAndGet(TICK / 2), firedAt, firedTwice);
+                }
+                return null;
+            });
+            List<Future<?>> scheduled = new ArrayList<>();
+            for (int s = 0; s < schedulers; s++) {
+                int scheduler = s;
+                scheduled.add(executor.submit(() -> {
+                    Random random = new Random(scheduler);
+                    start.await();
+                    for (int i = 0; i < perScheduler; i++) {
+                        String item = scheduler + "-" + i;
+                        synchronized (wheel) {
+                            // Some deadlines fall in the tick being advanced, or already passed
+                            long deadline = clock.get() + random.nextInt(400) - 20;
+                            deadlines.put(item, deadline);
+                            wheel.schedule(item, deadline);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : scheduled) {
+                future.get();
+            }
+            scheduling.set(false);
+            ticker.get();
+        } finally {
+            executor.shutdown();
+        }
+        tick(clock.get() + 1000, firedAt, firedTwice);
+
+        assertEquals(List.of(), firedTwice);
+        assertEquals(deadlines.keySet(), firedAt.keySet());
+        deadlines.forEach((item, deadline) ->
+                assertTrue(firedAt.get(item) >= deadline, item + " fired at " + firedAt.get(item) + " before " + deadline));
+        assertEquals(0, wheel.size());
+    }
+
+    private void tick(long now, Map<String, Long> firedAt, List<String> firedTwice) {
+        List<String> expired;
+        synchronized (wheel) {
+            expired = wheel.advance(now);
+        }
+        for (String item : expired) {
+            if (firedAt.putIfAbsent(item, now) != null) {
+                firedTwice.add(item);
+            }
+        }
+    }
+}
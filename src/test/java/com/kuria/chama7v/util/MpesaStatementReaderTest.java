@@ -0,0 +1,168 @@
+package com.kuria.chama7v.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Statement exports as the Safaricom portal produces them: a preamble of account details, a
+ * header row whose spelling and column order vary between exports, and quoted fields that may
+ * carry commas, quotes and line breaks.
+ */
+class MpesaStatementReaderTest {
+
+    private static final String HEADER = "Receipt No.,Completion Time,Details,Transaction Status,Paid In,Withdrawn,Other Party Info,A/C No.";
+
+    @Test
+    void skipsThePreambleAndReadsRowsByColumnName() throws IOException {
+        List<MpesaStatementReader.Row> rows = read(
+                "Account Name,CHAMA 7V",
+                "Time Period,01-03-2019 - 31-03-2019",
+                "",
+                HEADER,
+                "SC41ABC123,2019-03-04 10:15:00,Pay Bill from 254712345678,Completed,\"1,500.00\",,2547******678 - JOHN DOE,M001");
+
+        assertEquals(1, rows.size());
+        MpesaStatementReader.Row row = rows.get(0);
+        assertEquals("SC41ABC123", row.receiptNumber());
+        assertEquals(LocalDateTime.of(2019, 3, 4, 10, 15), row.completedAt());
+        assertEquals("Completed", row.status());
+        assertEquals(new BigDecimal("1500.00"), row.paidIn());
+        assertEquals(BigDecimal.ZERO, row.withdrawn());
+        assertEquals("2547******678 - JOHN DOE", row.otherParty());
+        assertEquals("M001", row.accountNumber());
+    }
+
+    @Test
+    void acceptsHeaderVariantsInAnyOrder() throws IOException {
+        // Byte order mark, upper case, no trailing dots and a different column order
+        List<MpesaStatementReader.Row> rows = read(
+                "\uFEFFPAID IN,RECEIPT NO,COMPLETION TIME,A/C NO",
+                "250.00,SC41ABC124,04/03/2019 10:15,M002");
+
+        assertEquals(1, rows.size());
+        MpesaStatementReader.Row row = rows.get(0);
+        assertEquals("SC41ABC124", row.receiptNumber());
+        assertEquals(LocalDateTime.of(2019, 3, 4, 10, 15), row.completedAt());
+        assertEquals(new BigDecimal("250.00"), row.paidIn());
+        assertEquals("M002", row.accountNumber());
+        assertEquals("", row.status());
+        assertEquals("", row.otherParty());
+    }
+
+    @Test
+    void readsEachSupportedTimeFormatAndLeavesOthersEmpty() throws IOException {
+        List<MpesaStatementReader.Row> rows = read(
+                "Receipt No,Completion Time,Paid In",
+                "R1,2019-03-04 10:15:30,1",
+                "R2,04-03-2019 10:15:30,1",
+                "R3,04/03/2019 10:15:30,1",
+                "R4,04/03/2019 10:15,1",
+                "R5,March 4th,1");
+
+        LocalDateTime expected = LocalDateTime.of(2019, 3, 4, 10, 15, 30);
+        assertEquals(expected, rows.get(0).completedAt());
+        assertEquals(expected, rows.get(1).completedAt());
+        assertEquals(expected, rows.get(2).completedAt());
+        assertEquals(expected.withSecond(0), rows.get(3).completedAt());
+        assertNull(rows.get(4).completedAt());
+    }
+
+    @Test
+    void quotedFieldsKeepCommasQuotesAndLineBreaks() throws IOException {
+        List<MpesaStatementReader.Row> rows = read(
+                HEADER,
+                "SC41ABC125,2019-03-04 10:15:00,\"Pay Bill, \"\"online\"\"\nsecond line\",Completed,100.00,,\"254712345678 - DOE, JANE\",M003",
+                "SC41ABC126,2019-03-04 10:16:00,Pay Bill,Completed,200.00,,254712345679 - JOHN,M004");
+
+        assertEquals(2, rows.size());
+        assertEquals("Pay Bill, \"online\"\nsecond line", rows.get(0).details());
+        assertEquals("254712345678 - DOE, JANE", rows.get(0).otherParty());
+        assertEquals("M003", rows.get(0).accountNumber());
+        assertEquals("SC41ABC126", rows.get(1).receiptNumber());
+        assertEquals(new BigDecimal("200.00"), rows.get(1).paidIn());
+    }
+
+    @Test
+    void skipsRowsWithoutAReceipt() throws IOException {
+        List<MpesaStatementReader.Row> rows = read(
+                HEADER,
+                ",,Opening balance,,,,,",
+                "SC41ABC127,2019-03-04 10:15:00,Pay Bill,Completed,100.00,,,M005",
+                "",
+                "Totals,,,,100.00,0.00,,");
+
+        assertEquals(2, rows.size());
+        assertEquals("SC41ABC127", rows.get(0).receiptNumber());
+        // A totals line has something in the receipt column, so it comes through for the caller to judge
+        assertEquals("Totals", rows.get(1).receiptNumber());
+    }
+
+    @Test
+    void unreadableAmountNamesItsLine() throws IOException {
+        try (MpesaStatementReader reader = reader(
+                "Account Name,CHAMA 7V",
+                HEADER,
+                "SC41ABC128,2019-03-04 10:15:00,Pay Bill,Completed,100.00,,,M006",
+                "SC41ABC129,2019-03-04 10:16:00,Pay Bill,Completed,KES 100,,,M007")) {
+            assertEquals("SC41ABC128", reader.next().receiptNumber());
+
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, reader::next);
+            assertTrue(e.getMessage().endsWith(" on line 4"), e.getMessage());
+        }
+    }
+
+    @Test
+    void lineNumbersCountTheBreaksInsideQuotedFields() throws IOException {
+        try (MpesaStatementReader reader = reader(
+                HEADER,
+                "SC41ABC130,2019-03-04 10:15:00,\"Pay\nBill\",Completed,100.00,,,M008",
+                "SC41ABC131,2019-03-04 10:16:00,Pay Bill,Completed,1OO.00,,,M009")) {
+            reader.next();
+
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, reader::next);
+            assertTrue(e.getMessage().endsWith(" on line 4"), e.getMessage());
+        }
+    }
+
+    @Test
+    void rejectsAFileWithoutAHeaderRow() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> read("Date,Amount", "2019-03-04,100.00"));
+        assertTrue(e.getMessage().startsWith("Not an M-Pesa statement"), e.getMessage());
+    }
+
+    @Test
+    void rejectsAHeaderWithoutARequiredColumn() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> read("Receipt No.,Completion Time,Withdrawn", "SC41ABC132,2019-03-04 10:15:00,100.00"));
+        assertEquals("M-Pesa statement has no 'paid in' column", e.getMessage());
+    }
+
+    private static List<MpesaStatementReader.Row> read(String... lines) throws IOException {
+        List<MpesaStatementReader.Row> rows = new ArrayList<>();
+        try (MpesaStatementReader reader = reader(lines)) {
+            MpesaStatementReader.Row row;
+            while ((row = reader.next()) != null) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private static MpesaStatementReader reader(String... lines) {
+        byte[] csv = (String.join("\r\n", lines) + "\r\n").getBytes(StandardCharsets.UTF_8);
+        return new MpesaStatementReader(new ByteArrayInputStream(csv));
+    }
+}
@@ -0,0 +1,68 @@
+package com.kuria.chama7v.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * The regex normalizer ValidationUtil used against {@link PhoneNumberNormalizer}, for the input
+ * shapes seen at registration (local, international, with separators) and on the STK path
+ * (already canonical). Run like {@code DarajaCodecBenchmark}:
+ * <pre>
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) \
+ *     com.kuria.chama7v.util.PhoneNumberNormalizerBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PhoneNumberNormalizerBenchmark {
+
+    private static final Pattern PHONE_PATTERN_254 = Pattern.compile("^254[17][0-9]{8}$");
+
+    @Param({"0712345678", "+254 712 345 678", "254712345678"})
+    public String phone;
+
+    @Benchmark
+    public String regex() {
+        String normalized = phone.replaceAll("[^\\d+]", "");
+        if (normalized.startsWith("+254")) {
+            normalized = normalized.substring(1);
+        } else if (normalized.startsWith("07") || normalized.startsWith("01")) {
+            normalized = "254" + normalized.substring(1);
+        } else if ((normalized.startsWith("7") || normalized.startsWith("1")) && normalized.length() == 9) {
+            normalized = "254" + normalized;
+        }
+        if (!PHONE_PATTERN_254.matcher(normalized).matches()) {
+            throw new IllegalArgumentException("Invalid phone number format: " + normalized);
+        }
+        return normalized;
+    }
+
+    @Benchmark
+    public String scanner() {
+        return PhoneNumberNormalizer.normalize(phone);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(PhoneNumberNormalizerBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,116 @@
+package com.kuria.chama7v.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Differential test against the two normalizers it replaced: ValidationUtil's regex version,
+ * which it must match exactly, and MpesaServiceImpl's, which accepted anything starting with
+ * 254, 0, 7 or 1 regardless of length. Wherever the new parser accepts a number, the STK
+ * version produced the same one.
+ */
+class PhoneNumberNormalizerTest {
+
+    private static final Pattern LEGACY_PHONE_PATTERN_254 = Pattern.compile("^254[17][0-9]{8}$");
+    private static final String[] PREFIXES = {"", "+", "+254", "254", "0", "07", "01", "7", "1", "2547", "+2541", "08", "+0"};
+    private static final char[] NOISE = {' ', '-', '(', ')', '.', '+', 'x', '\t', '٣'};
+
+    @Test
+    void canonicalizesEveryAcceptedFormat() {
+        assertEquals("254712345678", PhoneNumberNormalizer.normalize("0712345678"));
+        assertEquals("254112345678", PhoneNumberNormalizer.normalize("0112345678"));
+        assertEquals("254712345678", PhoneNumberNormalizer.normalize("712345678"));
+        assertEquals("254712345678", PhoneNumberNormalizer.normalize("+254712345678"));
+        assertEquals("254712345678", PhoneNumberNormalizer.normalize("+254 712 345 678"));
+        assertEquals("254712345678", PhoneNumberNormalizer.normalize("(0712) 345-678"));
+    }
+
+    @Test
+    void returnsCanonicalInputUnchanged() {
+        String phone = "254712345678";
+        assertSame(phone, PhoneNumberNormalizer.normalize(phone));
+    }
+
+    @Test
+    void rejectsNumbersThatAreNotKenyanMobiles() {
+        for (String phone : List.of("", "0812345678", "07123456789", "25471234567", "+0712345678",
+                "0712+345678", "++254712345678", "2540712345678", "12345")) {
+            assertThrows(IllegalArgumentException.class, () -> PhoneNumberNormalizer.normalize(phone), phone);
+            assertFalse(PhoneNumberNormalizer.isValid(phone), phone);
+        }
+        assertThrows(IllegalArgumentException.class, () -> PhoneNumberNormalizer.normalize(null));
+        assertFalse(PhoneNumberNormalizer.isValid(null));
+    }
+
+    @Test
+    void matchesTheLegacyNormalizers() {
+        List<String> corpus = corpus(new Random(20261018), 200_000);
+        int accepted = 0;
+        for (String phone : corpus) {
+            String expected = legacyValidationUtilFormat(phone);
+            String actual = PhoneNumberNormalizer.isValid(phone) ? PhoneNumberNormalizer.normalize(phone) : null;
+            assertEquals(expected, actual, () -> "ValidationUtil disagrees on '" + phone + "'");
+
+            if (actual != null) {
+                accepted++;
+                assertEquals(legacyMpesaFormat(phone), actual, () -> "STK formatter disagrees on '" + phone + "'");
+            }
+        }
+        assertTrue(accepted > corpus.size() / 20, "corpus should exercise the accepting paths");
+    }
+
+    private static List<String> corpus(Random random, int size) {
+        List<String> corpus = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            StringBuilder phone = new StringBuilder(PREFIXES[random.nextInt(PREFIXES.length)]);
+            int digits = 7 + random.nextInt(4);
+            for (int d = 0; d < digits; d++) {
+                phone.append((char) ('0' + random.nextInt(10)));
+            }
+            int noise = random.nextInt(4) == 0 ? 1 + random.nextInt(3) : 0;
+            for (int n = 0; n < noise; n++) {
+                phone.insert(random.nextInt(phone.length() + 1), NOISE[random.nextInt(NOISE.length)]);
+            }
+            corpus.add(phone.toString());
+        }
+        return corpus;
+    }
+
+    // ValidationUtil.formatPhoneNumber before the parser replaced it; null means it threw
+    private static String legacyValidationUtilFormat(String phone) {
+        phone = phone.replaceAll("[^\\d+]", "");
+        if (phone.startsWith("+254")) {
+            phone = phone.substring(1);
+        } else if (phone.startsWith("07") || phone.startsWith("01")) {
+            phone = "254" + phone.substring(1);
+        } else if (phone.startsWith("7") && phone.length() == 9) {
+            phone = "254" + phone;
+        } else if (phone.startsWith("1") && phone.length() == 9) {
+            phone = "254" + phone;
+        }
+        return LEGACY_PHONE_PATTERN_254.matcher(phone).matches() ? phone : null;
+    }
+
+    // MpesaServiceImpl.formatPhoneNumber before the parser replaced it; null means it threw
+    private static String legacyMpesaFormat(String phone) {
+        phone = phone.replaceAll("\\D", "");
+        if (phone.startsWith("254")) {
+            return phone;
+        } else if (phone.startsWith("0")) {
+            return "254" + phone.substring(1);
+        } else if (phone.startsWith("7") || phone.startsWith("1")) {
+            return "254" + phone;
+        }
+        return null;
+    }
+}